@@ -41,8 +41,10 @@ import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -99,9 +101,10 @@ import rs117.hd.config.ShadowMode;
 import rs117.hd.config.UIScalingMode;
 import rs117.hd.data.WaterType;
 import rs117.hd.data.materials.Material;
+import rs117.hd.model.DynamicModelArena;
 import rs117.hd.model.ModelHasher;
 import rs117.hd.model.ModelPusher;
-import rs117.hd.model.TempModelInfo;
+import rs117.hd.model.TempModelBatchTable;
 import rs117.hd.opengl.compute.ComputeMode;
 import rs117.hd.opengl.compute.OpenCLManager;
 import rs117.hd.opengl.shader.Shader;
@@ -113,6 +116,8 @@ import rs117.hd.scene.ModelOverrideManager;
 import rs117.hd.scene.ProceduralGenerator;
 import rs117.hd.scene.SceneContext;
 import rs117.hd.scene.SceneUploader;
+import rs117.hd.scene.TerrainCache;
+import rs117.hd.scene.TerrainSnapshot;
 import rs117.hd.scene.TextureManager;
 import rs117.hd.scene.lights.SceneLight;
 import rs117.hd.scene.model_overrides.ModelOverride;
@@ -132,8 +137,12 @@ import static org.lwjgl.opengl.GL43C.*;
 import static rs117.hd.HdPluginConfig.CONFIG_GROUP;
 import static rs117.hd.HdPluginConfig.KEY_LEGACY_GREY_COLORS;
 import static rs117.hd.HdPluginConfig.KEY_MODEL_BATCHING;
+import static rs117.hd.HdPluginConfig.KEY_ADAPTIVE_MODEL_CACHE_SIZE;
+import static rs117.hd.HdPluginConfig.KEY_MODEL_CACHE_EVICTION_POLICY;
 import static rs117.hd.HdPluginConfig.KEY_MODEL_CACHE_SIZE;
 import static rs117.hd.HdPluginConfig.KEY_MODEL_CACHING;
+import static rs117.hd.HdPluginConfig.KEY_PARALLEL_MODEL_PUSHING;
+import static rs117.hd.HdPluginConfig.KEY_PERSISTENT_MODEL_CACHE;
 import static rs117.hd.HdPluginConfig.KEY_SHADOW_MODE;
 import static rs117.hd.HdPluginConfig.KEY_SHADOW_TRANSPARENCY;
 import static rs117.hd.HdPluginConfig.KEY_VANILLA_COLOR_BANDING;
@@ -166,6 +175,8 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 	public static final int VERTEX_SIZE = 4; // 4 ints per vertex
 	public static final int UV_SIZE = 4; // 4 floats per vertex
 	public static final int NORMAL_SIZE = 4; // 4 floats per vertex
+	// Vertices reserved after the scene's geometry for temporary models kept resident across frames
+	public static final int DYNAMIC_MODEL_ARENA_SIZE = 1 << 18;
 
 	private static final int[] eightIntWrite = new int[8];
 
@@ -208,6 +219,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 	@Inject
 	private SceneUploader sceneUploader;
 
+	@Inject
+	private TerrainCache terrainCache;
+
 	@Inject
 	private ModelPusher modelPusher;
 
@@ -313,6 +327,11 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 	private SceneContext sceneContext;
 	private SceneContext nextSceneContext;
 
+	// Generates the terrain data of scenes reloaded by the plugin in the background, while the current scene keeps being drawn
+	private ExecutorService sceneLoader;
+	// Incremented whenever a scene starts loading, which cancels the background generation of scenes started earlier
+	private final AtomicInteger sceneLoadGeneration = new AtomicInteger();
+
 	@Nullable
 	public SceneContext getSceneContext()
 	{
@@ -417,12 +436,23 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 	public boolean configReduceOverExposure = false;
 	public boolean configEnableModelBatching = false;
 	public boolean configEnableModelCaching = false;
+	public boolean configParallelModelPushing = false;
 	public int configMaxDynamicLights;
 	public boolean configShadowsEnabled = false;
 	public boolean configExpandShadowDraw = false;
 	public ShadowMode configShadowMode = ShadowMode.OFF;
 
-	public int[] camTarget = new int[3];
+	public final int[] camTarget = new int[3];
+	// The camera target in world space, which is only recomputed when the camera target or scene changes
+	private WorldPoint camTargetWorldPosition;
+	private SceneContext camTargetSceneContext;
+	private int camTargetLocalX;
+	private int camTargetLocalY;
+	private int camTargetPlane;
+
+	// Reused every frame to avoid allocating
+	private final float[] sceneFogColor = new float[3];
+	private final float[] waterColorHsb = new float[3];
 
 	private boolean running;
 	private boolean hasLoggedIn;
@@ -431,7 +461,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 	@Setter
 	private boolean isInGauntlet = false;
 
-	private final Map<Integer, TempModelInfo> frameModelInfoMap = new HashMap<>();
+	private final TempModelBatchTable frameModelBatchTable = new TempModelBatchTable();
+	private final DynamicModelArena dynamicModelArena = new DynamicModelArena(DYNAMIC_MODEL_ARENA_SIZE);
+	private final DynamicModelArena.Backend dynamicModelArenaBackend = this::copyToDynamicModelArena;
 
 	@Subscribe
 	public void onChatMessage(final ChatMessage event) {
@@ -470,6 +502,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 		configReduceOverExposure = config.enableLegacyGreyColors();
 		configEnableModelBatching = config.enableModelBatching();
 		configEnableModelCaching = config.enableModelCaching();
+		configParallelModelPushing = config.parallelModelPushing();
 		configMaxDynamicLights = config.maxDynamicLights().getValue();
 
 		clientThread.invoke(() ->
@@ -603,8 +636,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 				lastStretchedCanvasWidth = lastStretchedCanvasHeight = 0;
 				lastAntiAliasingMode = null;
 
-				modelPusher.startUp();
+				// Load model overrides first, since persisted model cache entries are only valid for the same overrides
 				modelOverrideManager.startUp();
+				modelPusher.startUp();
 				lightManager.startUp();
 				environmentManager.startUp();
 
@@ -635,6 +669,11 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 	{
 		running = false;
 
+		sceneLoadGeneration.incrementAndGet();
+		if (sceneLoader != null)
+			sceneLoader.shutdown();
+		sceneLoader = null;
+
 		FileWatcher.destroy();
 		developerTools.deactivate();
 
@@ -646,6 +685,8 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 			client.setDrawCallbacks(null);
 			client.setUnlockedFps(false);
 			modelPusher.shutDown();
+			sceneUploader.shutDown();
+			terrainCache.shutDown();
 
 			if (lwjglInitted)
 			{
@@ -1377,11 +1418,23 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 		// Update the camera target only when not loading, to keep drawing correct shadows while loading
 		if (client.getGameState() != GameState.LOADING)
 		{
-			camTarget = getCameraFocalPoint();
+			getCameraFocalPoint(camTarget);
 		}
 
-		WorldPoint targetWorldPosition = sceneContext.localToWorld(new LocalPoint(camTarget[0], camTarget[1]), client.getPlane());
-		environmentManager.update(sceneContext, targetWorldPosition);
+		int clientPlane = client.getPlane();
+		if (camTargetWorldPosition == null ||
+			camTargetSceneContext != sceneContext ||
+			camTargetLocalX != camTarget[0] ||
+			camTargetLocalY != camTarget[1] ||
+			camTargetPlane != clientPlane)
+		{
+			camTargetWorldPosition = sceneContext.localToWorld(new LocalPoint(camTarget[0], camTarget[1]), clientPlane);
+			camTargetSceneContext = sceneContext;
+			camTargetLocalX = camTarget[0];
+			camTargetLocalY = camTarget[1];
+			camTargetPlane = clientPlane;
+		}
+		environmentManager.update(sceneContext, camTargetWorldPosition, camTargetLocalX, camTargetLocalY, camTargetPlane);
 		lightManager.update(sceneContext);
 
 		// Only reset the target buffer offset right before drawing the scene. That way if there are frames
@@ -1451,6 +1504,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 		if (!running)
 			return;
 
+		// Finish pushing the temporary models queued while drawing
+		modelPusher.pushQueuedModels();
+
 		// Geometry buffers
 		sceneContext.stagingBufferVertices.flip();
 		sceneContext.stagingBufferUvs.flip();
@@ -1468,6 +1524,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 		sceneContext.stagingBufferUvs.clear();
 		sceneContext.stagingBufferNormals.clear();
 
+		// Keep this frame's new temporary models resident for the following frames
+		dynamicModelArena.flush(dynamicModelArenaBackend);
+
 		// Model buffers
 		modelBufferUnordered.flip();
 		modelBufferSmall.flip();
@@ -1918,7 +1977,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 			lastAntiAliasingMode = antiAliasingMode;
 
 			// Clear scene
-			float[] fogColor = hasLoggedIn ? environmentManager.getFogColor() : EnvironmentManager.BLACK_COLOR;
+			float[] fogColor = hasLoggedIn ? environmentManager.getFogColor(sceneFogColor) : EnvironmentManager.BLACK_COLOR;
 			for (int i = 0; i < fogColor.length; i++)
 			{
 				fogColor[i] = HDUtils.linearToSrgb(fogColor[i]);
@@ -1947,28 +2006,13 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 			glUniform1f(uniColorBlindnessIntensity, config.colorBlindnessIntensity() / 100.f);
 
 			float[] waterColor = environmentManager.currentWaterColor;
-			float[] waterColorHSB = Color.RGBtoHSB((int) (waterColor[0] * 255f), (int) (waterColor[1] * 255f), (int) (waterColor[2] * 255f), null);
+			float[] waterColorHSB = Color.RGBtoHSB((int) (waterColor[0] * 255f), (int) (waterColor[1] * 255f), (int) (waterColor[2] * 255f), waterColorHsb);
 			float lightBrightnessMultiplier = 0.8f;
 			float midBrightnessMultiplier = 0.45f;
 			float darkBrightnessMultiplier = 0.05f;
-			float[] waterColorLight = new Color(Color.HSBtoRGB(waterColorHSB[0], waterColorHSB[1], waterColorHSB[2] * lightBrightnessMultiplier)).getRGBColorComponents(null);
-			float[] waterColorMid = new Color(Color.HSBtoRGB(waterColorHSB[0], waterColorHSB[1], waterColorHSB[2] * midBrightnessMultiplier)).getRGBColorComponents(null);
-			float[] waterColorDark = new Color(Color.HSBtoRGB(waterColorHSB[0], waterColorHSB[1], waterColorHSB[2] * darkBrightnessMultiplier)).getRGBColorComponents(null);
-			for (int i = 0; i < waterColorLight.length; i++)
-			{
-				waterColorLight[i] = HDUtils.linearToSrgb(waterColorLight[i]);
-			}
-			for (int i = 0; i < waterColorMid.length; i++)
-			{
-				waterColorMid[i] = HDUtils.linearToSrgb(waterColorMid[i]);
-			}
-			for (int i = 0; i < waterColorDark.length; i++)
-			{
-				waterColorDark[i] = HDUtils.linearToSrgb(waterColorDark[i]);
-			}
-			glUniform3f(uniWaterColorLight, waterColorLight[0], waterColorLight[1], waterColorLight[2]);
-			glUniform3f(uniWaterColorMid, waterColorMid[0], waterColorMid[1], waterColorMid[2]);
-			glUniform3f(uniWaterColorDark, waterColorDark[0], waterColorDark[1], waterColorDark[2]);
+			setWaterColorUniform(uniWaterColorLight, waterColorHSB, lightBrightnessMultiplier);
+			setWaterColorUniform(uniWaterColorMid, waterColorHSB, midBrightnessMultiplier);
+			setWaterColorUniform(uniWaterColorDark, waterColorHSB, darkBrightnessMultiplier);
 
 			// get ambient light strength from either the config or the current area
 			float ambientStrength = environmentManager.currentAmbientStrength;
@@ -2103,7 +2147,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 				glBindFramebuffer(GL_READ_FRAMEBUFFER, awtContext.getFramebuffer(false));
 			}
 
-			frameModelInfoMap.clear();
+			frameModelBatchTable.nextFrame();
+			dynamicModelArena.nextFrame();
+			modelHasher.nextFrame();
 		}
 
 		// Texture on UI
@@ -2238,16 +2284,71 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 		}
 	}
 
+	/**
+	 * Reloads the current scene. If a scene is already being drawn, the new scene's terrain data is generated in the
+	 * background from a snapshot of the scene's terrain, while the current scene keeps being drawn. The rest of the
+	 * scene is then uploaded and swapped in on the client thread, unless another scene starts loading in the meantime.
+	 */
 	public void uploadScene()
 	{
 		assert client.isClientThread() : "Loading a scene is unsafe while the client can simultaneously initiate a scene load";
 		Scene scene = client.getScene();
-		loadScene(scene);
-		swapScene(scene);
+		if (sceneContext == null || sceneContext.scene != scene)
+		{
+			// There's no scene to keep drawing in the meantime
+			loadScene(scene);
+			swapScene(scene);
+			return;
+		}
+
+		final int generation = sceneLoadGeneration.incrementAndGet();
+		final BooleanSupplier cancelled = () -> generation != sceneLoadGeneration.get();
+		// Allocate the context on the client thread, since it's sized after the current scene, which may be destroyed
+		final SceneContext context = new SceneContext(scene, sceneContext);
+		context.terrainSnapshot = new TerrainSnapshot(scene);
+
+		if (sceneLoader == null)
+			sceneLoader = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "117HD scene loader");
+				thread.setDaemon(true);
+				return thread;
+			});
+		sceneLoader.execute(() -> {
+			try
+			{
+				// Reloads follow changes to settings which the terrain data may depend on, so it's generated from scratch
+				proceduralGenerator.generateSceneData(context, null);
+			}
+			catch (Throwable ex)
+			{
+				// Shutting down while generating a scene may fail in various ways
+				if (!cancelled.getAsBoolean())
+					log.error("Error while generating the scene", ex);
+				clientThread.invoke(context::destroy);
+				return;
+			}
+
+			clientThread.invoke(() -> {
+				// Another scene may have started loading after the generation had finished
+				if (cancelled.getAsBoolean() || !running || client.getScene() != context.scene)
+				{
+					context.destroy();
+					return;
+				}
+				prepareScene(context);
+				swapSceneContext(context);
+			});
+		});
 	}
 
+	/**
+	 * Prepares the scene for the client's map loader, which calls {@link #swapScene} on the client thread afterwards.
+	 */
 	public void loadScene(Scene scene)
 	{
+		// Cancel the generation of any scene reloaded in the background
+		sceneLoadGeneration.incrementAndGet();
+
 		if (nextSceneContext != null)
 		{
 			SceneContext handle = nextSceneContext;
@@ -2256,10 +2357,24 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 		}
 
 		nextSceneContext = new SceneContext(scene, sceneContext);
-		proceduralGenerator.generateSceneData(nextSceneContext);
-		environmentManager.loadSceneEnvironments(nextSceneContext);
-		lightManager.loadSceneLights(nextSceneContext);
-		sceneUploader.upload(nextSceneContext);
+		nextSceneContext.terrainSnapshot = new TerrainSnapshot(scene);
+		proceduralGenerator.generateSceneData(nextSceneContext, sceneContext);
+		prepareScene(nextSceneContext);
+	}
+
+	/**
+	 * Loads the environments and lights of a scene whose terrain data has been generated, and uploads its tiles and
+	 * models to the context's staging buffers. This has to run on the client thread, since the uploader reads the
+	 * scene's tiles, objects and models, which the client keeps changing every tick, and loading lights updates the
+	 * light manager's tracked projectiles and world lights, which the current scene's lights are drawn from.
+	 */
+	private void prepareScene(SceneContext context)
+	{
+		environmentManager.loadSceneEnvironments(context);
+		sceneUploader.upload(context);
+		// The terrain's vertex keys have been looked up, so the copy of the terrain is no longer needed
+		context.terrainSnapshot = null;
+		lightManager.loadSceneLights(context);
 	}
 
 	public void swapScene(Scene scene)
@@ -2271,21 +2386,33 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 			return;
 		}
 
+		SceneContext context = nextSceneContext;
+		nextSceneContext = null;
+		swapSceneContext(context);
+	}
+
+	private void swapSceneContext(SceneContext context)
+	{
 		if (sceneContext != null)
 		{
 			// Copy over NPC and projectile lights
 			for (SceneLight light : sceneContext.lights)
 				if (light.npc != null || light.projectile != null)
-					nextSceneContext.lights.add(light);
+					context.lights.add(light);
 
+			// Models queued for the old scene would otherwise be written to its destroyed staging buffers
+			modelPusher.discardQueuedModels();
 			sceneContext.destroy();
 		}
 
-		sceneContext = nextSceneContext;
-		nextSceneContext = null;
+		sceneContext = context;
+		// Point the scene's tiles and models at the new scene's data, now that the old scene is no longer drawn
+		sceneContext.bufferOffsets.apply(sceneContext.id);
 
-		dynamicOffsetVertices = sceneContext.getVertexOffset();
-		dynamicOffsetUvs = sceneContext.getUvOffset();
+		// The dynamic model arena sits between the scene's geometry and the geometry pushed each frame
+		dynamicModelArena.reset(sceneContext.getVertexOffset(), sceneContext.getUvOffset());
+		dynamicOffsetVertices = sceneContext.getVertexOffset() + dynamicModelArena.getCapacity();
+		dynamicOffsetUvs = sceneContext.getUvOffset() + dynamicModelArena.getCapacity();
 
 		sceneContext.stagingBufferVertices.flip();
 		sceneContext.stagingBufferUvs.flip();
@@ -2339,6 +2466,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 				clientThread.invoke(() ->
 				{
 					modelPusher.clearModelCache();
+					dynamicModelArena.clear();
 					recompilePrograms();
 					shutdownShadowMapFbo();
 					initShadowMapFbo();
@@ -2407,6 +2535,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 				break;
 			case KEY_MODEL_CACHING:
 			case KEY_MODEL_CACHE_SIZE:
+			case KEY_ADAPTIVE_MODEL_CACHE_SIZE:
+			case KEY_MODEL_CACHE_EVICTION_POLICY:
+			case KEY_PERSISTENT_MODEL_CACHE:
 				configEnableModelCaching = config.enableModelCaching();
 				clientThread.invoke(() -> {
 					modelPusher.shutDown();
@@ -2416,6 +2547,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 			case KEY_MODEL_BATCHING:
 				configEnableModelBatching = config.enableModelBatching();
 				break;
+			case KEY_PARALLEL_MODEL_PUSHING:
+				configParallelModelPushing = config.parallelModelPushing();
+				break;
 		}
 	}
 
@@ -2583,51 +2717,71 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 			eightIntWrite[6] = y + client.getCameraY2();
 			eightIntWrite[7] = z + client.getCameraZ2();
 
-			TempModelInfo tempModelInfo = null;
-			int batchHash = 0;
+			int batchSlot = -1;
+			long batchHash = 0;
 
 			if (configEnableModelBatching || configEnableModelCaching) {
 				modelHasher.setModel(model);
 				if (configEnableModelBatching) {
 					batchHash = modelHasher.calculateBatchHash();
-					tempModelInfo = frameModelInfoMap.get(batchHash);
+					batchSlot = frameModelBatchTable.find(batchHash);
 				}
 			}
 
-			if (tempModelInfo != null && tempModelInfo.getFaceCount() == model.getFaceCount()) {
-				eightIntWrite[0] = tempModelInfo.getTempOffset();
-				eightIntWrite[1] = tempModelInfo.getTempUvOffset();
-				eightIntWrite[2] = tempModelInfo.getFaceCount();
+			if (batchSlot != -1 && frameModelBatchTable.getFaceCount(batchSlot) == model.getFaceCount()) {
+				final int faceCount = frameModelBatchTable.getFaceCount(batchSlot);
+				eightIntWrite[0] = frameModelBatchTable.getTempOffset(batchSlot);
+				eightIntWrite[1] = frameModelBatchTable.getTempUvOffset(batchSlot);
+				eightIntWrite[2] = faceCount;
 
-				bufferForTriangles(tempModelInfo.getFaceCount()).ensureCapacity(8).put(eightIntWrite);
+				bufferForTriangles(faceCount).ensureCapacity(8).put(eightIntWrite);
 
-				renderBufferOffset += tempModelInfo.getFaceCount() * 3;
+				renderBufferOffset += faceCount * 3;
 			} else {
-				int vertexOffset = dynamicOffsetVertices + sceneContext.getVertexOffset();
-				int uvOffset = dynamicOffsetUvs + sceneContext.getUvOffset();
-
 				ModelOverride modelOverride = modelOverrideManager.getOverride(hash);
-				modelPusher.pushModel(sceneContext, null, hash, model,modelOverride, ObjectType.NONE, 0, true);
-				final int faceCount = sceneContext.modelPusherResults[0] / 3;
-				if (sceneContext.modelPusherResults[1] <= 0)
-					uvOffset = -1;
+
+				// Reuse the data of models pushed in previous frames which are still resident on the GPU
+				int residentEntry = -1;
+				long residencyHash = 0;
+				if (configEnableModelBatching) {
+					residencyHash = modelHasher.calculateResidencyHash(0, modelOverride);
+					residentEntry = dynamicModelArena.find(residencyHash);
+				}
+
+				int vertexOffset;
+				int uvOffset;
+				final int faceCount;
+				if (residentEntry != -1) {
+					vertexOffset = dynamicModelArena.getVertexOffset(residentEntry);
+					uvOffset = dynamicModelArena.getUvOffset(residentEntry);
+					faceCount = dynamicModelArena.getVertexCount(residentEntry) / 3;
+				} else {
+					vertexOffset = dynamicOffsetVertices + sceneContext.getVertexOffset();
+					uvOffset = dynamicOffsetUvs + sceneContext.getUvOffset();
+
+					if (configParallelModelPushing) {
+						modelPusher.queueModel(sceneContext, hash, model, modelOverride, ObjectType.NONE, 0, true);
+					} else {
+						modelPusher.pushModel(sceneContext, null, hash, model, modelOverride, ObjectType.NONE, 0, true);
+					}
+					faceCount = sceneContext.modelPusherResults[0] / 3;
+					if (sceneContext.modelPusherResults[1] <= 0)
+						uvOffset = -1;
+
+					if (configEnableModelBatching)
+						dynamicModelArena.add(residencyHash, vertexOffset, uvOffset, faceCount * 3);
+				}
 
 				eightIntWrite[0] = vertexOffset;
 				eightIntWrite[1] = uvOffset;
 				eightIntWrite[2] = faceCount;
 				bufferForTriangles(faceCount).ensureCapacity(8).put(eightIntWrite);
 
-				renderBufferOffset += sceneContext.modelPusherResults[0];
+				renderBufferOffset += faceCount * 3;
 
-				// add this temporary model to the map for batching purposes
-				if (configEnableModelBatching) {
-					tempModelInfo = new TempModelInfo();
-					tempModelInfo
-						.setTempOffset(vertexOffset)
-						.setTempUvOffset(uvOffset)
-						.setFaceCount(faceCount);
-					frameModelInfoMap.put(batchHash, tempModelInfo);
-				}
+				// add this temporary model to the table for batching purposes
+				if (configEnableModelBatching)
+					frameModelBatchTable.put(batchHash, vertexOffset, uvOffset, faceCount);
 			}
 		}
 	}
@@ -2680,6 +2834,15 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 		}
 	}
 
+	private void setWaterColorUniform(int uniform, float[] hsb, float brightnessMultiplier)
+	{
+		int rgb = Color.HSBtoRGB(hsb[0], hsb[1], hsb[2] * brightnessMultiplier);
+		glUniform3f(uniform,
+			HDUtils.linearToSrgb((rgb >> 16 & 0xFF) / 255f),
+			HDUtils.linearToSrgb((rgb >> 8 & 0xFF) / 255f),
+			HDUtils.linearToSrgb((rgb & 0xFF) / 255f));
+	}
+
 	private int getDrawDistance()
 	{
 		return HDUtils.clamp(config.drawDistance(), 0, MAX_DISTANCE);
@@ -2688,9 +2851,10 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 	/**
 	 * Calculates the approximate position of the point on which the camera is focused.
 	 *
+	 * @param out array to write the coordinates into
 	 * @return The camera target's x, y, z coordinates
 	 */
-	public int[] getCameraFocalPoint()
+	public int[] getCameraFocalPoint(int[] out)
 	{
 		int camX = client.getOculusOrbFocalPointX();
 		int camY = client.getOculusOrbFocalPointY();
@@ -2704,7 +2868,29 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 		final int camHeightDiff = 2200;
 		int camZ = (int)(client.getCameraZ() + (camHeight * camHeightDiff));
 
-		return new int[]{camX, camY, camZ};
+		out[0] = camX;
+		out[1] = camY;
+		out[2] = camZ;
+		return out;
+	}
+
+	private void copyToDynamicModelArena(int srcVertexOffset, int srcUvOffset, int dstVertexOffset, int dstUvOffset, int vertexCount)
+	{
+		copyBufferRange(hStagingBufferVertices, srcVertexOffset * VERTEX_SIZE, dstVertexOffset * VERTEX_SIZE, vertexCount * VERTEX_SIZE);
+		copyBufferRange(hStagingBufferNormals, srcVertexOffset * NORMAL_SIZE, dstVertexOffset * NORMAL_SIZE, vertexCount * NORMAL_SIZE);
+		if (srcUvOffset != -1)
+			copyBufferRange(hStagingBufferUvs, srcUvOffset * UV_SIZE, dstUvOffset * UV_SIZE, vertexCount * UV_SIZE);
+	}
+
+	/**
+	 * Copies a range of scalars to another, non-overlapping range within the same buffer.
+	 */
+	private static void copyBufferRange(@Nonnull GLBuffer glBuffer, int srcOffset, int dstOffset, int size)
+	{
+		glBindBuffer(GL_COPY_READ_BUFFER, glBuffer.glBufferId);
+		glBindBuffer(GL_COPY_WRITE_BUFFER, glBuffer.glBufferId);
+		glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER,
+			(long) srcOffset * SCALAR_BYTES, (long) dstOffset * SCALAR_BYTES, (long) size * SCALAR_BYTES);
 	}
 
 	private void updateBuffer(@Nonnull GLBuffer glBuffer, int target, @Nonnull ByteBuffer data, int usage, long clFlags)
@@ -2743,8 +2929,12 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 				glBindBuffer(target, glBuffer.glBufferId);
 				glBufferData(target, size, usage);
 
-				glBindBuffer(GL_COPY_READ_BUFFER, oldBuffer);
-				glCopyBufferSubData(GL_COPY_READ_BUFFER, target, 0, 0, offset * 4L);
+				// The old buffer may end before the offset, if the space in between hasn't been written to yet
+				if (glBuffer.size > 0)
+				{
+					glBindBuffer(GL_COPY_READ_BUFFER, oldBuffer);
+					glCopyBufferSubData(GL_COPY_READ_BUFFER, target, 0, 0, Math.min(offset * 4L, glBuffer.size));
+				}
 				glDeleteBuffers(oldBuffer);
 			}
 			else
@@ -2783,8 +2973,12 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 				glBindBuffer(target, glBuffer.glBufferId);
 				glBufferData(target, size, usage);
 
-				glBindBuffer(GL_COPY_READ_BUFFER, oldBuffer);
-				glCopyBufferSubData(GL_COPY_READ_BUFFER, target, 0, 0, offset * 4L);
+				// The old buffer may end before the offset, if the space in between hasn't been written to yet
+				if (glBuffer.size > 0)
+				{
+					glBindBuffer(GL_COPY_READ_BUFFER, oldBuffer);
+					glCopyBufferSubData(GL_COPY_READ_BUFFER, target, 0, 0, Math.min(offset * 4L, glBuffer.size));
+				}
 				glDeleteBuffers(oldBuffer);
 			}
 			else
@@ -2848,6 +3042,8 @@ public class HdPlugin extends Plugin implements DrawCallbacks
 			uploadScene();
 		}
 
+		modelPusher.logModelCacheStatsPeriodically();
+
 		if (!hasLoggedIn && client.getGameState() == GameState.LOGGED_IN)
 		{
 			hasLoggedIn = true;
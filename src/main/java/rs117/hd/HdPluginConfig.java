@@ -570,6 +570,22 @@ public interface HdPluginConfig extends Config
 		return true;
 	}
 
+	String KEY_PERSISTENT_TERRAIN_CACHE = "persistentTerrainCache";
+	@ConfigItem(
+		keyName = KEY_PERSISTENT_TERRAIN_CACHE,
+		name = "Persistent Terrain Cache",
+		description =
+			"Stores the generated terrain of recently visited areas in the RuneLite directory, so loading them again is faster.<br>" +
+			"Takes up at most 256 MiB of disk space. Cached terrain isn't used if the plugin is updated, or if any<br>" +
+			"settings which affect it are changed.",
+		position = 12,
+		section = environmentSettings
+	)
+	default boolean persistentTerrainCache()
+	{
+		return false;
+	}
+
 
 	/*====== Model caching settings ======*/
 
@@ -629,6 +645,85 @@ public interface HdPluginConfig extends Config
 		return 2048;
 	}
 
+	String KEY_ADAPTIVE_MODEL_CACHE_SIZE = "adaptiveModelCacheSize";
+	@ConfigItem(
+		keyName = KEY_ADAPTIVE_MODEL_CACHE_SIZE,
+		name = "Adaptive Cache Size",
+		description =
+			"Starts the model cache at a fraction of the cache size, and only grows it up to the full size while models<br>" +
+			"keep being removed from the cache shortly before they're needed again. The cache shrinks again once the<br>" +
+			"extra memory goes unused, or when your system is running low on memory.<br>" +
+			"Has no effect on the persistent cache.",
+		position = 4,
+		section = modelCachingSettings
+	)
+	default boolean adaptiveModelCacheSize()
+	{
+		return false;
+	}
+
+	String KEY_MODEL_CACHE_EVICTION_POLICY = "modelCacheEvictionPolicy";
+	@ConfigItem(
+		keyName = KEY_MODEL_CACHE_EVICTION_POLICY,
+		name = "Cache Eviction Policy",
+		description =
+			"Decides which models are removed from the cache once it fills up.<br>" +
+			"'Second chance' keeps models which are drawn frequently, such as your own player, in the cache for longer.",
+		position = 5,
+		section = modelCachingSettings
+	)
+	default ModelCacheEvictionPolicy modelCacheEvictionPolicy()
+	{
+		return ModelCacheEvictionPolicy.SECOND_CHANCE;
+	}
+
+	String KEY_PERSISTENT_MODEL_CACHE = "persistentModelCache";
+	@ConfigItem(
+		keyName = KEY_PERSISTENT_MODEL_CACHE,
+		name = "Persistent Cache",
+		description =
+			"Stores the model cache in a file in the RuneLite directory, so it can be reused after restarting the client.<br>" +
+			"The file takes up as much disk space as the cache size. Cached models are discarded if the plugin is<br>" +
+			"updated, or if any settings which affect them are changed.",
+		position = 6,
+		section = modelCachingSettings
+	)
+	default boolean persistentModelCache()
+	{
+		return false;
+	}
+
+	String KEY_PARALLEL_MODEL_PUSHING = "parallelModelPushing";
+	@ConfigItem(
+		keyName = KEY_PARALLEL_MODEL_PUSHING,
+		name = "Parallel Model Pushing",
+		description =
+			"Prepares animated models for the GPU on multiple CPU cores, which can improve performance in busy areas.<br>" +
+			"Uses a bit more memory, since models have to be copied before the client reuses them.",
+		position = 7,
+		section = modelCachingSettings
+	)
+	default boolean parallelModelPushing()
+	{
+		return false;
+	}
+
+	String KEY_PARALLEL_SCENE_UPLOAD = "parallelSceneUpload";
+	@ConfigItem(
+		keyName = KEY_PARALLEL_SCENE_UPLOAD,
+		name = "Parallel Scene Loading",
+		description =
+			"Prepares the models and terrain of newly loaded scenes on multiple CPU cores, which can shorten loading.<br>" +
+			"Temporarily uses up to twice as much memory while loading, since each core prepares its part of the scene<br>" +
+			"in its own buffers before it's combined.",
+		position = 8,
+		section = modelCachingSettings
+	)
+	default boolean parallelSceneUpload()
+	{
+		return false;
+	}
+
 
 	/*====== Miscellaneous settings ======*/
 
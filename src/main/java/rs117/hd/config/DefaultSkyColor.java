@@ -50,6 +50,10 @@ public enum DefaultSkyColor
 	}
 
 	public float[] getRgb(Client client) {
+		return getRgb(client, new float[3]);
+	}
+
+	public float[] getRgb(Client client, float[] out) {
 		int r = this.r;
 		int g = this.g;
 		int b = this.b;
@@ -60,10 +64,9 @@ public enum DefaultSkyColor
 			g = sky >> 8 & 0xFF;
 			b = sky & 0xFF;
 		}
-		return new float[]{
-			HDUtils.srgbToLinear(r / 255f),
-			HDUtils.srgbToLinear(g / 255f),
-			HDUtils.srgbToLinear(b / 255f)
-		};
+		out[0] = HDUtils.srgbToLinear(r / 255f);
+		out[1] = HDUtils.srgbToLinear(g / 255f);
+		out[2] = HDUtils.srgbToLinear(b / 255f);
+		return out;
 	}
 }
@@ -0,0 +1,20 @@
+package rs117.hd.config;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum ModelCacheEvictionPolicy
+{
+	FIFO("First in, first out"),
+	SECOND_CHANCE("Second chance");
+
+	private final String name;
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
@@ -1605,6 +1605,8 @@ public enum Area
 	NONE(0, 0, 0, 0),
 	;
 
+	private static final int MIN_INDEXED_AABBS = 12;
+
 	public final AABB[] aabbs;
 
 	Area(AABB... aabbs)
@@ -1643,6 +1645,12 @@ public enum Area
 
 	public boolean containsPoint(int pointX, int pointY, int pointZ)
 	{
+		// Only check the AABBs near the point if there are more than a few to check
+		if (aabbs.length >= MIN_INDEXED_AABBS)
+		{
+			return AreaIndex.contains(this, pointX, pointY, pointZ);
+		}
+
 		for (AABB aabb : this.getAabbs())
 		{
 			if (aabb.contains(pointX, pointY, pointZ))
@@ -0,0 +1,204 @@
+package rs117.hd.data.environments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import rs117.hd.utils.AABB;
+
+/**
+ * A uniform grid over the world at region granularity, holding the AABBs of every {@link Area} which overlap each
+ * region, so containment queries only check the AABBs near the point rather than every AABB of every area. Cells are
+ * indexed the same way as region IDs. AABBs which extend beyond the grid, like {@link Area#ALL}, are checked for every
+ * point instead.
+ */
+public class AreaIndex
+{
+	// Region IDs hold 8 bits per axis
+	private static final int GRID_SIZE = 256;
+	private static final int REGION_SHIFT = 6;
+	private static final int MAX_COORDINATE = (GRID_SIZE << REGION_SHIFT) - 1;
+
+	private static final Area[] AREAS = Area.values();
+	private static final Cell EMPTY = new Cell(new int[0], new AABB[0]);
+
+	// the AABBs overlapping each region, along with the ordinal of the area each belongs to, sorted by ordinal
+	private static final Cell[] CELLS = new Cell[GRID_SIZE * GRID_SIZE];
+	// the AABBs which extend beyond the grid
+	private static final Cell UNBOUNDED;
+
+	private static class Cell
+	{
+		final int[] ordinals;
+		final AABB[] aabbs;
+
+		Cell(int[] ordinals, AABB[] aabbs)
+		{
+			this.ordinals = ordinals;
+			this.aabbs = aabbs;
+		}
+
+		static Cell of(ArrayList<Entry> entries)
+		{
+			if (entries == null)
+				return EMPTY;
+
+			// Keep each area's AABBs in the order they're declared
+			entries.sort(Comparator.comparingInt(e -> e.ordinal));
+			int[] ordinals = new int[entries.size()];
+			AABB[] aabbs = new AABB[entries.size()];
+			for (int i = 0; i < ordinals.length; i++)
+			{
+				ordinals[i] = entries.get(i).ordinal;
+				aabbs[i] = entries.get(i).aabb;
+			}
+			return new Cell(ordinals, aabbs);
+		}
+
+		/**
+		 * Finds the first AABB belonging to an area with the specified ordinal or higher.
+		 */
+		int lowerBound(int ordinal)
+		{
+			int low = 0;
+			int high = ordinals.length;
+			while (low < high)
+			{
+				int middle = (low + high) >>> 1;
+				if (ordinals[middle] < ordinal)
+				{
+					low = middle + 1;
+				}
+				else
+				{
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	private static class Entry
+	{
+		final int ordinal;
+		final AABB aabb;
+
+		Entry(int ordinal, AABB aabb)
+		{
+			this.ordinal = ordinal;
+			this.aabb = aabb;
+		}
+	}
+
+	static
+	{
+		@SuppressWarnings("unchecked")
+		ArrayList<Entry>[] cells = new ArrayList[CELLS.length];
+		ArrayList<Entry> unbounded = new ArrayList<>();
+		for (Area area : AREAS)
+		{
+			for (AABB aabb : area.aabbs)
+			{
+				Entry entry = new Entry(area.ordinal(), aabb);
+				if (aabb.minX < 0 || aabb.minY < 0 || aabb.maxX > MAX_COORDINATE || aabb.maxY > MAX_COORDINATE)
+				{
+					unbounded.add(entry);
+					continue;
+				}
+
+				for (int regionX = aabb.minX >> REGION_SHIFT; regionX <= aabb.maxX >> REGION_SHIFT; regionX++)
+				{
+					for (int regionY = aabb.minY >> REGION_SHIFT; regionY <= aabb.maxY >> REGION_SHIFT; regionY++)
+					{
+						int cell = regionX << 8 | regionY;
+						if (cells[cell] == null)
+							cells[cell] = new ArrayList<>();
+						cells[cell].add(entry);
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < CELLS.length; i++)
+			CELLS[i] = Cell.of(cells[i]);
+		UNBOUNDED = Cell.of(unbounded);
+	}
+
+	private static Cell getCell(int x, int y)
+	{
+		if (x < 0 || y < 0 || x > MAX_COORDINATE || y > MAX_COORDINATE)
+			return EMPTY;
+		return CELLS[(x >> REGION_SHIFT) << 8 | y >> REGION_SHIFT];
+	}
+
+	private static boolean contains(Cell cell, int ordinal, int x, int y, int plane)
+	{
+		for (int i = cell.lowerBound(ordinal); i < cell.ordinals.length && cell.ordinals[i] == ordinal; i++)
+		{
+			if (cell.aabbs[i].contains(x, y, plane))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether the area contains the point, only checking the area's AABBs which overlap the point's region.
+	 */
+	public static boolean contains(Area area, int x, int y, int plane)
+	{
+		int ordinal = area.ordinal();
+		return contains(getCell(x, y), ordinal, x, y, plane) || contains(UNBOUNDED, ordinal, x, y, plane);
+	}
+
+	/**
+	 * Checks whether the area is one of the specified areas, like those returned by {@link #getAreas}.
+	 */
+	public static boolean includes(Area[] areas, Area area)
+	{
+		for (Area a : areas)
+		{
+			if (a == area)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds every area which contains the point.
+	 *
+	 * @return the areas containing the point, in priority order, with areas higher on the list of areas first
+	 */
+	public static Area[] getAreas(int x, int y, int plane)
+	{
+		Cell cell = getCell(x, y);
+		Area[] areas = new Area[cell.ordinals.length + UNBOUNDED.ordinals.length];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		// Merge the region's AABBs with the unbounded AABBs, both of which are sorted by ordinal
+		while (i < cell.ordinals.length || j < UNBOUNDED.ordinals.length)
+		{
+			int ordinal;
+			AABB aabb;
+			if (j == UNBOUNDED.ordinals.length || i < cell.ordinals.length && cell.ordinals[i] <= UNBOUNDED.ordinals[j])
+			{
+				ordinal = cell.ordinals[i];
+				aabb = cell.aabbs[i++];
+			}
+			else
+			{
+				ordinal = UNBOUNDED.ordinals[j];
+				aabb = UNBOUNDED.aabbs[j++];
+			}
+
+			if (count > 0 && areas[count - 1].ordinal() == ordinal)
+				continue;
+			if (aabb.contains(x, y, plane))
+				areas[count++] = AREAS[ordinal];
+		}
+		return Arrays.copyOf(areas, count);
+	}
+}
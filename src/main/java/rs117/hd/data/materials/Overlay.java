@@ -40,6 +40,7 @@ import net.runelite.api.coords.WorldPoint;
 import rs117.hd.HdPlugin;
 import rs117.hd.data.WaterType;
 import rs117.hd.data.environments.Area;
+import rs117.hd.data.environments.AreaIndex;
 import rs117.hd.utils.HDUtils;
 
 public enum Overlay {
@@ -812,25 +813,28 @@ public enum Overlay {
             FILTERED_MAP.put(entry.getKey(), entry.getValue().toArray(new Overlay[0]));
     }
 
-    public static Overlay getOverlay(Scene scene, Tile tile, HdPlugin plugin) {
+    public static Overlay getOverlay(Scene scene, short[][][] overlayIds, Tile tile, HdPlugin plugin) {
 		LocalPoint localLocation = tile.getLocalLocation();
         WorldPoint worldPoint = WorldPoint.fromLocalInstance(scene, localLocation, tile.getPlane());
 
+        // Look up the areas containing the tile once, rather than checking each candidate's area separately
+        Area[] areas = AreaIndex.getAreas(worldPoint.getX(), worldPoint.getY(), worldPoint.getPlane());
+
         Overlay match = Overlay.NONE;
         for (Overlay overlay : ANY_MATCH) {
-            if (overlay.area.containsPoint(worldPoint)) {
+            if (AreaIndex.includes(areas, overlay.area)) {
                 match = overlay;
                 break;
             }
         }
 
-		short overlayId = scene.getOverlayIds()[tile.getRenderLevel()][localLocation.getSceneX()][localLocation.getSceneY()];
+		short overlayId = overlayIds[tile.getRenderLevel()][localLocation.getSceneX()][localLocation.getSceneY()];
 		Overlay[] overlays = FILTERED_MAP.get((int) overlayId);
 		if (overlays != null) {
 			for (Overlay overlay : overlays) {
 				if (overlay.ordinal() >= match.ordinal())
 					break;
-				if (overlay.area.containsPoint(worldPoint)) {
+				if (AreaIndex.includes(areas, overlay.area)) {
 					match = overlay;
 					break;
 				}
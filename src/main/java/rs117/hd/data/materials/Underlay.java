@@ -40,6 +40,7 @@ import net.runelite.api.coords.WorldPoint;
 import rs117.hd.HdPlugin;
 import rs117.hd.data.WaterType;
 import rs117.hd.data.environments.Area;
+import rs117.hd.data.environments.AreaIndex;
 import rs117.hd.utils.HDUtils;
 
 public enum Underlay {
@@ -315,25 +316,28 @@ public enum Underlay {
             FILTERED_MAP.put(entry.getKey(), entry.getValue().toArray(new Underlay[0]));
     }
 
-    public static Underlay getUnderlay(Scene scene, Tile tile, HdPlugin plugin) {
+    public static Underlay getUnderlay(Scene scene, short[][][] underlayIds, Tile tile, HdPlugin plugin) {
 		LocalPoint localLocation = tile.getLocalLocation();
 		WorldPoint worldPoint = WorldPoint.fromLocalInstance(scene, tile.getLocalLocation(), tile.getPlane());
 
+        // Look up the areas containing the tile once, rather than checking each candidate's area separately
+        Area[] areas = AreaIndex.getAreas(worldPoint.getX(), worldPoint.getY(), worldPoint.getPlane());
+
         Underlay match = Underlay.NONE;
         for (Underlay underlay : ANY_MATCH) {
-            if (underlay.area.containsPoint(worldPoint)) {
+            if (AreaIndex.includes(areas, underlay.area)) {
                 match = underlay;
                 break;
             }
         }
 
-		short underlayId = scene.getUnderlayIds()[tile.getRenderLevel()][localLocation.getSceneX()][localLocation.getSceneY()];
+		short underlayId = underlayIds[tile.getRenderLevel()][localLocation.getSceneX()][localLocation.getSceneY()];
 		Underlay[] underlays = FILTERED_MAP.get((int) underlayId);
 		if (underlays != null) {
 			for (Underlay underlay : underlays) {
 				if (underlay.ordinal() >= match.ordinal())
 					break;
-				if (underlay.area.containsPoint(worldPoint)) {
+				if (AreaIndex.includes(areas, underlay.area)) {
 					match = underlay;
 					break;
 				}
@@ -0,0 +1,276 @@
+package rs117.hd.model;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryUtil;
+import rs117.hd.config.ModelCacheEvictionPolicy;
+
+/**
+ * Thread-safe model cache, made up of independently locked {@link ModelCache} segments. The cache's memory is first
+ * split into a pool per {@link ModelCacheSizeClass}, so models of different sizes don't evict each other, and each
+ * pool is then split into segments of equal size. Each hash always maps to the same segment, so threads only contend
+ * with each other when they happen to access the same segment at the same time.
+ * <p>
+ * Since entries may be evicted or relocated by any reservation, cached data is copied in and out while holding the
+ * segment's lock, instead of handing out addresses into the cache. Data is stored in the compact formats described in
+ * {@link ModelCacheEncoding}, and expanded while copying it out. Normals and UVs are deduplicated within each segment,
+ * since many models end up with identical normals or UVs despite being hashed differently.
+ */
+@Slf4j
+public class ConcurrentModelCache {
+	// Segments should be large enough to fit plenty of the largest models
+	private static final int MIN_SEGMENT_SIZE_MiB = 64;
+	// The segment count only depends on the cache size, so a persisted cache is split up the same way every time
+	private static final int MAX_SEGMENTS = 16;
+	// Matches the directories of persisted segments, including those of caches with different sizes or layouts
+	private static final Pattern SEGMENT_DIRECTORY_PATTERN = Pattern.compile("([a-z]+-)?segment-\\d+");
+
+	private static class Pool {
+		final ModelCache[] segments;
+		final int segmentShift;
+		final ModelCacheStats stats = new ModelCacheStats();
+
+		Pool(int numSegments) {
+			segments = new ModelCache[numSegments];
+			segmentShift = 64 - Integer.numberOfTrailingZeros(numSegments);
+		}
+	}
+
+	private final Pool[] pools;
+	private final ModelCache[] segments;
+	private final Runnable terminationHook;
+	private final AtomicBoolean terminated = new AtomicBoolean();
+	private final AtomicBoolean terminationHookRun = new AtomicBoolean();
+	// Set before any segment is destroyed, so no segment is used once another has been seen destroyed
+	private volatile boolean destroyed;
+	private final ModelCacheStats stats = new ModelCacheStats();
+
+	// Scratch memory for encoding data before it is deduplicated, since threads may put data concurrently
+	private static final ThreadLocal<ByteBuffer> encodingBuffers = new ThreadLocal<>();
+
+	/**
+	 * @see ModelCache#ModelCache(int, ModelCacheEvictionPolicy, boolean, File, long, Runnable)
+	 */
+	public ConcurrentModelCache(
+		int modelCacheSizeMiB,
+		ModelCacheEvictionPolicy evictionPolicy,
+		boolean adaptiveSizing,
+		@Nullable File persistenceDirectory,
+		long persistenceKey,
+		Runnable terminationHook
+	) {
+		this.terminationHook = terminationHook;
+
+		modelCacheSizeMiB = ModelCache.limitCacheSize(modelCacheSizeMiB);
+		ModelCacheSizeClass[] sizeClasses = ModelCacheSizeClass.values();
+		pools = new Pool[sizeClasses.length];
+		int[] poolSizesMiB = new int[sizeClasses.length];
+		int totalSegments = 0;
+		for (ModelCacheSizeClass sizeClass : sizeClasses) {
+			int poolSizeMiB = poolSizesMiB[sizeClass.ordinal()] = Math.max(1, (int) (modelCacheSizeMiB * sizeClass.budgetShare));
+			int numSegments = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, poolSizeMiB / MIN_SEGMENT_SIZE_MiB)));
+			pools[sizeClass.ordinal()] = new Pool(numSegments);
+			totalSegments += numSegments;
+			log.debug("Splitting {} MiB {} model pool into {} segments", poolSizeMiB, sizeClass, numSegments);
+		}
+		segments = new ModelCache[totalSegments];
+
+		Set<String> segmentDirectories = new HashSet<>();
+		int segmentIndex = 0;
+		try {
+			for (ModelCacheSizeClass sizeClass : sizeClasses) {
+				Pool pool = pools[sizeClass.ordinal()];
+				for (int i = 0; i < pool.segments.length; i++) {
+					String segmentDirectory = sizeClass.name().toLowerCase() + "-segment-" + i;
+					segmentDirectories.add(segmentDirectory);
+					segments[segmentIndex++] = pool.segments[i] = new ModelCache(
+						poolSizesMiB[sizeClass.ordinal()] / pool.segments.length,
+						evictionPolicy,
+						adaptiveSizing,
+						persistenceDirectory == null ? null : new File(persistenceDirectory, segmentDirectory),
+						persistenceKey,
+						// Segments may be terminated while other threads hold other segments' locks, so defer the
+						// termination hook until the lock is released to avoid deadlocking
+						() -> terminated.set(true)
+					);
+				}
+			}
+		} catch (Throwable err) {
+			destroy();
+			throw err;
+		}
+
+		if (persistenceDirectory != null)
+			deleteUnusedSegments(persistenceDirectory, segmentDirectories);
+	}
+
+	/**
+	 * Deletes segments persisted by caches of a different size or layout, which would otherwise take up disk space
+	 * without ever being used again.
+	 */
+	private static void deleteUnusedSegments(File persistenceDirectory, Set<String> segmentDirectories) {
+		File[] files = persistenceDirectory.listFiles();
+		if (files == null)
+			return;
+
+		for (File file : files) {
+			String name = file.getName();
+			if (!file.isDirectory() || segmentDirectories.contains(name) || !SEGMENT_DIRECTORY_PATTERN.matcher(name).matches())
+				continue;
+			log.debug("Deleting unused model cache segment: {}", file);
+			ModelCache.deletePersistedFiles(file);
+		}
+	}
+
+	public void destroy() {
+		destroyed = true;
+		for (ModelCache segment : segments) {
+			if (segment == null)
+				continue;
+			synchronized (segment) {
+				segment.destroy();
+			}
+		}
+	}
+
+	public void clear() {
+		for (ModelCache segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	public boolean isPersistent() {
+		return segments[0].isPersistent();
+	}
+
+	public long getPersistenceKey() {
+		return segments[0].getPersistenceKey();
+	}
+
+	public void setPersistenceKey(long persistenceKey) {
+		for (ModelCache segment : segments) {
+			synchronized (segment) {
+				segment.setPersistenceKey(persistenceKey);
+			}
+		}
+	}
+
+	/**
+	 * @return the combined statistics of all segments, along with the hit rate of each pool. The returned object is
+	 * reused by subsequent calls.
+	 */
+	public synchronized ModelCacheStats getStats() {
+		clearStats(stats);
+		for (ModelCacheSizeClass sizeClass : ModelCacheSizeClass.values()) {
+			Pool pool = pools[sizeClass.ordinal()];
+			clearStats(pool.stats);
+			for (ModelCache segment : pool.segments) {
+				synchronized (segment) {
+					pool.stats.add(segment.getStats());
+				}
+			}
+			stats.add(pool.stats);
+			stats.addPool(sizeClass.toString(), pool.stats);
+		}
+		return stats;
+	}
+
+	private static void clearStats(ModelCacheStats stats) {
+		stats.reset();
+		stats.residentEntries = stats.residentEndMarkerBytes = stats.residentBlockBytes = stats.residentSharedBytes = 0;
+		stats.allocationCapacities = new long[0];
+		stats.allocationResidentBytes = new long[0];
+		stats.poolNames = new String[0];
+		stats.poolHits = new long[0];
+		stats.poolMisses = new long[0];
+		stats.poolCapacities = new long[0];
+	}
+
+	private ModelCache getSegment(long hash, int faceCount) {
+		Pool pool = pools[ModelCacheSizeClass.of(faceCount).ordinal()];
+		// Hashes are already well mixed, so the highest bits can be used directly
+		return pool.segments[(int) (hash >>> pool.segmentShift) & (pool.segments.length - 1)];
+	}
+
+	private static long getEncodingBuffer(long numBytes) {
+		ByteBuffer buffer = encodingBuffers.get();
+		if (buffer == null || buffer.capacity() < numBytes) {
+			buffer = BufferUtils.createByteBuffer((int) Math.max(numBytes, buffer == null ? 0 : buffer.capacity() * 2L));
+			encodingBuffers.set(buffer);
+		}
+		return MemoryUtil.memAddress(buffer);
+	}
+
+	private void checkTermination() {
+		if (terminated.get() && !terminationHookRun.getAndSet(true))
+			terminationHook.run();
+	}
+
+	/**
+	 * Decodes cached faces for the specified hash to the destination, if they're cached with the expected face count.
+	 *
+	 * @param hash        of the cached data
+	 * @param faceCount   expected number of faces in the cached data
+	 * @param destination address to decode the faces to, in the staging buffer layout
+	 * @param dataKind    one of the data kinds in {@link ModelCacheStats}, which determines how the faces are encoded
+	 * @return whether the data was found and decoded
+	 */
+	public boolean get(long hash, int faceCount, long destination, int dataKind) {
+		ModelCache segment = getSegment(hash, faceCount);
+		synchronized (segment) {
+			if (destroyed || segment.isDestroyed())
+				return false;
+			long address = segment.get(hash, ModelCacheEncoding.getEncodedBytes(dataKind, faceCount));
+			segment.stats.recordLookup(dataKind, address != 0);
+			if (address == 0)
+				return false;
+			ModelCacheEncoding.decode(dataKind, address, destination, faceCount);
+			return true;
+		}
+	}
+
+	/**
+	 * Encodes faces from the source into the cache under the specified hash, replacing any data previously cached for it.
+	 * Normals and UVs are only stored once if identical data is already cached in the same segment.
+	 *
+	 * @param hash      of the data to cache
+	 * @param source    address of the faces to cache, in the staging buffer layout
+	 * @param faceCount number of faces to cache
+	 * @param dataKind  one of the data kinds in {@link ModelCacheStats}, which determines how the faces are encoded
+	 * @return whether space could be reserved for the data
+	 */
+	public boolean put(long hash, long source, int faceCount, int dataKind) {
+		ModelCache segment = getSegment(hash, faceCount);
+		long numBytes = ModelCacheEncoding.getEncodedBytes(dataKind, faceCount);
+		boolean success;
+		if (dataKind == ModelCacheStats.VERTEX_DATA) {
+			// Vertex positions are rarely shared between models, so encode them straight into the cache
+			synchronized (segment) {
+				long address = destroyed || segment.isDestroyed() ? 0 : segment.reserve(hash, numBytes);
+				if (address != 0)
+					ModelCacheEncoding.encode(dataKind, source, address, faceCount);
+				success = address != 0;
+			}
+		} else {
+			// Encode the data before taking the lock, so it can be compared against data which is already cached
+			long encoded = getEncodingBuffer(numBytes);
+			ModelCacheEncoding.encode(dataKind, source, encoded, faceCount);
+			long contentHash = ModelHasher.mix(ModelHasher.fastMemoryHash(encoded, numBytes));
+			synchronized (segment) {
+				success = !destroyed && !segment.isDestroyed() && segment.putShared(hash, contentHash, encoded, numBytes);
+			}
+		}
+		if (!success)
+			checkTermination();
+		return success;
+	}
+}
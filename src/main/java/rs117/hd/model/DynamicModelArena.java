@@ -0,0 +1,272 @@
+package rs117.hd.model;
+
+/**
+ * Bookkeeping for a region of the GPU geometry buffers where temporary models stay resident across frames, so models
+ * drawn again in later frames, like idle NPCs or looping animations, can be drawn from the data uploaded earlier,
+ * instead of being pushed and uploaded again every frame.
+ * <p>
+ * The region is used as a ring buffer with second chance eviction. Newly pushed models are written at a write offset
+ * which sweeps through the arena, evicting the models in the way. Models used during the current frame can't be
+ * evicted, since the frame's draw commands still point at them, so the write offset skips past them instead. Every
+ * model also gets a referenced bit whenever it's added or drawn, and models with the bit set are skipped once, clearing
+ * the bit, so models drawn every frame survive misses which are pushed before they're reached in the draw order.
+ * <p>
+ * Newly pushed models are first drawn from the per-frame part of the buffers, and then copied into the arena on the
+ * GPU once the frame's data has been uploaded.
+ * <p>
+ * Offsets are in vertices. UVs use the same arena-relative offsets as vertices and normals, starting at their own
+ * base offset.
+ */
+public class DynamicModelArena {
+	/**
+	 * Copies data within the geometry buffers, from the per-frame region into the arena.
+	 */
+	public interface Backend {
+		/**
+		 * @param srcUvOffset the offset of the UVs to copy, or -1 if the model has no UVs
+		 */
+		void copy(int srcVertexOffset, int srcUvOffset, int dstVertexOffset, int dstUvOffset, int vertexCount);
+	}
+
+	private static final int MAX_ENTRIES = 1 << 14;
+	private static final int MAX_PENDING_COPIES = 1 << 12;
+
+	private final int capacity;
+	private final ModelCacheIndex index = new ModelCacheIndex(MAX_ENTRIES);
+
+	// Entries in the order the write offset reaches them, from the one right after it at the head, to the one written
+	// most recently at the tail
+	private final long[] entryKeys = new long[MAX_ENTRIES];
+	private final int[] entryOffsets = new int[MAX_ENTRIES];
+	private final int[] entryVertexCounts = new int[MAX_ENTRIES];
+	private final boolean[] entryHasUvs = new boolean[MAX_ENTRIES];
+	private final int[] entryLastUsedFrames = new int[MAX_ENTRIES];
+	private final boolean[] entryReferenced = new boolean[MAX_ENTRIES];
+	private int head;
+	private int entryCount;
+	private int writeOffset;
+
+	private final int[] pendingCopies = new int[MAX_PENDING_COPIES * 4];
+	private int pendingCopyCount;
+
+	private int vertexStart;
+	private int uvStart;
+	private int frame;
+
+	private long hits;
+	private long uploads;
+	private long evictions;
+	private long rejections;
+
+	/**
+	 * @param capacity the size of the arena in vertices
+	 */
+	public DynamicModelArena(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return entryCount;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getUploads() {
+		return uploads;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public long getRejections() {
+		return rejections;
+	}
+
+	/**
+	 * Drops all resident models, and moves the arena to the specified offsets. Called whenever the geometry buffers are
+	 * replaced, such as when a new scene is loaded.
+	 */
+	public void reset(int vertexStart, int uvStart) {
+		this.vertexStart = vertexStart;
+		this.uvStart = uvStart;
+		clear();
+	}
+
+	/**
+	 * Drops all resident models, such as when the data pushed for models changes.
+	 */
+	public void clear() {
+		index.clear();
+		head = 0;
+		entryCount = 0;
+		writeOffset = 0;
+		pendingCopyCount = 0;
+	}
+
+	/**
+	 * Looks up a resident model, and marks it as used this frame.
+	 *
+	 * @return the entry of the model, or -1 if it isn't resident
+	 */
+	public int find(long key) {
+		long value = index.get(key);
+		if (value == ModelCacheIndex.EMPTY)
+			return -1;
+		int entry = (int) value;
+		entryLastUsedFrames[entry] = frame;
+		entryReferenced[entry] = true;
+		hits++;
+		return entry;
+	}
+
+	public int getVertexOffset(int entry) {
+		return vertexStart + entryOffsets[entry];
+	}
+
+	/**
+	 * @return the offset of the entry's UVs, or -1 if the model has no UVs
+	 */
+	public int getUvOffset(int entry) {
+		return entryHasUvs[entry] ? uvStart + entryOffsets[entry] : -1;
+	}
+
+	public int getVertexCount(int entry) {
+		return entryVertexCounts[entry];
+	}
+
+	/**
+	 * Makes a model pushed to the per-frame region resident, by reserving space for it and queueing a copy into the
+	 * arena. Fails if there isn't enough space without evicting models used this frame.
+	 *
+	 * @param srcUvOffset the offset of the model's UVs, or -1 if it has no UVs
+	 * @return whether the model was added
+	 */
+	public boolean add(long key, int srcVertexOffset, int srcUvOffset, int vertexCount) {
+		if (vertexCount > capacity || pendingCopyCount == MAX_PENDING_COPIES) {
+			rejections++;
+			return false;
+		}
+
+		// Sweep the write offset forward until there's room for the model, making sure not to loop forever if all
+		// models in the arena are being used this frame. The first lap may only clear referenced bits, so allow two.
+		int swept = 0;
+		while (true) {
+			if (writeOffset + vertexCount > capacity) {
+				// The model doesn't fit before the end of the arena, so skip past the remaining models
+				for (int i = entryCount; i > 0 && entryOffsets[head] >= writeOffset; i--)
+					sweepHead();
+				swept += capacity - writeOffset;
+				writeOffset = 0;
+			}
+
+			// Entries at the head behind the write offset means the rest of the arena is free
+			if (entryCount == 0 || entryOffsets[head] < writeOffset || entryOffsets[head] >= writeOffset + vertexCount)
+				break;
+
+			int end = entryOffsets[head] + entryVertexCounts[head];
+			if (sweepHead()) {
+				swept += end - writeOffset;
+				writeOffset = end;
+			}
+
+			if (swept > 2 * capacity) {
+				rejections++;
+				return false;
+			}
+		}
+
+		if (entryCount == MAX_ENTRIES) {
+			if (entryLastUsedFrames[head] == frame) {
+				rejections++;
+				return false;
+			}
+			evictHead();
+		}
+
+		int entry = (head + entryCount) % MAX_ENTRIES;
+		entryCount++;
+		entryKeys[entry] = key;
+		entryOffsets[entry] = writeOffset;
+		entryVertexCounts[entry] = vertexCount;
+		entryHasUvs[entry] = srcUvOffset != -1;
+		entryLastUsedFrames[entry] = frame;
+		entryReferenced[entry] = true;
+		long previous = index.put(key, entry);
+		if (previous != ModelCacheIndex.EMPTY) {
+			// A different model with the same key is being replaced, so forget about the old entry
+			entryKeys[(int) previous] = ~key;
+		}
+
+		int i = pendingCopyCount++ * 4;
+		pendingCopies[i] = srcVertexOffset;
+		pendingCopies[i + 1] = srcUvOffset;
+		pendingCopies[i + 2] = writeOffset;
+		pendingCopies[i + 3] = vertexCount;
+		writeOffset += vertexCount;
+		uploads++;
+		return true;
+	}
+
+	/**
+	 * Evicts the entry at the head, or moves it to the tail if it has been used this frame, or if it's referenced, in
+	 * which case its referenced bit is cleared.
+	 *
+	 * @return whether the entry was kept
+	 */
+	private boolean sweepHead() {
+		if (entryLastUsedFrames[head] != frame) {
+			if (!entryReferenced[head]) {
+				evictHead();
+				return false;
+			}
+			entryReferenced[head] = false;
+		}
+
+		int tail = (head + entryCount) % MAX_ENTRIES;
+		if (tail != head) {
+			entryKeys[tail] = entryKeys[head];
+			entryOffsets[tail] = entryOffsets[head];
+			entryVertexCounts[tail] = entryVertexCounts[head];
+			entryHasUvs[tail] = entryHasUvs[head];
+			entryLastUsedFrames[tail] = entryLastUsedFrames[head];
+			entryReferenced[tail] = entryReferenced[head];
+			index.replace(entryKeys[head], head, tail);
+		}
+		head = (head + 1) % MAX_ENTRIES;
+		return true;
+	}
+
+	private void evictHead() {
+		index.remove(entryKeys[head], head);
+		head = (head + 1) % MAX_ENTRIES;
+		entryCount--;
+		evictions++;
+	}
+
+	/**
+	 * Copies the models added this frame into the arena. Must be called after the frame's data has been uploaded.
+	 */
+	public void flush(Backend backend) {
+		for (int i = 0; i < pendingCopyCount * 4; i += 4) {
+			backend.copy(
+				pendingCopies[i],
+				pendingCopies[i + 1],
+				vertexStart + pendingCopies[i + 2],
+				uvStart + pendingCopies[i + 2],
+				pendingCopies[i + 3]
+			);
+		}
+		pendingCopyCount = 0;
+	}
+
+	public void nextFrame() {
+		frame++;
+	}
+}
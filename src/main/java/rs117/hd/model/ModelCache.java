@@ -1,11 +1,29 @@
 package rs117.hd.model;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.util.ArrayDeque;
-import java.util.HashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import javax.annotation.Nullable;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.libc.LibCString;
+import rs117.hd.config.ModelCacheEvictionPolicy;
 
 import static rs117.hd.utils.HDUtils.GiB;
 import static rs117.hd.utils.HDUtils.MiB;
@@ -19,6 +37,12 @@ public class ModelCache {
 		long cursor;
 		long freeBytesAhead;
 
+		long residentBytes;
+		long endMarkerBytes;
+
+		// Set if the allocation is memory-mapped from a file, in which case the memory isn't ours to free
+		MappedByteBuffer mappedBuffer;
+
 		Allocation(long byteCapacity) {
 			assert byteCapacity > 0;
 			address = MemoryUtil.nmemAllocChecked(byteCapacity);
@@ -27,9 +51,21 @@ public class ModelCache {
 			freeBytesAhead = byteCapacity;
 		}
 
+		Allocation(FileChannel channel, long position, long byteCapacity) throws IOException {
+			assert byteCapacity > 0 && byteCapacity <= Integer.MAX_VALUE;
+			mappedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, position, byteCapacity);
+			address = MemoryUtil.memAddress(mappedBuffer);
+			this.byteCapacity = byteCapacity;
+			cursor = 0;
+			freeBytesAhead = byteCapacity;
+		}
+
 		void destroy() {
 			if (address != 0L) {
-				MemoryUtil.nmemFree(address);
+				// A mapping is released once its buffer is garbage collected
+				if (mappedBuffer == null)
+					MemoryUtil.nmemFree(address);
+				mappedBuffer = null;
 				address = 0;
 				byteCapacity = 0;
 				cursor = 0;
@@ -52,70 +88,155 @@ public class ModelCache {
 		}
 	}
 
-	private static class Buffer {
-		final boolean endMarker;
-		final int hash;
-		final long byteCapacity;
-		final IntBuffer intBuffer;
-		final FloatBuffer floatBuffer;
+	private static final int INITIAL_ENTRY_CAPACITY = 1 << 12;
+	private static final int INITIAL_GHOST_CAPACITY = 1 << 8;
+	private static final int MAX_GHOST_ENTRIES = 1 << 16;
 
-		public Buffer(long byteCapacity) {
-			endMarker = true;
-			this.hash = 0;
-			this.byteCapacity = byteCapacity;
-			intBuffer = null;
-			floatBuffer = null;
-		}
+	// An adaptively sized cache is split into this many chunks at its full size, and starts out with one of them
+	private static final int ADAPTIVE_CHUNKS = 8;
+	// Grow if one more chunk would have turned this share of lookups into hits
+	private static final double GROW_GHOST_HIT_RATE = .01;
+	// Shrink if another chunk would barely have made a difference, and most of the oldest chunk hasn't been hit either
+	private static final double SHRINK_GHOST_HIT_RATE = .001;
+	private static final double SHRINK_REFERENCED_SHARE = .25;
+	// Shrink regardless if the heap is almost full after garbage collection, or the system is running out of memory
+	private static final double HEAP_PRESSURE_THRESHOLD = .9;
+	private static final long MIN_FREE_PHYSICAL_MEMORY = 256 * MiB;
 
-		public Buffer(int hash, IntBuffer buffer) {
-			endMarker = false;
-			this.hash = hash;
-			byteCapacity = buffer.capacity() * 4L;
-			intBuffer = buffer;
-			floatBuffer = null;
-		}
-
-		public Buffer(int hash, FloatBuffer buffer) {
-			endMarker = false;
-			this.hash = hash;
-			byteCapacity = buffer.capacity() * 4L;
-			intBuffer = null;
-			floatBuffer = buffer;
-		}
-	}
+	private static final String DATA_FILE_NAME = "model-cache.dat";
+	private static final String INDEX_FILE_NAME = "model-cache.idx";
+	private static final int INDEX_MAGIC = 0x31313748; // 117H
+	private static final int INDEX_FORMAT_VERSION = 3;
+	// Only used in the persisted index, to mark entries which are mapped to by the cache index or content index
+	private static final int FLAG_LIVE = 1;
+	// Set if the entry has been hit since it was last inserted or given a second chance
+	private static final byte FLAG_REFERENCED = 1 << 1;
+	// Set if the entry is a shared block of deduplicated data, keyed by a hash of its content
+	private static final byte FLAG_BLOCK = 1 << 2;
+	// Set if the entry occupies no space, and instead refers to a shared block
+	private static final byte FLAG_ALIAS = 1 << 3;
 
 	private final Runnable terminationHook;
-	private final HashMap<Integer, Buffer> cache = new HashMap<>();
-	private final ArrayDeque<Buffer> buffers = new ArrayDeque<>();
-	private final Allocation[] allocations;
+	private final ModelCacheEvictionPolicy evictionPolicy;
+	final ModelCacheStats stats = new ModelCacheStats();
+	// Maps each cached hash to the sequence number of its entry
+	private final ModelCacheIndex cache = new ModelCacheIndex(INITIAL_ENTRY_CAPACITY);
+	// Maps the content hash of each shared block to the block's ID, and each block ID to its sequence number
+	private final ModelCacheIndex contentIndex = new ModelCacheIndex();
+	private final ModelCacheIndex blockIndex = new ModelCacheIndex();
+	private long nextBlockId;
+	// Total size of all shared blocks, and the total size they would take up if each alias had its own copy
+	private long blockBytes;
+	private long sharedBytes;
+
+	// Entries are stored in a ring in the order they occupy the allocations, from oldest to newest. Each entry is
+	// identified by a sequence number, from which its index into the ring arrays can be derived. End markers are
+	// stored as entries with an address of zero, and so are aliases, which are told apart by their flags.
+	private long[] entryHashes = new long[INITIAL_ENTRY_CAPACITY];
+	private long[] entryAddresses = new long[INITIAL_ENTRY_CAPACITY];
+	private long[] entryBytes = new long[INITIAL_ENTRY_CAPACITY];
+	private byte[] entryFlags = new byte[INITIAL_ENTRY_CAPACITY];
+	// The ID of each shared block, or the ID of the block each alias refers to
+	private long[] entryBlockIds = new long[INITIAL_ENTRY_CAPACITY];
+	// The number of live aliases referring to each shared block
+	private int[] entryRefCounts = new int[INITIAL_ENTRY_CAPACITY];
+	private long headSequence;
+	private long tailSequence;
+
+	private Allocation[] allocations;
 	private Allocation currentAllocation;
 	private int currentAllocationIndex;
 
-	public ModelCache(int modelCacheSizeMiB, Runnable terminationHook) {
+	// Size of the chunks an adaptively sized cache grows and shrinks by, or zero if the cache has a fixed size
+	private final long adaptiveChunkBytes;
+	private long maxByteCapacity;
+	private BooleanSupplier memoryPressureMonitor = ModelCache::isUnderMemoryPressure;
+	// Lookups and ghost hits since the cache was last considered for resizing
+	private long windowLookups;
+	private long windowGhostHits;
+	private int wrapsSinceResize;
+
+	// Hashes of recently evicted entries, along with their sizes, from oldest to newest. Only kept for adaptive sizing,
+	// to estimate how many more hits the cache would get if it had one more chunk, by limiting the total size of the
+	// ghost entries to the size of a chunk.
+	private final ModelCacheIndex ghostIndex = new ModelCacheIndex();
+	private long[] ghostHashes = new long[INITIAL_GHOST_CAPACITY];
+	private long[] ghostBytes = new long[INITIAL_GHOST_CAPACITY];
+	private long ghostHeadSequence;
+	private long ghostTailSequence;
+	private long ghostTotalBytes;
+
+	// Directory holding the data and index files, if the cache is persistent
+	@Nullable
+	private final File persistenceDirectory;
+	/**
+	 * Identifies the inputs which the cached data was computed from, such as the plugin version and relevant config.
+	 * A persisted index is only restored if it was saved with the same key.
+	 */
+	@Getter
+	@Setter
+	private long persistenceKey;
+
+	public ModelCache(int modelCacheSizeMiB, ModelCacheEvictionPolicy evictionPolicy, Runnable terminationHook) {
+		this(modelCacheSizeMiB, evictionPolicy, false, null, 0, terminationHook);
+	}
+
+	/**
+	 * @param adaptiveSizing       if true, the cache starts out small, and grows in chunks up to the specified size while
+	 *                             recently evicted entries keep being looked up again. It shrinks by a chunk at a time
+	 *                             once it's no longer needed, or when memory is running low. Not supported in
+	 *                             combination with persistence
+	 * @param persistenceDirectory if not null, the cache is memory-mapped from a file in this directory, and its index
+	 *                             is saved alongside it when the cache is destroyed, to be restored on the next start
+	 * @param persistenceKey       identifying the inputs which the cached data is computed from
+	 */
+	public ModelCache(
+		int modelCacheSizeMiB,
+		ModelCacheEvictionPolicy evictionPolicy,
+		boolean adaptiveSizing,
+		@Nullable File persistenceDirectory,
+		long persistenceKey,
+		Runnable terminationHook
+	) {
+		this.evictionPolicy = evictionPolicy;
 		this.terminationHook = terminationHook;
+		this.persistenceKey = persistenceKey;
 
-		// Limit cache size to 128 MiB for 32-bit
-		if (modelCacheSizeMiB > 128 && !"64".equals(System.getProperty("sun.arch.data.model"))) {
-			log.warn("Defaulting model cache to 128 MiB due to non 64-bit client");
-			modelCacheSizeMiB = 128;
+		modelCacheSizeMiB = limitCacheSize(modelCacheSizeMiB);
+		long byteCapacity = modelCacheSizeMiB * MiB;
+		maxByteCapacity = byteCapacity;
+		if (adaptiveSizing && persistenceDirectory != null) {
+			log.warn("Adaptive sizing isn't supported for the persistent model cache. Using a fixed size instead");
+			adaptiveSizing = false;
 		}
+		adaptiveChunkBytes = adaptiveSizing ? Math.min(GiB, (byteCapacity + ADAPTIVE_CHUNKS - 1) / ADAPTIVE_CHUNKS) : 0;
 
-		try {
-			int totalPhysicalMemoryMiB = (int) (((com.sun.management.OperatingSystemMXBean)
-				java.lang.management.ManagementFactory.getOperatingSystemMXBean()).getTotalPhysicalMemorySize() / MiB);
-
-			// Try to limit the cache size to half of the total physical memory
-			if (modelCacheSizeMiB > totalPhysicalMemoryMiB / 2) {
-				log.warn(
-					"Limiting cache size to {} since the selected amount ({}) exceeds half of the total system memory ({} / 2)",
-					totalPhysicalMemoryMiB / 2, modelCacheSizeMiB, totalPhysicalMemoryMiB);
-				modelCacheSizeMiB = totalPhysicalMemoryMiB / 2;
+		Allocation[] mappedAllocations = null;
+		if (persistenceDirectory != null) {
+			try {
+				log.debug("Mapping {} MiB model cache from {}", modelCacheSizeMiB, persistenceDirectory);
+				mappedAllocations = mapAllocations(persistenceDirectory, byteCapacity);
+			} catch (IOException ex) {
+				log.warn("Unable to map the model cache from {}. Falling back to an in-memory cache", persistenceDirectory, ex);
 			}
-		} catch (Throwable e) {
-			log.warn("Unable to check physical memory size: " + e);
 		}
 
-		long byteCapacity = modelCacheSizeMiB * MiB;
+		if (mappedAllocations != null) {
+			this.allocations = mappedAllocations;
+			this.persistenceDirectory = persistenceDirectory;
+			currentAllocation = allocations[0];
+			restoreIndex();
+			return;
+		}
+		this.persistenceDirectory = null;
+
+		if (adaptiveSizing) {
+			log.debug("Allocating {} MiB adaptive model cache, which may grow up to {} MiB",
+				adaptiveChunkBytes / MiB, modelCacheSizeMiB);
+			allocations = new Allocation[] { new Allocation(adaptiveChunkBytes) };
+			currentAllocation = allocations[0];
+			return;
+		}
 
 		log.debug("Allocating {} MiB model cache", modelCacheSizeMiB);
 
@@ -144,9 +265,269 @@ public class ModelCache {
 		currentAllocation = allocations[0];
 	}
 
+	/**
+	 * Limits the cache size to what the system is expected to be able to handle.
+	 */
+	static int limitCacheSize(int modelCacheSizeMiB) {
+		// Limit cache size to 128 MiB for 32-bit
+		if (modelCacheSizeMiB > 128 && !"64".equals(System.getProperty("sun.arch.data.model"))) {
+			log.warn("Defaulting model cache to 128 MiB due to non 64-bit client");
+			modelCacheSizeMiB = 128;
+		}
+
+		try {
+			int totalPhysicalMemoryMiB = (int) (((com.sun.management.OperatingSystemMXBean)
+				java.lang.management.ManagementFactory.getOperatingSystemMXBean()).getTotalPhysicalMemorySize() / MiB);
+
+			// Try to limit the cache size to half of the total physical memory
+			if (modelCacheSizeMiB > totalPhysicalMemoryMiB / 2) {
+				log.warn(
+					"Limiting cache size to {} since the selected amount ({}) exceeds half of the total system memory ({} / 2)",
+					totalPhysicalMemoryMiB / 2, modelCacheSizeMiB, totalPhysicalMemoryMiB);
+				modelCacheSizeMiB = totalPhysicalMemoryMiB / 2;
+			}
+		} catch (Throwable e) {
+			log.warn("Unable to check physical memory size: " + e);
+		}
+
+		return modelCacheSizeMiB;
+	}
+
+	private static Allocation[] mapAllocations(File directory, long byteCapacity) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create directory: " + directory);
+
+		// Each mapping is limited to 2 GiB, so map the file in chunks of up to 1 GiB each
+		int numChunks = (int) ((byteCapacity + GiB - 1) / GiB);
+		Allocation[] allocations = new Allocation[numChunks];
+		try (RandomAccessFile file = new RandomAccessFile(new File(directory, DATA_FILE_NAME), "rw")) {
+			if (file.length() != byteCapacity)
+				file.setLength(byteCapacity);
+			// Mappings remain valid after the channel is closed
+			FileChannel channel = file.getChannel();
+			for (int i = 0; i < numChunks; i++)
+				allocations[i] = new Allocation(channel, i * GiB, Math.min(byteCapacity - i * GiB, GiB));
+		}
+		return allocations;
+	}
+
+	/**
+	 * Deletes the files of a cache persisted to the specified directory, along with the directory if it's left empty.
+	 */
+	static void deletePersistedFiles(File directory) {
+		for (String fileName : new String[] { DATA_FILE_NAME, INDEX_FILE_NAME }) {
+			File file = new File(directory, fileName);
+			if (file.exists() && !file.delete())
+				log.warn("Unable to delete model cache file: {}", file);
+		}
+		String[] remainingFiles = directory.list();
+		if (remainingFiles != null && remainingFiles.length == 0 && !directory.delete())
+			log.warn("Unable to delete model cache directory: {}", directory);
+	}
+
+	boolean isDestroyed() {
+		return currentAllocation == null;
+	}
+
+	public boolean isPersistent() {
+		return persistenceDirectory != null;
+	}
+
+	/**
+	 * Restores the index saved by the previous {@link #destroy()}, if it's compatible with the current cache.
+	 * The index file is deleted regardless, since the data it describes will be overwritten from here on, and a
+	 * crash must not leave behind an index which no longer matches the data.
+	 */
+	private void restoreIndex() {
+		assert persistenceDirectory != null;
+		File indexFile = new File(persistenceDirectory, INDEX_FILE_NAME);
+		if (!indexFile.exists())
+			return;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_FORMAT_VERSION) {
+				log.debug("Discarding persisted model cache with an unknown format");
+				return;
+			}
+			if (in.readLong() != persistenceKey) {
+				log.debug("Discarding stale persisted model cache");
+				return;
+			}
+			int numAllocations = in.readInt();
+			if (numAllocations != allocations.length)
+				return;
+			long[] allocationState = new long[numAllocations * 4];
+			for (int i = 0; i < numAllocations; i++) {
+				Allocation allocation = allocations[i];
+				if (in.readLong() != allocation.byteCapacity)
+					return;
+				for (int j = 0; j < 4; j++)
+					allocationState[i * 4 + j] = in.readLong();
+				long cursor = allocationState[i * 4];
+				long freeBytesAhead = allocationState[i * 4 + 1];
+				if (cursor < 0 || freeBytesAhead < 0 || cursor + freeBytesAhead > allocation.byteCapacity)
+					throw new IOException("Corrupt allocation state");
+			}
+			int allocationIndex = in.readInt();
+			if (allocationIndex < 0 || allocationIndex >= numAllocations)
+				throw new IOException("Corrupt allocation index");
+			nextBlockId = in.readLong();
+			if (nextBlockId < 0)
+				throw new IOException("Corrupt block ID");
+
+			int numEntries = in.readInt();
+			for (int i = 0; i < numEntries; i++) {
+				long hash = in.readLong();
+				int entryAllocationIndex = in.readInt();
+				long offset = in.readLong();
+				long numBytes = in.readLong();
+				int flags = in.readByte();
+				long blockId = in.readLong();
+				if (numBytes < 0 || entryAllocationIndex < -1 || entryAllocationIndex >= numAllocations)
+					throw new IOException("Corrupt entry");
+
+				if ((flags & FLAG_ALIAS) != 0) {
+					if (numBytes != 0 || blockId < 0 || blockId >= nextBlockId)
+						throw new IOException("Corrupt alias");
+					long sequence = addEntry(hash, 0, 0);
+					int j = entryIndex(sequence);
+					entryFlags[j] = (byte) (flags & (FLAG_ALIAS | FLAG_REFERENCED));
+					entryBlockIds[j] = blockId;
+					if ((flags & FLAG_LIVE) != 0)
+						cache.put(hash, sequence);
+					continue;
+				}
+
+				if (numBytes == 0)
+					throw new IOException("Corrupt entry");
+
+				if (entryAllocationIndex == -1) {
+					addEntry(0, 0, numBytes);
+					continue;
+				}
+
+				Allocation allocation = allocations[entryAllocationIndex];
+				if (offset < 0 || offset + numBytes > allocation.byteCapacity)
+					throw new IOException("Corrupt entry");
+				long sequence = addEntry(hash, allocation.address + offset, numBytes);
+				int j = entryIndex(sequence);
+				entryFlags[j] = (byte) (flags & (FLAG_BLOCK | FLAG_REFERENCED));
+				if ((flags & FLAG_BLOCK) != 0) {
+					if (blockId < 0 || blockId >= nextBlockId)
+						throw new IOException("Corrupt block");
+					entryBlockIds[j] = blockId;
+					blockIndex.put(blockId, sequence);
+					blockBytes += numBytes;
+					if ((flags & FLAG_LIVE) != 0)
+						contentIndex.put(hash, blockId);
+				} else if ((flags & FLAG_LIVE) != 0) {
+					cache.put(hash, sequence);
+				}
+			}
+
+			// Reference counts aren't persisted, since they can be derived from the live aliases
+			for (long sequence = headSequence; sequence < tailSequence; sequence++) {
+				int j = entryIndex(sequence);
+				if ((entryFlags[j] & FLAG_ALIAS) != 0 && cache.get(entryHashes[j]) == sequence)
+					retainBlock(entryBlockIds[j]);
+			}
+
+			// Restore the allocations' state last, since adding the entries above accounts them to the current one
+			for (int i = 0; i < numAllocations; i++) {
+				Allocation allocation = allocations[i];
+				allocation.cursor = allocationState[i * 4];
+				allocation.freeBytesAhead = allocationState[i * 4 + 1];
+				allocation.residentBytes = allocationState[i * 4 + 2];
+				allocation.endMarkerBytes = allocationState[i * 4 + 3];
+			}
+			currentAllocationIndex = allocationIndex;
+			currentAllocation = allocations[allocationIndex];
+
+			log.debug("Restored {} persisted model cache entries", cache.size());
+		} catch (IOException ex) {
+			log.warn("Failed to restore the persisted model cache index", ex);
+			clear();
+			stats.reset();
+		} finally {
+			if (!indexFile.delete())
+				log.warn("Unable to delete model cache index: {}", indexFile);
+		}
+	}
+
+	/**
+	 * Saves the index alongside the memory-mapped data, after making sure the data has been written to disk.
+	 */
+	private void saveIndex() {
+		assert persistenceDirectory != null;
+		File indexFile = new File(persistenceDirectory, INDEX_FILE_NAME);
+		try {
+			for (Allocation allocation : allocations)
+				allocation.mappedBuffer.force();
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(INDEX_FORMAT_VERSION);
+				out.writeLong(persistenceKey);
+				out.writeInt(allocations.length);
+				for (Allocation allocation : allocations) {
+					out.writeLong(allocation.byteCapacity);
+					out.writeLong(allocation.cursor);
+					out.writeLong(allocation.freeBytesAhead);
+					out.writeLong(allocation.residentBytes);
+					out.writeLong(allocation.endMarkerBytes);
+				}
+				out.writeInt(currentAllocationIndex);
+				out.writeLong(nextBlockId);
+
+				out.writeInt((int) (tailSequence - headSequence));
+				for (long sequence = headSequence; sequence < tailSequence; sequence++) {
+					int i = entryIndex(sequence);
+					long address = entryAddresses[i];
+					int allocationIndex = -1;
+					long offset = 0;
+					if (address != 0) {
+						for (allocationIndex = 0; allocationIndex < allocations.length; allocationIndex++) {
+							Allocation allocation = allocations[allocationIndex];
+							offset = address - allocation.address;
+							if (offset >= 0 && offset < allocation.byteCapacity)
+								break;
+						}
+						assert allocationIndex < allocations.length;
+					}
+
+					int flags = entryFlags[i];
+					if ((flags & FLAG_BLOCK) != 0 ?
+						contentIndex.get(entryHashes[i]) == entryBlockIds[i] :
+						cache.get(entryHashes[i]) == sequence
+					) {
+						flags |= FLAG_LIVE;
+					}
+
+					out.writeLong(entryHashes[i]);
+					out.writeInt(allocationIndex);
+					out.writeLong(offset);
+					out.writeLong(entryBytes[i]);
+					out.writeByte(flags);
+					out.writeLong(entryBlockIds[i]);
+				}
+			}
+
+			log.debug("Persisted {} model cache entries", cache.size());
+		} catch (IOException ex) {
+			log.warn("Failed to persist the model cache index", ex);
+			if (indexFile.exists() && !indexFile.delete())
+				log.warn("Unable to delete model cache index: {}", indexFile);
+		}
+	}
+
 	public void destroy() {
+		if (persistenceDirectory != null && currentAllocation != null)
+			saveIndex();
+
 		cache.clear();
-		buffers.clear();
+		contentIndex.clear();
+		blockIndex.clear();
+		headSequence = tailSequence = 0;
 		currentAllocation = null;
 
 		for (int i = 0; i < allocations.length; i++) {
@@ -169,18 +550,397 @@ public class ModelCache {
 	}
 
 	public void clear() {
+		stats.clearedEntries += cache.size();
 		cache.clear();
-		buffers.clear();
+		contentIndex.clear();
+		blockIndex.clear();
+		nextBlockId = 0;
+		blockBytes = sharedBytes = 0;
+		headSequence = tailSequence = 0;
+		ghostIndex.clear();
+		ghostHeadSequence = ghostTailSequence = ghostTotalBytes = 0;
 		for (Allocation allocation : allocations) {
 			if (allocation != null) {
 				allocation.cursor = 0;
 				allocation.freeBytesAhead = allocation.byteCapacity;
+				allocation.residentBytes = 0;
+				allocation.endMarkerBytes = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return the cache's statistics, with the resident fields refreshed to reflect the current state of the cache
+	 */
+	public ModelCacheStats getStats() {
+		stats.residentEntries = cache.size();
+		stats.residentBlockBytes = blockBytes;
+		stats.residentSharedBytes = sharedBytes;
+		stats.residentEndMarkerBytes = 0;
+		if (stats.allocationCapacities.length != allocations.length) {
+			stats.allocationCapacities = new long[allocations.length];
+			stats.allocationResidentBytes = new long[allocations.length];
+		}
+		for (int i = 0; i < allocations.length; i++) {
+			Allocation allocation = allocations[i];
+			if (allocation == null) {
+				stats.allocationCapacities[i] = stats.allocationResidentBytes[i] = 0;
+			} else {
+				stats.allocationCapacities[i] = allocation.byteCapacity;
+				stats.allocationResidentBytes[i] = allocation.residentBytes;
+				stats.residentEndMarkerBytes += allocation.endMarkerBytes;
+			}
+		}
+		return stats;
+	}
+
+	private void terminate() {
+		stats.terminationHookTrips++;
+		terminationHook.run();
+	}
+
+	private int entryIndex(long sequence) {
+		return (int) sequence & (entryHashes.length - 1);
+	}
+
+	private long addEntry(long hash, long address, long numBytes) {
+		if (tailSequence - headSequence == entryHashes.length) {
+			// Double the capacity of the ring, keeping each entry at the index derived from its sequence number
+			long[] hashes = new long[entryHashes.length * 2];
+			long[] addresses = new long[hashes.length];
+			long[] bytes = new long[hashes.length];
+			byte[] flags = new byte[hashes.length];
+			long[] blockIds = new long[hashes.length];
+			int[] refCounts = new int[hashes.length];
+			for (long seq = headSequence; seq < tailSequence; seq++) {
+				int from = entryIndex(seq);
+				int to = (int) seq & (hashes.length - 1);
+				hashes[to] = entryHashes[from];
+				addresses[to] = entryAddresses[from];
+				bytes[to] = entryBytes[from];
+				flags[to] = entryFlags[from];
+				blockIds[to] = entryBlockIds[from];
+				refCounts[to] = entryRefCounts[from];
+			}
+			entryHashes = hashes;
+			entryAddresses = addresses;
+			entryBytes = bytes;
+			entryFlags = flags;
+			entryBlockIds = blockIds;
+			entryRefCounts = refCounts;
+		}
+
+		if (address == 0) {
+			currentAllocation.endMarkerBytes += numBytes;
+		} else {
+			currentAllocation.residentBytes += numBytes;
+		}
+
+		long sequence = tailSequence++;
+		int i = entryIndex(sequence);
+		entryHashes[i] = hash;
+		entryAddresses[i] = address;
+		entryBytes[i] = numBytes;
+		entryFlags[i] = 0;
+		entryBlockIds[i] = 0;
+		entryRefCounts[i] = 0;
+		return sequence;
+	}
+
+	/**
+	 * Appends a copy of an entry which has just been removed from the head of the ring, with the specified address,
+	 * and updates whichever index refers to the entry.
+	 *
+	 * @return the sequence number of the copy
+	 */
+	private long moveEntry(long sequence, long address) {
+		assert sequence < headSequence;
+		int i = entryIndex(sequence);
+		long hash = entryHashes[i];
+		byte flags = entryFlags[i];
+		long blockId = entryBlockIds[i];
+		int refCount = entryRefCounts[i];
+		// The copy may end up in the same slot if the ring is full
+		long newSequence = addEntry(hash, address, entryBytes[i]);
+		int j = entryIndex(newSequence);
+		entryFlags[j] = flags;
+		entryBlockIds[j] = blockId;
+		entryRefCounts[j] = refCount;
+		if ((flags & FLAG_BLOCK) != 0) {
+			blockIndex.replace(blockId, sequence, newSequence);
+		} else {
+			cache.replace(hash, sequence, newSequence);
+		}
+		return newSequence;
+	}
+
+	/**
+	 * Maps the hash to the entry, releasing any alias which the hash previously mapped to.
+	 */
+	private void putEntry(long hash, long sequence) {
+		long previousSequence = cache.put(hash, sequence);
+		if (previousSequence == ModelCacheIndex.EMPTY)
+			return;
+		stats.replacedEntries++;
+		int i = entryIndex(previousSequence);
+		if ((entryFlags[i] & FLAG_ALIAS) != 0)
+			releaseBlock(entryBlockIds[i]);
+	}
+
+	private void retainBlock(long blockId) {
+		long sequence = blockIndex.get(blockId);
+		if (sequence == ModelCacheIndex.EMPTY)
+			return;
+		int i = entryIndex(sequence);
+		entryRefCounts[i]++;
+		sharedBytes += entryBytes[i];
+	}
+
+	private void releaseBlock(long blockId) {
+		// The block may already have been evicted, leaving the alias orphaned
+		long sequence = blockIndex.get(blockId);
+		if (sequence == ModelCacheIndex.EMPTY)
+			return;
+		int i = entryIndex(sequence);
+		assert entryRefCounts[i] > 0;
+		entryRefCounts[i]--;
+		sharedBytes -= entryBytes[i];
+	}
+
+	/**
+	 * Removes a shared block which is being freed from the indices, orphaning any aliases which still refer to it. This
+	 * only happens if there wasn't enough space left to spare the block, and orphaned aliases are dropped from the index
+	 * as soon as they're looked up.
+	 */
+	private void freeBlock(long sequence) {
+		int i = entryIndex(sequence);
+		long numBytes = entryBytes[i];
+		blockIndex.remove(entryBlockIds[i], sequence);
+		contentIndex.remove(entryHashes[i], entryBlockIds[i]);
+		blockBytes -= numBytes;
+		sharedBytes -= entryRefCounts[i] * numBytes;
+	}
+
+	/**
+	 * Remembers the hash of an evicted entry, if the cache is adaptively sized.
+	 */
+	private void addGhost(long hash, long numBytes) {
+		if (adaptiveChunkBytes == 0)
+			return;
+
+		if (ghostTailSequence - ghostHeadSequence == ghostHashes.length) {
+			int capacity = ghostHashes.length * 2;
+			long[] hashes = new long[capacity];
+			long[] bytes = new long[capacity];
+			for (long seq = ghostHeadSequence; seq < ghostTailSequence; seq++) {
+				int from = (int) seq & (ghostHashes.length - 1);
+				int to = (int) seq & (capacity - 1);
+				hashes[to] = ghostHashes[from];
+				bytes[to] = ghostBytes[from];
+			}
+			ghostHashes = hashes;
+			ghostBytes = bytes;
+		}
+
+		long sequence = ghostTailSequence++;
+		int i = (int) sequence & (ghostHashes.length - 1);
+		ghostHashes[i] = hash;
+		ghostBytes[i] = numBytes;
+		ghostTotalBytes += numBytes;
+		ghostIndex.put(hash, sequence);
+
+		// Only remember as many evictions as one more chunk would have been able to hold
+		while (ghostTotalBytes > adaptiveChunkBytes || ghostTailSequence - ghostHeadSequence > MAX_GHOST_ENTRIES) {
+			sequence = ghostHeadSequence++;
+			i = (int) sequence & (ghostHashes.length - 1);
+			ghostIndex.remove(ghostHashes[i], sequence);
+			ghostTotalBytes -= ghostBytes[i];
+		}
+	}
+
+	/**
+	 * @return whether the JVM's heap is almost full even after garbage collection, or the system is low on memory
+	 */
+	private static boolean isUnderMemoryPressure() {
+		try {
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() != MemoryType.HEAP)
+					continue;
+				MemoryUsage usage = pool.getCollectionUsage();
+				if (usage != null && usage.getMax() > 0 && usage.getUsed() > usage.getMax() * HEAP_PRESSURE_THRESHOLD)
+					return true;
+			}
+
+			long freePhysicalMemory = ((com.sun.management.OperatingSystemMXBean)
+				ManagementFactory.getOperatingSystemMXBean()).getFreePhysicalMemorySize();
+			return freePhysicalMemory < MIN_FREE_PHYSICAL_MEMORY;
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Overrides how memory pressure is detected, for testing purposes.
+	 */
+	void setMemoryPressureMonitor(BooleanSupplier memoryPressureMonitor) {
+		this.memoryPressureMonitor = memoryPressureMonitor;
+	}
+
+	/**
+	 * Decides whether an adaptively sized cache should grow or shrink by a chunk. Called whenever the current allocation
+	 * has been filled up, right before moving on to the next allocation, which holds the oldest entries.
+	 */
+	private void adaptSize() {
+		if (adaptiveChunkBytes == 0)
+			return;
+
+		boolean underPressure = memoryPressureMonitor.getAsBoolean();
+		if (underPressure && allocations.length > 1) {
+			log.debug("Shrinking model cache due to memory pressure");
+			releaseNextAllocation();
+			windowLookups = windowGhostHits = 0;
+			return;
+		}
+
+		double ghostHitRate = windowLookups == 0 ? 0 : (double) windowGhostHits / windowLookups;
+		if (ghostHitRate >= GROW_GHOST_HIT_RATE) {
+			if (!underPressure && getByteCapacity() + adaptiveChunkBytes <= maxByteCapacity)
+				growAllocations(ghostHitRate);
+			windowLookups = windowGhostHits = 0;
+			return;
+		}
+
+		// Give the cache a full cycle through its allocations after resizing, before considering shrinking it
+		if (++wrapsSinceResize < allocations.length)
+			return;
+		if (
+			allocations.length > 1 &&
+			ghostHitRate < SHRINK_GHOST_HIT_RATE &&
+			getNextAllocationReferencedShare() < SHRINK_REFERENCED_SHARE
+		) {
+			log.debug("Shrinking model cache, since it's larger than the working set");
+			releaseNextAllocation();
+		}
+		windowLookups = windowGhostHits = 0;
+	}
+
+	private long getByteCapacity() {
+		long byteCapacity = 0;
+		for (Allocation allocation : allocations)
+			byteCapacity += allocation.byteCapacity;
+		return byteCapacity;
+	}
+
+	private int getNextAllocationIndex() {
+		return (currentAllocationIndex + 1) % allocations.length;
+	}
+
+	/**
+	 * @return whether the allocation has never been used, in which case no entries reside in it
+	 */
+	private static boolean isUnused(Allocation allocation) {
+		// Allocations which have been moved on from are left with no free bytes ahead
+		return allocation.cursor == 0 && allocation.freeBytesAhead == allocation.byteCapacity;
+	}
+
+	/**
+	 * @return the share of bytes in the next allocation which belong to entries that have been hit since they were
+	 * inserted or spared. The next allocation's entries are the oldest in the ring, up until its end marker.
+	 */
+	private double getNextAllocationReferencedShare() {
+		Allocation next = allocations[getNextAllocationIndex()];
+		if (isUnused(next) || next.residentBytes == 0)
+			return 0;
+
+		long referencedBytes = 0;
+		for (long sequence = headSequence; sequence < tailSequence; sequence++) {
+			int i = entryIndex(sequence);
+			if ((entryFlags[i] & FLAG_ALIAS) != 0)
+				continue;
+			if (entryAddresses[i] == 0)
+				break;
+			if ((entryFlags[i] & FLAG_REFERENCED) != 0)
+				referencedBytes += entryBytes[i];
+		}
+		return (double) referencedBytes / next.residentBytes;
+	}
+
+	private void growAllocations(double ghostHitRate) {
+		Allocation allocation;
+		try {
+			allocation = new Allocation(adaptiveChunkBytes);
+		} catch (Throwable err) {
+			log.warn("Unable to grow the model cache by {} MiB. Limiting it to its current size", adaptiveChunkBytes / MiB, err);
+			maxByteCapacity = getByteCapacity();
+			return;
+		}
+
+		// Insert the new allocation right after the current one, so it's filled up next without evicting anything
+		int index = currentAllocationIndex + 1;
+		Allocation[] grown = Arrays.copyOf(allocations, allocations.length + 1);
+		System.arraycopy(allocations, index, grown, index + 1, allocations.length - index);
+		grown[index] = allocation;
+		allocations = grown;
+		stats.grownAllocations++;
+		wrapsSinceResize = 0;
+		log.debug("Growing model cache to {} MiB, since {}% of lookups were for recently evicted entries",
+			getByteCapacity() / MiB, String.format("%.1f", ghostHitRate * 100));
+	}
+
+	/**
+	 * Evicts every entry in the next allocation, and frees it. Since the next allocation holds the oldest entries, this
+	 * is the same as what would happen to them once the cursor reaches them, except all at once.
+	 */
+	private void releaseNextAllocation() {
+		assert allocations.length > 1;
+		int index = getNextAllocationIndex();
+		Allocation allocation = allocations[index];
+
+		if (!isUnused(allocation)) {
+			while (true) {
+				assert headSequence < tailSequence;
+				long sequence = headSequence++;
+				int i = entryIndex(sequence);
+				long hash = entryHashes[i];
+				long numBytes = entryBytes[i];
+				byte flags = entryFlags[i];
+				if ((flags & FLAG_ALIAS) != 0) {
+					// Aliases take up no space, so they can be kept around for as long as they're in use
+					if (cache.get(hash) == sequence)
+						moveEntry(sequence, 0);
+					continue;
+				}
+
+				// The allocation's entries end with the end marker added once the cursor moved on from it
+				if (entryAddresses[i] == 0)
+					break;
+
+				if ((flags & FLAG_BLOCK) != 0) {
+					freeBlock(sequence);
+				} else if (cache.remove(hash, sequence)) {
+					stats.evictedEntries++;
+					addGhost(hash, numBytes);
+				}
+				stats.evictedBytes += numBytes;
 			}
 		}
+
+		allocation.destroy();
+		Allocation[] shrunk = new Allocation[allocations.length - 1];
+		System.arraycopy(allocations, 0, shrunk, 0, index);
+		System.arraycopy(allocations, index + 1, shrunk, index, allocations.length - index - 1);
+		allocations = shrunk;
+		if (index < currentAllocationIndex)
+			currentAllocationIndex--;
+		stats.releasedAllocations++;
+		wrapsSinceResize = 0;
+		log.debug("Shrunk model cache to {} MiB", getByteCapacity() / MiB);
 	}
 
-	private Buffer get(int hash) {
-		return cache.get(hash);
+	private void addEndMarker(long numBytes) {
+		stats.endMarkers++;
+		stats.endMarkerBytes += numBytes;
+		addEntry(0, 0, numBytes);
 	}
 
 	private void nextAllocation() {
@@ -211,43 +971,72 @@ public class ModelCache {
 			// Move the existing regions to the end of the buffer list
 			while (currentAllocation.bytesFromEnd() != currentAllocation.freeBytesAhead) {
 				assert currentAllocation.bytesFromEnd() > currentAllocation.freeBytesAhead;
-				Buffer buffer = buffers.pollFirst();
-				if (buffer == null) {
+				if (headSequence == tailSequence) {
 					log.error("No more cache entries left to free, yet the allocation is still in use ({} != {})",
 						currentAllocation.bytesFromEnd(), currentAllocation.freeBytesAhead);
-					terminationHook.run();
+					terminate();
 					return 0;
 				}
 
-				if (buffer.endMarker) {
-					// Shift unused space to the end of the buffer, as detailed above
-					currentAllocation.freeBytesAhead += buffer.byteCapacity;
+				long sequence = headSequence++;
+				int i = entryIndex(sequence);
+				long entryAddress = entryAddresses[i];
+				long entryByteCapacity = entryBytes[i];
+				byte flags = entryFlags[i];
+
+				if ((flags & FLAG_ALIAS) != 0) {
+					// Aliases take up no space, so they can be kept around for as long as they're in use
+					if (cache.get(entryHashes[i]) == sequence)
+						moveEntry(sequence, 0);
+				} else if (entryAddress == 0 || (flags & FLAG_BLOCK) != 0 && entryRefCounts[i] == 0) {
+					// Shift unused space to the end of the buffer, as detailed above. Shared blocks which are no
+					// longer referred to by any aliases can be freed right away, since they're of no use
+					if (entryAddress == 0) {
+						currentAllocation.endMarkerBytes -= entryByteCapacity;
+					} else {
+						currentAllocation.residentBytes -= entryByteCapacity;
+						freeBlock(sequence);
+						stats.evictedBytes += entryByteCapacity;
+					}
+					currentAllocation.freeBytesAhead += entryByteCapacity;
 					assert currentAllocation.cursor + currentAllocation.freeBytesAhead <= currentAllocation.byteCapacity;
 				} else {
-					// Move the buffer to the end of the list, and pretend we've shifted it to the left as detailed above
-					buffers.addLast(buffer);
-					currentAllocation.cursor += buffer.byteCapacity;
+					// Move the entry to the end of the list, and pretend we've shifted it to the left as detailed above
+					currentAllocation.residentBytes -= entryByteCapacity;
+					moveEntry(sequence, entryAddress);
+					currentAllocation.cursor += entryByteCapacity;
 				}
 			}
 
+			// Entries taking up no space may be left over from the allocation's previous cycle. Clear them out of the
+			// way, so the oldest entries in the ring are those of the next allocation
+			long end = tailSequence;
+			while (headSequence < end && entryBytes[entryIndex(headSequence)] == 0) {
+				long sequence = headSequence++;
+				int i = entryIndex(sequence);
+				if ((entryFlags[i] & FLAG_ALIAS) != 0 && cache.get(entryHashes[i]) == sequence)
+					moveEntry(sequence, 0);
+			}
+
 			// Consume the remaining free bytes of the allocation
-			buffers.addLast(new Buffer(currentAllocation.freeBytesAhead));
+			addEndMarker(currentAllocation.freeBytesAhead);
+			adaptSize();
 			// Advance to the next allocation, or the beginning of the same allocation if there is only one
 			nextAllocation();
 
 			if (currentAllocation.bytesFromEnd() < numBytes) {
 				log.error("Failed to reserve space for {} bytes. Too large to fit in allocation {} of size {}",
 					numBytes, currentAllocationIndex, currentAllocation.byteCapacity);
-				terminationHook.run();
+				terminate();
 				return 0;
 			}
 		}
 
 		while (currentAllocation.freeBytesAhead < numBytes) {
-			if (removeOldestCacheEntry() == null) {
+			if (!removeOldestCacheEntry(numBytes)) {
 				log.error("No more cache entries left to free, yet there aren't enough free bytes ({} < {})",
 					currentAllocation.freeBytesAhead, numBytes);
-				terminationHook.run();
+				terminate();
 				return 0;
 			}
 		}
@@ -255,56 +1044,223 @@ public class ModelCache {
 		return currentAllocation.reserve(numBytes);
 	}
 
-	private Buffer removeOldestCacheEntry() {
-		Buffer buffer = buffers.pollFirst();
+	/**
+	 * Frees the oldest entry, unless the eviction policy decides to spare it, in which case the entry is moved to the
+	 * cursor and appended to the end of the ring instead. An entry is only spared if there is still enough space left
+	 * in the current allocation to fit the pending reservation afterwards. Shared blocks are written before any of the
+	 * aliases referring to them, so regardless of the eviction policy, they're spared for as long as any alias still
+	 * refers to them, and never once none do.
+	 *
+	 * @param pendingReservation number of bytes which are about to be reserved
+	 * @return false if there were no entries left
+	 */
+	private boolean removeOldestCacheEntry(long pendingReservation) {
+		if (headSequence == tailSequence)
+			return false;
+
+		long sequence = headSequence++;
+		int i = entryIndex(sequence);
+		long address = entryAddresses[i];
+		long numBytes = entryBytes[i];
+		byte flags = entryFlags[i];
+		boolean secondChance = evictionPolicy == ModelCacheEvictionPolicy.SECOND_CHANCE && (flags & FLAG_REFERENCED) != 0;
+
+		if ((flags & FLAG_ALIAS) != 0) {
+			// Aliases take up no space, so sparing them is free
+			long hash = entryHashes[i];
+			if (cache.get(hash) != sequence)
+				return true;
+			if (secondChance) {
+				stats.sparedEntries++;
+				entryFlags[entryIndex(moveEntry(sequence, 0))] &= ~FLAG_REFERENCED;
+				return true;
+			}
+			cache.remove(hash, sequence);
+			long blockSequence = blockIndex.get(entryBlockIds[i]);
+			addGhost(hash, blockSequence == ModelCacheIndex.EMPTY ? 0 : entryBytes[entryIndex(blockSequence)]);
+			releaseBlock(entryBlockIds[i]);
+			stats.evictedEntries++;
+			return true;
+		}
+
+		if (address != 0) {
+			// Normally, these addresses will be equal, but in case they've been "shifted" as detailed in the
+			// reserve function, the entry's actual address will be larger than the cursor position
+			assert currentAllocation.address + currentAllocation.cursor + currentAllocation.freeBytesAhead <= address;
 
-		if (buffer != null) {
-			if (!buffer.endMarker) {
-				cache.remove(buffer.hash, buffer);
-				// Normally, these addresses will be equal, but in case they've been "shifted" as detailed in the
-				// reserve function, the buffer's actual address will be larger than the cursor position
-				assert currentAllocation.address + currentAllocation.cursor + currentAllocation.freeBytesAhead <=
-					MemoryUtil.memAddress0(buffer.intBuffer == null ? buffer.floatBuffer : buffer.intBuffer);
+			boolean isBlock = (flags & FLAG_BLOCK) != 0;
+			if (
+				(isBlock ? entryRefCounts[i] > 0 : secondChance) &&
+				currentAllocation.bytesFromEnd() - numBytes >= pendingReservation
+			) {
+				// Everything between the cursor and the entry is free, so the entry can be moved back to the cursor,
+				// leaving the amount of free bytes ahead unchanged. The regions may overlap, so use memmove
+				long newAddress = currentAllocation.address + currentAllocation.cursor;
+				if (newAddress != address) {
+					LibCString.nmemmove(newAddress, address, numBytes);
+					stats.relocatedBytes += numBytes;
+				}
+				currentAllocation.cursor += numBytes;
+				currentAllocation.residentBytes -= numBytes;
+				stats.sparedEntries++;
+				entryFlags[entryIndex(moveEntry(sequence, newAddress))] &= ~FLAG_REFERENCED;
+				return true;
 			}
 
-			currentAllocation.freeBytesAhead += buffer.byteCapacity;
-			assert currentAllocation.cursor + currentAllocation.freeBytesAhead <= currentAllocation.byteCapacity;
+			currentAllocation.residentBytes -= numBytes;
+			if (isBlock) {
+				freeBlock(sequence);
+				stats.evictedBytes += numBytes;
+			} else if (cache.remove(entryHashes[i], sequence)) {
+				stats.evictedEntries++;
+				stats.evictedBytes += numBytes;
+				addGhost(entryHashes[i], numBytes);
+			}
+		} else {
+			currentAllocation.endMarkerBytes -= numBytes;
 		}
 
-		return buffer;
+		currentAllocation.freeBytesAhead += numBytes;
+		assert currentAllocation.cursor + currentAllocation.freeBytesAhead <= currentAllocation.byteCapacity;
+		return true;
 	}
 
-	public IntBuffer getIntBuffer(int hash) {
-		Buffer buffer = get(hash);
-		if (buffer == null)
-			return null;
-		return buffer.intBuffer;
+	/**
+	 * Looks up cached data for the specified hash. To guard against hash collisions, the hit is only accepted if the
+	 * size of the cached data also matches.
+	 *
+	 * @param hash     of the cached data
+	 * @param numBytes expected size of the cached data
+	 * @return the address of the cached data, or zero if the hash isn't cached with the expected size.
+	 * The address stays valid until the next call to {@link #reserve(long, long)} or
+	 * {@link #putShared(long, long, long, long)}.
+	 */
+	public long get(long hash, long numBytes) {
+		windowLookups++;
+		long sequence = cache.get(hash);
+		if (sequence == ModelCacheIndex.EMPTY) {
+			long ghostSequence = ghostIndex.get(hash);
+			if (ghostSequence != ModelCacheIndex.EMPTY) {
+				// The entry was evicted recently, and would still have been cached if the cache were a chunk larger
+				ghostIndex.remove(hash, ghostSequence);
+				windowGhostHits++;
+				stats.ghostHits++;
+			}
+			return 0;
+		}
+		int i = entryIndex(sequence);
+		if ((entryFlags[i] & FLAG_ALIAS) != 0) {
+			long blockSequence = blockIndex.get(entryBlockIds[i]);
+			if (blockSequence == ModelCacheIndex.EMPTY) {
+				// The alias' block was evicted within the last cycle through the ring, since the alias is still here.
+				// Drop the alias, instead of leaving it in the index until the cursor reaches it
+				cache.remove(hash, sequence);
+				stats.evictedEntries++;
+				if (adaptiveChunkBytes != 0) {
+					windowGhostHits++;
+					stats.ghostHits++;
+				}
+				return 0;
+			}
+			// Mark both the alias and the block as referenced, so neither is evicted before the other
+			entryFlags[i] |= FLAG_REFERENCED;
+			i = entryIndex(blockSequence);
+		}
+
+		if (entryBytes[i] != numBytes)
+			return 0;
+		entryFlags[i] |= FLAG_REFERENCED;
+		return entryAddresses[i];
 	}
 
-	public FloatBuffer getFloatBuffer(int hash) {
-		Buffer buffer = get(hash);
-		if (buffer == null)
-			return null;
-		return buffer.floatBuffer;
+	/**
+	 * Reserves space for caching data under the specified hash, replacing any data previously cached for it.
+	 * The reserved memory stays valid until the next call to {@link #reserve(long, long)},
+	 * {@link #putShared(long, long, long, long)}, {@link #clear()} or {@link #destroy()}, after which it may have
+	 * been freed or relocated.
+	 *
+	 * @param hash     of the data to cache
+	 * @param numBytes to reserve
+	 * @return the address of the reserved memory, or zero if no space could be reserved
+	 */
+	public long reserve(long hash, long numBytes) {
+		long address = reserve(numBytes);
+		if (address == 0L) {
+			stats.failedReservations++;
+			return 0;
+		}
+
+		stats.reservations++;
+		stats.reservedBytes += numBytes;
+		putEntry(hash, addEntry(hash, address, numBytes));
+		return address;
 	}
 
-	public IntBuffer reserveIntBuffer(int hash, int capacity) {
-		long address = reserve(capacity * 4L);
-		if (address == 0L)
-			return null;
-		Buffer buffer = new Buffer(hash, MemoryUtil.memIntBuffer(address, capacity));
-		cache.put(hash, buffer);
-		buffers.addLast(buffer);
-		return buffer.intBuffer;
+	/**
+	 * Copies data into the cache under the specified hash, replacing any data previously cached for it. Identical data
+	 * is only stored once, in a shared block keyed by a hash of its content. Each hash cached this way is an alias
+	 * taking up no space of its own, which refers to a shared block. Blocks count the aliases referring to them, and
+	 * are freed as soon as the cursor reaches a block without any. Blocks which are still referred to are only evicted
+	 * if there's no space left to spare them, which leaves their aliases orphaned, so lookups through them will miss.
+	 *
+	 * @param hash        of the data to cache
+	 * @param contentHash hash of the data's bytes, which are compared byte-for-byte against any block with the same hash
+	 * @param source      address of the data to copy
+	 * @param numBytes    size of the data
+	 * @return whether space could be reserved for the data
+	 */
+	public boolean putShared(long hash, long contentHash, long source, long numBytes) {
+		long blockId = contentIndex.get(contentHash);
+		if (blockId != ModelCacheIndex.EMPTY) {
+			long blockSequence = blockIndex.get(blockId);
+			assert blockSequence != ModelCacheIndex.EMPTY : "content index refers to a freed block";
+			int i = entryIndex(blockSequence);
+			if (entryBytes[i] != numBytes || !contentEquals(entryAddresses[i], source, numBytes))
+				blockId = ModelCacheIndex.EMPTY;
+		}
+
+		if (blockId == ModelCacheIndex.EMPTY) {
+			long address = reserve(numBytes);
+			if (address == 0L) {
+				stats.failedReservations++;
+				return false;
+			}
+
+			MemoryUtil.memCopy(source, address, numBytes);
+			stats.reservedBytes += numBytes;
+			blockBytes += numBytes;
+			blockId = nextBlockId++;
+			long blockSequence = addEntry(contentHash, address, numBytes);
+			int i = entryIndex(blockSequence);
+			entryFlags[i] = FLAG_BLOCK;
+			entryBlockIds[i] = blockId;
+			blockIndex.put(blockId, blockSequence);
+			// In the unlikely event of a content hash collision, the previous block is left to its existing aliases
+			contentIndex.put(contentHash, blockId);
+		} else {
+			stats.deduplicatedReservations++;
+		}
+
+		stats.reservations++;
+		long sequence = addEntry(hash, 0, 0);
+		int i = entryIndex(sequence);
+		entryFlags[i] = FLAG_ALIAS;
+		entryBlockIds[i] = blockId;
+		retainBlock(blockId);
+		putEntry(hash, sequence);
+		return true;
 	}
 
-	public FloatBuffer reserveFloatBuffer(int hash, int capacity) {
-		long address = reserve(capacity * 4L);
-		if (address == 0L)
-			return null;
-		Buffer buffer = new Buffer(hash, MemoryUtil.memFloatBuffer(address, capacity));
-		cache.put(hash, buffer);
-		buffers.addLast(buffer);
-		return buffer.floatBuffer;
+	private static boolean contentEquals(long a, long b, long numBytes) {
+		long i = 0;
+		for (; i + 8 <= numBytes; i += 8) {
+			if (MemoryUtil.memGetLong(a + i) != MemoryUtil.memGetLong(b + i))
+				return false;
+		}
+		for (; i < numBytes; i++) {
+			if (MemoryUtil.memGetByte(a + i) != MemoryUtil.memGetByte(b + i))
+				return false;
+		}
+		return true;
 	}
 }
@@ -0,0 +1,265 @@
+package rs117.hd.model;
+
+import org.lwjgl.system.MemoryUtil;
+
+import static rs117.hd.model.ModelCacheStats.NORMAL_DATA;
+import static rs117.hd.model.ModelCacheStats.UV_DATA;
+
+/**
+ * Compact encodings for model data stored in the model cache. Each face consists of three vertices, each made up of
+ * four 32-bit values as they are laid out in the staging buffers. Vertex data is stored as is, while normals and UVs,
+ * whose fourth component is the same for all vertices of a face, are packed into fewer bytes:
+ * <ul>
+ *     <li>Normals are stored as octahedral 2x16-bit unit vectors, followed by the face's terrain data.
+ *     The shaders normalize the normals anyway, so only their direction is preserved.</li>
+ *     <li>UVs are stored as three 16-bit values per vertex, followed by the face's material data.
+ *     Faces with UVs which are all 16-bit integers, such as vanilla UVs, are stored exactly,
+ *     while any other faces are stored as half-precision floats.</li>
+ * </ul>
+ */
+class ModelCacheEncoding {
+	static final int RAW_BYTES_PER_FACE = ModelPusher.DATUM_PER_FACE * 4;
+	static final int NORMAL_BYTES_PER_FACE = 3 * 4 + 4;
+	static final int UV_BYTES_PER_FACE = 3 * 6 + 2 + 4;
+
+	// Octahedral components are stored as signed 16-bit values, leaving -32768 free to mark zero vectors
+	private static final short ZERO_NORMAL = Short.MIN_VALUE;
+	private static final float SNORM16_MAX = Short.MAX_VALUE;
+
+	private static final short UV_FORMAT_SHORT = 0;
+	private static final short UV_FORMAT_HALF = 1;
+
+	private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+	static {
+		for (int i = 0; i < HALF_TO_FLOAT.length; i++)
+			HALF_TO_FLOAT[i] = halfToFloat(i);
+	}
+
+	static long getEncodedBytes(int dataKind, int faceCount) {
+		switch (dataKind) {
+			case NORMAL_DATA:
+				return (long) faceCount * NORMAL_BYTES_PER_FACE;
+			case UV_DATA:
+				return (long) faceCount * UV_BYTES_PER_FACE;
+			default:
+				return (long) faceCount * RAW_BYTES_PER_FACE;
+		}
+	}
+
+	/**
+	 * Encodes faces from the staging buffer layout at the source address, to the destination address.
+	 */
+	static void encode(int dataKind, long source, long destination, int faceCount) {
+		switch (dataKind) {
+			case NORMAL_DATA:
+				encodeNormals(source, destination, faceCount);
+				break;
+			case UV_DATA:
+				encodeUvs(source, destination, faceCount);
+				break;
+			default:
+				MemoryUtil.memCopy(source, destination, (long) faceCount * RAW_BYTES_PER_FACE);
+				break;
+		}
+	}
+
+	/**
+	 * Decodes faces encoded by {@link #encode} at the source address, to the staging buffer layout at the destination.
+	 */
+	static void decode(int dataKind, long source, long destination, int faceCount) {
+		switch (dataKind) {
+			case NORMAL_DATA:
+				decodeNormals(source, destination, faceCount);
+				break;
+			case UV_DATA:
+				decodeUvs(source, destination, faceCount);
+				break;
+			default:
+				MemoryUtil.memCopy(source, destination, (long) faceCount * RAW_BYTES_PER_FACE);
+				break;
+		}
+	}
+
+	private static void encodeNormals(long source, long destination, int faceCount) {
+		for (int face = 0; face < faceCount; face++) {
+			float w = MemoryUtil.memGetFloat(source + 12);
+			for (int i = 0; i < 3; i++) {
+				long vertex = source + i * 16L;
+				assert MemoryUtil.memGetFloat(vertex + 12) == w : "terrain data differs between vertices";
+				encodeOctahedral(
+					destination + i * 4L,
+					MemoryUtil.memGetFloat(vertex),
+					MemoryUtil.memGetFloat(vertex + 4),
+					MemoryUtil.memGetFloat(vertex + 8)
+				);
+			}
+			MemoryUtil.memPutFloat(destination + 12, w);
+			source += RAW_BYTES_PER_FACE;
+			destination += NORMAL_BYTES_PER_FACE;
+		}
+	}
+
+	private static void decodeNormals(long source, long destination, int faceCount) {
+		for (int face = 0; face < faceCount; face++) {
+			float w = MemoryUtil.memGetFloat(source + 12);
+			for (int i = 0; i < 3; i++) {
+				long vertex = destination + i * 16L;
+				decodeOctahedral(vertex, MemoryUtil.memGetShort(source + i * 4L), MemoryUtil.memGetShort(source + i * 4L + 2));
+				MemoryUtil.memPutFloat(vertex + 12, w);
+			}
+			source += NORMAL_BYTES_PER_FACE;
+			destination += RAW_BYTES_PER_FACE;
+		}
+	}
+
+	private static void encodeOctahedral(long destination, float x, float y, float z) {
+		float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+		if (l1 == 0) {
+			MemoryUtil.memPutShort(destination, ZERO_NORMAL);
+			MemoryUtil.memPutShort(destination + 2, ZERO_NORMAL);
+			return;
+		}
+
+		// Project onto the octahedron, and fold the lower hemisphere over the upper one
+		float u = x / l1;
+		float v = y / l1;
+		if (z < 0) {
+			float foldedU = (1 - Math.abs(v)) * signNotZero(u);
+			v = (1 - Math.abs(u)) * signNotZero(v);
+			u = foldedU;
+		}
+
+		MemoryUtil.memPutShort(destination, (short) Math.round(u * SNORM16_MAX));
+		MemoryUtil.memPutShort(destination + 2, (short) Math.round(v * SNORM16_MAX));
+	}
+
+	private static void decodeOctahedral(long destination, short encodedU, short encodedV) {
+		if (encodedU == ZERO_NORMAL) {
+			MemoryUtil.memPutFloat(destination, 0);
+			MemoryUtil.memPutFloat(destination + 4, 0);
+			MemoryUtil.memPutFloat(destination + 8, 0);
+			return;
+		}
+
+		float u = encodedU / SNORM16_MAX;
+		float v = encodedV / SNORM16_MAX;
+		float z = 1 - Math.abs(u) - Math.abs(v);
+		if (z < 0) {
+			float unfoldedU = (1 - Math.abs(v)) * signNotZero(u);
+			v = (1 - Math.abs(u)) * signNotZero(v);
+			u = unfoldedU;
+		}
+
+		// The result isn't normalized, since the shaders take care of that
+		MemoryUtil.memPutFloat(destination, u);
+		MemoryUtil.memPutFloat(destination + 4, v);
+		MemoryUtil.memPutFloat(destination + 8, z);
+	}
+
+	private static float signNotZero(float f) {
+		return f < 0 ? -1 : 1;
+	}
+
+	private static void encodeUvs(long source, long destination, int faceCount) {
+		for (int face = 0; face < faceCount; face++) {
+			float w = MemoryUtil.memGetFloat(source + 12);
+			short format = UV_FORMAT_SHORT;
+			for (int i = 0; i < 3; i++) {
+				long vertex = source + i * 16L;
+				assert MemoryUtil.memGetFloat(vertex + 12) == w : "material data differs between vertices";
+				for (int j = 0; j < 3; j++) {
+					float f = MemoryUtil.memGetFloat(vertex + j * 4L);
+					if ((short) f != f)
+						format = UV_FORMAT_HALF;
+				}
+			}
+
+			for (int i = 0; i < 3; i++) {
+				for (int j = 0; j < 3; j++) {
+					float f = MemoryUtil.memGetFloat(source + i * 16L + j * 4L);
+					MemoryUtil.memPutShort(
+						destination + (i * 3L + j) * 2,
+						format == UV_FORMAT_SHORT ? (short) f : floatToHalf(f)
+					);
+				}
+			}
+			MemoryUtil.memPutShort(destination + 18, format);
+			MemoryUtil.memPutFloat(destination + 20, w);
+			source += RAW_BYTES_PER_FACE;
+			destination += UV_BYTES_PER_FACE;
+		}
+	}
+
+	private static void decodeUvs(long source, long destination, int faceCount) {
+		for (int face = 0; face < faceCount; face++) {
+			boolean isHalf = MemoryUtil.memGetShort(source + 18) == UV_FORMAT_HALF;
+			float w = MemoryUtil.memGetFloat(source + 20);
+			for (int i = 0; i < 3; i++) {
+				long vertex = destination + i * 16L;
+				for (int j = 0; j < 3; j++) {
+					short s = MemoryUtil.memGetShort(source + (i * 3L + j) * 2);
+					MemoryUtil.memPutFloat(vertex + j * 4L, isHalf ? HALF_TO_FLOAT[s & 0xFFFF] : s);
+				}
+				MemoryUtil.memPutFloat(vertex + 12, w);
+			}
+			source += UV_BYTES_PER_FACE;
+			destination += RAW_BYTES_PER_FACE;
+		}
+	}
+
+	/**
+	 * Converts a float to the nearest half-precision float, rounding ties to even, and saturating to infinity.
+	 */
+	static short floatToHalf(float f) {
+		int bits = Float.floatToRawIntBits(f);
+		int sign = bits >>> 16 & 0x8000;
+		int exponent = bits >>> 23 & 0xFF;
+		int mantissa = bits & 0x7FFFFF;
+
+		if (exponent == 0xFF) // Infinity or NaN
+			return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+
+		int halfExponent = exponent - 127 + 15;
+		if (halfExponent >= 0x1F) // Too large
+			return (short) (sign | 0x7C00);
+
+		if (halfExponent <= 0) {
+			// Subnormal or zero
+			if (halfExponent < -10)
+				return (short) sign;
+			mantissa |= 0x800000;
+			int shift = 14 - halfExponent;
+			int half = mantissa >> shift;
+			int remainder = mantissa & ((1 << shift) - 1);
+			int halfway = 1 << (shift - 1);
+			if (remainder > halfway || (remainder == halfway && (half & 1) != 0))
+				half++;
+			return (short) (sign | half);
+		}
+
+		int half = halfExponent << 10 | mantissa >> 13;
+		int remainder = mantissa & 0x1FFF;
+		// Rounding may carry into the exponent, which correctly rounds up to the next power of two or infinity
+		if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0))
+			half++;
+		return (short) (sign | half);
+	}
+
+	static float halfToFloat(int half) {
+		int sign = (half & 0x8000) << 16;
+		int exponent = half >>> 10 & 0x1F;
+		int mantissa = half & 0x3FF;
+
+		if (exponent == 0x1F)
+			return Float.intBitsToFloat(sign | 0x7F800000 | mantissa << 13);
+
+		if (exponent == 0) {
+			// Subnormal or zero
+			float f = mantissa * 0x1p-24f;
+			return sign == 0 ? f : -f;
+		}
+
+		return Float.intBitsToFloat(sign | (exponent - 15 + 127) << 23 | mantissa << 13);
+	}
+}
@@ -0,0 +1,148 @@
+package rs117.hd.model;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table mapping primitive long keys to non-negative long values, without any boxing or
+ * per-entry allocations. Uses linear probing with backward-shift deletion, so no tombstones are left behind.
+ */
+class ModelCacheIndex {
+	static final long EMPTY = -1;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private long[] values;
+	private int size;
+	private int shift;
+	private int mask;
+
+	ModelCacheIndex() {
+		this(MIN_CAPACITY);
+	}
+
+	ModelCacheIndex(int expectedSize) {
+		allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize * 2 - 1)) << 1));
+	}
+
+	private void allocate(int capacity) {
+		assert Integer.bitCount(capacity) == 1 : "capacity must be a power of two";
+		keys = new long[capacity];
+		values = new long[capacity];
+		Arrays.fill(values, EMPTY);
+		mask = capacity - 1;
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	private int slot(long key) {
+		// Fibonacci hashing, to spread out keys which only differ in their lower bits
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	private int find(long key) {
+		for (int i = slot(key); ; i = (i + 1) & mask) {
+			if (values[i] == EMPTY)
+				return -1;
+			if (keys[i] == key)
+				return i;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return keys.length;
+	}
+
+	public void clear() {
+		if (size == 0)
+			return;
+		Arrays.fill(values, EMPTY);
+		size = 0;
+	}
+
+	/**
+	 * @return the value associated with the key, or {@link #EMPTY} if there is none
+	 */
+	public long get(long key) {
+		int i = find(key);
+		return i == -1 ? EMPTY : values[i];
+	}
+
+	/**
+	 * Associates the key with the specified value, replacing any previous value.
+	 *
+	 * @return the previous value associated with the key, or {@link #EMPTY} if there was none
+	 */
+	public long put(long key, long value) {
+		assert value >= 0 : "negative values are reserved";
+		int i = slot(key);
+		for (; values[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				long previousValue = values[i];
+				values[i] = value;
+				return previousValue;
+			}
+		}
+
+		keys[i] = key;
+		values[i] = value;
+		if (++size > keys.length >>> 1)
+			rehash(keys.length << 1);
+		return EMPTY;
+	}
+
+	/**
+	 * Replaces the value associated with the key, only if it is currently mapped to the expected value.
+	 */
+	public boolean replace(long key, long expectedValue, long newValue) {
+		assert newValue >= 0 : "negative values are reserved";
+		int i = find(key);
+		if (i == -1 || values[i] != expectedValue)
+			return false;
+		values[i] = newValue;
+		return true;
+	}
+
+	/**
+	 * Removes the key, only if it is currently mapped to the expected value.
+	 */
+	public boolean remove(long key, long expectedValue) {
+		int i = find(key);
+		if (i == -1 || values[i] != expectedValue)
+			return false;
+		removeAt(i);
+		return true;
+	}
+
+	private void removeAt(int hole) {
+		// Shift back any entries further along the probe sequence which would become unreachable
+		for (int i = (hole + 1) & mask; values[i] != EMPTY; i = (i + 1) & mask) {
+			int ideal = slot(keys[i]);
+			if (((i - ideal) & mask) >= ((i - hole) & mask)) {
+				keys[hole] = keys[i];
+				values[hole] = values[i];
+				hole = i;
+			}
+		}
+		values[hole] = EMPTY;
+		size--;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		allocate(capacity);
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldValues[j] == EMPTY)
+				continue;
+			int i = slot(oldKeys[j]);
+			while (values[i] != EMPTY)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+}
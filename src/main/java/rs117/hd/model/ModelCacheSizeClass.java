@@ -0,0 +1,37 @@
+package rs117.hd.model;
+
+import rs117.hd.HdPlugin;
+
+/**
+ * Size classes of models, each cached in its own pool with a fixed share of the model cache's memory. This keeps
+ * large models, which churn through the cache quickly and leave large gaps when they don't fit at the end of an
+ * allocation, from evicting the many small models which make up most of the working set.
+ */
+enum ModelCacheSizeClass {
+	SMALL("Small", HdPlugin.SMALL_TRIANGLE_COUNT, .25),
+	MEDIUM("Medium", 2048, .35),
+	LARGE("Large", HdPlugin.MAX_TRIANGLE, .4);
+
+	final String name;
+	final int maxFaceCount;
+	final double budgetShare;
+
+	ModelCacheSizeClass(String name, int maxFaceCount, double budgetShare) {
+		this.name = name;
+		this.maxFaceCount = maxFaceCount;
+		this.budgetShare = budgetShare;
+	}
+
+	static ModelCacheSizeClass of(int faceCount) {
+		if (faceCount <= SMALL.maxFaceCount)
+			return SMALL;
+		if (faceCount <= MEDIUM.maxFaceCount)
+			return MEDIUM;
+		return LARGE;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,223 @@
+package rs117.hd.model;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import static rs117.hd.utils.HDUtils.MiB;
+
+/**
+ * Counters describing how well the {@link ModelCache} is performing, for tuning its size per deployment.
+ * Counters accumulate until {@link #reset()} is called, while the resident fields describe the current state of the
+ * cache, and are refreshed by {@link ModelCache#getStats()}.
+ */
+public class ModelCacheStats {
+	// Kinds of data looked up in the cache
+	public static final int VERTEX_DATA = 0;
+	public static final int NORMAL_DATA = 1;
+	public static final int UV_DATA = 2;
+
+	public long vertexHits;
+	public long vertexMisses;
+	public long normalHits;
+	public long normalMisses;
+	public long uvHits;
+	public long uvMisses;
+
+	public long reservations;
+	public long reservedBytes;
+	public long failedReservations;
+	public long terminationHookTrips;
+	/** Reservations which found identical data already cached in a shared block, and only added an alias to it */
+	public long deduplicatedReservations;
+
+	// Evictions by reason
+	/** Entries freed by the cursor to make room for new data */
+	public long evictedEntries;
+	public long evictedBytes;
+	/** Entries which became unreachable because the same hash was reserved again */
+	public long replacedEntries;
+	/** Entries dropped by clearing the cache */
+	public long clearedEntries;
+	/** Entries spared and moved by the second chance eviction policy */
+	public long sparedEntries;
+	public long relocatedBytes;
+
+	/** Lookups of entries evicted so recently that they would still have been cached if the cache were a chunk larger */
+	public long ghostHits;
+	/** Chunks added to or released from an adaptively sized cache */
+	public long grownAllocations;
+	public long releasedAllocations;
+
+	/** Temporary models whose face arrays were unchanged since they were last hashed, and those which were rehashed */
+	public long memoizedModelHashes;
+	public long rehashedModels;
+	public long hashedFrames;
+
+	/** Bytes left unused at the end of an allocation whenever a reservation had to wrap around */
+	public long endMarkerBytes;
+	public long endMarkers;
+
+	public long residentEntries;
+	public long residentEndMarkerBytes;
+	/** Size of the shared blocks, and the size they would take up if each alias had its own copy */
+	public long residentBlockBytes;
+	public long residentSharedBytes;
+	public long[] allocationCapacities = new long[0];
+	public long[] allocationResidentBytes = new long[0];
+
+	// Lookups and capacity of each size class pool, if the cache is split up into pools
+	public String[] poolNames = new String[0];
+	public long[] poolHits = new long[0];
+	public long[] poolMisses = new long[0];
+	public long[] poolCapacities = new long[0];
+
+	public void reset() {
+		vertexHits = vertexMisses = 0;
+		normalHits = normalMisses = 0;
+		uvHits = uvMisses = 0;
+		reservations = reservedBytes = failedReservations = terminationHookTrips = deduplicatedReservations = 0;
+		evictedEntries = evictedBytes = replacedEntries = clearedEntries = sparedEntries = relocatedBytes = 0;
+		ghostHits = grownAllocations = releasedAllocations = 0;
+		memoizedModelHashes = rehashedModels = hashedFrames = 0;
+		endMarkerBytes = endMarkers = 0;
+	}
+
+	public void recordLookup(int dataKind, boolean hit) {
+		switch (dataKind) {
+			case VERTEX_DATA:
+				if (hit) {
+					vertexHits++;
+				} else {
+					vertexMisses++;
+				}
+				break;
+			case NORMAL_DATA:
+				if (hit) {
+					normalHits++;
+				} else {
+					normalMisses++;
+				}
+				break;
+			case UV_DATA:
+				if (hit) {
+					uvHits++;
+				} else {
+					uvMisses++;
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Adds the counters and resident fields of another set of statistics to this one. Allocations are appended.
+	 */
+	public void add(ModelCacheStats other) {
+		vertexHits += other.vertexHits;
+		vertexMisses += other.vertexMisses;
+		normalHits += other.normalHits;
+		normalMisses += other.normalMisses;
+		uvHits += other.uvHits;
+		uvMisses += other.uvMisses;
+		reservations += other.reservations;
+		reservedBytes += other.reservedBytes;
+		failedReservations += other.failedReservations;
+		terminationHookTrips += other.terminationHookTrips;
+		deduplicatedReservations += other.deduplicatedReservations;
+		evictedEntries += other.evictedEntries;
+		evictedBytes += other.evictedBytes;
+		replacedEntries += other.replacedEntries;
+		clearedEntries += other.clearedEntries;
+		sparedEntries += other.sparedEntries;
+		relocatedBytes += other.relocatedBytes;
+		ghostHits += other.ghostHits;
+		grownAllocations += other.grownAllocations;
+		releasedAllocations += other.releasedAllocations;
+		endMarkerBytes += other.endMarkerBytes;
+		endMarkers += other.endMarkers;
+		residentEntries += other.residentEntries;
+		residentEndMarkerBytes += other.residentEndMarkerBytes;
+		residentBlockBytes += other.residentBlockBytes;
+		residentSharedBytes += other.residentSharedBytes;
+
+		int n = allocationCapacities.length;
+		allocationCapacities = Arrays.copyOf(allocationCapacities, n + other.allocationCapacities.length);
+		allocationResidentBytes = Arrays.copyOf(allocationResidentBytes, n + other.allocationResidentBytes.length);
+		System.arraycopy(other.allocationCapacities, 0, allocationCapacities, n, other.allocationCapacities.length);
+		System.arraycopy(other.allocationResidentBytes, 0, allocationResidentBytes, n, other.allocationResidentBytes.length);
+	}
+
+	/**
+	 * Appends the lookups and capacity of a pool, described by its combined statistics.
+	 */
+	public void addPool(String name, ModelCacheStats pool) {
+		int n = poolNames.length;
+		poolNames = Arrays.copyOf(poolNames, n + 1);
+		poolHits = Arrays.copyOf(poolHits, n + 1);
+		poolMisses = Arrays.copyOf(poolMisses, n + 1);
+		poolCapacities = Arrays.copyOf(poolCapacities, n + 1);
+		poolNames[n] = name;
+		poolHits[n] = pool.vertexHits + pool.normalHits + pool.uvHits;
+		poolMisses[n] = pool.vertexMisses + pool.normalMisses + pool.uvMisses;
+		for (long capacity : pool.allocationCapacities)
+			poolCapacities[n] += capacity;
+	}
+
+	/**
+	 * @return how many times more data the shared blocks would take up if each alias had its own copy
+	 */
+	public double getDedupRatio() {
+		return residentBlockBytes == 0 ? 1 : (double) residentSharedBytes / residentBlockBytes;
+	}
+
+	private static String formatHitRate(long hits, long misses) {
+		long total = hits + misses;
+		return String.format("%.1f%% of %,d", total == 0 ? 0 : hits * 100. / total, total);
+	}
+
+	private static String formatMiB(long bytes) {
+		return String.format("%.1f MiB", (double) bytes / MiB);
+	}
+
+	/**
+	 * Passes a label and formatted value for each statistic to the consumer, in display order.
+	 */
+	public void forEach(BiConsumer<String, String> consumer) {
+		consumer.accept("Vertex hits", formatHitRate(vertexHits, vertexMisses));
+		consumer.accept("Normal hits", formatHitRate(normalHits, normalMisses));
+		consumer.accept("UV hits", formatHitRate(uvHits, uvMisses));
+		for (int i = 0; i < poolNames.length; i++) {
+			consumer.accept(poolNames[i] + " model hits", String.format("%s (%s)",
+				formatHitRate(poolHits[i], poolMisses[i]), formatMiB(poolCapacities[i])));
+		}
+		consumer.accept("Reservations", String.format("%,d (%s)", reservations, formatMiB(reservedBytes)));
+		consumer.accept("Failed reservations", String.format("%,d", failedReservations));
+		consumer.accept("Deduplicated", String.format("%,d", deduplicatedReservations));
+		consumer.accept("Evicted", String.format("%,d (%s)", evictedEntries, formatMiB(evictedBytes)));
+		consumer.accept("Replaced", String.format("%,d", replacedEntries));
+		consumer.accept("Cleared", String.format("%,d", clearedEntries));
+		consumer.accept("Spared", String.format("%,d (%s moved)", sparedEntries, formatMiB(relocatedBytes)));
+		consumer.accept("Ghost hits", String.format("%,d", ghostHits));
+		consumer.accept("Resized", String.format("%,d grown, %,d released", grownAllocations, releasedAllocations));
+		if (hashedFrames > 0) {
+			consumer.accept("Rehashes skipped", String.format("%.1f of %.1f models per frame",
+				(double) memoizedModelHashes / hashedFrames, (double) (memoizedModelHashes + rehashedModels) / hashedFrames));
+		}
+		consumer.accept("Wrap-around waste", String.format("%s in %,d gaps", formatMiB(endMarkerBytes), endMarkers));
+		consumer.accept("Termination hook trips", String.format("%,d", terminationHookTrips));
+		consumer.accept("Resident entries", String.format("%,d", residentEntries));
+		consumer.accept("Resident gaps", formatMiB(residentEndMarkerBytes));
+		consumer.accept("Dedup ratio", String.format("%.2fx (%s in %s)", getDedupRatio(),
+			formatMiB(residentSharedBytes), formatMiB(residentBlockBytes)));
+		for (int i = 0; i < allocationCapacities.length; i++) {
+			consumer.accept("Allocation " + i, String.format("%s / %s",
+				formatMiB(allocationResidentBytes[i]), formatMiB(allocationCapacities[i])));
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Model cache stats:");
+		forEach((label, value) -> sb.append("\n\t").append(label).append(": ").append(value));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,397 @@
+package rs117.hd.model;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Hash functions for the arrays making up a model. {@link ModelHasher} hashes a dozen arrays of every animated model
+ * every frame, so throughput matters as much as quality here.
+ */
+public enum ModelHashEngine {
+    /**
+     * Polynomial hash with a 64-bit multiplier, unrolled by six. Every iteration depends on the result of the previous
+     * one, and similar inputs produce similar hashes until they're mixed.
+     */
+    POLYNOMIAL {
+        @Override
+        public long hash(int[] a, int length) {
+            if (a == null) {
+                return 0;
+            }
+
+            int i = 0;
+            long r = 1;
+            for (; i + 5 < length; i += 6) {
+                r = P6 * r
+                    + P5 * a[i]
+                    + P4 * a[i + 1]
+                    + P3 * a[i + 2]
+                    + P2 * a[i + 3]
+                    + P * a[i + 4]
+                    + a[i + 5];
+            }
+
+            for (; i < length; i++) {
+                r = P * r + a[i];
+            }
+
+            return r;
+        }
+
+        @Override
+        public long hash(short[] a) {
+            if (a == null) {
+                return 0;
+            }
+
+            int i = 0;
+            long r = 1;
+            for (; i + 5 < a.length; i += 6) {
+                r = P6 * r
+                    + P5 * a[i]
+                    + P4 * a[i + 1]
+                    + P3 * a[i + 2]
+                    + P2 * a[i + 3]
+                    + P * a[i + 4]
+                    + a[i + 5];
+            }
+
+            for (; i < a.length; i++) {
+                r = P * r + a[i];
+            }
+
+            return r;
+        }
+
+        @Override
+        public long hash(byte[] a) {
+            if (a == null) {
+                return 0;
+            }
+
+            int i = 0;
+            long r = 1;
+            for (; i + 5 < a.length; i += 6) {
+                r = P6 * r
+                    + P5 * a[i]
+                    + P4 * a[i + 1]
+                    + P3 * a[i + 2]
+                    + P2 * a[i + 3]
+                    + P * a[i + 4]
+                    + a[i + 5];
+            }
+
+            for (; i < a.length; i++) {
+                r = P * r + a[i];
+            }
+
+            return r;
+        }
+
+        @Override
+        public long hash(float[] a) {
+            if (a == null) {
+                return 0;
+            }
+
+            int i = 0;
+            long r = 1;
+            for (; i + 5 < a.length; i += 6) {
+                r = P6 * r
+                    + P5 * Float.floatToIntBits(a[i])
+                    + P4 * Float.floatToIntBits(a[i + 1])
+                    + P3 * Float.floatToIntBits(a[i + 2])
+                    + P2 * Float.floatToIntBits(a[i + 3])
+                    + P * Float.floatToIntBits(a[i + 4])
+                    + Float.floatToIntBits(a[i + 5]);
+            }
+
+            for (; i < a.length; i++) {
+                r = P * r + Float.floatToIntBits(a[i]);
+            }
+
+            return r;
+        }
+
+        @Override
+        public long hashMemory(long address, long numBytes) {
+            long i = 0;
+            long r = 1;
+            for (; i + 47 < numBytes; i += 48) {
+                r = P6 * r
+                    + P5 * MemoryUtil.memGetLong(address + i)
+                    + P4 * MemoryUtil.memGetLong(address + i + 8)
+                    + P3 * MemoryUtil.memGetLong(address + i + 16)
+                    + P2 * MemoryUtil.memGetLong(address + i + 24)
+                    + P * MemoryUtil.memGetLong(address + i + 32)
+                    + MemoryUtil.memGetLong(address + i + 40);
+            }
+
+            for (; i + 7 < numBytes; i += 8) {
+                r = P * r + MemoryUtil.memGetLong(address + i);
+            }
+
+            for (; i < numBytes; i++) {
+                r = P * r + MemoryUtil.memGetByte(address + i);
+            }
+
+            return r;
+        }
+    },
+
+    /**
+     * XXH64 over the little-endian bytes of the array. Each iteration feeds 32 bytes into four independent lanes,
+     * which the CPU can process in parallel, and the lanes are combined and fully avalanched at the end.
+     * Since arrays are hashed by their bytes, an array hashes the same as its contents copied to memory.
+     */
+    MULTI_LANE {
+        @Override
+        public long hash(int[] a, int length) {
+            if (a == null) {
+                return 0;
+            }
+
+            int i = 0;
+            long h;
+            if (length >= 8) {
+                long v1 = X1 + X2, v2 = X2, v3 = 0, v4 = -X1;
+                for (; i + 7 < length; i += 8) {
+                    v1 = round(v1, pack(a[i], a[i + 1]));
+                    v2 = round(v2, pack(a[i + 2], a[i + 3]));
+                    v3 = round(v3, pack(a[i + 4], a[i + 5]));
+                    v4 = round(v4, pack(a[i + 6], a[i + 7]));
+                }
+                h = mergeLanes(v1, v2, v3, v4);
+            } else {
+                h = X5;
+            }
+
+            h += length * 4L;
+            for (; i + 1 < length; i += 2) {
+                h = tail8(h, pack(a[i], a[i + 1]));
+            }
+            if (i < length) {
+                h = tail4(h, a[i]);
+            }
+
+            return avalanche(h);
+        }
+
+        @Override
+        public long hash(short[] a) {
+            if (a == null) {
+                return 0;
+            }
+
+            int i = 0;
+            long h;
+            if (a.length >= 16) {
+                long v1 = X1 + X2, v2 = X2, v3 = 0, v4 = -X1;
+                for (; i + 15 < a.length; i += 16) {
+                    v1 = round(v1, pack(a[i], a[i + 1], a[i + 2], a[i + 3]));
+                    v2 = round(v2, pack(a[i + 4], a[i + 5], a[i + 6], a[i + 7]));
+                    v3 = round(v3, pack(a[i + 8], a[i + 9], a[i + 10], a[i + 11]));
+                    v4 = round(v4, pack(a[i + 12], a[i + 13], a[i + 14], a[i + 15]));
+                }
+                h = mergeLanes(v1, v2, v3, v4);
+            } else {
+                h = X5;
+            }
+
+            h += a.length * 2L;
+            for (; i + 3 < a.length; i += 4) {
+                h = tail8(h, pack(a[i], a[i + 1], a[i + 2], a[i + 3]));
+            }
+            if (i + 1 < a.length) {
+                h = tail4(h, a[i] & 0xFFFF | a[i + 1] << 16);
+                i += 2;
+            }
+            if (i < a.length) {
+                h = tail1(h, (byte) a[i]);
+                h = tail1(h, (byte) (a[i] >> 8));
+            }
+
+            return avalanche(h);
+        }
+
+        @Override
+        public long hash(byte[] a) {
+            if (a == null) {
+                return 0;
+            }
+
+            int i = 0;
+            long h;
+            if (a.length >= 32) {
+                long v1 = X1 + X2, v2 = X2, v3 = 0, v4 = -X1;
+                for (; i + 31 < a.length; i += 32) {
+                    v1 = round(v1, pack(a, i));
+                    v2 = round(v2, pack(a, i + 8));
+                    v3 = round(v3, pack(a, i + 16));
+                    v4 = round(v4, pack(a, i + 24));
+                }
+                h = mergeLanes(v1, v2, v3, v4);
+            } else {
+                h = X5;
+            }
+
+            h += a.length;
+            for (; i + 7 < a.length; i += 8) {
+                h = tail8(h, pack(a, i));
+            }
+            if (i + 3 < a.length) {
+                h = tail4(h, a[i] & 0xFF | (a[i + 1] & 0xFF) << 8 | (a[i + 2] & 0xFF) << 16 | a[i + 3] << 24);
+                i += 4;
+            }
+            for (; i < a.length; i++) {
+                h = tail1(h, a[i]);
+            }
+
+            return avalanche(h);
+        }
+
+        @Override
+        public long hash(float[] a) {
+            if (a == null) {
+                return 0;
+            }
+
+            int i = 0;
+            long h;
+            if (a.length >= 8) {
+                long v1 = X1 + X2, v2 = X2, v3 = 0, v4 = -X1;
+                for (; i + 7 < a.length; i += 8) {
+                    v1 = round(v1, pack(Float.floatToIntBits(a[i]), Float.floatToIntBits(a[i + 1])));
+                    v2 = round(v2, pack(Float.floatToIntBits(a[i + 2]), Float.floatToIntBits(a[i + 3])));
+                    v3 = round(v3, pack(Float.floatToIntBits(a[i + 4]), Float.floatToIntBits(a[i + 5])));
+                    v4 = round(v4, pack(Float.floatToIntBits(a[i + 6]), Float.floatToIntBits(a[i + 7])));
+                }
+                h = mergeLanes(v1, v2, v3, v4);
+            } else {
+                h = X5;
+            }
+
+            h += a.length * 4L;
+            for (; i + 1 < a.length; i += 2) {
+                h = tail8(h, pack(Float.floatToIntBits(a[i]), Float.floatToIntBits(a[i + 1])));
+            }
+            if (i < a.length) {
+                h = tail4(h, Float.floatToIntBits(a[i]));
+            }
+
+            return avalanche(h);
+        }
+
+        @Override
+        public long hashMemory(long address, long numBytes) {
+            long i = 0;
+            long h;
+            if (numBytes >= 32) {
+                long v1 = X1 + X2, v2 = X2, v3 = 0, v4 = -X1;
+                for (; i + 31 < numBytes; i += 32) {
+                    v1 = round(v1, MemoryUtil.memGetLong(address + i));
+                    v2 = round(v2, MemoryUtil.memGetLong(address + i + 8));
+                    v3 = round(v3, MemoryUtil.memGetLong(address + i + 16));
+                    v4 = round(v4, MemoryUtil.memGetLong(address + i + 24));
+                }
+                h = mergeLanes(v1, v2, v3, v4);
+            } else {
+                h = X5;
+            }
+
+            h += numBytes;
+            for (; i + 7 < numBytes; i += 8) {
+                h = tail8(h, MemoryUtil.memGetLong(address + i));
+            }
+            if (i + 3 < numBytes) {
+                h = tail4(h, MemoryUtil.memGetInt(address + i));
+                i += 4;
+            }
+            for (; i < numBytes; i++) {
+                h = tail1(h, MemoryUtil.memGetByte(address + i));
+            }
+
+            return avalanche(h);
+        }
+    };
+
+    // Odd 64-bit multipliers for the polynomial hash, derived from the golden ratio
+    private static final long P = 0x9E3779B97F4A7C15L;
+    private static final long P2 = P * P;
+    private static final long P3 = P2 * P;
+    private static final long P4 = P3 * P;
+    private static final long P5 = P4 * P;
+    private static final long P6 = P5 * P;
+
+    // Primes from the XXH64 specification
+    private static final long X1 = 0x9E3779B185EBCA87L;
+    private static final long X2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long X3 = 0x165667B19E3779F9L;
+    private static final long X4 = 0x85EBCA77C2B2AE63L;
+    private static final long X5 = 0x27D4EB2F165667C5L;
+
+    /**
+     * @param length number of elements to hash, from the start of the array
+     */
+    public abstract long hash(int[] a, int length);
+
+    public abstract long hash(short[] a);
+
+    public abstract long hash(byte[] a);
+
+    public abstract long hash(float[] a);
+
+    public abstract long hashMemory(long address, long numBytes);
+
+    private static long pack(int lo, int hi) {
+        return lo & 0xFFFFFFFFL | (long) hi << 32;
+    }
+
+    private static long pack(short a, short b, short c, short d) {
+        return a & 0xFFFFL | (b & 0xFFFFL) << 16 | (c & 0xFFFFL) << 32 | (long) d << 48;
+    }
+
+    private static long pack(byte[] a, int i) {
+        return a[i] & 0xFFL
+            | (a[i + 1] & 0xFFL) << 8
+            | (a[i + 2] & 0xFFL) << 16
+            | (a[i + 3] & 0xFFL) << 24
+            | (a[i + 4] & 0xFFL) << 32
+            | (a[i + 5] & 0xFFL) << 40
+            | (a[i + 6] & 0xFFL) << 48
+            | (long) a[i + 7] << 56;
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * X2, 31) * X1;
+    }
+
+    private static long mergeLanes(long v1, long v2, long v3, long v4) {
+        long h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = (h ^ round(0, v1)) * X1 + X4;
+        h = (h ^ round(0, v2)) * X1 + X4;
+        h = (h ^ round(0, v3)) * X1 + X4;
+        h = (h ^ round(0, v4)) * X1 + X4;
+        return h;
+    }
+
+    private static long tail8(long h, long input) {
+        return Long.rotateLeft(h ^ round(0, input), 27) * X1 + X4;
+    }
+
+    private static long tail4(long h, int input) {
+        return Long.rotateLeft(h ^ (input & 0xFFFFFFFFL) * X1, 23) * X2 + X3;
+    }
+
+    private static long tail1(long h, byte input) {
+        return Long.rotateLeft(h ^ (input & 0xFFL) * X5, 11) * X1;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 33;
+        h *= X2;
+        h ^= h >>> 29;
+        h *= X3;
+        h ^= h >>> 32;
+        return h;
+    }
+}
@@ -1,5 +1,7 @@
 package rs117.hd.model;
 
+import com.google.common.collect.MapMaker;
+import java.util.Map;
 import javax.inject.Singleton;
 import lombok.NonNull;
 import net.runelite.api.Model;
@@ -8,225 +10,348 @@ import rs117.hd.scene.model_overrides.ModelOverride;
 
 @Singleton
 public class ModelHasher {
+    // Odd 64-bit multiplier derived from the golden ratio
+    private static final long P = 0x9E3779B97F4A7C15L;
+    // Hashes the model's arrays. Kept in a constant, so the JIT can inline the engine's methods
+    static final ModelHashEngine ENGINE = ModelHashEngine.MULTI_LANE;
+
     private Model model;
-	private int faceCount;
-    private int faceColorsOneHash;
-    private int faceColorsTwoHash;
-    private int faceColorsThreeHash;
-    private int faceTransparenciesHash;
-    private int faceTexturesHash;
-    private int textureTrianglesHash;
-    private int xVerticesHash;
-    private int yVerticesHash;
-    private int zVerticesHash;
-    private int faceIndicesOneHash;
-    private int faceIndicesTwoHash;
-    private int faceIndicesThreeHash;
+    private int faceCount;
+    private long faceColorsOneHash;
+    private long faceColorsTwoHash;
+    private long faceColorsThreeHash;
+    private long faceTransparenciesHash;
+    private long faceTexturesHash;
+    private long textureTrianglesHash;
+    private long xVerticesHash;
+    private long yVerticesHash;
+    private long zVerticesHash;
+    private long faceIndicesOneHash;
+    private long faceIndicesTwoHash;
+    private long faceIndicesThreeHash;
+    // Vertex normals are only hashed when needed, since they aren't part of the batch hash
+    private boolean hasVertexNormalHashes;
+    private long xVertexNormalsHash;
+    private long yVertexNormalsHash;
+    private long zVertexNormalsHash;
 
-    public void setModel(Model model) {
-        this.model = model;
-		this.faceCount = model.getFaceCount();
-        this.faceColorsOneHash = fastIntHash(model.getFaceColors1(), -1);
-        this.faceColorsTwoHash = fastIntHash(model.getFaceColors2(), -1);
-        this.faceColorsThreeHash = fastIntHash(model.getFaceColors3(), -1);
-        this.faceTransparenciesHash = fastByteHash(model.getFaceTransparencies());
-        this.faceTexturesHash = fastShortHash(model.getFaceTextures());
-        this.textureTrianglesHash = 0;
-        final byte[] textureFaces = model.getTextureFaces();
-        if (textureFaces != null) {
-            boolean hasVanillaTexturedFaces = false;
-            for (int textureId : textureFaces) {
-                if (textureId != -1) {
-                    hasVanillaTexturedFaces = true;
-                    break;
-                }
-            }
-            if (hasVanillaTexturedFaces) {
-                final int[] texIndices1 = model.getTexIndices1();
-                final int[] texIndices2 = model.getTexIndices2();
-                final int[] texIndices3 = model.getTexIndices3();
-                final int[] vertexX = model.getVerticesX();
-                final int[] vertexY = model.getVerticesY();
-                final int[] vertexZ = model.getVerticesZ();
-                int h = 0;
-                for (int i = 0; i < model.getFaceCount(); i++) {
-                    int texFace = textureFaces[i];
-                    if (texFace == -1) {
-                        continue;
+    /**
+     * Hashes of the arrays of recently hashed models, which can be reused for arrays that are still the same.
+     * Keys are weak and compared by identity.
+     */
+    private final Map<Model, ArrayHashes> memos = new MapMaker().weakKeys().makeMap();
+    private long memoizedModels;
+    private long rehashedModels;
+    private long frames;
+
+    /**
+     * Hashes of a model's arrays, along with the arrays they were computed from. Once a model's arrays have been
+     * created, the client only writes to the buffers it reuses for animated vertices and transparencies, so face
+     * arrays which are the same instances as before are assumed to be unchanged.
+     */
+    private static class ArrayHashes {
+        int faceCount;
+        int[] faceColors1;
+        int[] faceColors2;
+        int[] faceColors3;
+        short[] faceTextures;
+        byte[] textureFaces;
+        int[] texIndices1;
+        int[] texIndices2;
+        int[] texIndices3;
+        int[] faceIndices1;
+        int[] faceIndices2;
+        int[] faceIndices3;
+
+        long faceColorsOneHash;
+        long faceColorsTwoHash;
+        long faceColorsThreeHash;
+        long faceTexturesHash;
+        boolean hasVanillaTexturedFaces;
+        long faceIndicesOneHash;
+        long faceIndicesTwoHash;
+        long faceIndicesThreeHash;
+
+        // Texture triangles are made up of vertex positions, so they're only reused if the vertices are unchanged
+        long xVerticesHash;
+        long yVerticesHash;
+        long zVerticesHash;
+        long textureTrianglesHash;
+
+        boolean matches(Model model) {
+            return
+                faceCount == model.getFaceCount() &&
+                faceColors1 == model.getFaceColors1() &&
+                faceColors2 == model.getFaceColors2() &&
+                faceColors3 == model.getFaceColors3() &&
+                faceTextures == model.getFaceTextures() &&
+                textureFaces == model.getTextureFaces() &&
+                texIndices1 == model.getTexIndices1() &&
+                texIndices2 == model.getTexIndices2() &&
+                texIndices3 == model.getTexIndices3() &&
+                faceIndices1 == model.getFaceIndices1() &&
+                faceIndices2 == model.getFaceIndices2() &&
+                faceIndices3 == model.getFaceIndices3();
+        }
+
+        void update(Model model) {
+            faceCount = model.getFaceCount();
+            faceColors1 = model.getFaceColors1();
+            faceColors2 = model.getFaceColors2();
+            faceColors3 = model.getFaceColors3();
+            faceTextures = model.getFaceTextures();
+            textureFaces = model.getTextureFaces();
+            texIndices1 = model.getTexIndices1();
+            texIndices2 = model.getTexIndices2();
+            texIndices3 = model.getTexIndices3();
+            faceIndices1 = model.getFaceIndices1();
+            faceIndices2 = model.getFaceIndices2();
+            faceIndices3 = model.getFaceIndices3();
+
+            faceColorsOneHash = fastIntHash(faceColors1, -1);
+            faceColorsTwoHash = fastIntHash(faceColors2, -1);
+            faceColorsThreeHash = fastIntHash(faceColors3, -1);
+            faceTexturesHash = fastShortHash(faceTextures);
+            faceIndicesOneHash = fastIntHash(faceIndices1, -1);
+            faceIndicesTwoHash = fastIntHash(faceIndices2, -1);
+            faceIndicesThreeHash = fastIntHash(faceIndices3, -1);
+
+            hasVanillaTexturedFaces = false;
+            if (textureFaces != null) {
+                for (int textureId : textureFaces) {
+                    if (textureId != -1) {
+                        hasVanillaTexturedFaces = true;
+                        break;
                     }
-                    texFace &= 0xff;
-                    final int texA = texIndices1[texFace];
-                    final int texB = texIndices2[texFace];
-                    final int texC = texIndices3[texFace];
-                    h = h * 31 + vertexX[texA];
-                    h = h * 31 + vertexY[texA];
-                    h = h * 31 + vertexZ[texA];
-                    h = h * 31 + vertexX[texB];
-                    h = h * 31 + vertexY[texB];
-                    h = h * 31 + vertexZ[texB];
-                    h = h * 31 + vertexX[texC];
-                    h = h * 31 + vertexY[texC];
-                    h = h * 31 + vertexZ[texC];
                 }
-                this.textureTrianglesHash = h;
             }
+            // Force the texture triangles to be rehashed
+            textureTrianglesHash = -1;
         }
+    }
+
+    public void setModel(Model model) {
+        this.model = model;
+        this.faceCount = model.getFaceCount();
+        this.hasVertexNormalHashes = false;
+
+        // Vertices and transparencies may be written to in place, so they're always hashed
+        this.faceTransparenciesHash = fastByteHash(model.getFaceTransparencies());
         this.xVerticesHash = fastIntHash(model.getVerticesX(), model.getVerticesCount());
         this.yVerticesHash = fastIntHash(model.getVerticesY(), model.getVerticesCount());
         this.zVerticesHash = fastIntHash(model.getVerticesZ(), model.getVerticesCount());
-        this.faceIndicesOneHash = fastIntHash(model.getFaceIndices1(), -1);
-        this.faceIndicesTwoHash = fastIntHash(model.getFaceIndices2(), -1);
-        this.faceIndicesThreeHash = fastIntHash(model.getFaceIndices3(), -1);
-    }
-
-    public int calculateVertexCacheHash() {
-        return fastIntHash(new int[]{
-			this.faceCount,
-            this.faceColorsOneHash,
-            this.faceColorsTwoHash,
-            this.faceColorsThreeHash,
-            this.faceTransparenciesHash,
-            this.faceTexturesHash,
-            this.textureTrianglesHash,
-            this.model.getOverrideAmount(),
-            this.model.getOverrideHue(),
-            this.model.getOverrideSaturation(),
-            this.model.getOverrideLuminance(),
-            faceIndicesOneHash,
-            faceIndicesTwoHash,
-            faceIndicesThreeHash,
-            xVerticesHash,
-            yVerticesHash,
-            zVerticesHash,
-        }, -1);
-    }
-
-    public int calculateNormalCacheHash() {
-        return fastIntHash(new int[]{
-			this.faceCount,
-            this.faceIndicesOneHash,
-            this.faceIndicesTwoHash,
-            this.faceIndicesThreeHash,
-            fastIntHash(this.model.getVertexNormalsX(), -1),
-            fastIntHash(this.model.getVertexNormalsY(), -1),
-            fastIntHash(this.model.getVertexNormalsZ(), -1),
-        }, -1);
-    }
-
-    public int calculateUvCacheHash(int orientation, @NonNull ModelOverride modelOverride) {
-        int h = faceCount;
-        h = h * 31 + (modelOverride.uvType == UvType.VANILLA ? textureTrianglesHash : 0);
-        h = h * 31 + (modelOverride.uvType.orientationDependent ? orientation : 0);
-        h = h * 31 + modelOverride.hashCode();
-        h = h * 31 + faceTexturesHash;
+
+        ArrayHashes memo = memos.get(model);
+        if (memo != null && memo.matches(model)) {
+            memoizedModels++;
+        } else {
+            if (memo == null) {
+                memo = new ArrayHashes();
+                memos.put(model, memo);
+            }
+            memo.update(model);
+            rehashedModels++;
+        }
+
+        this.faceColorsOneHash = memo.faceColorsOneHash;
+        this.faceColorsTwoHash = memo.faceColorsTwoHash;
+        this.faceColorsThreeHash = memo.faceColorsThreeHash;
+        this.faceTexturesHash = memo.faceTexturesHash;
+        this.faceIndicesOneHash = memo.faceIndicesOneHash;
+        this.faceIndicesTwoHash = memo.faceIndicesTwoHash;
+        this.faceIndicesThreeHash = memo.faceIndicesThreeHash;
+
+        this.textureTrianglesHash = 0;
+        if (memo.hasVanillaTexturedFaces) {
+            if (
+                memo.textureTrianglesHash == -1 ||
+                memo.xVerticesHash != xVerticesHash ||
+                memo.yVerticesHash != yVerticesHash ||
+                memo.zVerticesHash != zVerticesHash
+            ) {
+                memo.xVerticesHash = xVerticesHash;
+                memo.yVerticesHash = yVerticesHash;
+                memo.zVerticesHash = zVerticesHash;
+                memo.textureTrianglesHash = hashTextureTriangles(model);
+            }
+            this.textureTrianglesHash = memo.textureTrianglesHash;
+        }
+    }
+
+    private static long hashTextureTriangles(Model model) {
+        final byte[] textureFaces = model.getTextureFaces();
+        final int[] texIndices1 = model.getTexIndices1();
+        final int[] texIndices2 = model.getTexIndices2();
+        final int[] texIndices3 = model.getTexIndices3();
+        final int[] vertexX = model.getVerticesX();
+        final int[] vertexY = model.getVerticesY();
+        final int[] vertexZ = model.getVerticesZ();
+        long h = 0;
+        for (int i = 0; i < model.getFaceCount(); i++) {
+            int texFace = textureFaces[i];
+            if (texFace == -1) {
+                continue;
+            }
+            texFace &= 0xff;
+            final int texA = texIndices1[texFace];
+            final int texB = texIndices2[texFace];
+            final int texC = texIndices3[texFace];
+            h = h * P + vertexX[texA];
+            h = h * P + vertexY[texA];
+            h = h * P + vertexZ[texA];
+            h = h * P + vertexX[texB];
+            h = h * P + vertexY[texB];
+            h = h * P + vertexZ[texB];
+            h = h * P + vertexX[texC];
+            h = h * P + vertexY[texC];
+            h = h * P + vertexZ[texC];
+        }
         return h;
     }
 
-    public int calculateBatchHash() {
-        return calculateVertexCacheHash();
+    /**
+     * Marks the start of a new frame, for reporting how many models are rehashed per frame.
+     */
+    public void nextFrame() {
+        frames++;
     }
 
-    public static int fastIntHash(int[] a, int actualLength) {
-        if (a == null) {
-            return 0;
-        }
+    /**
+     * Adds how many models had their arrays rehashed, and how many could reuse the hashes of unchanged arrays.
+     */
+    public void addStats(ModelCacheStats stats) {
+        stats.memoizedModelHashes = memoizedModels;
+        stats.rehashedModels = rehashedModels;
+        stats.hashedFrames = frames;
+    }
 
-        int i = 0;
-        int r = 1;
-        int length = a.length;
-        if (actualLength != -1) {
-            length = actualLength;
-        }
+    private long combineVertexHashes() {
+        long h = faceCount;
+        h = h * P + faceColorsOneHash;
+        h = h * P + faceColorsTwoHash;
+        h = h * P + faceColorsThreeHash;
+        h = h * P + faceTransparenciesHash;
+        h = h * P + faceTexturesHash;
+        h = h * P + textureTrianglesHash;
+        h = h * P + model.getOverrideAmount();
+        h = h * P + model.getOverrideHue();
+        h = h * P + model.getOverrideSaturation();
+        h = h * P + model.getOverrideLuminance();
+        h = h * P + faceIndicesOneHash;
+        h = h * P + faceIndicesTwoHash;
+        h = h * P + faceIndicesThreeHash;
+        h = h * P + xVerticesHash;
+        h = h * P + yVerticesHash;
+        h = h * P + zVerticesHash;
+        return h;
+    }
 
-        for (; i + 5 < length; i += 6) {
-            r = 31 * 31 * 31 * 31 * 31 * 31 * r
-                + 31 * 31 * 31 * 31 * 31 * a[i]
-                + 31 * 31 * 31 * 31 * a[i + 1]
-                + 31 * 31 * 31 * a[i + 2]
-                + 31 * 31 * a[i + 3]
-                + 31 * a[i + 4]
-                + a[i + 5];
+    private long combineNormalHashes() {
+        if (!hasVertexNormalHashes) {
+            xVertexNormalsHash = fastIntHash(model.getVertexNormalsX(), -1);
+            yVertexNormalsHash = fastIntHash(model.getVertexNormalsY(), -1);
+            zVertexNormalsHash = fastIntHash(model.getVertexNormalsZ(), -1);
+            hasVertexNormalHashes = true;
         }
 
-        for (; i < length; i++) {
-            r = 31 * r + a[i];
-        }
+        long h = faceCount;
+        h = h * P + faceIndicesOneHash;
+        h = h * P + faceIndicesTwoHash;
+        h = h * P + faceIndicesThreeHash;
+        h = h * P + xVertexNormalsHash;
+        h = h * P + yVertexNormalsHash;
+        h = h * P + zVertexNormalsHash;
+        return h;
+    }
 
-        return r;
+    private long combineUvHashes(int orientation, @NonNull ModelOverride modelOverride) {
+        long h = faceCount;
+        h = h * P + (modelOverride.uvType == UvType.VANILLA ? textureTrianglesHash : 0);
+        h = h * P + (modelOverride.uvType.orientationDependent ? orientation : 0);
+        h = h * P + hashUvProperties(modelOverride);
+        h = h * P + faceTexturesHash;
+        return h;
     }
 
-    public static int fastByteHash(byte[] a) {
-        if (a == null) {
-            return 0;
-        }
+    /**
+     * Hashes the properties of a model override which affect the UV data pushed for a model. Unlike the override's
+     * identity hash code, this stays the same across sessions, so UV data persisted by a previous session can be found.
+     */
+    private static long hashUvProperties(ModelOverride modelOverride) {
+        long h = modelOverride.uvType.name().hashCode();
+        h = h * P + Float.floatToIntBits(modelOverride.uvScale);
+        h = h * P + modelOverride.uvOrientation;
+        h = h * P + (modelOverride.forceOverride ? 1 : 0);
+        h = h * P + modelOverride.baseMaterial.name().hashCode();
+        h = h * P + modelOverride.textureMaterial.name().hashCode();
+        // Packed into the material data alongside each face's UVs
+        h = h * P + Float.floatToIntBits(modelOverride.shadowOpacityThreshold);
+        h = h * P + (modelOverride.receiveShadows ? 1 : 0);
+        h = h * P + (modelOverride.flatNormals ? 1 : 0);
+        return h;
+    }
 
-        int i = 0;
-        int r = 1;
-
-        for (; i + 5 < a.length; i += 6) {
-            r = 31 * 31 * 31 * 31 * 31 * 31 * r
-                + 31 * 31 * 31 * 31 * 31 * a[i]
-                + 31 * 31 * 31 * 31 * a[i + 1]
-                + 31 * 31 * 31 * a[i + 2]
-                + 31 * 31 * a[i + 3]
-                + 31 * a[i + 4]
-                + a[i + 5];
-        }
+    /**
+     * Hashes of the model's data, which the model cache relies on alone to tell models apart. Even with a million
+     * models cached, the chance of any two of them colliding is around one in forty million, so hits aren't verified
+     * by a second hash, which would have to be computed from the raw arrays to be of any use, undoing the savings from
+     * reusing the hashes of unchanged arrays.
+     */
+    public long calculateVertexCacheHash() {
+        return mix(combineVertexHashes());
+    }
 
-        for (; i < a.length; i++) {
-            r = 31 * r + a[i];
-        }
+    public long calculateNormalCacheHash() {
+        return mix(combineNormalHashes());
+    }
 
-        return r;
+    public long calculateUvCacheHash(int orientation, @NonNull ModelOverride modelOverride) {
+        return mix(combineUvHashes(orientation, modelOverride));
     }
 
-    public static int fastShortHash(short[] a) {
-        if (a == null) {
-            return 0;
-        }
+    public long calculateBatchHash() {
+        return calculateVertexCacheHash();
+    }
 
-        int i = 0;
-        int r = 1;
-
-        for (; i + 5 < a.length; i += 6) {
-            r = 31 * 31 * 31 * 31 * 31 * 31 * r
-                + 31 * 31 * 31 * 31 * 31 * a[i]
-                + 31 * 31 * 31 * 31 * a[i + 1]
-                + 31 * 31 * 31 * a[i + 2]
-                + 31 * 31 * a[i + 3]
-                + 31 * a[i + 4]
-                + a[i + 5];
-        }
+    /**
+     * A hash of all the data pushed for a temporary model, used to keep it resident on the GPU across frames.
+     */
+    public long calculateResidencyHash(int orientation, @NonNull ModelOverride modelOverride) {
+        long h = calculateVertexCacheHash();
+        h = h * P + calculateNormalCacheHash();
+        h = h * P + calculateUvCacheHash(orientation, modelOverride);
+        return mix(h);
+    }
 
-        for (; i < a.length; i++) {
-            r = 31 * r + a[i];
-        }
+    /**
+     * Finalization step from MurmurHash3, which makes every bit of the input affect every bit of the output.
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
 
-        return r;
+    public static long fastIntHash(int[] a, int actualLength) {
+        return ENGINE.hash(a, actualLength == -1 && a != null ? a.length : actualLength);
     }
 
-    public static int fastFloatHash(float[] a) {
-        if (a == null) {
-            return 0;
-        }
+    public static long fastByteHash(byte[] a) {
+        return ENGINE.hash(a);
+    }
 
-        int i = 0;
-        int r = 1;
-
-        for (; i + 5 < a.length; i += 6) {
-            r = 31 * 31 * 31 * 31 * 31 * 31 * r
-                + 31 * 31 * 31 * 31 * 31 * Float.floatToIntBits(a[i])
-                + 31 * 31 * 31 * 31 * Float.floatToIntBits(a[i + 1])
-                + 31 * 31 * 31 * Float.floatToIntBits(a[i + 2])
-                + 31 * 31 * Float.floatToIntBits(a[i + 3])
-                + 31 * Float.floatToIntBits(a[i + 4])
-                + Float.floatToIntBits(a[i + 5]);
-        }
+    public static long fastShortHash(short[] a) {
+        return ENGINE.hash(a);
+    }
 
-        for (; i < a.length; i++) {
-            r = 31 * r + Float.floatToIntBits(a[i]);
-        }
+    public static long fastMemoryHash(long address, long numBytes) {
+        return ENGINE.hashMemory(address, numBytes);
+    }
 
-        return r;
+    public static long fastFloatHash(float[] a) {
+        return ENGINE.hash(a);
     }
 }
@@ -0,0 +1,57 @@
+package rs117.hd.model;
+
+import javax.annotation.Nullable;
+import net.runelite.api.Tile;
+import rs117.hd.data.materials.Material;
+import rs117.hd.scene.SceneContext;
+import rs117.hd.scene.model_overrides.ModelOverride;
+import rs117.hd.scene.model_overrides.ObjectType;
+
+/**
+ * The inputs of a model being pushed by the {@link ModelPusher}, along with the space reserved for its data in the
+ * staging buffers, and scratch arrays for pushing it. Holding all of this per model allows the data to be computed
+ * on a different thread than the one reserving the space for it.
+ */
+public class ModelPushJob {
+	final ModelSnapshot snapshot = new ModelSnapshot();
+	final int[] faceVertices = new int[12];
+	final float[] faceNormals = new float[12];
+	final int[][] tzHaarRecolored = new int[4][3];
+
+	SceneContext sceneContext;
+	@Nullable
+	Tile tile;
+	long hash;
+	ModelOverride modelOverride;
+	ObjectType objectType;
+	int preOrientation;
+	boolean removeBakedLighting;
+
+	Material baseMaterial;
+	Material textureMaterial;
+	boolean isVanillaTextured;
+	boolean isVanillaUVMapped;
+
+	// Positions in the staging buffers to write the data which wasn't found in the model cache to, or -1 if found
+	int vertexStart;
+	int normalStart;
+	int uvStart;
+
+	// The cache to put the computed data into, or null if the model shouldn't be cached
+	@Nullable
+	ConcurrentModelCache modelCache;
+	long vertexHash;
+	long normalHash;
+	long uvHash;
+
+	/**
+	 * Drops references to the model and scene, so they can be garbage collected.
+	 */
+	void release() {
+		snapshot.release();
+		sceneContext = null;
+		tile = null;
+		modelOverride = null;
+		modelCache = null;
+	}
+}
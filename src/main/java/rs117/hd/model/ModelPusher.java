@@ -1,18 +1,20 @@
 package rs117.hd.model;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
+import java.io.File;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
 import net.runelite.api.ItemID;
 import net.runelite.api.Model;
 import net.runelite.api.Player;
-import net.runelite.api.Scene;
 import net.runelite.api.SceneTileModel;
 import net.runelite.api.SceneTilePaint;
 import net.runelite.api.Tile;
@@ -20,6 +22,7 @@ import net.runelite.api.kit.KitType;
 import net.runelite.client.RuneLite;
 import net.runelite.client.callback.ClientThread;
 import net.runelite.client.util.LinkBrowser;
+import org.lwjgl.system.MemoryUtil;
 import rs117.hd.HdPlugin;
 import rs117.hd.HdPluginConfig;
 import rs117.hd.data.WaterType;
@@ -27,6 +30,7 @@ import rs117.hd.data.materials.Material;
 import rs117.hd.data.materials.Overlay;
 import rs117.hd.data.materials.Underlay;
 import rs117.hd.data.materials.UvType;
+import rs117.hd.scene.ModelOverrideManager;
 import rs117.hd.scene.ProceduralGenerator;
 import rs117.hd.scene.SceneContext;
 import rs117.hd.scene.SceneUploader;
@@ -37,6 +41,9 @@ import rs117.hd.scene.model_overrides.TzHaarRecolorType;
 import rs117.hd.utils.HDUtils;
 import rs117.hd.utils.ModelHash;
 import rs117.hd.utils.PopupUtils;
+import rs117.hd.utils.Props;
+import rs117.hd.utils.buffer.GpuFloatBuffer;
+import rs117.hd.utils.buffer.GpuIntBuffer;
 
 import static rs117.hd.utils.HDUtils.dotLightDirectionModel;
 
@@ -61,6 +68,9 @@ public class ModelPusher {
 	@Inject
 	private ModelHasher modelHasher;
 
+	@Inject
+	private ModelOverrideManager modelOverrideManager;
+
 	public static final int DATUM_PER_FACE = 12;
 	public static final int MAX_MATERIAL_COUNT = (1 << 10) - 1;
 	// subtracts the X lowest lightness levels from the formula.
@@ -72,7 +82,21 @@ public class ModelPusher {
 	// the minimum amount by which each color will be lightened
 	private static final int BASE_LIGHTEN = 10;
 
-	private ModelCache modelCache;
+	private static final long STATS_LOG_INTERVAL_MS =
+		(long) (Double.parseDouble(Props.getOrDefault("rlhd.model-cache-stats-interval", "0")) * 1000);
+	private static final File PERSISTENT_MODEL_CACHE_DIR = new File(RuneLite.RUNELITE_DIR, "117hd");
+
+	// Leave a core for the client thread, which waits for the workers anyway, and the rest of the system
+	private static final int PUSH_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	// Pushing fewer faces than this isn't worth the overhead of handing them to another thread
+	private static final int MIN_FACES_PER_PUSH_TASK = 2048;
+
+	private volatile ConcurrentModelCache modelCache;
+	private long lastStatsLogTime;
+
+	private ModelPushJob[] queuedJobs = new ModelPushJob[256];
+	private int queuedJobCount;
+	private ForkJoinPool pushPool;
 
 	public void startUp() {
 		if (Material.values().length - 1 >= MAX_MATERIAL_COUNT) {
@@ -83,10 +107,17 @@ public class ModelPusher {
 		if (config.enableModelCaching()) {
 			final int size = config.modelCacheSizeMiB();
 			try {
-				modelCache = new ModelCache(size, () -> {
-					shutDown();
-					plugin.stopPlugin();
-				});
+				modelCache = new ConcurrentModelCache(
+					size,
+					config.modelCacheEvictionPolicy(),
+					config.adaptiveModelCacheSize(),
+					config.persistentModelCache() ? PERSISTENT_MODEL_CACHE_DIR : null,
+					calculatePersistenceKey(),
+					() -> {
+						shutDown();
+						plugin.stopPlugin();
+					}
+				);
 			} catch (Throwable err) {
 				log.error("Error while initializing model cache. Stopping the plugin...", err);
 
@@ -133,6 +164,12 @@ public class ModelPusher {
 	}
 
 	public void shutDown() {
+		discardQueuedModels();
+		if (pushPool != null) {
+			pushPool.shutdown();
+			pushPool = null;
+		}
+
 		if (modelCache != null) {
 			modelCache.destroy();
 			modelCache = null;
@@ -141,10 +178,84 @@ public class ModelPusher {
 
 	public void clearModelCache() {
 		if (modelCache != null) {
+			if (modelCache.isPersistent()) {
+				// Persisted entries remain valid until any of the inputs they were computed from change
+				long persistenceKey = calculatePersistenceKey();
+				if (persistenceKey == modelCache.getPersistenceKey())
+					return;
+				modelCache.setPersistenceKey(persistenceKey);
+			}
 			modelCache.clear();
 		}
 	}
 
+	/**
+	 * Calculates a key identifying everything which affects the data pushed for a model, other than the model itself,
+	 * so data persisted by a previous session can be discarded if anything has changed since.
+	 */
+	private long calculatePersistenceKey() {
+		int flags =
+			(plugin.configHideBakedEffects ? 1 : 0) |
+			(plugin.configTzhaarHD ? 1 << 1 : 0) |
+			(plugin.configReduceOverExposure ? 1 << 2 : 0) |
+			(plugin.configModelTextures ? 1 << 3 : 0) |
+			(plugin.configGroundTextures ? 1 << 4 : 0) |
+			(plugin.configGroundBlending ? 1 << 5 : 0) |
+			(plugin.configWinterTheme ? 1 << 6 : 0) |
+			(plugin.configHdInfernalTexture ? 1 << 7 : 0) |
+			(config.enableShadowTransparency() ? 1 << 8 : 0) |
+			config.shadowMode().ordinal() << 16;
+		long hash = ModelHasher.mix(getCodeHash() ^ flags);
+		return ModelHasher.mix(hash ^ modelOverrideManager.getModelOverridesHash());
+	}
+
+	private static long codeHash;
+
+	/**
+	 * Identifies the plugin version by the code which produces, encodes and hashes the cached data.
+	 */
+	private static long getCodeHash() {
+		if (codeHash != 0)
+			return codeHash;
+
+		return codeHash = HDUtils.getCodeHash(
+			ModelPusher.class,
+			ModelCacheEncoding.class,
+			ModelHasher.class,
+			// The engine's methods are compiled into the class of the enum constant
+			ModelHasher.ENGINE.getClass()
+		);
+	}
+
+	/**
+	 * @return statistics for the model cache, or null if model caching is disabled
+	 */
+	@Nullable
+	public ModelCacheStats getModelCacheStats() {
+		final ConcurrentModelCache modelCache = this.modelCache;
+		if (modelCache == null)
+			return null;
+		ModelCacheStats stats = modelCache.getStats();
+		modelHasher.addStats(stats);
+		return stats;
+	}
+
+	/**
+	 * Logs the model cache's statistics, if periodic logging has been enabled through the
+	 * {@code rlhd.model-cache-stats-interval} property, specified in seconds, and the interval has passed.
+	 */
+	public void logModelCacheStatsPeriodically() {
+		if (modelCache == null || STATS_LOG_INTERVAL_MS <= 0)
+			return;
+
+		long now = System.currentTimeMillis();
+		if (now - lastStatsLogTime < STATS_LOG_INTERVAL_MS)
+			return;
+
+		lastStatsLogTime = now;
+		log.info("{}", getModelCacheStats());
+	}
+
 	/**
 	 * Pushes model data to staging buffers in the provided {@link SceneContext}, and writes the pushed number of
 	 * vertices and UVs to {@link SceneContext#modelPusherResults}.
@@ -163,25 +274,132 @@ public class ModelPusher {
 		@NonNull ModelOverride modelOverride, ObjectType objectType, int preOrientation,
 		boolean shouldCache
 	) {
+		final ModelPushJob job = sceneContext.modelPushJob;
+		job.snapshot.wrap(model);
+		if (preparePush(job, sceneContext, tile, hash, modelOverride, objectType, preOrientation, shouldCache))
+			completePush(job);
+		job.release();
+	}
+
+	/**
+	 * Pushes a temporary model like {@link #pushModel}, except the data which isn't found in the model cache is only
+	 * computed once {@link #pushQueuedModels} is called, possibly on multiple threads. Space for the data is reserved in
+	 * the staging buffers right away, so {@link SceneContext#modelPusherResults} and the staging buffer positions are
+	 * the same as if the model had been pushed immediately.
+	 * <p>
+	 * The model's arrays are copied, since the client reuses them for other temporary models.
+	 */
+	public void queueModel(
+		SceneContext sceneContext, long hash, Model model,
+		@NonNull ModelOverride modelOverride, ObjectType objectType, int preOrientation,
+		boolean shouldCache
+	) {
+		if (queuedJobCount == queuedJobs.length)
+			queuedJobs = Arrays.copyOf(queuedJobs, queuedJobs.length * 2);
+		ModelPushJob job = queuedJobs[queuedJobCount];
+		if (job == null)
+			job = queuedJobs[queuedJobCount] = new ModelPushJob();
+
+		job.snapshot.wrap(model);
+		if (preparePush(job, sceneContext, null, hash, modelOverride, objectType, preOrientation, shouldCache)) {
+			job.snapshot.copy(model);
+			queuedJobCount++;
+		} else {
+			job.release();
+		}
+	}
+
+	/**
+	 * Computes the data of all models queued by {@link #queueModel}, spreading the work across worker threads. Must be
+	 * called before the staging buffers are uploaded.
+	 */
+	public void pushQueuedModels() {
+		if (queuedJobCount == 0)
+			return;
+
+		try {
+			if (queuedJobCount == 1) {
+				completePush(queuedJobs[0]);
+			} else {
+				if (pushPool == null)
+					pushPool = new ForkJoinPool(PUSH_THREADS, pool -> {
+						ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+						thread.setName("117HD model pusher " + thread.getPoolIndex());
+						thread.setDaemon(true);
+						return thread;
+					}, null, false);
+				pushPool.invoke(new PushTask(queuedJobs, 0, queuedJobCount));
+			}
+		} finally {
+			discardQueuedModels();
+		}
+	}
+
+	/**
+	 * Discards all queued models, without computing their data.
+	 */
+	public void discardQueuedModels() {
+		for (int i = 0; i < queuedJobCount; i++)
+			queuedJobs[i].release();
+		queuedJobCount = 0;
+	}
+
+	/**
+	 * Completes a range of queued models, splitting it in half until each half holds few enough faces to be worth
+	 * completing on a single thread.
+	 */
+	@RequiredArgsConstructor
+	private class PushTask extends RecursiveAction {
+		private final ModelPushJob[] jobs;
+		private final int start;
+		private final int end;
+
+		@Override
+		protected void compute() {
+			int faceCount = 0;
+			for (int i = start; i < end; i++)
+				faceCount += jobs[i].snapshot.faceCount;
+
+			if (end - start == 1 || faceCount <= MIN_FACES_PER_PUSH_TASK) {
+				for (int i = start; i < end; i++)
+					completePush(jobs[i]);
+				return;
+			}
+
+			int middle = (start + end) >>> 1;
+			invokeAll(new PushTask(jobs, start, middle), new PushTask(jobs, middle, end));
+		}
+	}
+
+	/**
+	 * Looks up the model's data in the model cache, and reserves space in the staging buffers for the data which
+	 * wasn't found, to be computed by {@link #completePush}. Expects the job's snapshot to refer to the model.
+	 *
+	 * @return whether any data remains to be computed
+	 */
+	private boolean preparePush(
+		ModelPushJob job, SceneContext sceneContext, @Nullable Tile tile, long hash,
+		@NonNull ModelOverride modelOverride, ObjectType objectType, int preOrientation,
+		boolean shouldCache
+	) {
+		// The cache may be shut down by another thread while pushing
+		final ConcurrentModelCache modelCache = this.modelCache;
 		if (modelCache == null) {
 			shouldCache = false;
 		}
 
-		final int faceCount = Math.min(model.getFaceCount(), HdPlugin.MAX_TRIANGLE);
+		final ModelSnapshot model = job.snapshot;
+		final int faceCount = model.faceCount;
 		final int bufferSize = faceCount * DATUM_PER_FACE;
-		int vertexLength = 0;
-		int uvLength = 0;
 
 		boolean useMaterialOverrides = plugin.configModelTextures || modelOverride.forceOverride;
-		final short[] faceTextures = model.getFaceTextures();
-		final byte[] textureFaces = model.getTextureFaces();
-		boolean isVanillaTextured = faceTextures != null;
+		boolean isVanillaTextured = model.faceTextures != null;
 		boolean isVanillaUVMapped =
 			isVanillaTextured && // Vanilla UV mapped models don't always have sensible UVs for untextured faces
-			model.getTexIndices1() != null &&
-			model.getTexIndices2() != null &&
-			model.getTexIndices3() != null &&
-			model.getTextureFaces() != null;
+			model.texIndices1 != null &&
+			model.texIndices2 != null &&
+			model.texIndices3 != null &&
+			model.textureFaces != null;
 		Material baseMaterial = Material.NONE;
 		Material textureMaterial = Material.NONE;
 		if (useMaterialOverrides) {
@@ -199,181 +417,199 @@ public class ModelPusher {
 			sceneContext.stagingBufferUvs.ensureCapacity(bufferSize);
 		}
 
+		sceneContext.modelPusherResults[0] = faceCount * 3;
+		sceneContext.modelPusherResults[1] = skipUVs ? 0 : faceCount * 3;
+
 		boolean foundCachedVertexData = false;
 		boolean foundCachedNormalData = false;
 		boolean foundCachedUvData = skipUVs;
-		int vertexHash = 0;
-		int normalHash = 0;
-		int uvHash = 0;
 
 		if (shouldCache) {
-			assert client.isClientThread() : "Model caching isn't thread-safe";
-
-			vertexHash = modelHasher.calculateVertexCacheHash();
-			IntBuffer vertexData = this.modelCache.getIntBuffer(vertexHash);
-			foundCachedVertexData = vertexData != null && vertexData.remaining() == bufferSize;
-			if (foundCachedVertexData) {
-				vertexLength = faceCount * 3;
-				sceneContext.stagingBufferVertices.put(vertexData);
-				vertexData.rewind();
-			}
-
-			normalHash = modelHasher.calculateNormalCacheHash();
-			FloatBuffer normalData = this.modelCache.getFloatBuffer(normalHash);
-			foundCachedNormalData = normalData != null && normalData.remaining() == bufferSize;
-			if (foundCachedNormalData) {
-				sceneContext.stagingBufferNormals.put(normalData);
-				normalData.rewind();
-			}
+			job.vertexHash = modelHasher.calculateVertexCacheHash();
+			int position = sceneContext.stagingBufferVertices.position();
+			foundCachedVertexData = modelCache.get(job.vertexHash, faceCount,
+				sceneContext.stagingBufferVertices.getAddress(position), ModelCacheStats.VERTEX_DATA);
+			if (foundCachedVertexData)
+				sceneContext.stagingBufferVertices.position(position + bufferSize);
+
+			job.normalHash = modelHasher.calculateNormalCacheHash();
+			position = sceneContext.stagingBufferNormals.position();
+			foundCachedNormalData = modelCache.get(job.normalHash, faceCount,
+				sceneContext.stagingBufferNormals.getAddress(position), ModelCacheStats.NORMAL_DATA);
+			if (foundCachedNormalData)
+				sceneContext.stagingBufferNormals.position(position + bufferSize);
 
 			if (!foundCachedUvData) {
-				uvHash = modelHasher.calculateUvCacheHash(preOrientation, modelOverride);
-				FloatBuffer uvData = this.modelCache.getFloatBuffer(uvHash);
-				foundCachedUvData = uvData != null && uvData.remaining() == bufferSize;
-				if (foundCachedUvData) {
-					uvLength = faceCount * 3;
-					sceneContext.stagingBufferUvs.put(uvData);
-					uvData.rewind();
-				}
+				job.uvHash = modelHasher.calculateUvCacheHash(preOrientation, modelOverride);
+				position = sceneContext.stagingBufferUvs.position();
+				foundCachedUvData = modelCache.get(job.uvHash, faceCount,
+					sceneContext.stagingBufferUvs.getAddress(position), ModelCacheStats.UV_DATA);
+				if (foundCachedUvData)
+					sceneContext.stagingBufferUvs.position(position + bufferSize);
 			}
 
-			if (foundCachedVertexData && foundCachedNormalData && foundCachedUvData) {
-				sceneContext.modelPusherResults[0] = vertexLength;
-				sceneContext.modelPusherResults[1] = uvLength;
-				return;
-			}
+			if (foundCachedVertexData && foundCachedNormalData && foundCachedUvData)
+				return false;
 		}
 
-		IntBuffer fullVertexData = null;
-		FloatBuffer fullNormalData = null;
-		FloatBuffer fullUvData = null;
+		// Reserve space for the data which remains to be computed
+		job.vertexStart = reserve(sceneContext.stagingBufferVertices, !foundCachedVertexData, bufferSize);
+		job.normalStart = reserve(sceneContext.stagingBufferNormals, !foundCachedNormalData, bufferSize);
+		job.uvStart = reserve(sceneContext.stagingBufferUvs, !foundCachedUvData, bufferSize);
+
+		job.sceneContext = sceneContext;
+		job.tile = tile;
+		job.hash = hash;
+		job.modelOverride = modelOverride;
+		job.objectType = objectType;
+		job.preOrientation = preOrientation;
+		job.baseMaterial = baseMaterial;
+		job.textureMaterial = textureMaterial;
+		job.isVanillaTextured = isVanillaTextured;
+		job.isVanillaUVMapped = isVanillaUVMapped;
+		job.modelCache = shouldCache ? modelCache : null;
+
+		// Look up the player while still on the calling thread, since the client's state may change during the push
+		job.removeBakedLighting = modelOverride.removeBakedLighting;
+		if (plugin.configHideBakedEffects && !foundCachedVertexData && ModelHash.getType(hash) == ModelHash.TYPE_PLAYER) {
+			int index = ModelHash.getIdOrIndex(hash);
+			Player[] players = client.getCachedPlayers();
+			Player player = index >= 0 && index < players.length ? players[index] : null;
+			if (player != null && player.getPlayerComposition().getEquipmentId(KitType.WEAPON) == ItemID.MAGIC_CARPET) {
+				job.removeBakedLighting = true;
+			}
+		}
 
-		boolean shouldCacheVertexData = false;
-		boolean shouldCacheNormalData = false;
-		boolean shouldCacheUvData = false;
-		if (shouldCache) {
-			shouldCacheVertexData = !foundCachedVertexData;
-			shouldCacheNormalData = !foundCachedNormalData;
-			shouldCacheUvData = !foundCachedUvData;
+		return true;
+	}
 
-			if (shouldCacheVertexData) {
-				fullVertexData = this.modelCache.reserveIntBuffer(vertexHash, bufferSize);
-				if (fullVertexData == null) {
-					log.error("failed to reserve vertex buffer");
-					shouldCacheVertexData = false;
-				}
-			}
+	private static int reserve(GpuIntBuffer buffer, boolean shouldReserve, int size) {
+		if (!shouldReserve)
+			return -1;
+		int position = buffer.position();
+		buffer.position(position + size);
+		return position;
+	}
 
-			if (shouldCacheNormalData) {
-				fullNormalData = this.modelCache.reserveFloatBuffer(normalHash, bufferSize);
-				if (fullNormalData == null) {
-					log.error("failed to reserve normal buffer");
-					shouldCacheNormalData = false;
-				}
-			}
+	private static int reserve(GpuFloatBuffer buffer, boolean shouldReserve, int size) {
+		if (!shouldReserve)
+			return -1;
+		int position = buffer.position();
+		buffer.position(position + size);
+		return position;
+	}
 
-			if (shouldCacheUvData) {
-				fullUvData = this.modelCache.reserveFloatBuffer(uvHash, bufferSize);
-				if (fullUvData == null) {
-					log.error("failed to reserve uv buffer");
-					shouldCacheUvData = false;
-				}
-			}
-		}
+	/**
+	 * Computes the data reserved by {@link #preparePush}, writing it to the reserved positions in the staging buffers.
+	 * Safe to call from any thread, as long as the staging buffers aren't resized in the meantime.
+	 */
+	private void completePush(ModelPushJob job) {
+		final SceneContext sceneContext = job.sceneContext;
+		final ModelSnapshot model = job.snapshot;
+		final ModelOverride modelOverride = job.modelOverride;
+		final int faceCount = model.faceCount;
+		final short[] faceTextures = model.faceTextures;
+		final byte[] textureFaces = model.textureFaces;
+
+		long vertexAddress = job.vertexStart == -1 ? 0 : sceneContext.stagingBufferVertices.getAddress(job.vertexStart);
+		long normalAddress = job.normalStart == -1 ? 0 : sceneContext.stagingBufferNormals.getAddress(job.normalStart);
+		long uvAddress = job.uvStart == -1 ? 0 : sceneContext.stagingBufferUvs.getAddress(job.uvStart);
 
 		for (int face = 0; face < faceCount; face++) {
-			if (!foundCachedVertexData) {
-				getFaceVertices(sceneContext, tile, hash, model, modelOverride, objectType, face);
-				sceneContext.stagingBufferVertices.put(sceneContext.modelFaceVertices);
-				vertexLength += 3;
-
-				if (shouldCacheVertexData) {
-					fullVertexData.put(sceneContext.modelFaceVertices);
-				}
+			if (vertexAddress != 0) {
+				getFaceVertices(job, face);
+				for (int i = 0; i < 12; i++)
+					MemoryUtil.memPutInt(vertexAddress + i * 4L, job.faceVertices[i]);
+				vertexAddress += DATUM_PER_FACE * 4;
 			}
 
-			if (!foundCachedNormalData) {
-				getNormalDataForFace(sceneContext, model, modelOverride, face);
-				sceneContext.stagingBufferNormals.put(sceneContext.modelFaceNormals);
-
-				if (shouldCacheNormalData) {
-					fullNormalData.put(sceneContext.modelFaceNormals);
-				}
+			if (normalAddress != 0) {
+				getNormalDataForFace(job, face);
+				for (int i = 0; i < 12; i++)
+					MemoryUtil.memPutFloat(normalAddress + i * 4L, job.faceNormals[i]);
+				normalAddress += DATUM_PER_FACE * 4;
 			}
 
-			if (!foundCachedUvData) {
-				Material material = baseMaterial;
-				short textureId = isVanillaTextured ? faceTextures[face] : -1;
+			if (uvAddress != 0) {
+				Material material = job.baseMaterial;
+				short textureId = job.isVanillaTextured ? faceTextures[face] : -1;
 				if (textureId != -1) {
-					material = textureMaterial;
+					material = job.textureMaterial;
 					if (material == Material.NONE)
 						material = Material.getTexture(textureId);
 				}
 
 				UvType uvType = modelOverride.uvType;
-				boolean isFaceVanillaTextured = isVanillaUVMapped && textureId != -1 && textureFaces[face] != -1;
+				boolean isFaceVanillaTextured = job.isVanillaUVMapped && textureId != -1 && textureFaces[face] != -1;
 				if (uvType == UvType.VANILLA && !isFaceVanillaTextured)
 					uvType = UvType.GEOMETRY;
 				int materialData = packMaterialData(material, modelOverride, uvType, false);
 
-				final float[] uvData = sceneContext.modelFaceNormals;
+				final float[] uvData = job.faceNormals;
 				if (materialData == 0) {
 					Arrays.fill(uvData, 0);
 				} else {
-					modelOverride.fillUvsForFace(uvData, model, preOrientation, uvType, face);
+					modelOverride.fillUvsForFace(uvData, model, job.preOrientation, uvType, face);
 					uvData[3] = uvData[7] = uvData[11] = materialData;
 				}
 
-				sceneContext.stagingBufferUvs.put(uvData);
-				if (shouldCacheUvData) {
-					fullUvData.put(uvData);
-				}
-				uvLength += 3;
+				for (int i = 0; i < 12; i++)
+					MemoryUtil.memPutFloat(uvAddress + i * 4L, uvData[i]);
+				uvAddress += DATUM_PER_FACE * 4;
 			}
 		}
 
-		if (shouldCacheVertexData) {
-			fullVertexData.flip();
-		}
+		final ConcurrentModelCache modelCache = job.modelCache;
+		if (modelCache != null) {
+			// Copy the freshly computed data from the staging buffers into the cache
+			if (job.vertexStart != -1) {
+				long source = sceneContext.stagingBufferVertices.getAddress(job.vertexStart);
+				if (!modelCache.put(job.vertexHash, source, faceCount, ModelCacheStats.VERTEX_DATA))
+					log.error("failed to reserve vertex buffer");
+			}
 
-		if (shouldCacheNormalData) {
-			fullNormalData.flip();
-		}
+			if (job.normalStart != -1) {
+				long source = sceneContext.stagingBufferNormals.getAddress(job.normalStart);
+				if (!modelCache.put(job.normalHash, source, faceCount, ModelCacheStats.NORMAL_DATA))
+					log.error("failed to reserve normal buffer");
+			}
 
-		if (shouldCacheUvData) {
-			fullUvData.flip();
+			if (job.uvStart != -1) {
+				long source = sceneContext.stagingBufferUvs.getAddress(job.uvStart);
+				if (!modelCache.put(job.uvHash, source, faceCount, ModelCacheStats.UV_DATA))
+					log.error("failed to reserve uv buffer");
+			}
 		}
-
-		sceneContext.modelPusherResults[0] = vertexLength;
-		sceneContext.modelPusherResults[1] = uvLength;
 	}
 
-	private void getNormalDataForFace(SceneContext sceneContext, Model model, @NonNull ModelOverride modelOverride, int face) {
+	private void getNormalDataForFace(ModelPushJob job, int face) {
+		final ModelSnapshot model = job.snapshot;
+		final float[] out = job.faceNormals;
 		int terrainData = SceneUploader.packTerrainData(false, 0, WaterType.NONE, 0);
-		if (terrainData == 0 && (modelOverride.flatNormals || model.getFaceColors3()[face] == -1)) {
-			Arrays.fill(sceneContext.modelFaceNormals, 0);
+		if (terrainData == 0 && (job.modelOverride.flatNormals || model.faceColors3[face] == -1)) {
+			Arrays.fill(out, 0);
 			return;
 		}
 
-		final int triA = model.getFaceIndices1()[face];
-		final int triB = model.getFaceIndices2()[face];
-		final int triC = model.getFaceIndices3()[face];
-		final int[] xVertexNormals = model.getVertexNormalsX();
-		final int[] yVertexNormals = model.getVertexNormalsY();
-		final int[] zVertexNormals = model.getVertexNormalsZ();
-
-		sceneContext.modelFaceNormals[0] = xVertexNormals[triA];
-		sceneContext.modelFaceNormals[1] = yVertexNormals[triA];
-		sceneContext.modelFaceNormals[2] = zVertexNormals[triA];
-		sceneContext.modelFaceNormals[3] = terrainData;
-		sceneContext.modelFaceNormals[4] = xVertexNormals[triB];
-		sceneContext.modelFaceNormals[5] = yVertexNormals[triB];
-		sceneContext.modelFaceNormals[6] = zVertexNormals[triB];
-		sceneContext.modelFaceNormals[7] = terrainData;
-		sceneContext.modelFaceNormals[8] = xVertexNormals[triC];
-		sceneContext.modelFaceNormals[9] = yVertexNormals[triC];
-		sceneContext.modelFaceNormals[10] = zVertexNormals[triC];
-		sceneContext.modelFaceNormals[11] = terrainData;
+		final int triA = model.faceIndices1[face];
+		final int triB = model.faceIndices2[face];
+		final int triC = model.faceIndices3[face];
+		final int[] xVertexNormals = model.vertexNormalsX;
+		final int[] yVertexNormals = model.vertexNormalsY;
+		final int[] zVertexNormals = model.vertexNormalsZ;
+
+		out[0] = xVertexNormals[triA];
+		out[1] = yVertexNormals[triA];
+		out[2] = zVertexNormals[triA];
+		out[3] = terrainData;
+		out[4] = xVertexNormals[triB];
+		out[5] = yVertexNormals[triB];
+		out[6] = zVertexNormals[triB];
+		out[7] = terrainData;
+		out[8] = xVertexNormals[triC];
+		out[9] = yVertexNormals[triC];
+		out[10] = zVertexNormals[triC];
+		out[11] = terrainData;
 	}
 
 	public int packMaterialData(Material material, @NonNull ModelOverride modelOverride, UvType uvType, boolean isOverlay) {
@@ -398,52 +634,44 @@ public class ModelPusher {
 			(faceTransparencies[face] & 0xFF) > 100;
 	}
 
-	private void getFaceVertices(SceneContext sceneContext, Tile tile, long hash, Model model, @NonNull ModelOverride modelOverride, ObjectType objectType, int face) {
-		final Scene scene = sceneContext.scene;
-		final int triA = model.getFaceIndices1()[face];
-		final int triB = model.getFaceIndices2()[face];
-		final int triC = model.getFaceIndices3()[face];
-		final byte[] faceTransparencies = model.getFaceTransparencies();
-		final short[] faceTextures = model.getFaceTextures();
-		final int[] xVertices = model.getVerticesX();
-		final int[] yVertices = model.getVerticesY();
-		final int[] zVertices = model.getVerticesZ();
-		final int[] xVertexNormals = model.getVertexNormalsX();
-		final int[] yVertexNormals = model.getVertexNormalsY();
-		final int[] zVertexNormals = model.getVertexNormalsZ();
-		final byte overrideAmount = model.getOverrideAmount();
-		final byte overrideHue = model.getOverrideHue();
-		final byte overrideSat = model.getOverrideSaturation();
-		final byte overrideLum = model.getOverrideLuminance();
+	private void getFaceVertices(ModelPushJob job, int face) {
+		final Tile tile = job.tile;
+		final ModelSnapshot model = job.snapshot;
+		final ModelOverride modelOverride = job.modelOverride;
+		final int[] out = job.faceVertices;
+		final int triA = model.faceIndices1[face];
+		final int triB = model.faceIndices2[face];
+		final int triC = model.faceIndices3[face];
+		final byte[] faceTransparencies = model.faceTransparencies;
+		final short[] faceTextures = model.faceTextures;
+		final int[] xVertices = model.verticesX;
+		final int[] yVertices = model.verticesY;
+		final int[] zVertices = model.verticesZ;
+		final int[] xVertexNormals = model.vertexNormalsX;
+		final int[] yVertexNormals = model.vertexNormalsY;
+		final int[] zVertexNormals = model.vertexNormalsZ;
+		final byte overrideAmount = model.overrideAmount;
+		final byte overrideHue = model.overrideHue;
+		final byte overrideSat = model.overrideSaturation;
+		final byte overrideLum = model.overrideLuminance;
 
 		int heightA = yVertices[triA];
 		int heightB = yVertices[triB];
 		int heightC = yVertices[triC];
 
-		int color1 = model.getFaceColors1()[face];
-		int color2 = model.getFaceColors2()[face];
-		int color3 = model.getFaceColors3()[face];
+		int color1 = model.faceColors1[face];
+		int color2 = model.faceColors2[face];
+		int color3 = model.faceColors3[face];
 
 		// Hide fake shadows or lighting that is often baked into models by making the fake shadow transparent
 		if (plugin.configHideBakedEffects && isBakedGroundShading(face, heightA, heightB, heightC, faceTransparencies, faceTextures)) {
-			boolean removeBakedLighting = modelOverride.removeBakedLighting;
-
-			if (ModelHash.getType(hash) == ModelHash.TYPE_PLAYER) {
-				int index = ModelHash.getIdOrIndex(hash);
-				Player[] players = client.getCachedPlayers();
-				Player player = index >= 0 && index < players.length ? players[index] : null;
-				if (player != null && player.getPlayerComposition().getEquipmentId(KitType.WEAPON) == ItemID.MAGIC_CARPET) {
-					removeBakedLighting = true;
-				}
-			}
-
-			if (removeBakedLighting)
+			if (job.removeBakedLighting)
 				color3 = -2;
 		}
 
 		if (color3 == -2) {
 			// Zero out vertex positions to effectively hide the face
-			Arrays.fill(sceneContext.modelFaceVertices, 0);
+			Arrays.fill(out, 0);
 			return;
 		} else if (color3 == -1) {
 			color2 = color3 = color1;
@@ -470,31 +698,27 @@ public class ModelPusher {
 		// brightness in this way leads to overly bright colors, so we are forced to cap brightness at a relatively
 		// low value for it to look acceptable in most cases.
 		if (modelOverride.flatNormals) {
-			float[] T = {
-				xVertices[triA] - xVertices[triB],
-				yVertices[triA] - yVertices[triB],
-				zVertices[triA] - zVertices[triB]
-			};
-			float[] B = {
-				xVertices[triA] - xVertices[triC],
-				yVertices[triA] - yVertices[triC],
-				zVertices[triA] - zVertices[triC]
-			};
-			float[] N = new float[3];
-			N[0] = T[1] * B[2] - T[2] * B[1];
-			N[1] = T[2] * B[0] - T[0] * B[2];
-			N[2] = T[0] * B[1] - T[1] * B[0];
-			float length = (float) Math.sqrt(N[0] * N[0] + N[1] * N[1] + N[2] * N[2]);
+			// Scalars rather than arrays, since this runs for every face of every flat-shaded model each frame
+			float tx = xVertices[triA] - xVertices[triB];
+			float ty = yVertices[triA] - yVertices[triB];
+			float tz = zVertices[triA] - zVertices[triB];
+			float bx = xVertices[triA] - xVertices[triC];
+			float by = yVertices[triA] - yVertices[triC];
+			float bz = zVertices[triA] - zVertices[triC];
+			float nx = ty * bz - tz * by;
+			float ny = tz * bx - tx * bz;
+			float nz = tx * by - ty * bx;
+			float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
 			if (length < HDUtils.EPSILON) {
-				N[0] = N[1] = N[2] = 0;
+				nx = ny = nz = 0;
 			} else {
-				N[0] /= length;
-				N[1] /= length;
-				N[2] /= length;
+				nx /= length;
+				ny /= length;
+				nz /= length;
 			}
 
 			float[] L = HDUtils.lightDirModel;
-			float lightDotNormal = Math.max(0, N[0] * L[0] + N[1] * L[1] + N[2] * L[2]);
+			float lightDotNormal = Math.max(0, nx * L[0] + ny * L[1] + nz * L[2]);
 
 			int lightenA = (int) (Math.max((color1L - IGNORE_LOW_LIGHTNESS), 0) * LIGHTNESS_MULTIPLIER) + BASE_LIGHTEN;
 			color1L = (int) HDUtils.lerp(color1L, lightenA, lightDotNormal);
@@ -575,11 +799,11 @@ public class ModelPusher {
 						HDUtils.colorIntToHSL(tilePaint.getNeColor())[2]
 					) / 4;
 
-					Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+					Overlay overlay = job.sceneContext.getOverlay(tile);
 					if (overlay != Overlay.NONE) {
 						overlay.modifyColor(tileColorHSL);
 					} else {
-						Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+						Underlay underlay = job.sceneContext.getUnderlay(tile);
 						underlay.modifyColor(tileColorHSL);
 					}
 
@@ -613,7 +837,7 @@ public class ModelPusher {
 						if (color != 12345678) {
 							tileColorHSL = HDUtils.colorIntToHSL(color);
 
-							Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+							Underlay underlay = job.sceneContext.getUnderlay(tile);
 							underlay.modifyColor(tileColorHSL);
 
 							color1H = color2H = color3H = tileColorHSL[0];
@@ -628,7 +852,7 @@ public class ModelPusher {
 		int packedAlphaPriority = getPackedAlphaPriority(model, face);
 
 		if (plugin.configTzhaarHD && modelOverride.tzHaarRecolorType != TzHaarRecolorType.NONE) {
-			int[][] tzHaarRecolored = ProceduralGenerator.recolorTzHaar(modelOverride, heightA, heightB, heightC, packedAlphaPriority, objectType, color1S, color1L, color2S, color2L, color3S, color3L);
+			int[][] tzHaarRecolored = ProceduralGenerator.recolorTzHaar(job.tzHaarRecolored, modelOverride, heightA, heightB, heightC, packedAlphaPriority, job.objectType, color1S, color1L, color2S, color2L, color3S, color3L);
 			color1H = tzHaarRecolored[0][0];
 			color1S = tzHaarRecolored[0][1];
 			color1L = tzHaarRecolored[0][2];
@@ -650,18 +874,18 @@ public class ModelPusher {
 		color2 = (color2H << 3 | color2S) << 7 | color2L;
 		color3 = (color3H << 3 | color3S) << 7 | color3L;
 
-		sceneContext.modelFaceVertices[0] = xVertices[triA];
-		sceneContext.modelFaceVertices[1] = yVertices[triA];
-		sceneContext.modelFaceVertices[2] = zVertices[triA];
-		sceneContext.modelFaceVertices[3] = packedAlphaPriority | color1;
-		sceneContext.modelFaceVertices[4] = xVertices[triB];
-		sceneContext.modelFaceVertices[5] = yVertices[triB];
-		sceneContext.modelFaceVertices[6] = zVertices[triB];
-		sceneContext.modelFaceVertices[7] = packedAlphaPriority | color2;
-		sceneContext.modelFaceVertices[8] = xVertices[triC];
-		sceneContext.modelFaceVertices[9] = yVertices[triC];
-		sceneContext.modelFaceVertices[10] = zVertices[triC];
-		sceneContext.modelFaceVertices[11] = packedAlphaPriority | color3;
+		out[0] = xVertices[triA];
+		out[1] = yVertices[triA];
+		out[2] = zVertices[triA];
+		out[3] = packedAlphaPriority | color1;
+		out[4] = xVertices[triB];
+		out[5] = yVertices[triB];
+		out[6] = zVertices[triB];
+		out[7] = packedAlphaPriority | color2;
+		out[8] = xVertices[triC];
+		out[9] = yVertices[triC];
+		out[10] = zVertices[triC];
+		out[11] = packedAlphaPriority | color3;
 	}
 
 	private static int interpolateHSL(int hsl, byte hue2, byte sat2, byte lum2, byte lerp) {
@@ -684,10 +908,10 @@ public class ModelPusher {
 		return (hue << 10 | sat << 7 | lum) & 65535;
 	}
 
-	private int getPackedAlphaPriority(Model model, int face) {
-		final short[] faceTextures = model.getFaceTextures();
-		final byte[] faceTransparencies = model.getFaceTransparencies();
-		final byte[] facePriorities = model.getFaceRenderPriorities();
+	private int getPackedAlphaPriority(ModelSnapshot model, int face) {
+		final short[] faceTextures = model.faceTextures;
+		final byte[] faceTransparencies = model.faceTransparencies;
+		final byte[] facePriorities = model.faceRenderPriorities;
 
 		int alpha = 0;
 		if (faceTransparencies != null && (faceTextures == null || faceTextures[face] == -1)) {
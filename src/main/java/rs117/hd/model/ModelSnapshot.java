@@ -0,0 +1,140 @@
+package rs117.hd.model;
+
+import net.runelite.api.Model;
+import rs117.hd.HdPlugin;
+
+/**
+ * The parts of a {@link Model} which are read while pushing it. Either refers to the model's own arrays, or holds
+ * copies of them, for temporary models which the client overwrites before they are pushed by another thread.
+ */
+public class ModelSnapshot {
+	public int faceCount;
+	public int[] verticesX;
+	public int[] verticesY;
+	public int[] verticesZ;
+	public int[] vertexNormalsX;
+	public int[] vertexNormalsY;
+	public int[] vertexNormalsZ;
+	public int[] faceIndices1;
+	public int[] faceIndices2;
+	public int[] faceIndices3;
+	public int[] faceColors1;
+	public int[] faceColors2;
+	public int[] faceColors3;
+	public byte[] faceTransparencies;
+	public short[] faceTextures;
+	public byte[] faceRenderPriorities;
+	public byte[] textureFaces;
+	public int[] texIndices1;
+	public int[] texIndices2;
+	public int[] texIndices3;
+	public byte overrideAmount;
+	public byte overrideHue;
+	public byte overrideSaturation;
+	public byte overrideLuminance;
+
+	// Arrays owned by the snapshot, which are reused for every model copied into it
+	private final int[][] ownedInts = new int[15][];
+	private final byte[][] ownedBytes = new byte[3][];
+	private short[] ownedShorts;
+
+	/**
+	 * Refers to the arrays of the specified model, without copying them.
+	 */
+	public void wrap(Model model) {
+		faceCount = Math.min(model.getFaceCount(), HdPlugin.MAX_TRIANGLE);
+		verticesX = model.getVerticesX();
+		verticesY = model.getVerticesY();
+		verticesZ = model.getVerticesZ();
+		vertexNormalsX = model.getVertexNormalsX();
+		vertexNormalsY = model.getVertexNormalsY();
+		vertexNormalsZ = model.getVertexNormalsZ();
+		faceIndices1 = model.getFaceIndices1();
+		faceIndices2 = model.getFaceIndices2();
+		faceIndices3 = model.getFaceIndices3();
+		faceColors1 = model.getFaceColors1();
+		faceColors2 = model.getFaceColors2();
+		faceColors3 = model.getFaceColors3();
+		faceTransparencies = model.getFaceTransparencies();
+		faceTextures = model.getFaceTextures();
+		faceRenderPriorities = model.getFaceRenderPriorities();
+		textureFaces = model.getTextureFaces();
+		texIndices1 = model.getTexIndices1();
+		texIndices2 = model.getTexIndices2();
+		texIndices3 = model.getTexIndices3();
+		overrideAmount = model.getOverrideAmount();
+		overrideHue = model.getOverrideHue();
+		overrideSaturation = model.getOverrideSaturation();
+		overrideLuminance = model.getOverrideLuminance();
+	}
+
+	/**
+	 * Copies the arrays of the specified model, so they remain unchanged if the client reuses the model's arrays.
+	 */
+	public void copy(Model model) {
+		wrap(model);
+		final int vertexCount = model.getVerticesCount();
+		verticesX = copy(0, verticesX, vertexCount);
+		verticesY = copy(1, verticesY, vertexCount);
+		verticesZ = copy(2, verticesZ, vertexCount);
+		vertexNormalsX = copy(3, vertexNormalsX, vertexCount);
+		vertexNormalsY = copy(4, vertexNormalsY, vertexCount);
+		vertexNormalsZ = copy(5, vertexNormalsZ, vertexCount);
+		faceIndices1 = copy(6, faceIndices1, faceCount);
+		faceIndices2 = copy(7, faceIndices2, faceCount);
+		faceIndices3 = copy(8, faceIndices3, faceCount);
+		faceColors1 = copy(9, faceColors1, faceCount);
+		faceColors2 = copy(10, faceColors2, faceCount);
+		faceColors3 = copy(11, faceColors3, faceCount);
+		// Texture faces index into the texture triangles, which have no count of their own
+		texIndices1 = copy(12, texIndices1, Integer.MAX_VALUE);
+		texIndices2 = copy(13, texIndices2, Integer.MAX_VALUE);
+		texIndices3 = copy(14, texIndices3, Integer.MAX_VALUE);
+		faceTransparencies = copy(0, faceTransparencies, faceCount);
+		faceRenderPriorities = copy(1, faceRenderPriorities, faceCount);
+		textureFaces = copy(2, textureFaces, faceCount);
+
+		if (faceTextures != null) {
+			int length = Math.min(faceTextures.length, faceCount);
+			if (ownedShorts == null || ownedShorts.length < length)
+				ownedShorts = new short[length];
+			System.arraycopy(faceTextures, 0, ownedShorts, 0, length);
+			faceTextures = ownedShorts;
+		}
+	}
+
+	private int[] copy(int slot, int[] array, int count) {
+		if (array == null)
+			return null;
+		int length = Math.min(array.length, count);
+		int[] owned = ownedInts[slot];
+		if (owned == null || owned.length < length)
+			owned = ownedInts[slot] = new int[length];
+		System.arraycopy(array, 0, owned, 0, length);
+		return owned;
+	}
+
+	private byte[] copy(int slot, byte[] array, int count) {
+		if (array == null)
+			return null;
+		int length = Math.min(array.length, count);
+		byte[] owned = ownedBytes[slot];
+		if (owned == null || owned.length < length)
+			owned = ownedBytes[slot] = new byte[length];
+		System.arraycopy(array, 0, owned, 0, length);
+		return owned;
+	}
+
+	/**
+	 * Drops references to the arrays of the last model, so it can be garbage collected.
+	 */
+	public void release() {
+		verticesX = verticesY = verticesZ = null;
+		vertexNormalsX = vertexNormalsY = vertexNormalsZ = null;
+		faceIndices1 = faceIndices2 = faceIndices3 = null;
+		faceColors1 = faceColors2 = faceColors3 = null;
+		texIndices1 = texIndices2 = texIndices3 = null;
+		faceTransparencies = faceRenderPriorities = textureFaces = null;
+		faceTextures = null;
+	}
+}
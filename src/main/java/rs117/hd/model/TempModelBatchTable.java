@@ -0,0 +1,153 @@
+package rs117.hd.model;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table mapping the batch hashes of temporary models drawn this frame to where their data was
+ * pushed, so identical models drawn again in the same frame can reuse it. Entries are stored in parallel primitive
+ * arrays, without any boxing or per-entry allocations.
+ * <p>
+ * The table is cleared every frame by bumping its generation, which invalidates all entries without touching the
+ * arrays. Its capacity follows the peak number of models of recent frames, so it stops growing once warmed up.
+ */
+public class TempModelBatchTable {
+	private static final int MIN_CAPACITY = 1024;
+
+	private long[] keys;
+	private int[] generations;
+	private int[] tempOffsets;
+	private int[] tempUvOffsets;
+	private int[] faceCounts;
+	private int shift;
+	private int mask;
+
+	// Entries are only part of the current frame if their generation matches. Zero marks slots never used
+	private int generation = 1;
+	private int size;
+	private int peakSize;
+
+	public TempModelBatchTable() {
+		allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		assert Integer.bitCount(capacity) == 1 : "capacity must be a power of two";
+		keys = new long[capacity];
+		generations = new int[capacity];
+		tempOffsets = new int[capacity];
+		tempUvOffsets = new int[capacity];
+		faceCounts = new int[capacity];
+		mask = capacity - 1;
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	private static int capacityFor(int size) {
+		// Keep the load factor at or below one half
+		return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size * 2 - 1)) << 1);
+	}
+
+	private int slot(long key) {
+		// Fibonacci hashing, to spread out keys which only differ in their lower bits
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * @return the slot of the entry with the specified batch hash, or -1 if there is none this frame
+	 */
+	public int find(long batchHash) {
+		for (int i = slot(batchHash); ; i = (i + 1) & mask) {
+			if (generations[i] != generation)
+				return -1;
+			if (keys[i] == batchHash)
+				return i;
+		}
+	}
+
+	public int getTempOffset(int slot) {
+		return tempOffsets[slot];
+	}
+
+	public int getTempUvOffset(int slot) {
+		return tempUvOffsets[slot];
+	}
+
+	public int getFaceCount(int slot) {
+		return faceCounts[slot];
+	}
+
+	/**
+	 * Adds a model pushed this frame, replacing any previous entry with the same batch hash.
+	 */
+	public void put(long batchHash, int tempOffset, int tempUvOffset, int faceCount) {
+		if (size * 2 >= keys.length)
+			resize(keys.length * 2);
+
+		int i = slot(batchHash);
+		while (generations[i] == generation && keys[i] != batchHash)
+			i = (i + 1) & mask;
+
+		if (generations[i] != generation) {
+			generations[i] = generation;
+			keys[i] = batchHash;
+			size++;
+		}
+		tempOffsets[i] = tempOffset;
+		tempUvOffsets[i] = tempUvOffset;
+		faceCounts[i] = faceCount;
+	}
+
+	/**
+	 * Removes all entries, and resizes the table for the peak number of models of recent frames.
+	 */
+	public void nextFrame() {
+		peakSize = Math.max(peakSize, size);
+		size = 0;
+
+		// Only shrink when the peak has dropped far below the capacity, so the table isn't reallocated every frame
+		int capacity = capacityFor(peakSize);
+		if (capacity * 4 <= keys.length) {
+			allocate(capacity);
+			generation = 1;
+			peakSize = 0;
+			return;
+		}
+		// Let the peak decay slowly, so the table eventually shrinks after a busy scene
+		peakSize -= peakSize >> 6;
+
+		if (++generation == 0) {
+			// After wrapping around, stale entries could otherwise match the current generation again
+			Arrays.fill(generations, 0);
+			generation = 1;
+		}
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldGenerations = generations;
+		int[] oldTempOffsets = tempOffsets;
+		int[] oldTempUvOffsets = tempUvOffsets;
+		int[] oldFaceCounts = faceCounts;
+		allocate(capacity);
+
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldGenerations[j] != generation)
+				continue;
+			int i = slot(oldKeys[j]);
+			while (generations[i] == generation)
+				i = (i + 1) & mask;
+			generations[i] = generation;
+			keys[i] = oldKeys[j];
+			tempOffsets[i] = oldTempOffsets[j];
+			tempUvOffsets[i] = oldTempUvOffsets[j];
+			faceCounts[i] = oldFaceCounts[j];
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package rs117.hd.overlays;
+
+import com.google.inject.Inject;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import net.runelite.client.ui.overlay.OverlayPanel;
+import net.runelite.client.ui.overlay.OverlayPosition;
+import net.runelite.client.ui.overlay.components.LineComponent;
+import net.runelite.client.ui.overlay.components.TitleComponent;
+import rs117.hd.model.ModelCacheStats;
+import rs117.hd.model.ModelPusher;
+
+public class ModelCacheOverlay extends OverlayPanel
+{
+	@Inject
+	private ModelPusher modelPusher;
+
+	public ModelCacheOverlay()
+	{
+		setPosition(OverlayPosition.TOP_LEFT);
+		panelComponent.setPreferredSize(new Dimension(260, 0));
+	}
+
+	@Override
+	public Dimension render(Graphics2D g)
+	{
+		panelComponent.getChildren().add(TitleComponent.builder()
+			.text("Model cache")
+			.build());
+
+		ModelCacheStats stats = modelPusher.getModelCacheStats();
+		if (stats == null)
+		{
+			panelComponent.getChildren().add(LineComponent.builder()
+				.left("Disabled")
+				.build());
+		}
+		else
+		{
+			stats.forEach((label, value) -> panelComponent.getChildren().add(LineComponent.builder()
+				.left(label)
+				.right(value)
+				.build()));
+		}
+
+		return super.render(g);
+	}
+}
@@ -166,11 +166,11 @@ public class TileInfoOverlay extends net.runelite.client.ui.overlay.Overlay
 
 		Scene scene = client.getScene();
 		short overlayId = scene.getOverlayIds()[plane][x][y];
-		Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+		Overlay overlay = Overlay.getOverlay(scene, scene.getOverlayIds(), tile, plugin);
 		lines.add(String.format("Overlay: %s (%d)", overlay.name(), overlayId));
 
 		short underlayId = scene.getUnderlayIds()[plane][x][y];
-		Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+		Underlay underlay = Underlay.getUnderlay(scene, scene.getUnderlayIds(), tile, plugin);
 		lines.add(String.format("Underlay: %s (%d)", underlay.name(), underlayId));
 
 		Color polyColor = Color.BLACK;
@@ -24,22 +24,34 @@
  */
 package rs117.hd.scene;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
 import net.runelite.api.GameState;
+import net.runelite.api.coords.LocalPoint;
 import net.runelite.api.coords.WorldPoint;
 import rs117.hd.HdPlugin;
 import rs117.hd.HdPluginConfig;
 import rs117.hd.config.DefaultSkyColor;
 import rs117.hd.data.environments.Area;
+import rs117.hd.data.environments.AreaIndex;
 import rs117.hd.data.environments.Environment;
 import rs117.hd.utils.AABB;
 import rs117.hd.utils.HDUtils;
 
+import static net.runelite.api.Constants.MAX_Z;
+import static net.runelite.api.Constants.SCENE_SIZE;
+import static net.runelite.api.Perspective.LOCAL_COORD_BITS;
+
 @Singleton
 @Slf4j
 public class EnvironmentManager
@@ -61,6 +73,11 @@ public class EnvironmentManager
 	// distance in tiles to skip transition (e.g. entering cave, teleporting)
 	// walking across a loading line causes a movement of 40-41 tiles
 	private static final int SKIP_TRANSITION_DISTANCE = 41;
+	// environments overlapping more regions than this are checked against each scene's regions instead of being bucketed
+	private static final int MAX_BUCKETED_REGIONS = 64;
+
+	// the environments overlapping each region, which are bucketed in the background on startup
+	private CompletableFuture<EnvironmentBuckets> environmentBuckets;
 
 	// last environment change time
 	private long startTime = 0;
@@ -73,14 +90,18 @@ public class EnvironmentManager
 
 	public static final float[] BLACK_COLOR = {0,0,0};
 
-	private float[] startFogColor = new float[]{0,0,0};
-	public float[] currentFogColor = new float[]{0,0,0};
+	private final float[] startFogColor = new float[]{0,0,0};
+	public final float[] currentFogColor = new float[]{0,0,0};
 	private float[] targetFogColor = new float[]{0,0,0};
 
-	private float[] startWaterColor = new float[]{0,0,0};
-	public float[] currentWaterColor = new float[]{0,0,0};
+	private final float[] startWaterColor = new float[]{0,0,0};
+	public final float[] currentWaterColor = new float[]{0,0,0};
 	private float[] targetWaterColor = new float[]{0,0,0};
 
+	// reused for the default sky colors, which are looked up every frame
+	private final float[] skyFogColor = new float[]{0,0,0};
+	private final float[] skyWaterColor = new float[]{0,0,0};
+
 	private int startFogDepth = 0;
 	public int currentFogDepth = 0;
 	private int targetFogDepth = 0;
@@ -89,32 +110,32 @@ public class EnvironmentManager
 	public float currentAmbientStrength = 0f;
 	private float targetAmbientStrength = 0f;
 
-	private float[] startAmbientColor = new float[]{0,0,0};
-	public float[] currentAmbientColor = new float[]{0,0,0};
+	private final float[] startAmbientColor = new float[]{0,0,0};
+	public final float[] currentAmbientColor = new float[]{0,0,0};
 	private float[] targetAmbientColor = new float[]{0,0,0};
 
 	private float startDirectionalStrength = 0f;
 	public float currentDirectionalStrength = 0f;
 	private float targetDirectionalStrength = 0f;
 
-	private float[] startUnderwaterCausticsColor = new float[]{0,0,0};
-	public float[] currentUnderwaterCausticsColor = new float[]{0,0,0};
+	private final float[] startUnderwaterCausticsColor = new float[]{0,0,0};
+	public final float[] currentUnderwaterCausticsColor = new float[]{0,0,0};
 	private float[] targetUnderwaterCausticsColor = new float[]{0,0,0};
 
 	private float startUnderwaterCausticsStrength = 1f;
 	public float currentUnderwaterCausticsStrength = 1f;
 	private float targetUnderwaterCausticsStrength = 1f;
 
-	private float[] startDirectionalColor = new float[]{0,0,0};
-	public float[] currentDirectionalColor = new float[]{0,0,0};
+	private final float[] startDirectionalColor = new float[]{0,0,0};
+	public final float[] currentDirectionalColor = new float[]{0,0,0};
 	private float[] targetDirectionalColor = new float[]{0,0,0};
 
 	private float startUnderglowStrength = 0f;
 	public float currentUnderglowStrength = 0f;
 	private float targetUnderglowStrength = 0f;
 
-	private float[] startUnderglowColor = new float[]{0,0,0};
-	public float[] currentUnderglowColor = new float[]{0,0,0};
+	private final float[] startUnderglowColor = new float[]{0,0,0};
+	public final float[] currentUnderglowColor = new float[]{0,0,0};
 	private float[] targetUnderglowColor = new float[]{0,0,0};
 
 	private float startGroundFogStart = 0f;
@@ -145,6 +166,11 @@ public class EnvironmentManager
 
 	public void startUp()
 	{
+		// Areas may span thousands of regions, so bucket the environments off the client thread. Environments never
+		// change, so they only need to be bucketed once
+		if (environmentBuckets == null)
+			environmentBuckets = CompletableFuture.supplyAsync(EnvironmentManager::bucketEnvironments);
+
 		currentEnvironment = null;
 		changeEnvironment(defaultEnvironment, true);
 	}
@@ -154,8 +180,11 @@ public class EnvironmentManager
 	 *
 	 * @param sceneContext to possible environments from
 	 * @param position     in world space that the camera is or will be looking at
+	 * @param localX       local X coordinate of the position
+	 * @param localY       local Y coordinate of the position
+	 * @param scenePlane   which the position is on in the scene
 	 */
-	public void update(SceneContext sceneContext, WorldPoint position)
+	public void update(SceneContext sceneContext, WorldPoint position, int localX, int localY, int scenePlane)
 	{
 		isOverworld = Area.OVERWORLD.containsPoint(position);
 
@@ -179,28 +208,22 @@ public class EnvironmentManager
 		}
 
 		boolean skipTransition = tileChange >= SKIP_TRANSITION_DISTANCE;
-		for (Environment environment : sceneContext.environments)
+		Environment environment = getEnvironment(sceneContext, position, localX, localY, scenePlane);
+		if (environment != null && environment != currentEnvironment)
 		{
-			if (environment.getArea().containsPoint(position))
-			{
-				if (environment != currentEnvironment)
-				{
-					if (environment == Environment.PLAYER_OWNED_HOUSE || environment == Environment.PLAYER_OWNED_HOUSE_SNOWY) {
-						// POH takes 1 game tick to enter, then 2 game ticks to load per floor
-						plugin.reloadSceneIn(7);
-						isInHouse = true;
-					} else {
-						// Avoid an unnecessary scene reload if the player has already left the POH
-						plugin.abortSceneReload();
-						isInHouse = false;
-					}
+			if (environment == Environment.PLAYER_OWNED_HOUSE || environment == Environment.PLAYER_OWNED_HOUSE_SNOWY) {
+				// POH takes 1 game tick to enter, then 2 game ticks to load per floor
+				plugin.reloadSceneIn(7);
+				isInHouse = true;
+			} else {
+				// Avoid an unnecessary scene reload if the player has already left the POH
+				plugin.abortSceneReload();
+				isInHouse = false;
+			}
 
-					plugin.setInGauntlet(environment == Environment.THE_GAUNTLET || environment == Environment.THE_GAUNTLET_CORRUPTED);
+			plugin.setInGauntlet(environment == Environment.THE_GAUNTLET || environment == Environment.THE_GAUNTLET_CORRUPTED);
 
-					changeEnvironment(environment, skipTransition);
-				}
-				break;
-			}
+			changeEnvironment(environment, skipTransition);
 		}
 
 		updateTargetSkyColor(); // Update every frame, since other plugins may control it
@@ -209,21 +232,21 @@ public class EnvironmentManager
 		long currentTime = System.currentTimeMillis();
 		if (currentTime >= transitionCompleteTime)
 		{
-			currentFogColor = targetFogColor;
-			currentWaterColor = targetWaterColor;
+			System.arraycopy(targetFogColor, 0, currentFogColor, 0, 3);
+			System.arraycopy(targetWaterColor, 0, currentWaterColor, 0, 3);
 			currentFogDepth = targetFogDepth;
 			currentAmbientStrength = targetAmbientStrength;
-			currentAmbientColor = targetAmbientColor;
+			System.arraycopy(targetAmbientColor, 0, currentAmbientColor, 0, 3);
 			currentDirectionalStrength = targetDirectionalStrength;
-			currentDirectionalColor = targetDirectionalColor;
+			System.arraycopy(targetDirectionalColor, 0, currentDirectionalColor, 0, 3);
 			currentUnderglowStrength = targetUnderglowStrength;
-			currentUnderglowColor = targetUnderglowColor;
+			System.arraycopy(targetUnderglowColor, 0, currentUnderglowColor, 0, 3);
 			currentGroundFogStart = targetGroundFogStart;
 			currentGroundFogEnd = targetGroundFogEnd;
 			currentGroundFogOpacity = targetGroundFogOpacity;
 			currentLightPitch = targetLightPitch;
 			currentLightYaw = targetLightYaw;
-			currentUnderwaterCausticsColor = targetUnderwaterCausticsColor;
+			System.arraycopy(targetUnderwaterCausticsColor, 0, currentUnderwaterCausticsColor, 0, 3);
 			currentUnderwaterCausticsStrength = targetUnderwaterCausticsStrength;
 		}
 		else
@@ -231,21 +254,21 @@ public class EnvironmentManager
 			// interpolate between start and target values
 			float t = (float)(currentTime - startTime) / (float) TRANSITION_DURATION;
 
-			currentFogColor = HDUtils.lerpVectors(startFogColor, targetFogColor, t);
-			currentWaterColor = HDUtils.lerpVectors(startWaterColor, targetWaterColor, t);
+			HDUtils.lerpVectors(startFogColor, targetFogColor, t, currentFogColor);
+			HDUtils.lerpVectors(startWaterColor, targetWaterColor, t, currentWaterColor);
 			currentFogDepth = (int) HDUtils.lerp(startFogDepth, targetFogDepth, t);
 			currentAmbientStrength = HDUtils.lerp(startAmbientStrength, targetAmbientStrength, t);
-			currentAmbientColor = HDUtils.lerpVectors(startAmbientColor, targetAmbientColor, t);
+			HDUtils.lerpVectors(startAmbientColor, targetAmbientColor, t, currentAmbientColor);
 			currentDirectionalStrength = HDUtils.lerp(startDirectionalStrength, targetDirectionalStrength, t);
-			currentDirectionalColor = HDUtils.lerpVectors(startDirectionalColor, targetDirectionalColor, t);
+			HDUtils.lerpVectors(startDirectionalColor, targetDirectionalColor, t, currentDirectionalColor);
 			currentUnderglowStrength = HDUtils.lerp(startUnderglowStrength, targetUnderglowStrength, t);
-			currentUnderglowColor = HDUtils.lerpVectors(startUnderglowColor, targetUnderglowColor, t);
+			HDUtils.lerpVectors(startUnderglowColor, targetUnderglowColor, t, currentUnderglowColor);
 			currentGroundFogStart  = HDUtils.lerp(startGroundFogStart, targetGroundFogStart, t);
 			currentGroundFogEnd  = HDUtils.lerp(startGroundFogEnd, targetGroundFogEnd, t);
 			currentGroundFogOpacity  = HDUtils.lerp(startGroundFogOpacity, targetGroundFogOpacity, t);
 			currentLightPitch = HDUtils.lerp(startLightPitch, targetLightPitch, t);
 			currentLightYaw = HDUtils.lerp(startLightYaw, targetLightYaw, t);
-			currentUnderwaterCausticsColor = HDUtils.lerpVectors(startUnderwaterCausticsColor, targetUnderwaterCausticsColor, t);
+			HDUtils.lerpVectors(startUnderwaterCausticsColor, targetUnderwaterCausticsColor, t, currentUnderwaterCausticsColor);
 			currentUnderwaterCausticsStrength = HDUtils.lerp(startUnderwaterCausticsStrength, targetUnderwaterCausticsStrength, t);
 		}
 
@@ -273,21 +296,21 @@ public class EnvironmentManager
 		currentEnvironment = newEnvironment;
 
 		// set previous variables to current ones
-		startFogColor = currentFogColor;
-		startWaterColor = currentWaterColor;
+		System.arraycopy(currentFogColor, 0, startFogColor, 0, 3);
+		System.arraycopy(currentWaterColor, 0, startWaterColor, 0, 3);
 		startFogDepth = currentFogDepth;
 		startAmbientStrength = currentAmbientStrength;
-		startAmbientColor = currentAmbientColor;
+		System.arraycopy(currentAmbientColor, 0, startAmbientColor, 0, 3);
 		startDirectionalStrength = currentDirectionalStrength;
-		startDirectionalColor = currentDirectionalColor;
+		System.arraycopy(currentDirectionalColor, 0, startDirectionalColor, 0, 3);
 		startUnderglowStrength = currentUnderglowStrength;
-		startUnderglowColor = currentUnderglowColor;
+		System.arraycopy(currentUnderglowColor, 0, startUnderglowColor, 0, 3);
 		startGroundFogStart = currentGroundFogStart;
 		startGroundFogEnd = currentGroundFogEnd;
 		startGroundFogOpacity = currentGroundFogOpacity;
 		startLightPitch = currentLightPitch;
 		startLightYaw = currentLightYaw;
-		startUnderwaterCausticsColor = currentUnderwaterCausticsColor;
+		System.arraycopy(currentUnderwaterCausticsColor, 0, startUnderwaterCausticsColor, 0, 3);
 		startUnderwaterCausticsStrength = currentUnderwaterCausticsStrength;
 
 		updateTargetSkyColor();
@@ -341,12 +364,12 @@ public class EnvironmentManager
 		if (!env.isCustomFogColor() || env.isAllowSkyOverride() && config.overrideSky())
 		{
 			DefaultSkyColor sky = config.defaultSkyColor();
-			targetFogColor = sky.getRgb(client);
+			targetFogColor = sky.getRgb(client, skyFogColor);
 			if (sky == DefaultSkyColor.OSRS)
 			{
 				sky = DefaultSkyColor.DEFAULT;
 			}
-			targetWaterColor = sky.getRgb(client);
+			targetWaterColor = sky.getRgb(client, skyWaterColor);
 		}
 		else
 		{
@@ -362,40 +385,174 @@ public class EnvironmentManager
 	}
 
 	/**
-	 * Figures out which Areas exist in the current scene and
-	 * adds them to lists for easy access.
+	 * Figures out which environments overlap the scene's regions, and
+	 * which of them applies to each of the scene's tiles.
 	 */
 	public void loadSceneEnvironments(SceneContext sceneContext)
 	{
-		// loop through all Areas, check Rects of each Area. if any
-		// coordinates overlap scene coordinates, add them to a list.
-		// then loop through all Environments, checking to see if any
-		// of their Areas match any of the ones in the current scene.
-		// if so, add them to a list.
+		// The environments are only bucketed once, so this only has to wait if the plugin has just started
+		loadSceneEnvironments(sceneContext, environmentBuckets.join());
+	}
 
+	static void loadSceneEnvironments(SceneContext sceneContext, EnvironmentBuckets buckets)
+	{
 		log.debug("Adding environments for scene with regions: {}", sceneContext.regionIds);
 
+		Environment[] environments = Environment.values();
+		boolean[] inScene = new boolean[environments.length];
+		for (int regionId : sceneContext.regionIds)
+		{
+			List<Environment> bucket = buckets.byRegion.get(regionId);
+			if (bucket != null)
+			{
+				for (Environment environment : bucket)
+				{
+					inScene[environment.ordinal()] = true;
+				}
+			}
+		}
+
 		AABB[] regions = sceneContext.regionIds.stream()
 			.map(AABB::new)
 			.toArray(AABB[]::new);
+		for (Environment environment : buckets.widespread)
+		{
+			if (!inScene[environment.ordinal()] && overlapsAny(environment, regions))
+			{
+				inScene[environment.ordinal()] = true;
+			}
+		}
 
+		// Keep the environments in priority order
 		sceneContext.environments.clear();
-		outer:
+		for (Environment environment : environments)
+		{
+			if (inScene[environment.ordinal()])
+			{
+				log.debug("Added environment: {}", environment);
+				sceneContext.environments.add(environment);
+			}
+		}
+
+		// Find the environment of every tile up front, so each frame only has to read it from the table
+		Environment[][][] tileEnvironments = new Environment[MAX_Z][SCENE_SIZE][SCENE_SIZE];
+		for (int z = 0; z < MAX_Z; ++z)
+		{
+			for (int x = 0; x < SCENE_SIZE; ++x)
+			{
+				for (int y = 0; y < SCENE_SIZE; ++y)
+				{
+					WorldPoint position = sceneContext.localToWorld(LocalPoint.fromScene(x, y), z);
+					tileEnvironments[z][x][y] = findEnvironment(sceneContext.environments, position);
+				}
+			}
+		}
+		sceneContext.tileEnvironments = tileEnvironments;
+	}
+
+	/**
+	 * Returns the highest priority environment at the position, or null if none of the scene's environments apply.
+	 */
+	@Nullable
+	private static Environment getEnvironment(SceneContext sceneContext, WorldPoint position, int localX, int localY, int scenePlane)
+	{
+		int tileX = localX >> LOCAL_COORD_BITS;
+		int tileY = localY >> LOCAL_COORD_BITS;
+		if (tileX >= 0 && tileY >= 0 && tileX < SCENE_SIZE && tileY < SCENE_SIZE && scenePlane >= 0 && scenePlane < MAX_Z)
+		{
+			return sceneContext.tileEnvironments[scenePlane][tileX][tileY];
+		}
+
+		// The camera may be looking at a point outside the scene
+		return findEnvironment(sceneContext.environments, position);
+	}
+
+	@Nullable
+	private static Environment findEnvironment(List<Environment> environments, WorldPoint position)
+	{
+		Area[] areas = AreaIndex.getAreas(position.getX(), position.getY(), position.getPlane());
+		for (Environment environment : environments)
+		{
+			if (AreaIndex.includes(areas, environment.getArea()))
+			{
+				return environment;
+			}
+		}
+		return null;
+	}
+
+	private static boolean overlapsAny(Environment environment, AABB[] regions)
+	{
+		for (AABB region : regions)
+		{
+			for (AABB aabb : environment.getArea().getAabbs())
+			{
+				if (region.intersects(aabb))
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Buckets the environments by the regions their areas overlap, in priority order. Environments which overlap
+	 * too many regions to bucket, like {@link Environment#ALL}, are kept separately.
+	 */
+	static EnvironmentBuckets bucketEnvironments()
+	{
+		long startTime = System.currentTimeMillis();
+		HashMap<Integer, List<Environment>> byRegion = new HashMap<>();
+		List<Environment> widespread = new ArrayList<>();
 		for (Environment environment : Environment.values())
 		{
-			for (AABB region : regions)
+			HashSet<Integer> regionIds = new HashSet<>();
+			for (AABB aabb : environment.getArea().getAabbs())
 			{
-				for (AABB aabb : environment.getArea().getAabbs())
+				// Check the regions around the AABB the same way as the scene's regions are checked,
+				// where region IDs hold 8 bits per axis
+				int minRegionX = HDUtils.clamp((aabb.minX >> 6) - 1, 0, 255);
+				int minRegionY = HDUtils.clamp((aabb.minY >> 6) - 1, 0, 255);
+				int maxRegionX = HDUtils.clamp((aabb.maxX >> 6) + 1, 0, 255);
+				int maxRegionY = HDUtils.clamp((aabb.maxY >> 6) + 1, 0, 255);
+				for (int regionX = minRegionX; regionX <= maxRegionX; regionX++)
 				{
-					if (region.intersects(aabb))
+					for (int regionY = minRegionY; regionY <= maxRegionY; regionY++)
 					{
-						log.debug("Added environment: {}", environment);
-						sceneContext.environments.add(environment);
-						continue outer;
+						int regionId = regionX << 8 | regionY;
+						if (new AABB(regionId).intersects(aabb))
+						{
+							regionIds.add(regionId);
+						}
 					}
 				}
 			}
+
+			if (regionIds.size() > MAX_BUCKETED_REGIONS)
+			{
+				widespread.add(environment);
+				continue;
+			}
+
+			for (int regionId : regionIds)
+			{
+				byRegion.computeIfAbsent(regionId, k -> new ArrayList<>()).add(environment);
+			}
 		}
+
+		log.debug("Bucketed environments by region in {}ms, with {} overlapping too many regions: {}",
+			System.currentTimeMillis() - startTime, widespread.size(), widespread);
+		return new EnvironmentBuckets(byRegion, widespread);
+	}
+
+	@RequiredArgsConstructor
+	static class EnvironmentBuckets
+	{
+		// the environments overlapping each region, keyed by region ID, in priority order
+		private final HashMap<Integer, List<Environment>> byRegion;
+		// the environments overlapping too many regions to bucket, in priority order
+		private final List<Environment> widespread;
 	}
 
 	/* lightning */
@@ -440,8 +597,8 @@ public class EnvironmentManager
 		if (lightningEnabled && config.flashingEffects())
 		{
 			float t = HDUtils.clamp(lightningBrightness, 0, 1);
-			currentFogColor = HDUtils.lerpVectors(currentFogColor, LIGHTNING_COLOR, t);
-			currentWaterColor = HDUtils.lerpVectors(currentWaterColor, LIGHTNING_COLOR, t);
+			HDUtils.lerpVectors(currentFogColor, LIGHTNING_COLOR, t, currentFogColor);
+			HDUtils.lerpVectors(currentWaterColor, LIGHTNING_COLOR, t, currentWaterColor);
 		}
 		else
 		{
@@ -471,15 +628,17 @@ public class EnvironmentManager
 	}
 
 	/**
-	 * Returns the current fog color if logged in.
-	 * Else, returns solid black.
+	 * Copies the current fog color if logged in.
+	 * Else, copies solid black.
 	 *
-	 * @return 3-component RGB color array
+	 * @param out 3-component array to copy the color into
+	 * @return the out array
 	 */
-	public float[] getFogColor()
+	public float[] getFogColor(float[] out)
 	{
-		return Arrays.copyOf(client.getGameState().getState() >= GameState.LOADING.getState() ?
-			currentFogColor : BLACK_COLOR, 3);
+		System.arraycopy(client.getGameState().getState() >= GameState.LOADING.getState() ?
+			currentFogColor : BLACK_COLOR, 0, out, 0, 3);
+		return out;
 	}
 
 	public boolean isUnderwater()
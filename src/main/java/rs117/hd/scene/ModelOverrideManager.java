@@ -1,9 +1,11 @@
 package rs117.hd.scene;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
@@ -11,6 +13,7 @@ import net.runelite.api.GameState;
 import net.runelite.api.coords.WorldPoint;
 import net.runelite.client.callback.ClientThread;
 import rs117.hd.HdPlugin;
+import rs117.hd.model.ModelHasher;
 import rs117.hd.model.ModelPusher;
 import rs117.hd.scene.model_overrides.ModelOverride;
 import rs117.hd.utils.AABB;
@@ -42,15 +45,23 @@ public class ModelOverrideManager {
     private final HashMap<Long, ModelOverride> modelOverrides = new HashMap<>();
     private final HashMap<Long, AABB[]> modelsToHide = new HashMap<>();
 
+    /**
+     * Hash of the currently loaded model overrides file, for invalidating data derived from it
+     */
+    @Getter
+    private long modelOverridesHash;
+
     public void startUp() {
         MODEL_OVERRIDES_PATH.watch(path -> {
             modelOverrides.clear();
             modelsToHide.clear();
 
             try {
-                ModelOverride[] entries = path.loadJson(plugin.getGson(), ModelOverride[].class);
+                String json = path.loadString();
+                ModelOverride[] entries = plugin.getGson().fromJson(json, ModelOverride[].class);
                 if (entries == null)
                     throw new IOException("Empty or invalid: " + path);
+                modelOverridesHash = ModelHasher.mix(ModelHasher.fastByteHash(json.getBytes(StandardCharsets.UTF_8)));
                 for (ModelOverride override : entries) {
 					override.gsonReallyShouldSupportThis();
                     for (int npcId : override.npcIds)
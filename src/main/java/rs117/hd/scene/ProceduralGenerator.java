@@ -25,7 +25,8 @@
 package rs117.hd.scene;
 
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
@@ -40,6 +41,7 @@ import rs117.hd.data.WaterType;
 import rs117.hd.data.materials.Material;
 import rs117.hd.data.materials.Overlay;
 import rs117.hd.data.materials.Underlay;
+import rs117.hd.model.ModelHasher;
 import rs117.hd.scene.model_overrides.ModelOverride;
 import rs117.hd.scene.model_overrides.ObjectType;
 import rs117.hd.scene.model_overrides.TzHaarRecolorType;
@@ -54,6 +56,9 @@ public class ProceduralGenerator
 {
 	private static final int VERTICES_PER_FACE = 3;
 	private static final int[] DEPTH_LEVEL_SLOPE = new int[]{150, 300, 470, 610, 700, 750, 820, 920, 1080, 1300, 1350, 1380};
+	// the world-space height offset of each underwater depth level, where level 0 is land
+	private static final int[] DEPTH_LEVEL_OFFSETS = new int[DEPTH_LEVEL_SLOPE.length + 1];
+	private static final float[] ZERO_NORMALS = new float[]{0, 0, 0};
 	private static final boolean[][] TILE_OVERLAY_TRIS = new boolean[][]
 		{
 			/*  0 */ { true, true, true, true }, // Used by tilemodels of varying tri counts?
@@ -70,66 +75,173 @@ public class ProceduralGenerator
 			/* 11 */ { true, true, false, false, false, false },
 		};
 
+	static
+	{
+		for (int level = 1; level < DEPTH_LEVEL_OFFSETS.length; level++)
+		{
+			int maxRange = DEPTH_LEVEL_SLOPE[level - 1];
+			int minRange = (int) (DEPTH_LEVEL_SLOPE[level - 1] * 0.1f);
+			// Range from noise-generated terrain is 10-60.
+			// Translate the result from range 0-1.
+//			float noiseOffset = (HeightCalc.calculate(baseX + x + 0xe3b7b, baseY + y + 0x87cce) - 10) / 50f;
+			float noiseOffset = 0.5f;
+			// limit range of variation
+			float minOffset = 0.25f;
+			float maxOffset = 0.75f;
+			noiseOffset = HDUtils.lerp(minOffset, maxOffset, noiseOffset);
+			// apply offset to vertex height range
+			DEPTH_LEVEL_OFFSETS[level] = (int) HDUtils.lerp(minRange, maxRange, noiseOffset);
+		}
+	}
+
 	@Inject
 	private HdPlugin plugin;
 
-	public void generateSceneData(SceneContext sceneContext)
+	@Inject
+	private TerrainCache terrainCache;
+
+	/**
+	 * Generates the terrain data of the scene, or loads it from the terrain cache if it has been generated before. If
+	 * the scene overlaps the previous scene, the previous scene's normals, colors and materials are reused for vertices
+	 * which are only part of tiles that haven't changed since.
+	 *
+	 * @param sceneContext         to generate terrain data for
+	 * @param previousSceneContext whose terrain data may be reused, or null to generate all of it
+	 */
+	public void generateSceneData(SceneContext sceneContext, @Nullable SceneContext previousSceneContext)
 	{
 		long timerTotal = System.currentTimeMillis();
 		long timerCalculateTerrainNormals, timerGenerateTerrainData, timerGenerateUnderwaterTerrain;
 
+		// The uploader needs the tile overrides as well, so they're resolved even if the terrain data is cached
 		long startTime = System.currentTimeMillis();
+		resolveTileOverrides(sceneContext, plugin);
+		long timerResolveTileOverrides = System.currentTimeMillis() - startTime;
+
+		hashTerrainInputs(sceneContext);
+		// Instanced scenes aren't cached, since their tiles can't be identified by their world position
+		boolean cacheable = terrainCache.isEnabled() && sceneContext.terrainInputHashes != null;
+		long cacheKey = cacheable ? terrainCache.calculateKey(hashScene(sceneContext)) : 0;
+		if (cacheable && terrainCache.load(sceneContext, cacheKey))
+		{
+			log.debug("procedural data loaded from the terrain cache in {}ms", (System.currentTimeMillis() - timerTotal));
+			return;
+		}
+
+		sceneContext.terrainVertices = new TerrainVertexStore();
+
+		startTime = System.currentTimeMillis();
 		generateUnderwaterTerrain(sceneContext);
 		timerGenerateUnderwaterTerrain = (int)(System.currentTimeMillis() - startTime);
+
+		// The underwater terrain is always generated, since it's compared to the previous scene's to find changed tiles
+		boolean[][] changedTiles = findChangedTiles(sceneContext, previousSceneContext);
+		boolean[][] regeneratedTiles = changedTiles == null ? null : regeneratedTiles(changedTiles);
+
 		startTime = System.currentTimeMillis();
-		calculateTerrainNormals(sceneContext);
+		calculateTerrainNormals(sceneContext, regeneratedTiles);
+		if (changedTiles != null)
+			reuseTerrainData(sceneContext, previousSceneContext, changedTiles);
 		timerCalculateTerrainNormals = (int)(System.currentTimeMillis() - startTime);
 		startTime = System.currentTimeMillis();
-		generateTerrainData(sceneContext);
+		generateTerrainData(sceneContext, regeneratedTiles);
+		if (changedTiles != null)
+			reuseTerrainData(sceneContext, previousSceneContext, changedTiles);
 		timerGenerateTerrainData = (int)(System.currentTimeMillis() - startTime);
 
-		log.debug("procedural data generation took {}ms to complete", (System.currentTimeMillis() - timerTotal));
+		// Logged separately, so the load times of scenes which reuse terrain data aren't mixed up with full generations
+		if (regeneratedTiles != null)
+		{
+			int reusedTiles = 0;
+			for (boolean[] column : regeneratedTiles)
+				for (boolean regenerated : column)
+					if (!regenerated)
+						reusedTiles++;
+			log.debug("procedural data generation reusing {} of {} tiles from the previous scene took {}ms to complete",
+				reusedTiles, SCENE_SIZE * SCENE_SIZE, (System.currentTimeMillis() - timerTotal));
+		}
+		else
+		{
+			log.debug("full procedural data generation took {}ms to complete", (System.currentTimeMillis() - timerTotal));
+		}
+		log.debug("-- resolveTileOverrides: {}ms", timerResolveTileOverrides);
 		log.debug("-- calculateTerrainNormals: {}ms", timerCalculateTerrainNormals);
 		log.debug("-- generateTerrainData: {}ms", timerGenerateTerrainData);
 		log.debug("-- generateUnderwaterTerrain: {}ms", timerGenerateUnderwaterTerrain);
+		log.debug("-- terrain vertices: {} using {} KiB", sceneContext.terrainVertices.size(), sceneContext.terrainVertices.sizeInBytes() / 1024);
+
+		if (cacheable)
+			terrainCache.save(sceneContext, cacheKey);
+	}
+
+	/**
+	 * Resolves the overlay and underlay of every tile in the scene, including bridges, once up front, since finding them
+	 * means checking the tile's position against the areas of every tile override which could apply to it. The columns
+	 * of tiles are resolved in parallel.
+	 *
+	 * @param sceneContext to resolve the tile overrides of
+	 * @param plugin       which decides whether tile overrides are replaced, for instance by the winter theme
+	 */
+	static void resolveTileOverrides(SceneContext sceneContext, HdPlugin plugin)
+	{
+		Scene scene = sceneContext.scene;
+		TerrainSnapshot terrain = sceneContext.terrainSnapshot;
+		Tile[][][] tiles = terrain.tiles;
+		Overlay[][][] overlays = new Overlay[MAX_Z][SCENE_SIZE][SCENE_SIZE];
+		Underlay[][][] underlays = new Underlay[MAX_Z][SCENE_SIZE][SCENE_SIZE];
+		IntStream.range(0, SCENE_SIZE).parallel().forEach(x ->
+		{
+			for (int z = 0; z < MAX_Z; ++z)
+			{
+				for (int y = 0; y < SCENE_SIZE; ++y)
+				{
+					Tile tile = tiles[z][x][y];
+					if (tile == null)
+						continue;
+
+					// A bridge is on plane 0, and the tile it belongs to on plane 1, so neither is overwritten
+					Tile bridge = tile.getBridge();
+					if (bridge != null)
+					{
+						overlays[bridge.getPlane()][x][y] = Overlay.getOverlay(scene, terrain.overlayIds, bridge, plugin);
+						underlays[bridge.getPlane()][x][y] = Underlay.getUnderlay(scene, terrain.underlayIds, bridge, plugin);
+					}
+					overlays[tile.getPlane()][x][y] = Overlay.getOverlay(scene, terrain.overlayIds, tile, plugin);
+					underlays[tile.getPlane()][x][y] = Underlay.getUnderlay(scene, terrain.underlayIds, tile, plugin);
+				}
+			}
+		});
+		sceneContext.overlays = overlays;
+		sceneContext.underlays = underlays;
 	}
 
 	/**
 	 * Iterates through all Tiles in a given Scene, producing color and
 	 * material data for each vertex of each Tile. Then adds the resulting
-	 * data to appropriate HashMaps.
+	 * data to the scene's terrain vertices.
+	 *
+	 * @param sceneContext     to generate terrain data for
+	 * @param regeneratedTiles the scene X and Y of tiles to generate data for, or null for all tiles
 	 */
-	private void generateTerrainData(SceneContext sceneContext)
+	private void generateTerrainData(SceneContext sceneContext, @Nullable boolean[][] regeneratedTiles)
 	{
-		sceneContext.vertexTerrainColor = new HashMap<>();
-		// used for overriding potentially undesirable vertex colors
-		// for example, colors that aren't supposed to be visible
-		sceneContext.highPriorityColor = new HashMap<>();
-		sceneContext.vertexTerrainTexture = new HashMap<>();
-		// for faces without an overlay is set to true
-		sceneContext.vertexIsUnderlay = new HashMap<>();
-		// for faces with an overlay is set to true
-		// the result of these maps can be used to determine the vertices
-		// between underlays and overlays for custom blending
-		sceneContext.vertexIsOverlay = new HashMap<>();
-
-		Tile[][][] tiles = sceneContext.scene.getTiles();
+		Tile[][][] tiles = sceneContext.terrainSnapshot.tiles;
 		for (int z = 0; z < MAX_Z; ++z) {
 			for (int x = 0; x < SCENE_SIZE; ++x)
 				for (int y = 0; y < SCENE_SIZE; ++y)
-					if (tiles[z][x][y] != null)
+					if (tiles[z][x][y] != null && (regeneratedTiles == null || regeneratedTiles[x][y]))
 						generateDataForTile(sceneContext, tiles[z][x][y]);
 
 			for (int x = 0; x < SCENE_SIZE; ++x)
 				for (int y = 0; y < SCENE_SIZE; ++y)
-					if (tiles[z][x][y] != null && tiles[z][x][y].getBridge() != null)
+					if (tiles[z][x][y] != null && tiles[z][x][y].getBridge() != null && (regeneratedTiles == null || regeneratedTiles[x][y]))
 						generateDataForTile(sceneContext, tiles[z][x][y].getBridge());
 		}
 	}
 
 	/**
 	 * Produces color and material data for the vertices of the provided Tile.
-	 * Then adds the resulting data to appropriate HashMaps.
+	 * Then adds the resulting data to the scene's terrain vertices.
 	 *
 	 * @param sceneContext that the tile is associated with
 	 * @param tile         to generate terrain data for
@@ -150,7 +262,9 @@ public class ProceduralGenerator
 			return;
 		}
 
-		int[] vertexHashes = new int[faceCount * VERTICES_PER_FACE];
+		int[] vertexKeys = new int[faceCount * VERTICES_PER_FACE];
+		// water faces are skipped, leaving their vertex keys empty
+		Arrays.fill(vertexKeys, TerrainVertexStore.NONE);
 		int[] vertexColors = new int[faceCount * VERTICES_PER_FACE];
 		Overlay[] vertexOverlays = new Overlay[faceCount * VERTICES_PER_FACE];
 		Underlay[] vertexUnderlays = new Underlay[faceCount * VERTICES_PER_FACE];
@@ -160,13 +274,13 @@ public class ProceduralGenerator
 		int y = tile.getSceneLocation().getY();
 		WorldPoint worldPos = sceneContext.localToWorld(tile.getLocalLocation(), tile.getRenderLevel());
 
-		Scene scene = sceneContext.scene;
+		TerrainVertexStore terrainVertices = sceneContext.terrainVertices;
 		if (tile.getSceneTilePaint() != null)
 		{
 			// tile paint
 
-			Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
-			Underlay underlay =  Underlay.getUnderlay(scene, tile, plugin);
+			Overlay overlay = sceneContext.getOverlay(tile);
+			Underlay underlay = sceneContext.getUnderlay(tile);
 
 			if (overlay.waterType != WaterType.NONE || underlay.waterType != WaterType.NONE)
 			{
@@ -174,12 +288,13 @@ public class ProceduralGenerator
 				return;
 			}
 
-			int swColor = tile.getSceneTilePaint().getSwColor();
-			int seColor = tile.getSceneTilePaint().getSeColor();
-			int nwColor = tile.getSceneTilePaint().getNwColor();
-			int neColor = tile.getSceneTilePaint().getNeColor();
+			int[] paintColors = sceneContext.terrainSnapshot.getColors(tile);
+			int swColor = paintColors[0];
+			int seColor = paintColors[1];
+			int nwColor = paintColors[2];
+			int neColor = paintColors[3];
 
-			vertexHashes = tileVertexKeys(scene, tile);
+			vertexKeys = addTileVertexKeys(sceneContext, tile);
 
 			if (x >= SCENE_SIZE - 2 && y >= SCENE_SIZE - 2)
 			{
@@ -206,7 +321,7 @@ public class ProceduralGenerator
 
 			vertexOverlays[0] = vertexOverlays[1] = vertexOverlays[2] = vertexOverlays[3] = overlay;
 			vertexUnderlays[0] = vertexUnderlays[1] = vertexUnderlays[2] = vertexUnderlays[3] = underlay;
-			if (useDefaultColor(scene, tile))
+			if (useDefaultColor(sceneContext, tile))
 			{
 				vertexDefaultColor[0] = vertexDefaultColor[1] = vertexDefaultColor[2] = vertexDefaultColor[3] = true;
 			}
@@ -215,17 +330,13 @@ public class ProceduralGenerator
 		{
 			// tile model
 
-			SceneTileModel sceneTileModel = tile.getSceneTileModel();
-
-			final int[] faceColorsA = sceneTileModel.getTriangleColorA();
-			final int[] faceColorsB = sceneTileModel.getTriangleColorB();
-			final int[] faceColorsC = sceneTileModel.getTriangleColorC();
+			final int[] tileColors = sceneContext.terrainSnapshot.getColors(tile);
 
 			for (int face = 0; face < faceCount; face++)
 			{
-				int[] faceColors = new int[]{faceColorsA[face], faceColorsB[face], faceColorsC[face]};
+				int[] faceColors = new int[]{tileColors[face * 3], tileColors[face * 3 + 1], tileColors[face * 3 + 2]};
 
-				int[] vertexKeys = faceVertexKeys(tile, face);
+				int[] faceVertexKeys = addFaceVertexKeys(sceneContext, tile, face);
 
 				for (int vertex = 0; vertex < VERTICES_PER_FACE; vertex++)
 				{
@@ -233,9 +344,9 @@ public class ProceduralGenerator
 					Overlay overlay = Overlay.NONE;
 					if (isOverlay)
 					{
-						overlay = Overlay.getOverlay(scene, tile, plugin);
+						overlay = sceneContext.getOverlay(tile);
 					}
-					Underlay underlay =  Underlay.getUnderlay(scene, tile, plugin);
+					Underlay underlay = sceneContext.getUnderlay(tile);
 
 					if (overlay.waterType != WaterType.NONE || underlay.waterType != WaterType.NONE)
 					{
@@ -243,7 +354,7 @@ public class ProceduralGenerator
 						continue;
 					}
 
-					vertexHashes[face * VERTICES_PER_FACE + vertex] = vertexKeys[vertex];
+					vertexKeys[face * VERTICES_PER_FACE + vertex] = faceVertexKeys[vertex];
 
 					int color = faceColors[vertex];
 					vertexColors[face * VERTICES_PER_FACE + vertex] = color;
@@ -251,7 +362,7 @@ public class ProceduralGenerator
 					vertexOverlays[face * VERTICES_PER_FACE + vertex] = overlay;
 					vertexUnderlays[face * VERTICES_PER_FACE + vertex] = underlay;
 
-					if (isOverlay && useDefaultColor(scene, tile))
+					if (isOverlay && useDefaultColor(sceneContext, tile))
 					{
 						vertexDefaultColor[face * VERTICES_PER_FACE + vertex] = true;
 					}
@@ -259,9 +370,10 @@ public class ProceduralGenerator
 			}
 		}
 
-		for (int vertex = 0; vertex < vertexHashes.length; vertex++)
+		for (int vertex = 0; vertex < vertexKeys.length; vertex++)
 		{
-			if (vertexHashes[vertex] == 0)
+			int vertexKey = vertexKeys[vertex];
+			if (vertexKey == TerrainVertexStore.NONE)
 			{
 				continue;
 			}
@@ -284,7 +396,7 @@ public class ProceduralGenerator
 			int darkenBase = 0;
 			int darkenAdd = 0;
 
-			float[] vNormals = sceneContext.vertexTerrainNormals.getOrDefault(vertexHashes[vertex], new float[]{0, 0, 0});
+			float[] vNormals = terrainVertices.getNormals(vertexKey, ZERO_NORMALS);
 
 			float dot = HDUtils.dotLightDirectionTile(vNormals[0], vNormals[1], vNormals[2]);
 			int lighten = (int) (Math.max((colorHSL[2] - lightenAdd), 0) * lightenMultiplier) + lightenBase;
@@ -318,33 +430,35 @@ public class ProceduralGenerator
 			// this is used to determine how to blend between vertex colors
 			if (isOverlay)
 			{
-				sceneContext.vertexIsOverlay.put(vertexHashes[vertex], true);
+				terrainVertices.setOverlay(vertexKey);
 			}
 			else
 			{
-				sceneContext.vertexIsUnderlay.put(vertexHashes[vertex], true);
+				terrainVertices.setUnderlay(vertexKey);
 			}
 
-			// add color and texture to hashmap
-			if ((!lowPriorityColor || !sceneContext.highPriorityColor.containsKey(vertexHashes[vertex])) && !vertexDefaultColor[vertex])
+			// add color and texture to the terrain vertices
+			// high priority colors override potentially undesirable
+			// vertex colors, for example colors that aren't supposed to be visible
+			if ((!lowPriorityColor || !terrainVertices.isHighPriorityColor(vertexKey)) && !vertexDefaultColor[vertex])
 			{
 				if (vertexOverlays[vertex] != Overlay.NONE ||
-					!sceneContext.vertexTerrainColor.containsKey(vertexHashes[vertex]) ||
-					!sceneContext.highPriorityColor.containsKey(vertexHashes[vertex]))
+					!terrainVertices.hasColor(vertexKey) ||
+					!terrainVertices.isHighPriorityColor(vertexKey))
 				{
-					sceneContext.vertexTerrainColor.put(vertexHashes[vertex], vertexColors[vertex]);
+					terrainVertices.setColor(vertexKey, vertexColors[vertex]);
 				}
 
 				if (vertexOverlays[vertex] != Overlay.NONE ||
-					!sceneContext.vertexTerrainTexture.containsKey(vertexHashes[vertex]) ||
-					!sceneContext.highPriorityColor.containsKey(vertexHashes[vertex]))
+					!terrainVertices.hasMaterial(vertexKey) ||
+					!terrainVertices.isHighPriorityColor(vertexKey))
 				{
-					sceneContext.vertexTerrainTexture.put(vertexHashes[vertex], material);
+					terrainVertices.setMaterial(vertexKey, material);
 				}
 
 				if (!lowPriorityColor)
 				{
-					sceneContext.highPriorityColor.put(vertexHashes[vertex], true);
+					terrainVertices.setHighPriorityColor(vertexKey);
 				}
 			}
 		}
@@ -353,23 +467,22 @@ public class ProceduralGenerator
 	/**
 	 * Generates underwater terrain data by iterating through all Tiles in a given
 	 * Scene, increasing the depth of each tile based on its distance from the shore.
-	 * Then stores the resulting data in a HashMap.
+	 * Then stores the resulting data in the scene's terrain vertices.
 	 */
 	private void generateUnderwaterTerrain(SceneContext sceneContext)
 	{
+		// vertices are marked as water if they're part of a face which qualifies as water,
+		// and as land if they're part of a face which qualifies as land
+		// tiles along the shoreline will be marked as both water and land
+		// vertices also get a height adjustment, to be applied to the vertex'
+		// real height to create the underwater terrain
+		TerrainVertexStore terrainVertices = sceneContext.terrainVertices;
+
 		// true if a tile contains at least 1 face which qualifies as water
 		sceneContext.tileIsWater = new boolean[MAX_Z][SCENE_SIZE][SCENE_SIZE];
-		// true if a vertex is part of a face which qualifies as water; non-existent if not
-		sceneContext.vertexIsWater = new HashMap<>();
-		// true if a vertex is part of a face which qualifies as land; non-existent if not
-		// tiles along the shoreline will be true for both vertexIsWater and vertexIsLand
-		sceneContext.vertexIsLand = new HashMap<>();
 		// if true, the tile will be skipped when the scene is drawn
 		// this is due to certain edge cases with water on the same X/Y on different planes
 		sceneContext.skipTile = new boolean[MAX_Z][SCENE_SIZE][SCENE_SIZE];
-		// the height adjustment for each vertex, to be applied to the vertex'
-		// real height to create the underwater terrain
-		sceneContext.vertexUnderwaterDepth = new HashMap<>();
 		// the basic 'levels' of underwater terrain, used to sink terrain based on its distance
 		// from the shore, then used to produce the world-space height offset
 		// 0 = land
@@ -389,8 +502,8 @@ public class ProceduralGenerator
 			}
 		}
 
-		Scene scene = sceneContext.scene;
-		Tile[][][] tiles = scene.getTiles();
+		TerrainSnapshot terrain = sceneContext.terrainSnapshot;
+		Tile[][][] tiles = terrain.tiles;
 
 		// figure out which vertices are water and assign some data
 		for (int z = 0; z < MAX_Z; ++z)
@@ -415,15 +528,15 @@ public class ProceduralGenerator
 					}
 					if (tile.getSceneTilePaint() != null)
 					{
-						int[] vertexKeys = tileVertexKeys(scene, tile);
+						int[] vertexKeys = addTileVertexKeys(sceneContext, tile);
 
-						if (tileWaterType(scene, tile, tile.getSceneTilePaint()) == WaterType.NONE)
+						if (tileWaterType(sceneContext, tile, tile.getSceneTilePaint()) == WaterType.NONE)
 						{
 							for (int vertexKey : vertexKeys)
 							{
-								if (tile.getSceneTilePaint().getNeColor() != 12345678)
+								if (terrain.getColors(tile)[3] != 12345678)
 								{
-									sceneContext.vertexIsLand.put(vertexKey, true);
+									terrainVertices.setLand(vertexKey);
 								}
 							}
 
@@ -465,7 +578,7 @@ public class ProceduralGenerator
 
 							for (int vertexKey : vertexKeys)
 							{
-								sceneContext.vertexIsWater.put(vertexKey, true);
+								terrainVertices.setWater(vertexKey);
 							}
 						}
 					}
@@ -483,7 +596,7 @@ public class ProceduralGenerator
 
 							for (int face = 0; face < faceCount; face++)
 							{
-								if (faceWaterType(scene, tile, face, sceneTileModel) != WaterType.NONE)
+								if (faceWaterType(sceneContext, tile, face, sceneTileModel) != WaterType.NONE)
 								{
 									tileIncludesWater = true;
 									break;
@@ -519,15 +632,15 @@ public class ProceduralGenerator
 						for (int face = 0; face < faceCount; face++)
 						{
 							int[][] vertices = faceVertices(tile, face);
-							int[] vertexKeys = faceVertexKeys(tile, face);
+							int[] vertexKeys = addFaceVertexKeys(sceneContext, tile, face);
 
-							if (faceWaterType(scene, tile, face, sceneTileModel) == WaterType.NONE)
+							if (faceWaterType(sceneContext, tile, face, sceneTileModel) == WaterType.NONE)
 							{
 								for (int vertex = 0; vertex < VERTICES_PER_FACE; vertex++)
 								{
-									if (sceneTileModel.getTriangleColorA()[face] != 12345678)
-									{sceneContext.
-										vertexIsLand.put(vertexKeys[vertex], true);
+									if (terrain.getFaceColor(tile, face, 0) != 12345678)
+									{
+										terrainVertices.setLand(vertexKeys[vertex]);
 									}
 
 									if (vertices[vertex][0] % Perspective.LOCAL_TILE_SIZE == 0 &&
@@ -546,7 +659,7 @@ public class ProceduralGenerator
 
 								for (int vertex = 0; vertex < VERTICES_PER_FACE; vertex++)
 								{
-									sceneContext.vertexIsWater.put(vertexKeys[vertex], true);
+									terrainVertices.setWater(vertexKeys[vertex]);
 								}
 							}
 						}
@@ -562,86 +675,16 @@ public class ProceduralGenerator
 			}
 		}
 
-		// Sink terrain further from shore by desired levels.
-		for (int level = 0; level < DEPTH_LEVEL_SLOPE.length - 1; level++)
-		{
-			for (int z = 0; z < MAX_Z; ++z)
-			{
-				for (int x = 0; x < sceneContext.underwaterDepthLevels[z].length; x++)
-				{
-					for (int y = 0; y < sceneContext.underwaterDepthLevels[z][x].length; y++)
-					{
-						if (sceneContext.underwaterDepthLevels[z][x][y] == 0)
-						{
-							// Skip the tile if it isn't water.
-							continue;
-						}
-						// If it's on the edge of the scene, reset the depth so
-						// it creates a 'wall' to prevent fog from passing through.
-						// Not incredibly effective, but better than nothing.
-						if (x == 0 || y == 0 || x == SCENE_SIZE || y == SCENE_SIZE)
-						{
-							sceneContext.underwaterDepthLevels[z][x][y] = 0;
-							continue;
-						}
-
-						int tileHeight = sceneContext.underwaterDepthLevels[z][x][y];
-						if (sceneContext.underwaterDepthLevels[z][x - 1][y] < tileHeight)
-						{
-							// West
-							continue;
-						}
-						if (x < sceneContext.underwaterDepthLevels[z].length - 1 && sceneContext.underwaterDepthLevels[z][x + 1][y] < tileHeight)
-						{
-							// East
-							continue;
-						}
-						if (sceneContext.underwaterDepthLevels[z][x][y - 1] < tileHeight)
-						{
-							// South
-							continue;
-						}
-						if (y < sceneContext.underwaterDepthLevels[z].length - 1 && sceneContext.underwaterDepthLevels[z][x][y + 1] < tileHeight)
-						{
-							// North
-							continue;
-						}
-						// At this point, it's surrounded only by other depth-adjusted vertices.
-						sceneContext.underwaterDepthLevels[z][x][y]++;
-					}
-				}
-			}
-		}
-
-		// Adjust the height levels to world coordinate offsets and add to an array.
+		// Sink terrain further from shore by desired levels, and adjust the levels to world-space height offsets.
 		for (int z = 0; z < MAX_Z; ++z)
 		{
-			for (int x = 0; x < sceneContext.underwaterDepthLevels[z].length; x++)
-			{
-				for (int y = 0; y < sceneContext.underwaterDepthLevels[z][x].length; y++)
-				{
-					if (sceneContext.underwaterDepthLevels[z][x][y] == 0)
-					{
-						continue;
-					}
-					int maxRange = DEPTH_LEVEL_SLOPE[sceneContext.underwaterDepthLevels[z][x][y] - 1];
-					int minRange = (int) (DEPTH_LEVEL_SLOPE[sceneContext.underwaterDepthLevels[z][x][y] - 1] * 0.1f);
-					// Range from noise-generated terrain is 10-60.
-					// Translate the result from range 0-1.
-//					float noiseOffset = (HeightCalc.calculate(baseX + x + 0xe3b7b, baseY + y + 0x87cce) - 10) / 50f;
-					float noiseOffset = 0.5f;
-					// limit range of variation
-					float minOffset = 0.25f;
-					float maxOffset = 0.75f;
-					noiseOffset = HDUtils.lerp(minOffset, maxOffset, noiseOffset);
-					// apply offset to vertex height range
-					int heightOffset = (int) HDUtils.lerp(minRange, maxRange, noiseOffset);
-					underwaterDepths[z][x][y] = heightOffset;
-				}
-			}
+			sinkUnderwaterTerrain(sceneContext.underwaterDepthLevels[z]);
+			for (int x = 0; x <= SCENE_SIZE; x++)
+				for (int y = 0; y <= SCENE_SIZE; y++)
+					underwaterDepths[z][x][y] = DEPTH_LEVEL_OFFSETS[sceneContext.underwaterDepthLevels[z][x][y]];
 		}
 
-		// Store the height offsets in a hashmap and calculate interpolated
+		// Store the height offsets in the terrain vertices and calculate interpolated
 		// height offsets for non-corner vertices.
 		for (int z = 0; z < MAX_Z; ++z)
 		{
@@ -666,17 +709,17 @@ public class ProceduralGenerator
 					}
 					if (tile.getSceneTilePaint() != null)
 					{
-						int[] vertexKeys = tileVertexKeys(scene, tile);
+						int[] vertexKeys = addTileVertexKeys(sceneContext, tile);
 
 						int swVertexKey = vertexKeys[0];
 						int seVertexKey = vertexKeys[1];
 						int nwVertexKey = vertexKeys[2];
 						int neVertexKey = vertexKeys[3];
 
-						sceneContext.vertexUnderwaterDepth.put(swVertexKey, underwaterDepths[z][x][y]);
-						sceneContext.vertexUnderwaterDepth.put(seVertexKey, underwaterDepths[z][x + 1][y]);
-						sceneContext.vertexUnderwaterDepth.put(nwVertexKey, underwaterDepths[z][x][y + 1]);
-						sceneContext.vertexUnderwaterDepth.put(neVertexKey, underwaterDepths[z][x + 1][y + 1]);
+						terrainVertices.setUnderwaterDepth(swVertexKey, underwaterDepths[z][x][y]);
+						terrainVertices.setUnderwaterDepth(seVertexKey, underwaterDepths[z][x + 1][y]);
+						terrainVertices.setUnderwaterDepth(nwVertexKey, underwaterDepths[z][x][y + 1]);
+						terrainVertices.setUnderwaterDepth(neVertexKey, underwaterDepths[z][x + 1][y + 1]);
 					}
 					else if (tile.getSceneTileModel() != null)
 					{
@@ -687,7 +730,7 @@ public class ProceduralGenerator
 						for (int face = 0; face < faceCount; face++)
 						{
 							int[][] vertices = faceVertices(tile, face);
-							int[] vertexKeys = faceVertexKeys(tile, face);
+							int[] vertexKeys = addFaceVertexKeys(sceneContext, tile, face);
 
 							for (int vertex = 0; vertex < VERTICES_PER_FACE; vertex++)
 							{
@@ -700,7 +743,7 @@ public class ProceduralGenerator
 									int vX = vertices[vertex][0] / Perspective.LOCAL_TILE_SIZE;
 									int vY = vertices[vertex][1] / Perspective.LOCAL_TILE_SIZE;
 
-									sceneContext.vertexUnderwaterDepth.put(vertexKeys[vertex], underwaterDepths[z][vX][vY]);
+									terrainVertices.setUnderwaterDepth(vertexKeys[vertex], underwaterDepths[z][vX][vY]);
 								}
 								else
 								{
@@ -716,9 +759,9 @@ public class ProceduralGenerator
 									float southHeightOffset = HDUtils.lerp(underwaterDepths[z][x][y], underwaterDepths[z][x+1][y], lerpX);
 									int heightOffset = (int) HDUtils.lerp(southHeightOffset, northHeightOffset, lerpY);
 
-									if (!sceneContext.vertexIsLand.containsKey(vertexKeys[vertex]))
+									if (!terrainVertices.isLand(vertexKeys[vertex]))
 									{
-										sceneContext.vertexUnderwaterDepth.put(vertexKeys[vertex], heightOffset);
+										terrainVertices.setUnderwaterDepth(vertexKeys[vertex], heightOffset);
 									}
 								}
 							}
@@ -730,17 +773,156 @@ public class ProceduralGenerator
 	}
 
 	/**
-	 * Iterates through all Tiles in a given Scene, calculating vertex normals
-	 * for each one, then stores resulting normal data in a HashMap.
+	 * Sinks the water vertices of a plane by one level for each vertex between them and the nearest land or edge of the
+	 * scene, up to the deepest level. The levels are calculated in a single breadth-first search outwards from the
+	 * land and edges, rather than by repeatedly deepening vertices which are surrounded by vertices of the same level.
+	 *
+	 * @param depthLevels of each vertex on the plane's tile grid, which are 0 for land and 1 for water
 	 */
-	private void calculateTerrainNormals(SceneContext sceneContext)
+	static void sinkUnderwaterTerrain(int[][] depthLevels)
 	{
-		sceneContext.vertexTerrainNormals = new HashMap<>();
+		final int size = SCENE_SIZE + 1;
+		final int edge = SCENE_SIZE;
+		final int deepestLevel = DEPTH_LEVEL_SLOPE.length;
+		final int unvisited = -1;
+
+		// Terrain was previously deepened one level at a time, and the north and east edges were only reset after
+		// deepening the vertices next to them for the first time, so those vertices could end up a level deeper than
+		// their distance to the edge. Keep them that way, so the terrain doesn't change.
+		int[] deeperVertices = new int[size * 2];
+		int deeperVertexCount = 0;
+		for (int i = 2; i < edge; i++)
+		{
+			// Along the north edge, and along the east edge below the corner
+			if (isSurroundedByWater(depthLevels, i, edge - 1))
+				deeperVertices[deeperVertexCount++] = i * size + edge - 1;
+			if (i < edge - 1 && isSurroundedByWater(depthLevels, edge - 1, i))
+				deeperVertices[deeperVertexCount++] = (edge - 1) * size + i;
+		}
 
-		for (Tile[][] plane : sceneContext.scene.getTiles()) {
-			for (Tile[] column : plane) {
-				for (Tile tile : column) {
-					if (tile != null) {
+		// Reset the depth along the edges of the scene, so it creates a 'wall' to prevent fog from passing through.
+		// Not incredibly effective, but better than nothing.
+		for (int i = 0; i < size; i++)
+		{
+			depthLevels[0][i] = 0;
+			depthLevels[edge][i] = 0;
+			depthLevels[i][0] = 0;
+			depthLevels[i][edge] = 0;
+		}
+
+		boolean hasWater = false;
+		for (int x = 1; x < edge; x++)
+		{
+			for (int y = 1; y < edge; y++)
+			{
+				if (depthLevels[x][y] != 0)
+				{
+					depthLevels[x][y] = unvisited;
+					hasWater = true;
+				}
+			}
+		}
+		if (!hasWater)
+			return;
+
+		for (int i = 0; i < deeperVertexCount; i++)
+			depthLevels[deeperVertices[i] / size][deeperVertices[i] % size] = 2;
+
+		// Start from the water along the shore, rather than from all of the land
+		int[] frontier = new int[size * size];
+		int[] nextFrontier = new int[size * size];
+		int frontierSize = 0;
+		for (int x = 1; x < edge; x++)
+		{
+			for (int y = 1; y < edge; y++)
+			{
+				if (depthLevels[x][y] == unvisited && (
+					depthLevels[x - 1][y] == 0 ||
+					depthLevels[x + 1][y] == 0 ||
+					depthLevels[x][y - 1] == 0 ||
+					depthLevels[x][y + 1] == 0
+				))
+				{
+					depthLevels[x][y] = 1;
+					frontier[frontierSize++] = x * size + y;
+				}
+			}
+		}
+
+		for (int level = 2; level < deepestLevel; level++)
+		{
+			int nextFrontierSize = 0;
+			if (level == 2)
+			{
+				System.arraycopy(deeperVertices, 0, nextFrontier, 0, deeperVertexCount);
+				nextFrontierSize = deeperVertexCount;
+			}
+
+			// Vertices along the edges are never unvisited, so their neighbours don't need bounds checks
+			for (int i = 0; i < frontierSize; i++)
+			{
+				int x = frontier[i] / size;
+				int y = frontier[i] % size;
+				if (depthLevels[x - 1][y] == unvisited)
+				{
+					depthLevels[x - 1][y] = level;
+					nextFrontier[nextFrontierSize++] = frontier[i] - size;
+				}
+				if (depthLevels[x + 1][y] == unvisited)
+				{
+					depthLevels[x + 1][y] = level;
+					nextFrontier[nextFrontierSize++] = frontier[i] + size;
+				}
+				if (depthLevels[x][y - 1] == unvisited)
+				{
+					depthLevels[x][y - 1] = level;
+					nextFrontier[nextFrontierSize++] = frontier[i] - 1;
+				}
+				if (depthLevels[x][y + 1] == unvisited)
+				{
+					depthLevels[x][y + 1] = level;
+					nextFrontier[nextFrontierSize++] = frontier[i] + 1;
+				}
+			}
+
+			int[] swap = frontier;
+			frontier = nextFrontier;
+			nextFrontier = swap;
+			frontierSize = nextFrontierSize;
+		}
+
+		// The remaining vertices are far enough from the shore to be at the deepest level
+		for (int x = 1; x < edge; x++)
+			for (int y = 1; y < edge; y++)
+				if (depthLevels[x][y] == unvisited)
+					depthLevels[x][y] = deepestLevel;
+	}
+
+	private static boolean isSurroundedByWater(int[][] depthLevels, int x, int y)
+	{
+		return
+			depthLevels[x][y] != 0 &&
+			depthLevels[x - 1][y] != 0 &&
+			depthLevels[x + 1][y] != 0 &&
+			depthLevels[x][y - 1] != 0 &&
+			depthLevels[x][y + 1] != 0;
+	}
+
+	/**
+	 * Iterates through all Tiles in a given Scene, calculating vertex normals
+	 * for each one, then stores resulting normal data in the scene's terrain vertices.
+	 *
+	 * @param sceneContext     to calculate normals for
+	 * @param regeneratedTiles the scene X and Y of tiles to calculate normals for, or null for all tiles
+	 */
+	private void calculateTerrainNormals(SceneContext sceneContext, @Nullable boolean[][] regeneratedTiles)
+	{
+		Tile[][][] tiles = sceneContext.terrainSnapshot.tiles;
+		for (int z = 0; z < MAX_Z; ++z) {
+			for (int x = 0; x < SCENE_SIZE; ++x) {
+				for (int y = 0; y < SCENE_SIZE; ++y) {
+					Tile tile = tiles[z][x][y];
+					if (tile != null && (regeneratedTiles == null || regeneratedTiles[x][y])) {
 						boolean isBridge = false;
 
 						if (tile.getBridge() != null) {
@@ -756,7 +938,7 @@ public class ProceduralGenerator
 
 	/**
 	 * Calculates vertex normals for a given Tile,
-	 * then stores resulting normal data in a HashMap.
+	 * then stores resulting normal data in the scene's terrain vertices.
 	 *
 	 * @param sceneContext that the tile is associated with
 	 * @param tile         to calculate normals for
@@ -783,7 +965,7 @@ public class ProceduralGenerator
 				faceVertices[face][2] = new int[]{vertices[1][0], vertices[1][1], vertices[1][2]};
 				faceVertices[face][1] = new int[]{vertices[2][0], vertices[2][1], vertices[2][2]};
 
-				int[] vertexKeys = faceVertexKeys(tile, face);
+				int[] vertexKeys = addFaceVertexKeys(sceneContext, tile, face);
 				faceVertexKeys[face][0] = vertexKeys[0];
 				faceVertexKeys[face][2] = vertexKeys[1];
 				faceVertexKeys[face][1] = vertexKeys[2];
@@ -793,11 +975,11 @@ public class ProceduralGenerator
 		{
 			faceVertices = new int[2][VERTICES_PER_FACE][3];
 			faceVertexKeys = new int[VERTICES_PER_FACE][3];
-			int[][] vertices = tileVertices(sceneContext.scene, tile);
+			int[][] vertices = tileVertices(sceneContext, tile);
 			faceVertices[0] = new int[][]{vertices[3], vertices[1], vertices[2]};
 			faceVertices[1] = new int[][]{vertices[0], vertices[2], vertices[1]};
 
-			int[] vertexKeys = tileVertexKeys(sceneContext.scene, tile);
+			int[] vertexKeys = addTileVertexKeys(sceneContext, tile);
 			faceVertexKeys[0] = new int[]{vertexKeys[3], vertexKeys[1], vertexKeys[2]};
 			faceVertexKeys[1] = new int[]{vertexKeys[0], vertexKeys[2], vertexKeys[1]};
 		}
@@ -809,9 +991,9 @@ public class ProceduralGenerator
 			int[] vertexHeights = new int[]{faceVertices[face][0][2], faceVertices[face][1][2], faceVertices[face][2][2]};
 			if (!isBridge)
 			{
-				vertexHeights[0] += sceneContext.vertexUnderwaterDepth.getOrDefault(faceVertexKeys[face][0], 0);
-				vertexHeights[1] += sceneContext.vertexUnderwaterDepth.getOrDefault(faceVertexKeys[face][1], 0);
-				vertexHeights[2] += sceneContext.vertexUnderwaterDepth.getOrDefault(faceVertexKeys[face][2], 0);
+				vertexHeights[0] += sceneContext.terrainVertices.getUnderwaterDepth(faceVertexKeys[face][0]);
+				vertexHeights[1] += sceneContext.terrainVertices.getUnderwaterDepth(faceVertexKeys[face][1]);
+				vertexHeights[2] += sceneContext.terrainVertices.getUnderwaterDepth(faceVertexKeys[face][2]);
 			}
 
 			float[] vertexNormals = HDUtils.calculateSurfaceNormals(
@@ -825,14 +1007,276 @@ public class ProceduralGenerator
 
 			for (int vertex = 0; vertex < VERTICES_PER_FACE; vertex++)
 			{
-				int vertexKey = faceVertexKeys[face][vertex];
-				// accumulate normals to hashmap
-				sceneContext.vertexTerrainNormals.merge(vertexKey, vertexNormals, (a, b) -> HDUtils.vectorAdd(b, a));
+				// accumulate normals in the terrain vertices
+				sceneContext.terrainVertices.addNormals(faceVertexKeys[face][vertex], vertexNormals);
+			}
+		}
+	}
+
+	/**
+	 * Hashes everything that each tile's terrain data is generated from, other than its neighbours and the
+	 * underwater terrain, so the terrain data of tiles which are unchanged in the next scene can be reused.
+	 */
+	private void hashTerrainInputs(SceneContext sceneContext)
+	{
+		TerrainSnapshot terrain = sceneContext.terrainSnapshot;
+		sceneContext.terrainBaseX = terrain.baseX;
+		sceneContext.terrainBaseY = terrain.baseY;
+		if (terrain.isInstance)
+		{
+			// The same scene position may map to different world positions in the next scene
+			return;
+		}
+
+		long seed = plugin.configWinterTheme ? 1 : 0;
+		sceneContext.terrainInputHashes = new long[MAX_Z][SCENE_SIZE][SCENE_SIZE];
+		for (int z = 0; z < MAX_Z; ++z)
+			for (int x = 0; x < SCENE_SIZE; ++x)
+				for (int y = 0; y < SCENE_SIZE; ++y)
+					sceneContext.terrainInputHashes[z][x][y] = hashTerrainInputs(terrain, terrain.tiles[z][x][y], seed);
+	}
+
+	/**
+	 * Combines the terrain input hashes of all tiles with the scene's base, to identify everything the scene's terrain
+	 * data is generated from.
+	 */
+	private static long hashScene(SceneContext sceneContext)
+	{
+		long hash = ModelHasher.mix((long) sceneContext.terrainBaseX << 32 | sceneContext.terrainBaseY & 0xFFFFFFFFL);
+		for (long[][] plane : sceneContext.terrainInputHashes)
+			for (long[] column : plane)
+				for (long tileHash : column)
+					hash = ModelHasher.mix(hash ^ tileHash);
+		return hash;
+	}
+
+	private static long hashTerrainInputs(TerrainSnapshot terrain, @Nullable Tile tile, long hash)
+	{
+		if (tile == null)
+		{
+			return ModelHasher.mix(hash ^ 0xEFL);
+		}
+
+		int x = tile.getSceneLocation().getX();
+		int y = tile.getSceneLocation().getY();
+		int z = tile.getRenderLevel();
+		int[][][] tileHeights = terrain.tileHeights;
+		hash = ModelHasher.mix(hash ^ tile.getPlane());
+		hash = ModelHasher.mix(hash ^ z);
+		hash = ModelHasher.mix(hash ^ tileHeights[z][x][y]);
+		hash = ModelHasher.mix(hash ^ tileHeights[z][x + 1][y]);
+		hash = ModelHasher.mix(hash ^ tileHeights[z][x][y + 1]);
+		hash = ModelHasher.mix(hash ^ tileHeights[z][x + 1][y + 1]);
+		hash = ModelHasher.mix(hash ^ terrain.overlayIds[z][x][y]);
+		hash = ModelHasher.mix(hash ^ terrain.underlayIds[z][x][y]);
+		int[] tileColors = terrain.getColors(tile);
+		if (tileColors != null)
+		{
+			hash = ModelHasher.mix(hash ^ ModelHasher.fastIntHash(tileColors, -1));
+		}
+
+		SceneTilePaint sceneTilePaint = tile.getSceneTilePaint();
+		if (sceneTilePaint != null)
+		{
+			hash = ModelHasher.mix(hash ^ sceneTilePaint.getTexture());
+		}
+
+		SceneTileModel sceneTileModel = tile.getSceneTileModel();
+		if (sceneTileModel != null)
+		{
+			hash = ModelHasher.mix(hash ^ sceneTileModel.getShape());
+			// Vertex positions are relative to the scene, so hash them relative to the tile instead
+			int[] vertexX = sceneTileModel.getVertexX();
+			int[] vertexZ = sceneTileModel.getVertexZ();
+			for (int i = 0; i < vertexX.length; i++)
+			{
+				hash = ModelHasher.mix(hash ^ (vertexX[i] - x * Perspective.LOCAL_TILE_SIZE));
+				hash = ModelHasher.mix(hash ^ (vertexZ[i] - y * Perspective.LOCAL_TILE_SIZE));
+			}
+			hash = ModelHasher.mix(hash ^ ModelHasher.fastIntHash(sceneTileModel.getVertexY(), -1));
+			hash = ModelHasher.mix(hash ^ ModelHasher.fastIntHash(sceneTileModel.getFaceX(), -1));
+			hash = ModelHasher.mix(hash ^ ModelHasher.fastIntHash(sceneTileModel.getFaceY(), -1));
+			hash = ModelHasher.mix(hash ^ ModelHasher.fastIntHash(sceneTileModel.getFaceZ(), -1));
+			int[] triangleTextureId = sceneTileModel.getTriangleTextureId();
+			if (triangleTextureId != null)
+			{
+				hash = ModelHasher.mix(hash ^ ModelHasher.fastIntHash(triangleTextureId, -1));
+			}
+		}
+
+		if (tile.getBridge() != null)
+		{
+			hash = ModelHasher.mix(hash ^ hashTerrainInputs(terrain, tile.getBridge(), 0));
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Compares the scene's tiles to the tiles at the same world positions in the previous scene.
+	 *
+	 * @return the scene X and Y of tiles which may have different terrain data on any plane, or null if none of the
+	 * previous scene's terrain data can be reused
+	 */
+	@Nullable
+	private static boolean[][] findChangedTiles(SceneContext sceneContext, @Nullable SceneContext previousSceneContext)
+	{
+		if (previousSceneContext == null ||
+			previousSceneContext.terrainVertices == null ||
+			previousSceneContext.terrainInputHashes == null ||
+			sceneContext.terrainInputHashes == null)
+		{
+			return null;
+		}
+
+		int offsetX = sceneContext.terrainBaseX - previousSceneContext.terrainBaseX;
+		int offsetY = sceneContext.terrainBaseY - previousSceneContext.terrainBaseY;
+		if (Math.abs(offsetX) >= SCENE_SIZE || Math.abs(offsetY) >= SCENE_SIZE)
+		{
+			return null;
+		}
+
+		boolean[][] changedTiles = new boolean[SCENE_SIZE][SCENE_SIZE];
+		for (int x = 0; x < SCENE_SIZE; ++x)
+		{
+			for (int y = 0; y < SCENE_SIZE; ++y)
+			{
+				int previousX = x + offsetX;
+				int previousY = y + offsetY;
+				if (previousX < 0 || previousY < 0 || previousX >= SCENE_SIZE || previousY >= SCENE_SIZE ||
+					// the colors of tiles along the north and east edges are altered to hide the scene's edges
+					x >= SCENE_SIZE - 2 || y >= SCENE_SIZE - 2 || previousX >= SCENE_SIZE - 2 || previousY >= SCENE_SIZE - 2)
+				{
+					changedTiles[x][y] = true;
+					continue;
+				}
+
+				for (int z = 0; z < MAX_Z; ++z)
+				{
+					if (sceneContext.terrainInputHashes[z][x][y] != previousSceneContext.terrainInputHashes[z][previousX][previousY] ||
+						sceneContext.tileIsWater[z][x][y] != previousSceneContext.tileIsWater[z][previousX][previousY] ||
+						sceneContext.skipTile[z][x][y] != previousSceneContext.skipTile[z][previousX][previousY] ||
+						!sameDepthLevels(sceneContext.underwaterDepthLevels[z], previousSceneContext.underwaterDepthLevels[z], x, y, offsetX, offsetY))
+					{
+						changedTiles[x][y] = true;
+						break;
+					}
+				}
+			}
+		}
+
+		return changedTiles;
+	}
+
+	private static boolean sameDepthLevels(int[][] depthLevels, int[][] previousDepthLevels, int x, int y, int offsetX, int offsetY)
+	{
+		return
+			depthLevels[x][y] == previousDepthLevels[x + offsetX][y + offsetY] &&
+			depthLevels[x + 1][y] == previousDepthLevels[x + 1 + offsetX][y + offsetY] &&
+			depthLevels[x][y + 1] == previousDepthLevels[x + offsetX][y + 1 + offsetY] &&
+			depthLevels[x + 1][y + 1] == previousDepthLevels[x + 1 + offsetX][y + 1 + offsetY];
+	}
+
+	/**
+	 * Tiles sharing a vertex with a changed tile contribute to the vertex' terrain data, so they're regenerated too.
+	 */
+	private static boolean[][] regeneratedTiles(boolean[][] changedTiles)
+	{
+		boolean[][] regeneratedTiles = new boolean[SCENE_SIZE][SCENE_SIZE];
+		for (int x = 0; x < SCENE_SIZE; ++x)
+			for (int y = 0; y < SCENE_SIZE; ++y)
+				if (changedTiles[x][y])
+					for (int i = Math.max(0, x - 1); i <= Math.min(SCENE_SIZE - 1, x + 1); i++)
+						for (int j = Math.max(0, y - 1); j <= Math.min(SCENE_SIZE - 1, y + 1); j++)
+							regeneratedTiles[i][j] = true;
+		return regeneratedTiles;
+	}
+
+	/**
+	 * Copies the previous scene's terrain data for vertices which are only part of unchanged tiles, replacing whatever
+	 * the regenerated tiles next to them have added to them.
+	 */
+	private static void reuseTerrainData(SceneContext sceneContext, SceneContext previousSceneContext, boolean[][] changedTiles)
+	{
+		int offsetX = (sceneContext.terrainBaseX - previousSceneContext.terrainBaseX) * Perspective.LOCAL_TILE_SIZE;
+		int offsetY = (sceneContext.terrainBaseY - previousSceneContext.terrainBaseY) * Perspective.LOCAL_TILE_SIZE;
+		Tile[][][] tiles = sceneContext.terrainSnapshot.tiles;
+		for (int z = 0; z < MAX_Z; ++z)
+		{
+			for (int x = 0; x < SCENE_SIZE; ++x)
+			{
+				for (int y = 0; y < SCENE_SIZE; ++y)
+				{
+					Tile tile = tiles[z][x][y];
+					if (tile == null || changedTiles[x][y])
+					{
+						continue;
+					}
+
+					if (tile.getBridge() != null)
+					{
+						reuseTerrainData(sceneContext, previousSceneContext, changedTiles, tile.getBridge(), offsetX, offsetY);
+					}
+					reuseTerrainData(sceneContext, previousSceneContext, changedTiles, tile, offsetX, offsetY);
+				}
 			}
 		}
 	}
 
-	boolean useDefaultColor(Scene scene, Tile tile)
+	private static void reuseTerrainData(
+		SceneContext sceneContext, SceneContext previousSceneContext, boolean[][] changedTiles,
+		Tile tile, int offsetX, int offsetY)
+	{
+		// Visit the same vertices as the normal calculation does
+		if (tile.getSceneTileModel() != null)
+		{
+			int faceCount = tile.getSceneTileModel().getFaceX().length;
+			for (int face = 0; face < faceCount; face++)
+			{
+				for (int[] vertex : faceVertices(tile, face))
+				{
+					reuseTerrainData(sceneContext, previousSceneContext, changedTiles, vertex, offsetX, offsetY);
+				}
+			}
+		}
+		else
+		{
+			for (int[] vertex : tileVertices(sceneContext, tile))
+			{
+				reuseTerrainData(sceneContext, previousSceneContext, changedTiles, vertex, offsetX, offsetY);
+			}
+		}
+	}
+
+	private static void reuseTerrainData(
+		SceneContext sceneContext, SceneContext previousSceneContext, boolean[][] changedTiles,
+		int[] vertex, int offsetX, int offsetY)
+	{
+		// Vertices along the edges of a tile are shared with the tiles next to it
+		int minX = Math.max(0, Math.floorDiv(vertex[0] - 1, Perspective.LOCAL_TILE_SIZE));
+		int maxX = Math.min(SCENE_SIZE - 1, Math.floorDiv(vertex[0], Perspective.LOCAL_TILE_SIZE));
+		int minY = Math.max(0, Math.floorDiv(vertex[1] - 1, Perspective.LOCAL_TILE_SIZE));
+		int maxY = Math.min(SCENE_SIZE - 1, Math.floorDiv(vertex[1], Perspective.LOCAL_TILE_SIZE));
+		for (int x = minX; x <= maxX; x++)
+		{
+			for (int y = minY; y <= maxY; y++)
+			{
+				if (changedTiles[x][y])
+				{
+					return;
+				}
+			}
+		}
+
+		int previousVertexKey = previousSceneContext.terrainVertices.getVertex(vertex[0] + offsetX, vertex[1] + offsetY, vertex[2]);
+		if (previousVertexKey != TerrainVertexStore.NONE)
+		{
+			int vertexKey = sceneContext.terrainVertices.addVertex(vertex[0], vertex[1], vertex[2]);
+			sceneContext.terrainVertices.copyTerrainData(vertexKey, previousSceneContext.terrainVertices, previousVertexKey);
+		}
+	}
+
+	boolean useDefaultColor(SceneContext sceneContext, Tile tile)
 	{
 		if ((tile.getSceneTilePaint() != null && tile.getSceneTilePaint().getTexture() >= 0) ||
 			(tile.getSceneTileModel() != null && tile.getSceneTileModel().getTriangleTextureId() != null))
@@ -841,12 +1285,12 @@ public class ProceduralGenerator
 			return true;
 		}
 
-		Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+		Overlay overlay = sceneContext.getOverlay(tile);
 		if (overlay != Overlay.NONE)
 		{
 			return !overlay.blended;
 		}
-		Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+		Underlay underlay = sceneContext.getUnderlay(tile);
 		if (underlay != Underlay.NONE)
 		{
 			return !underlay.blended;
@@ -862,24 +1306,24 @@ public class ProceduralGenerator
 	/**
 	 * Returns the WaterType of the provided SceneTilePaint Tile.
 	 *
-	 * @param scene that the tile is from
-	 * @param tile  to determine the WaterType of
+	 * @param sceneContext that the tile is from
+	 * @param tile         to determine the WaterType of
 	 * @return the WaterType of the specified Tile
 	 */
-	WaterType tileWaterType(Scene scene, Tile tile, SceneTilePaint sceneTilePaint)
+	WaterType tileWaterType(SceneContext sceneContext, Tile tile, SceneTilePaint sceneTilePaint)
 	{
 		WaterType waterType = WaterType.NONE;
 
 		if (sceneTilePaint != null)
 		{
-			Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+			Overlay overlay = sceneContext.getOverlay(tile);
 			if (overlay != Overlay.NONE)
 			{
 				waterType = overlay.waterType;
 			}
 			else
 			{
-				Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+				Underlay underlay = sceneContext.getUnderlay(tile);
 				waterType = underlay.waterType;
 			}
 		}
@@ -892,25 +1336,25 @@ public class ProceduralGenerator
 	/**
 	 * Returns the WaterType of the provided SceneTileModel Tile's specified face.
 	 *
-	 * @param scene that the tile is from
-	 * @param tile  that the tile model is for
-	 * @param face  the index of the specified face
+	 * @param sceneContext that the tile is from
+	 * @param tile         that the tile model is for
+	 * @param face         the index of the specified face
 	 * @return the WaterType of the specified face on the tile model
 	 */
-	WaterType faceWaterType(Scene scene, Tile tile, int face, SceneTileModel sceneTileModel)
+	WaterType faceWaterType(SceneContext sceneContext, Tile tile, int face, SceneTileModel sceneTileModel)
 	{
 		WaterType waterType = WaterType.NONE;
 
 		if (sceneTileModel != null)
 		{
-			Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+			Overlay overlay = sceneContext.getOverlay(tile);
 			if (isOverlayFace(tile, face) && overlay != Overlay.NONE)
 			{
 				waterType = overlay.waterType;
 			}
 			else
 			{
-				Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+				Underlay underlay = sceneContext.getUnderlay(tile);
 				waterType = underlay.waterType;
 			}
 		}
@@ -943,12 +1387,12 @@ public class ProceduralGenerator
 		return getTileOverlayTris(tileShapeIndex)[face];
 	}
 
-	private static int[][] tileVertices(Scene scene, Tile tile)
+	private static int[][] tileVertices(SceneContext sceneContext, Tile tile)
 	{
 		int x = tile.getSceneLocation().getX();
 		int y = tile.getSceneLocation().getY();
 		int z = tile.getRenderLevel();
-		int[][][] tileHeights = scene.getTileHeights();
+		int[][][] tileHeights = sceneContext.terrainSnapshot.tileHeights;
 
 		int[] swVertex = new int[]{x * Perspective.LOCAL_TILE_SIZE, y * Perspective.LOCAL_TILE_SIZE, tileHeights[z][x][y]};
 		int[] seVertex = new int[]{(x + 1) * Perspective.LOCAL_TILE_SIZE, y * Perspective.LOCAL_TILE_SIZE, tileHeights[z][x + 1][y]};
@@ -1041,39 +1485,50 @@ public class ProceduralGenerator
 	}
 
 	/**
-	 * Gets the vertex keys of a Tile Paint tile for use in retrieving data from hashmaps.
+	 * Gets the vertex keys of a Tile Paint tile for use in retrieving data from the scene's terrain vertices.
 	 *
-	 * @param scene that the tile is from
-	 * @param tile  to get the vertex keys of
-	 * @return Vertex keys in following order: SW, SE, NW, NE
+	 * @param sceneContext that the tile is associated with
+	 * @param tile         to get the vertex keys of
+	 * @return Vertex keys in following order: SW, SE, NW, NE, or {@link TerrainVertexStore#NONE} for vertices without data
 	 */
-	public static int[] tileVertexKeys(Scene scene, Tile tile)
+	public static int[] tileVertexKeys(SceneContext sceneContext, Tile tile)
 	{
-		int[][] tileVertices = tileVertices(scene, tile);
-		int[] vertexHashes = new int[tileVertices.length];
+		return vertexKeys(sceneContext.terrainVertices, tileVertices(sceneContext, tile), false);
+	}
 
-		for (int vertex = 0; vertex < tileVertices.length; ++vertex)
-		{
-			vertexHashes[vertex] = HDUtils.vertexHash(tileVertices[vertex]);
-		}
+	/**
+	 * Gets the vertex keys of a Tile Paint tile, adding any vertices which aren't in the scene's terrain vertices yet.
+	 */
+	static int[] addTileVertexKeys(SceneContext sceneContext, Tile tile)
+	{
+		return vertexKeys(sceneContext.terrainVertices, tileVertices(sceneContext, tile), true);
+	}
+
+	public static int[] faceVertexKeys(SceneContext sceneContext, Tile tile, int face)
+	{
+		return vertexKeys(sceneContext.terrainVertices, faceVertices(tile, face), false);
+	}
 
-		return vertexHashes;
+	static int[] addFaceVertexKeys(SceneContext sceneContext, Tile tile, int face)
+	{
+		return vertexKeys(sceneContext.terrainVertices, faceVertices(tile, face), true);
 	}
 
-	public static int[] faceVertexKeys(Tile tile, int face)
+	private static int[] vertexKeys(TerrainVertexStore terrainVertices, int[][] vertices, boolean add)
 	{
-		int[][] faceVertices = faceVertices(tile, face);
-		int[] vertexHashes = new int[faceVertices.length];
+		int[] vertexKeys = new int[vertices.length];
 
-		for (int vertex = 0; vertex < faceVertices.length; ++vertex)
+		for (int vertex = 0; vertex < vertices.length; ++vertex)
 		{
-			vertexHashes[vertex] = HDUtils.vertexHash(faceVertices[vertex]);
+			int[] v = vertices[vertex];
+			vertexKeys[vertex] = add ?
+				terrainVertices.addVertex(v[0], v[1], v[2]) :
+				terrainVertices.getVertex(v[0], v[1], v[2]);
 		}
 
-		return vertexHashes;
+		return vertexKeys;
 	}
 
-	private static final int[][] tzHaarRecolored = new int[4][3];
 	// used when calculating the gradient to apply to the walls of TzHaar
 	// to emulate the style from 2008 HD rework
 	private static final int[] gradientBaseColor = new int[]{3, 4, 26};
@@ -1081,7 +1536,11 @@ public class ProceduralGenerator
 	private static final int gradientBottom = 200;
 	private static final int gradientTop = -200;
 
-	public static int[][] recolorTzHaar(ModelOverride modelOverride, int aY, int bY, int cY, int packedAlphaPriority, ObjectType objectType, int color1S, int color1L, int color2S, int color2L, int color3S, int color3L)
+	/**
+	 * @param tzHaarRecolored an array of 4 arrays of 3 to write the recolored colors and the packed alpha and priority to,
+	 *                        so models can be recolored on multiple threads at once
+	 */
+	public static int[][] recolorTzHaar(int[][] tzHaarRecolored, ModelOverride modelOverride, int aY, int bY, int cY, int packedAlphaPriority, ObjectType objectType, int color1S, int color1L, int color2S, int color2L, int color3S, int color3L)
 	{
 		// recolor tzhaar to look like the 2008+ HD version
 		if (objectType == ObjectType.GROUND_OBJECT)
@@ -0,0 +1,124 @@
+package rs117.hd.scene;
+
+import java.util.Arrays;
+import net.runelite.api.Model;
+import net.runelite.api.SceneTileModel;
+import net.runelite.api.SceneTilePaint;
+
+/**
+ * Buffer offsets for the tile paints, tile models and models of a scene, which are collected while the scene is being
+ * uploaded, and only set on them once the scene is swapped in, since the previous scene is drawn using them until then.
+ * Models are also only marked as belonging to the scene once it's swapped in.
+ */
+public class SceneBufferOffsets
+{
+	private Object[] targets = new Object[1024];
+	// The vertex offset, the UV offset or -1 if there are no UVs, and the packed buffer length for tiles, or the bits
+	// packed into the buffer offset for models
+	private int[] values = new int[targets.length * 3];
+	private int size;
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void add(Object target, int vertexOffset, int uvOffset, int value)
+	{
+		ensureCapacity(size + 1);
+		set(size++, target, vertexOffset, uvOffset, value);
+	}
+
+	/**
+	 * Reserves space for offsets to be copied in by {@link #copy}, possibly from multiple threads.
+	 *
+	 * @return the index of the first reserved entry
+	 */
+	public int reserve(int count)
+	{
+		ensureCapacity(size + count);
+		int start = size;
+		size += count;
+		return start;
+	}
+
+	/**
+	 * Copies offsets from another instance, shifting them by the specified number of vertices and UVs.
+	 */
+	public void copy(SceneBufferOffsets source, int sourceStart, int start, int count, int vertexShift, int uvShift)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			int j = (sourceStart + i) * 3;
+			int uvOffset = source.values[j + 1];
+			set(start + i,
+				source.targets[sourceStart + i],
+				source.values[j] + vertexShift,
+				uvOffset == -1 ? -1 : uvOffset + uvShift,
+				source.values[j + 2]);
+		}
+	}
+
+	private void set(int index, Object target, int vertexOffset, int uvOffset, int value)
+	{
+		targets[index] = target;
+		values[index * 3] = vertexOffset;
+		values[index * 3 + 1] = uvOffset;
+		values[index * 3 + 2] = value;
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity <= targets.length)
+			return;
+		int newCapacity = Math.max(capacity, targets.length * 2);
+		targets = Arrays.copyOf(targets, newCapacity);
+		values = Arrays.copyOf(values, newCapacity * 3);
+	}
+
+	/**
+	 * Sets the offsets on the tiles and models, and marks the models as belonging to the specified scene. Must be
+	 * called on the client thread.
+	 */
+	public void apply(int sceneId)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			Object target = targets[i];
+			int vertexOffset = values[i * 3];
+			int uvOffset = values[i * 3 + 1];
+			int value = values[i * 3 + 2];
+			if (target instanceof SceneTilePaint)
+			{
+				SceneTilePaint sceneTilePaint = (SceneTilePaint) target;
+				sceneTilePaint.setBufferOffset(vertexOffset);
+				sceneTilePaint.setUvBufferOffset(uvOffset);
+				sceneTilePaint.setBufferLen(value);
+			}
+			else if (target instanceof SceneTileModel)
+			{
+				SceneTileModel sceneTileModel = (SceneTileModel) target;
+				sceneTileModel.setBufferOffset(vertexOffset);
+				sceneTileModel.setUvBufferOffset(uvOffset);
+				sceneTileModel.setBufferLen(value);
+			}
+			else
+			{
+				Model model = (Model) target;
+				model.setBufferOffset(vertexOffset << 2 | value);
+				model.setUvBufferOffset(uvOffset);
+				model.setSceneId(sceneId);
+			}
+		}
+		clear();
+	}
+
+	/**
+	 * Drops all offsets, and the references to their tiles and models.
+	 */
+	public void clear()
+	{
+		Arrays.fill(targets, 0, size, null);
+		size = 0;
+	}
+}
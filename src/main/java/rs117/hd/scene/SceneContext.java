@@ -2,17 +2,18 @@ package rs117.hd.scene;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import net.runelite.api.Scene;
+import net.runelite.api.Tile;
 import net.runelite.api.coords.LocalPoint;
 import net.runelite.api.coords.WorldPoint;
 import rs117.hd.data.environments.Environment;
-import rs117.hd.data.materials.Material;
+import rs117.hd.data.materials.Overlay;
+import rs117.hd.data.materials.Underlay;
+import rs117.hd.model.ModelPushJob;
 import rs117.hd.scene.lights.SceneLight;
 import rs117.hd.utils.HDUtils;
 import rs117.hd.utils.buffer.GpuFloatBuffer;
@@ -25,7 +26,7 @@ import static rs117.hd.HdPlugin.VERTEX_SIZE;
 
 public class SceneContext
 {
-	public final int id = HDUtils.rand.nextInt();
+	public final int id;
 	public final Scene scene;
 	public final HashSet<Integer> regionIds;
 
@@ -33,35 +34,44 @@ public class SceneContext
 	public GpuFloatBuffer stagingBufferUvs;
 	public GpuFloatBuffer stagingBufferNormals;
 
-	// terrain data
-	public Map<Integer, Integer> vertexTerrainColor;
-	public Map<Integer, Material> vertexTerrainTexture;
-	public Map<Integer, float[]> vertexTerrainNormals;
-	// used for overriding potentially low quality vertex colors
-	public HashMap<Integer, Boolean> highPriorityColor;
+	// the terrain inputs copied from the scene on the client thread, which the terrain data is generated from, until
+	// the scene has been uploaded
+	public TerrainSnapshot terrainSnapshot;
+
+	// terrain data, including the water-related data of each vertex
+	public TerrainVertexStore terrainVertices;
+	// the scene's base and a hash of each tile's terrain inputs, to reuse terrain data in the next scene if it overlaps
+	public int terrainBaseX;
+	public int terrainBaseY;
+	public long[][][] terrainInputHashes;
+
+	// the overlay and underlay of each tile, indexed by the tile's plane rather than its render level, since bridges
+	// share their render level with the tile below them
+	public Overlay[][][] overlays;
+	public Underlay[][][] underlays;
 
 	// water-related data
 	public boolean[][][] tileIsWater;
-	public Map<Integer, Boolean> vertexIsWater;
-	public Map<Integer, Boolean> vertexIsLand;
-	public Map<Integer, Boolean> vertexIsOverlay;
-	public Map<Integer, Boolean> vertexIsUnderlay;
 	public boolean[][][] skipTile;
-	public Map<Integer, Integer> vertexUnderwaterDepth;
 	public int[][][] underwaterDepthLevels;
 
+	// offsets for the scene's tiles and models, which are set on them once the scene is swapped in
+	public final SceneBufferOffsets bufferOffsets = new SceneBufferOffsets();
+
 	public final ArrayList<SceneLight> lights = new ArrayList<>();
 	public int visibleLightCount = 0;
 
 	public final ArrayList<Environment> environments = new ArrayList<>();
+	// the highest priority environment at each tile, indexed by plane and scene position, or null if none apply
+	public Environment[][][] tileEnvironments;
 
-	// model pusher arrays, to avoid simultaneous usage from different threads
-	public final int[] modelFaceVertices = new int[12];
-	public final float[] modelFaceNormals = new float[12];
+	// model pusher state, to avoid simultaneous usage from different threads
+	public final ModelPushJob modelPushJob = new ModelPushJob();
 	public final int[] modelPusherResults = new int[2];
 
 	public SceneContext(Scene scene, @Nullable SceneContext previousSceneContext)
 	{
+		this.id = HDUtils.rand.nextInt();
 		this.scene = scene;
 		this.regionIds = HDUtils.getSceneRegionIds(scene);
 
@@ -79,6 +89,30 @@ public class SceneContext
 		}
 	}
 
+	/**
+	 * Creates a context for uploading part of the parent's scene on another thread. It shares the parent's ID, scene
+	 * and terrain data, which must no longer change, but has its own staging buffers, buffer offsets and model pusher
+	 * state.
+	 */
+	SceneContext(SceneContext parent)
+	{
+		id = parent.id;
+		scene = parent.scene;
+		regionIds = parent.regionIds;
+
+		stagingBufferVertices = new GpuIntBuffer();
+		stagingBufferUvs = new GpuFloatBuffer();
+		stagingBufferNormals = new GpuFloatBuffer();
+
+		terrainSnapshot = parent.terrainSnapshot;
+		terrainVertices = parent.terrainVertices;
+		overlays = parent.overlays;
+		underlays = parent.underlays;
+		tileIsWater = parent.tileIsWater;
+		skipTile = parent.skipTile;
+		underwaterDepthLevels = parent.underwaterDepthLevels;
+	}
+
 	public void destroy()
 	{
 		if (stagingBufferVertices != null)
@@ -92,6 +126,18 @@ public class SceneContext
 		if (stagingBufferNormals != null)
 			stagingBufferNormals.destroy();
 		stagingBufferNormals = null;
+
+		bufferOffsets.clear();
+	}
+
+	public Overlay getOverlay(Tile tile)
+	{
+		return overlays[tile.getPlane()][tile.getSceneLocation().getX()][tile.getSceneLocation().getY()];
+	}
+
+	public Underlay getUnderlay(Tile tile)
+	{
+		return underlays[tile.getPlane()][tile.getSceneLocation().getX()][tile.getSceneLocation().getY()];
 	}
 
 	public int getVertexOffset()
@@ -26,8 +26,19 @@
 package rs117.hd.scene;
 
 import com.google.common.base.Stopwatch;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
 import net.runelite.api.Constants;
@@ -43,6 +54,7 @@ import net.runelite.api.SceneTileModel;
 import net.runelite.api.SceneTilePaint;
 import net.runelite.api.Tile;
 import net.runelite.api.WallObject;
+import org.lwjgl.system.MemoryUtil;
 import rs117.hd.HdPlugin;
 import rs117.hd.HdPluginConfig;
 import rs117.hd.data.WaterType;
@@ -56,6 +68,9 @@ import rs117.hd.scene.model_overrides.ModelOverride;
 import rs117.hd.scene.model_overrides.ObjectType;
 import rs117.hd.utils.HDUtils;
 
+import static rs117.hd.HdPlugin.UV_SIZE;
+import static rs117.hd.HdPlugin.VERTEX_SIZE;
+
 @SuppressWarnings("UnnecessaryLocalVariable")
 @Singleton
 @Slf4j
@@ -64,6 +79,9 @@ class SceneUploader
 {
 	private static final float[] UP_NORMAL = { 0, -1, 0 };
 
+	// Leave a core for the client thread, which keeps running while the scene is loading
+	private static final int UPLOAD_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
 	@Inject
 	private Client client;
 
@@ -82,10 +100,53 @@ class SceneUploader
 	@Inject
 	private ModelOverrideManager modelOverrideManager;
 
+	private ForkJoinPool uploadPool;
+
 	public void upload(SceneContext sceneContext)
 	{
 		Stopwatch stopwatch = Stopwatch.createStarted();
 
+		if (UPLOAD_THREADS > 1 && config.parallelSceneUpload())
+		{
+			uploadInParallel(sceneContext);
+		}
+		else
+		{
+			uploadSerially(sceneContext);
+		}
+
+		stopwatch.stop();
+		log.debug("Scene upload time: {}", stopwatch);
+	}
+
+	public synchronized void shutDown()
+	{
+		if (uploadPool != null)
+		{
+			uploadPool.shutdown();
+			uploadPool = null;
+		}
+	}
+
+	// Scenes may be uploaded by the client's map loader and the plugin's scene loader at the same time
+	private synchronized ForkJoinPool getUploadPool()
+	{
+		if (uploadPool == null)
+		{
+			uploadPool = new ForkJoinPool(UPLOAD_THREADS, pool ->
+			{
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("117HD scene uploader " + thread.getPoolIndex());
+				thread.setDaemon(true);
+				return thread;
+			}, null, false);
+		}
+		return uploadPool;
+	}
+
+	void uploadSerially(SceneContext sceneContext)
+	{
+		final Set<Model> uploadedModels = Collections.newSetFromMap(new IdentityHashMap<>());
 		for (int z = 0; z < Constants.MAX_Z; ++z)
 		{
 			for (int x = 0; x < Constants.SCENE_SIZE; ++x)
@@ -95,19 +156,172 @@ class SceneUploader
 					Tile tile = sceneContext.scene.getTiles()[z][x][y];
 					if (tile != null)
 					{
-						upload(sceneContext, tile);
+						upload(sceneContext, tile, uploadedModels::add);
 					}
 				}
 			}
 		}
+	}
 
-		stopwatch.stop();
-		log.debug("Scene upload time: {}", stopwatch);
+	/**
+	 * Uploads the scene on multiple threads, producing the exact same staging buffers and offsets as
+	 * {@link #uploadSerially}. The tiles are split into chunks of tiles which the serial upload visits one after
+	 * another, which are uploaded to worker contexts in parallel, and then copied into the scene's context in the
+	 * serial order, shifting the offsets of the chunk's tiles and models to where their data ended up.
+	 * <p>
+	 * Since every chunk is held in a worker context until it has been copied, this temporarily needs about twice the
+	 * staging buffer memory of a serial upload, plus up to one worker context per upload thread, so it's only used if
+	 * enabled in the config.
+	 */
+	void uploadInParallel(SceneContext sceneContext)
+	{
+		final Tile[][][] tiles = sceneContext.scene.getTiles();
+		final Set<Model> claimedModels = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Chunk[] chunks = new Chunk[Constants.MAX_Z * Constants.SCENE_SIZE];
+		for (int z = 0; z < Constants.MAX_Z; ++z)
+		{
+			for (int x = 0; x < Constants.SCENE_SIZE; ++x)
+			{
+				Chunk chunk = chunks[z * Constants.SCENE_SIZE + x] = new Chunk();
+				for (int y = 0; y < Constants.SCENE_SIZE; ++y)
+				{
+					Tile tile = tiles[z][x][y];
+					if (tile != null)
+					{
+						chunk.tiles.add(tile);
+						// Models can be shared between tiles, and are only uploaded the first time they're encountered,
+						// so decide which chunk uploads each model up front
+						claimModels(tile, claimedModels, chunk);
+					}
+				}
+			}
+		}
+
+		final ForkJoinPool pool = getUploadPool();
+		final ConcurrentLinkedQueue<SceneContext> workers = new ConcurrentLinkedQueue<>();
+		final ConcurrentLinkedQueue<SceneContext> idleWorkers = new ConcurrentLinkedQueue<>();
+		try
+		{
+			pool.invoke(new ChunkTask(i ->
+			{
+				// Worker contexts are only appended to, so any context which isn't in use by another thread will do
+				SceneContext worker = idleWorkers.poll();
+				if (worker == null)
+				{
+					worker = new SceneContext(sceneContext);
+					workers.add(worker);
+				}
+				uploadChunk(worker, chunks[i]);
+				idleWorkers.add(worker);
+			}, 0, chunks.length));
+
+			// Lay the chunks out one after another, in the order the serial upload would have uploaded them
+			int vertexPosition = sceneContext.stagingBufferVertices.position();
+			int uvPosition = sceneContext.stagingBufferUvs.position();
+			int normalPosition = sceneContext.stagingBufferNormals.position();
+			int offsetCount = 0;
+			int vertexStart = vertexPosition;
+			int uvStart = uvPosition;
+			int normalStart = normalPosition;
+			for (Chunk chunk : chunks)
+			{
+				chunk.vertexTarget = vertexPosition;
+				chunk.uvTarget = uvPosition;
+				chunk.normalTarget = normalPosition;
+				chunk.offsetTarget = offsetCount;
+				vertexPosition += chunk.vertexEnd - chunk.vertexStart;
+				uvPosition += chunk.uvEnd - chunk.uvStart;
+				normalPosition += chunk.normalEnd - chunk.normalStart;
+				offsetCount += chunk.offsetEnd - chunk.offsetStart;
+			}
+
+			sceneContext.stagingBufferVertices.ensureCapacity(vertexPosition - vertexStart);
+			sceneContext.stagingBufferUvs.ensureCapacity(uvPosition - uvStart);
+			sceneContext.stagingBufferNormals.ensureCapacity(normalPosition - normalStart);
+			final int offsetStart = sceneContext.bufferOffsets.reserve(offsetCount);
+			pool.invoke(new ChunkTask(i -> copyChunk(sceneContext, chunks[i], offsetStart), 0, chunks.length));
+			sceneContext.stagingBufferVertices.position(vertexPosition);
+			sceneContext.stagingBufferUvs.position(uvPosition);
+			sceneContext.stagingBufferNormals.position(normalPosition);
+		}
+		finally
+		{
+			for (SceneContext worker : workers)
+			{
+				worker.destroy();
+			}
+		}
+	}
+
+	private static void claimModels(Tile tile, Set<Model> claimedModels, Chunk chunk)
+	{
+		Tile bridge = tile.getBridge();
+		if (bridge != null)
+		{
+			claimModels(bridge, claimedModels, chunk);
+		}
+
+		forEachModel(tile, (hash, model, orientation, objectType) ->
+		{
+			if (claimedModels.add(model))
+			{
+				chunk.unuploadedModels.add(model);
+			}
+		});
+	}
+
+	private void uploadChunk(SceneContext worker, Chunk chunk)
+	{
+		chunk.worker = worker;
+		chunk.vertexStart = worker.stagingBufferVertices.position();
+		chunk.uvStart = worker.stagingBufferUvs.position();
+		chunk.normalStart = worker.stagingBufferNormals.position();
+		chunk.offsetStart = worker.bufferOffsets.size();
+
+		for (Tile tile : chunk.tiles)
+		{
+			upload(worker, tile, chunk.unuploadedModels::remove);
+		}
+
+		chunk.vertexEnd = worker.stagingBufferVertices.position();
+		chunk.uvEnd = worker.stagingBufferUvs.position();
+		chunk.normalEnd = worker.stagingBufferNormals.position();
+		chunk.offsetEnd = worker.bufferOffsets.size();
+	}
+
+	private static void copyChunk(SceneContext sceneContext, Chunk chunk, int offsetStart)
+	{
+		final SceneContext worker = chunk.worker;
+		MemoryUtil.memCopy(
+			worker.stagingBufferVertices.getAddress(chunk.vertexStart),
+			sceneContext.stagingBufferVertices.getAddress(chunk.vertexTarget),
+			(long) (chunk.vertexEnd - chunk.vertexStart) * Integer.BYTES);
+		MemoryUtil.memCopy(
+			worker.stagingBufferUvs.getAddress(chunk.uvStart),
+			sceneContext.stagingBufferUvs.getAddress(chunk.uvTarget),
+			(long) (chunk.uvEnd - chunk.uvStart) * Float.BYTES);
+		MemoryUtil.memCopy(
+			worker.stagingBufferNormals.getAddress(chunk.normalStart),
+			sceneContext.stagingBufferNormals.getAddress(chunk.normalTarget),
+			(long) (chunk.normalEnd - chunk.normalStart) * Float.BYTES);
+
+		sceneContext.bufferOffsets.copy(
+			worker.bufferOffsets,
+			chunk.offsetStart,
+			offsetStart + chunk.offsetTarget,
+			chunk.offsetEnd - chunk.offsetStart,
+			(chunk.vertexTarget - chunk.vertexStart) / VERTEX_SIZE,
+			(chunk.uvTarget - chunk.uvStart) / UV_SIZE);
 	}
 
-	private void uploadModel(SceneContext sceneContext, Tile tile, long hash, Model model, int orientation, ObjectType objectType)
+	/**
+	 * @param shouldUpload returns whether the model should be uploaded by this call, since models can be shared
+	 *                     between tiles, and must only be uploaded once
+	 */
+	private void uploadModel(SceneContext sceneContext, Tile tile, long hash, Model model, int orientation, ObjectType objectType,
+		Predicate<Model> shouldUpload)
 	{
-		if (model.getSceneId() == sceneContext.id)
+		if (!shouldUpload.test(model))
 		{
 			return; // model has already been uploaded
 		}
@@ -127,72 +341,80 @@ class SceneUploader
 		}
 
 		ModelOverride modelOverride = modelOverrideManager.getOverride(hash);
-		// pack a bit into bufferoffset that we can use later to hide
-		// some low-importance objects based on Level of Detail setting
-		model.setBufferOffset(sceneContext.getVertexOffset() << 2 | skipObject);
-		model.setUvBufferOffset(sceneContext.getUvOffset());
+		int vertexOffset = sceneContext.getVertexOffset();
+		int uvOffset = sceneContext.getUvOffset();
 		modelPusher.pushModel(sceneContext, tile, hash, model, modelOverride, objectType, orientation, false);
 		if (sceneContext.modelPusherResults[1] == 0)
-			model.setUvBufferOffset(-1);
+			uvOffset = -1;
 
-        model.setSceneId(sceneContext.id);
+		// pack a bit into bufferoffset that we can use later to hide
+		// some low-importance objects based on Level of Detail setting
+		sceneContext.bufferOffsets.add(model, vertexOffset, uvOffset, skipObject);
 	}
 
-	private void upload(SceneContext sceneContext, Tile tile)
+	private void upload(SceneContext sceneContext, Tile tile, Predicate<Model> shouldUploadModel)
 	{
 		Tile bridge = tile.getBridge();
 		if (bridge != null)
 		{
-			upload(sceneContext, bridge);
+			upload(sceneContext, bridge, shouldUploadModel);
 		}
 
 		SceneTilePaint sceneTilePaint = tile.getSceneTilePaint();
 		if (sceneTilePaint != null)
 		{
-			// Set offsets before pushing new data
-			sceneTilePaint.setBufferOffset(sceneContext.getVertexOffset());
-			sceneTilePaint.setUvBufferOffset(sceneContext.getUvOffset());
+			// Get offsets before pushing new data
+			int vertexOffset = sceneContext.getVertexOffset();
+			int uvOffset = sceneContext.getUvOffset();
 			int[] uploadedTilePaintData = upload(sceneContext, tile, sceneTilePaint);
 
 			final int bufferLength = uploadedTilePaintData[0];
 			final int uvBufferLength = uploadedTilePaintData[1];
 			final int underwaterTerrain = uploadedTilePaintData[2];
 			if (uvBufferLength <= 0)
-				sceneTilePaint.setUvBufferOffset(-1);
+				uvOffset = -1;
 			// pack a boolean into the buffer length of tiles so we can tell
 			// which tiles have procedurally generated underwater terrain.
 			// shift the bufferLength to make space for the boolean:
 			int packedBufferLength = bufferLength << 1 | underwaterTerrain;
-			sceneTilePaint.setBufferLen(packedBufferLength);
+			sceneContext.bufferOffsets.add(sceneTilePaint, vertexOffset, uvOffset, packedBufferLength);
 		}
 
 		SceneTileModel sceneTileModel = tile.getSceneTileModel();
 		if (sceneTileModel != null)
 		{
-			// Set offsets before pushing new data
-			sceneTileModel.setBufferOffset(sceneContext.getVertexOffset());
-			sceneTileModel.setUvBufferOffset(sceneContext.getUvOffset());
+			// Get offsets before pushing new data
+			int vertexOffset = sceneContext.getVertexOffset();
+			int uvOffset = sceneContext.getUvOffset();
 			int[] uploadedTileModelData = upload(sceneContext, tile, sceneTileModel);
 
 			final int bufferLength = uploadedTileModelData[0];
 			final int uvBufferLength = uploadedTileModelData[1];
 			final int underwaterTerrain = uploadedTileModelData[2];
 			if (uvBufferLength <= 0)
-				sceneTileModel.setUvBufferOffset(-1);
+				uvOffset = -1;
 			// pack a boolean into the buffer length of tiles so we can tell
 			// which tiles have procedurally-generated underwater terrain
 			int packedBufferLength = bufferLength << 1 | underwaterTerrain;
-
-			sceneTileModel.setBufferLen(packedBufferLength);
+			sceneContext.bufferOffsets.add(sceneTileModel, vertexOffset, uvOffset, packedBufferLength);
 		}
 
+		forEachModel(tile, (hash, model, orientation, objectType) ->
+			uploadModel(sceneContext, tile, hash, model, orientation, objectType, shouldUploadModel));
+	}
+
+	/**
+	 * Calls the consumer for each of the tile's object models, in the order they're uploaded in.
+	 */
+	private static void forEachModel(Tile tile, ModelConsumer consumer)
+	{
 		WallObject wallObject = tile.getWallObject();
 		if (wallObject != null)
 		{
 			Renderable renderable1 = wallObject.getRenderable1();
 			if (renderable1 instanceof Model)
 			{
-				uploadModel(sceneContext, tile, wallObject.getHash(), (Model) renderable1,
+				consumer.accept(wallObject.getHash(), (Model) renderable1,
 					HDUtils.convertWallObjectOrientation(wallObject.getOrientationA()),
 					ObjectType.WALL_OBJECT);
 			}
@@ -200,7 +422,7 @@ class SceneUploader
 			Renderable renderable2 = wallObject.getRenderable2();
 			if (renderable2 instanceof Model)
 			{
-				uploadModel(sceneContext, tile, wallObject.getHash(), (Model) renderable2,
+				consumer.accept(wallObject.getHash(), (Model) renderable2,
 					HDUtils.convertWallObjectOrientation(wallObject.getOrientationB()),
 					ObjectType.WALL_OBJECT);
 			}
@@ -212,7 +434,7 @@ class SceneUploader
 			Renderable renderable = groundObject.getRenderable();
 			if (renderable instanceof Model)
 			{
-				uploadModel(sceneContext, tile, groundObject.getHash(), (Model) renderable,
+				consumer.accept(groundObject.getHash(), (Model) renderable,
 					HDUtils.extractConfigOrientation(groundObject.getConfig()),
 					ObjectType.GROUND_OBJECT);
 			}
@@ -224,7 +446,7 @@ class SceneUploader
 			Renderable renderable = decorativeObject.getRenderable();
 			if (renderable instanceof Model)
 			{
-				uploadModel(sceneContext, tile, decorativeObject.getHash(), (Model) renderable,
+				consumer.accept(decorativeObject.getHash(), (Model) renderable,
 					HDUtils.extractConfigOrientation(decorativeObject.getConfig()),
 					ObjectType.DECORATIVE_OBJECT);
 			}
@@ -232,7 +454,7 @@ class SceneUploader
 			Renderable renderable2 = decorativeObject.getRenderable2();
 			if (renderable2 instanceof Model)
 			{
-				uploadModel(sceneContext, tile, decorativeObject.getHash(), (Model) renderable2,
+				consumer.accept(decorativeObject.getHash(), (Model) renderable2,
 					HDUtils.extractConfigOrientation(decorativeObject.getConfig()),
 					ObjectType.DECORATIVE_OBJECT);
 			}
@@ -249,7 +471,7 @@ class SceneUploader
 			Renderable renderable = gameObject.getRenderable();
 			if (renderable instanceof Model)
 			{
-				uploadModel(sceneContext, tile, gameObject.getHash(), (Model) gameObject.getRenderable(),
+				consumer.accept(gameObject.getHash(), (Model) renderable,
 					gameObject.getModelOrientation(),
 					ObjectType.GAME_OBJECT);
 			}
@@ -310,7 +532,7 @@ class SceneUploader
 		int localNeVertexX = localX + Perspective.LOCAL_TILE_SIZE;
 		int localNeVertexY = localY + Perspective.LOCAL_TILE_SIZE;
 
-		int[] vertexKeys = ProceduralGenerator.tileVertexKeys(scene, tile);
+		int[] vertexKeys = ProceduralGenerator.tileVertexKeys(sceneContext, tile);
 		int swVertexKey = vertexKeys[0];
 		int seVertexKey = vertexKeys[1];
 		int nwVertexKey = vertexKeys[2];
@@ -342,7 +564,7 @@ class SceneUploader
 			float[] neNormals = UP_NORMAL;
 			float[] nwNormals = UP_NORMAL;
 
-			WaterType waterType = proceduralGenerator.tileWaterType(scene, tile, sceneTilePaint);
+			WaterType waterType = proceduralGenerator.tileWaterType(sceneContext, tile, sceneTilePaint);
 			if (waterType == WaterType.NONE)
 			{
 				swMaterial = Material.getTexture(tileTexture);
@@ -350,33 +572,33 @@ class SceneUploader
 				neMaterial = Material.getTexture(tileTexture);
 				nwMaterial = Material.getTexture(tileTexture);
 
-				swNormals = sceneContext.vertexTerrainNormals.getOrDefault(swVertexKey, swNormals);
-				seNormals = sceneContext.vertexTerrainNormals.getOrDefault(seVertexKey, seNormals);
-				neNormals = sceneContext.vertexTerrainNormals.getOrDefault(neVertexKey, neNormals);
-				nwNormals = sceneContext.vertexTerrainNormals.getOrDefault(nwVertexKey, nwNormals);
+				swNormals = sceneContext.terrainVertices.getNormals(swVertexKey, swNormals);
+				seNormals = sceneContext.terrainVertices.getNormals(seVertexKey, seNormals);
+				neNormals = sceneContext.terrainVertices.getNormals(neVertexKey, neNormals);
+				nwNormals = sceneContext.terrainVertices.getNormals(nwVertexKey, nwNormals);
 
-				if (plugin.configGroundBlending && !proceduralGenerator.useDefaultColor(scene, tile) && sceneTilePaint.getTexture() == -1)
+				if (plugin.configGroundBlending && !proceduralGenerator.useDefaultColor(sceneContext, tile) && sceneTilePaint.getTexture() == -1)
 				{
-					// get the vertices' colors and textures from hashmaps
+					// get the vertices' colors and textures from the terrain vertices
 
-					swColor = sceneContext.vertexTerrainColor.getOrDefault(swVertexKey, swColor);
-					seColor = sceneContext.vertexTerrainColor.getOrDefault(seVertexKey, seColor);
-					neColor = sceneContext.vertexTerrainColor.getOrDefault(neVertexKey, neColor);
-					nwColor = sceneContext.vertexTerrainColor.getOrDefault(nwVertexKey, nwColor);
+					swColor = sceneContext.terrainVertices.getColor(swVertexKey, swColor);
+					seColor = sceneContext.terrainVertices.getColor(seVertexKey, seColor);
+					neColor = sceneContext.terrainVertices.getColor(neVertexKey, neColor);
+					nwColor = sceneContext.terrainVertices.getColor(nwVertexKey, nwColor);
 
 					if (plugin.configGroundTextures)
 					{
-						swMaterial = sceneContext.vertexTerrainTexture.getOrDefault(swVertexKey, swMaterial);
-						seMaterial = sceneContext.vertexTerrainTexture.getOrDefault(seVertexKey, seMaterial);
-						neMaterial = sceneContext.vertexTerrainTexture.getOrDefault(neVertexKey, neMaterial);
-						nwMaterial = sceneContext.vertexTerrainTexture.getOrDefault(nwVertexKey, nwMaterial);
+						swMaterial = sceneContext.terrainVertices.getMaterial(swVertexKey, swMaterial);
+						seMaterial = sceneContext.terrainVertices.getMaterial(seVertexKey, seMaterial);
+						neMaterial = sceneContext.terrainVertices.getMaterial(neVertexKey, neMaterial);
+						nwMaterial = sceneContext.terrainVertices.getMaterial(nwVertexKey, nwMaterial);
 					}
 				}
 				else if (plugin.configGroundTextures && !shouldSkipTile(baseX + tileX, baseY + tileY))
 				{
 					GroundMaterial groundMaterial;
 
-					Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+					Overlay overlay = sceneContext.getOverlay(tile);
 					if (overlay != Overlay.NONE)
 					{
 						groundMaterial = overlay.groundMaterial;
@@ -388,7 +610,7 @@ class SceneUploader
 					}
 					else
 					{
-						Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+						Underlay underlay = sceneContext.getUnderlay(tile);
 						groundMaterial = underlay.groundMaterial;
 
 						swColor = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(swColor)));
@@ -404,7 +626,7 @@ class SceneUploader
 				}
 				else if (plugin.configWinterTheme)
 				{
-					Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+					Overlay overlay = sceneContext.getOverlay(tile);
 					if (overlay != Overlay.NONE)
 					{
 						swColor = HDUtils.colorHSLToInt(overlay.modifyColor(HDUtils.colorIntToHSL(swColor)));
@@ -414,7 +636,7 @@ class SceneUploader
 					}
 					else
 					{
-						Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+						Underlay underlay = sceneContext.getUnderlay(tile);
 						swColor = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(swColor)));
 						seColor = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(seColor)));
 						nwColor = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(nwColor)));
@@ -428,23 +650,23 @@ class SceneUploader
 
 				swColor = seColor = nwColor = neColor = 127;
 
-				if (sceneContext.vertexIsWater.containsKey(swVertexKey) && sceneContext.vertexIsLand.containsKey(swVertexKey))
+				if (sceneContext.terrainVertices.isWater(swVertexKey) && sceneContext.terrainVertices.isLand(swVertexKey))
 					swColor = 0;
-				if (sceneContext.vertexIsWater.containsKey(seVertexKey) && sceneContext.vertexIsLand.containsKey(seVertexKey))
+				if (sceneContext.terrainVertices.isWater(seVertexKey) && sceneContext.terrainVertices.isLand(seVertexKey))
 					seColor = 0;
-				if (sceneContext.vertexIsWater.containsKey(nwVertexKey) && sceneContext.vertexIsLand.containsKey(nwVertexKey))
+				if (sceneContext.terrainVertices.isWater(nwVertexKey) && sceneContext.terrainVertices.isLand(nwVertexKey))
 					nwColor = 0;
-				if (sceneContext.vertexIsWater.containsKey(neVertexKey) && sceneContext.vertexIsLand.containsKey(neVertexKey))
+				if (sceneContext.terrainVertices.isWater(neVertexKey) && sceneContext.terrainVertices.isLand(neVertexKey))
 					neColor = 0;
 			}
 
-			if (sceneContext.vertexIsOverlay.containsKey(neVertexKey) && sceneContext.vertexIsUnderlay.containsKey(neVertexKey))
+			if (sceneContext.terrainVertices.isOverlay(neVertexKey) && sceneContext.terrainVertices.isUnderlay(neVertexKey))
 				neVertexIsOverlay = true;
-			if (sceneContext.vertexIsOverlay.containsKey(nwVertexKey) && sceneContext.vertexIsUnderlay.containsKey(nwVertexKey))
+			if (sceneContext.terrainVertices.isOverlay(nwVertexKey) && sceneContext.terrainVertices.isUnderlay(nwVertexKey))
 				nwVertexIsOverlay = true;
-			if (sceneContext.vertexIsOverlay.containsKey(seVertexKey) && sceneContext.vertexIsUnderlay.containsKey(seVertexKey))
+			if (sceneContext.terrainVertices.isOverlay(seVertexKey) && sceneContext.terrainVertices.isUnderlay(seVertexKey))
 				seVertexIsOverlay = true;
-			if (sceneContext.vertexIsOverlay.containsKey(swVertexKey) && sceneContext.vertexIsUnderlay.containsKey(swVertexKey))
+			if (sceneContext.terrainVertices.isOverlay(swVertexKey) && sceneContext.terrainVertices.isUnderlay(swVertexKey))
 				swVertexIsOverlay = true;
 
 
@@ -531,7 +753,7 @@ class SceneUploader
 		int localNeVertexX = Perspective.LOCAL_TILE_SIZE;
 		int localNeVertexY = Perspective.LOCAL_TILE_SIZE;
 
-		int[] vertexKeys = ProceduralGenerator.tileVertexKeys(scene, tile);
+		int[] vertexKeys = ProceduralGenerator.tileVertexKeys(sceneContext, tile);
 		int swVertexKey = vertexKeys[0];
 		int seVertexKey = vertexKeys[1];
 		int nwVertexKey = vertexKeys[2];
@@ -548,15 +770,15 @@ class SceneUploader
 			int neColor = 6676;
 			int nwColor = 6676;
 
-			int swDepth = sceneContext.vertexUnderwaterDepth.getOrDefault(swVertexKey, 0);
-			int seDepth = sceneContext.vertexUnderwaterDepth.getOrDefault(seVertexKey, 0);
-			int nwDepth = sceneContext.vertexUnderwaterDepth.getOrDefault(nwVertexKey, 0);
-			int neDepth = sceneContext.vertexUnderwaterDepth.getOrDefault(neVertexKey, 0);
+			int swDepth = sceneContext.terrainVertices.getUnderwaterDepth(swVertexKey);
+			int seDepth = sceneContext.terrainVertices.getUnderwaterDepth(seVertexKey);
+			int nwDepth = sceneContext.terrainVertices.getUnderwaterDepth(nwVertexKey);
+			int neDepth = sceneContext.terrainVertices.getUnderwaterDepth(neVertexKey);
 
-			float[] swNormals = sceneContext.vertexTerrainNormals.getOrDefault(swVertexKey, UP_NORMAL);
-			float[] seNormals = sceneContext.vertexTerrainNormals.getOrDefault(seVertexKey, UP_NORMAL);
-			float[] nwNormals = sceneContext.vertexTerrainNormals.getOrDefault(nwVertexKey, UP_NORMAL);
-			float[] neNormals = sceneContext.vertexTerrainNormals.getOrDefault(neVertexKey, UP_NORMAL);
+			float[] swNormals = sceneContext.terrainVertices.getNormals(swVertexKey, UP_NORMAL);
+			float[] seNormals = sceneContext.terrainVertices.getNormals(seVertexKey, UP_NORMAL);
+			float[] nwNormals = sceneContext.terrainVertices.getNormals(nwVertexKey, UP_NORMAL);
+			float[] neNormals = sceneContext.terrainVertices.getNormals(neVertexKey, UP_NORMAL);
 
 			Material swMaterial = Material.NONE;
 			Material seMaterial = Material.NONE;
@@ -573,7 +795,7 @@ class SceneUploader
 				neMaterial = groundMaterial.getRandomMaterial(tileZ, baseX + tileX + 1, baseY + tileY + 1);
 			}
 
-			WaterType waterType = proceduralGenerator.tileWaterType(scene, tile, sceneTilePaint);
+			WaterType waterType = proceduralGenerator.tileWaterType(sceneContext, tile, sceneTilePaint);
 
 			int swTerrainData = packTerrainData(true, Math.max(1, swDepth), waterType, tileZ);
 			int seTerrainData = packTerrainData(true, Math.max(1, seDepth), waterType, tileZ);
@@ -682,7 +904,7 @@ class SceneUploader
 
 			int[][] localVertices = ProceduralGenerator.faceLocalVertices(tile, face);
 
-			int[] vertexKeys = ProceduralGenerator.faceVertexKeys(tile, face);
+			int[] vertexKeys = ProceduralGenerator.faceVertexKeys(sceneContext, tile, face);
 			int vertexKeyA = vertexKeys[0];
 			int vertexKeyB = vertexKeys[1];
 			int vertexKeyC = vertexKeys[2];
@@ -699,7 +921,7 @@ class SceneUploader
 			float[] normalsB = UP_NORMAL;
 			float[] normalsC = UP_NORMAL;
 
-			WaterType waterType = proceduralGenerator.faceWaterType(scene, tile, face, sceneTileModel);
+			WaterType waterType = proceduralGenerator.faceWaterType(sceneContext, tile, face, sceneTileModel);
 			if (waterType == WaterType.NONE)
 			{
 				if (faceTextures != null)
@@ -709,25 +931,25 @@ class SceneUploader
 					materialC = Material.getTexture(faceTextures[face]);
 				}
 
-				normalsA = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyA, normalsA);
-				normalsB = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyB, normalsB);
-				normalsC = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyC, normalsC);
+				normalsA = sceneContext.terrainVertices.getNormals(vertexKeyA, normalsA);
+				normalsB = sceneContext.terrainVertices.getNormals(vertexKeyB, normalsB);
+				normalsC = sceneContext.terrainVertices.getNormals(vertexKeyC, normalsC);
 
 				if (plugin.configGroundBlending &&
-					!(ProceduralGenerator.isOverlayFace(tile, face) && proceduralGenerator.useDefaultColor(scene, tile)) &&
+					!(ProceduralGenerator.isOverlayFace(tile, face) && proceduralGenerator.useDefaultColor(sceneContext, tile)) &&
 					materialA == Material.NONE
 				) {
-					// get the vertices' colors and textures from hashmaps
+					// get the vertices' colors and textures from the terrain vertices
 
-					colorA = sceneContext.vertexTerrainColor.getOrDefault(vertexKeyA, colorA);
-					colorB = sceneContext.vertexTerrainColor.getOrDefault(vertexKeyB, colorB);
-					colorC = sceneContext.vertexTerrainColor.getOrDefault(vertexKeyC, colorC);
+					colorA = sceneContext.terrainVertices.getColor(vertexKeyA, colorA);
+					colorB = sceneContext.terrainVertices.getColor(vertexKeyB, colorB);
+					colorC = sceneContext.terrainVertices.getColor(vertexKeyC, colorC);
 
 					if (plugin.configGroundTextures)
 					{
-						materialA = sceneContext.vertexTerrainTexture.getOrDefault(vertexKeyA, materialA);
-						materialB = sceneContext.vertexTerrainTexture.getOrDefault(vertexKeyB, materialB);
-						materialC = sceneContext.vertexTerrainTexture.getOrDefault(vertexKeyC, materialC);
+						materialA = sceneContext.terrainVertices.getMaterial(vertexKeyA, materialA);
+						materialB = sceneContext.terrainVertices.getMaterial(vertexKeyB, materialB);
+						materialC = sceneContext.terrainVertices.getMaterial(vertexKeyC, materialC);
 					}
 				}
 				else if (plugin.configGroundTextures)
@@ -738,7 +960,7 @@ class SceneUploader
 
 					if (ProceduralGenerator.isOverlayFace(tile, face))
 					{
-						Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+						Overlay overlay = sceneContext.getOverlay(tile);
 						groundMaterial = overlay.groundMaterial;
 
 						colorA = HDUtils.colorHSLToInt(overlay.modifyColor(HDUtils.colorIntToHSL(colorA)));
@@ -747,7 +969,7 @@ class SceneUploader
 					}
 					else
 					{
-						Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+						Underlay underlay = sceneContext.getUnderlay(tile);
 						groundMaterial = underlay.groundMaterial;
 
 						colorA = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(colorA)));
@@ -763,7 +985,7 @@ class SceneUploader
 				{
 					if (ProceduralGenerator.isOverlayFace(tile, face))
 					{
-						Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+						Overlay overlay = sceneContext.getOverlay(tile);
 
 						colorA = HDUtils.colorHSLToInt(overlay.modifyColor(HDUtils.colorIntToHSL(colorA)));
 						colorB = HDUtils.colorHSLToInt(overlay.modifyColor(HDUtils.colorIntToHSL(colorB)));
@@ -771,7 +993,7 @@ class SceneUploader
 					}
 					else
 					{
-						Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+						Underlay underlay = sceneContext.getUnderlay(tile);
 
 						colorA = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(colorA)));
 						colorB = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(colorB)));
@@ -783,29 +1005,29 @@ class SceneUploader
 			{
 				// set colors for the shoreline to create a foam effect in the water shader
 				colorA = colorB = colorC = 127;
-				if (sceneContext.vertexIsWater.containsKey(vertexKeyA) && sceneContext.vertexIsLand.containsKey(vertexKeyA))
+				if (sceneContext.terrainVertices.isWater(vertexKeyA) && sceneContext.terrainVertices.isLand(vertexKeyA))
 				{
 					colorA = 0;
 				}
-				if (sceneContext.vertexIsWater.containsKey(vertexKeyB) && sceneContext.vertexIsLand.containsKey(vertexKeyB))
+				if (sceneContext.terrainVertices.isWater(vertexKeyB) && sceneContext.terrainVertices.isLand(vertexKeyB))
 				{
 					colorB = 0;
 				}
-				if (sceneContext.vertexIsWater.containsKey(vertexKeyC) && sceneContext.vertexIsLand.containsKey(vertexKeyC))
+				if (sceneContext.terrainVertices.isWater(vertexKeyC) && sceneContext.terrainVertices.isLand(vertexKeyC))
 				{
 					colorC = 0;
 				}
 			}
 
-			if (sceneContext.vertexIsOverlay.containsKey(vertexKeyA) && sceneContext.vertexIsUnderlay.containsKey(vertexKeyA))
+			if (sceneContext.terrainVertices.isOverlay(vertexKeyA) && sceneContext.terrainVertices.isUnderlay(vertexKeyA))
 			{
 				vertexAIsOverlay = true;
 			}
-			if (sceneContext.vertexIsOverlay.containsKey(vertexKeyB) && sceneContext.vertexIsUnderlay.containsKey(vertexKeyB))
+			if (sceneContext.terrainVertices.isOverlay(vertexKeyB) && sceneContext.terrainVertices.isUnderlay(vertexKeyB))
 			{
 				vertexBIsOverlay = true;
 			}
-			if (sceneContext.vertexIsOverlay.containsKey(vertexKeyC) && sceneContext.vertexIsUnderlay.containsKey(vertexKeyC))
+			if (sceneContext.terrainVertices.isOverlay(vertexKeyC) && sceneContext.terrainVertices.isUnderlay(vertexKeyC))
 			{
 				vertexCIsOverlay = true;
 			}
@@ -892,14 +1114,14 @@ class SceneUploader
 				Material materialB = Material.NONE;
 				Material materialC = Material.NONE;
 
-				int[] vertexKeys = ProceduralGenerator.faceVertexKeys(tile, face);
+				int[] vertexKeys = ProceduralGenerator.faceVertexKeys(sceneContext, tile, face);
 				int vertexKeyA = vertexKeys[0];
 				int vertexKeyB = vertexKeys[1];
 				int vertexKeyC = vertexKeys[2];
 
-				int depthA = sceneContext.vertexUnderwaterDepth.getOrDefault(vertexKeyA, 0);
-				int depthB = sceneContext.vertexUnderwaterDepth.getOrDefault(vertexKeyB, 0);
-				int depthC = sceneContext.vertexUnderwaterDepth.getOrDefault(vertexKeyC, 0);
+				int depthA = sceneContext.terrainVertices.getUnderwaterDepth(vertexKeyA);
+				int depthB = sceneContext.terrainVertices.getUnderwaterDepth(vertexKeyB);
+				int depthC = sceneContext.terrainVertices.getUnderwaterDepth(vertexKeyC);
 
 				if (plugin.configGroundTextures)
 				{
@@ -918,11 +1140,11 @@ class SceneUploader
 					materialC = groundMaterial.getRandomMaterial(tileZ, tileVertexX, tileVertexY);
 				}
 
-				float[] normalsA = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyA, UP_NORMAL);
-				float[] normalsB = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyB, UP_NORMAL);
-				float[] normalsC = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyC, UP_NORMAL);
+				float[] normalsA = sceneContext.terrainVertices.getNormals(vertexKeyA, UP_NORMAL);
+				float[] normalsB = sceneContext.terrainVertices.getNormals(vertexKeyB, UP_NORMAL);
+				float[] normalsC = sceneContext.terrainVertices.getNormals(vertexKeyC, UP_NORMAL);
 
-				WaterType waterType = proceduralGenerator.faceWaterType(scene, tile, face, sceneTileModel);
+				WaterType waterType = proceduralGenerator.faceWaterType(sceneContext, tile, face, sceneTileModel);
 
 				int aTerrainData = packTerrainData(true, Math.max(1, depthA), waterType, tileZ);
 				int bTerrainData = packTerrainData(true, Math.max(1, depthB), waterType, tileZ);
@@ -968,4 +1190,58 @@ class SceneUploader
 		// 11-bit water depth | 5-bit water type | 2-bit plane | terrain flag
 		return waterDepth << 8 | waterType.ordinal() << 3 | plane << 1 | (isTerrain ? 1 : 0);
 	}
+
+	@FunctionalInterface
+	private interface ModelConsumer
+	{
+		void accept(long hash, Model model, int orientation, ObjectType objectType);
+	}
+
+	/**
+	 * A run of tiles which the serial upload visits one after another, along with the models to upload for them, and
+	 * the positions of their data and offsets in a worker context, and in the scene's context.
+	 */
+	private static class Chunk
+	{
+		final ArrayList<Tile> tiles = new ArrayList<>(Constants.SCENE_SIZE);
+		final Set<Model> unuploadedModels = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		SceneContext worker;
+		int vertexStart;
+		int vertexEnd;
+		int vertexTarget;
+		int uvStart;
+		int uvEnd;
+		int uvTarget;
+		int normalStart;
+		int normalEnd;
+		int normalTarget;
+		int offsetStart;
+		int offsetEnd;
+		int offsetTarget;
+	}
+
+	/**
+	 * Runs the action for a range of chunks, splitting it in half until each half holds a single chunk.
+	 */
+	@RequiredArgsConstructor
+	private static class ChunkTask extends RecursiveAction
+	{
+		private final IntConsumer action;
+		private final int start;
+		private final int end;
+
+		@Override
+		protected void compute()
+		{
+			if (end - start == 1)
+			{
+				action.accept(start);
+				return;
+			}
+
+			int middle = (start + end) >>> 1;
+			invokeAll(new ChunkTask(action, start, middle), new ChunkTask(action, middle, end));
+		}
+	}
 }
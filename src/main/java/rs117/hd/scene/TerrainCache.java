@@ -0,0 +1,276 @@
+package rs117.hd.scene;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.RuneLite;
+import rs117.hd.HdPluginConfig;
+import rs117.hd.data.WaterType;
+import rs117.hd.data.environments.Area;
+import rs117.hd.data.materials.GroundMaterial;
+import rs117.hd.data.materials.Overlay;
+import rs117.hd.data.materials.TileOverrideBuilder;
+import rs117.hd.data.materials.Underlay;
+import rs117.hd.model.ModelHasher;
+import rs117.hd.utils.HDUtils;
+
+import static net.runelite.api.Constants.MAX_Z;
+import static net.runelite.api.Constants.SCENE_SIZE;
+import static rs117.hd.utils.HDUtils.MiB;
+
+/**
+ * Persists the terrain data generated for scenes between sessions, in a file per scene named after a key identifying
+ * everything the data was generated from. Files are memory-mapped when read, and the least recently used files are
+ * deleted once the directory grows beyond {@link #MAX_DIRECTORY_SIZE}.
+ */
+@Slf4j
+@Singleton
+public class TerrainCache
+{
+	private static final File DIRECTORY = new File(new File(RuneLite.RUNELITE_DIR, "117hd"), "terrain-cache");
+	private static final String FILE_EXTENSION = ".bin";
+	private static final int MAGIC = 0x31313754; // 117T
+	private static final int FORMAT_VERSION = 1;
+	private static final long MAX_DIRECTORY_SIZE = 256 * MiB;
+
+	private static final int HEADER_SIZE = 4 + 4 + 8;
+	private static final int TILE_FLAGS_SIZE = MAX_Z * SCENE_SIZE * SCENE_SIZE;
+	private static final int DEPTH_LEVELS_SIZE = MAX_Z * (SCENE_SIZE + 1) * (SCENE_SIZE + 1) * 4;
+	private static final byte TILE_IS_WATER = 1;
+	private static final byte SKIP_TILE = 1 << 1;
+
+	private static long codeHash;
+
+	@Inject
+	private HdPluginConfig config;
+
+	private ExecutorService writer;
+
+	public boolean isEnabled()
+	{
+		return config.persistentTerrainCache();
+	}
+
+	public synchronized void shutDown()
+	{
+		// Files which are still queued will finish writing in the background
+		if (writer != null)
+			writer.shutdown();
+		writer = null;
+	}
+
+	/**
+	 * Combines a hash of a scene's terrain inputs with a hash of the code which generates and stores its terrain data.
+	 */
+	public long calculateKey(long sceneHash)
+	{
+		return ModelHasher.mix(getCodeHash() ^ sceneHash);
+	}
+
+	/**
+	 * Identifies the plugin version by the code which generates and stores the terrain data, and the tile overrides
+	 * it's generated from.
+	 */
+	private static long getCodeHash()
+	{
+		if (codeHash != 0)
+			return codeHash;
+
+		return codeHash = HDUtils.getCodeHash(
+			TerrainCache.class,
+			TerrainVertexStore.class,
+			ProceduralGenerator.class,
+			Overlay.class,
+			Underlay.class,
+			TileOverrideBuilder.class,
+			GroundMaterial.class,
+			WaterType.class,
+			Area.class
+		);
+	}
+
+	private static File getFile(long key)
+	{
+		return new File(DIRECTORY, String.format("%016x", key) + FILE_EXTENSION);
+	}
+
+	/**
+	 * Loads the terrain data and water-related data of the scene, if it has been cached with the same key.
+	 *
+	 * @return true if the data was loaded
+	 */
+	public boolean load(SceneContext sceneContext, long key)
+	{
+		File file = getFile(key);
+		if (!file.isFile())
+			return false;
+
+		boolean[][][] tileIsWater = new boolean[MAX_Z][SCENE_SIZE][SCENE_SIZE];
+		boolean[][][] skipTile = new boolean[MAX_Z][SCENE_SIZE][SCENE_SIZE];
+		int[][][] underwaterDepthLevels = new int[MAX_Z][SCENE_SIZE + 1][SCENE_SIZE + 1];
+		TerrainVertexStore terrainVertices;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION || buffer.getLong() != key)
+				throw new IOException("Mismatching header");
+
+			for (int z = 0; z < MAX_Z; ++z)
+			{
+				for (int x = 0; x < SCENE_SIZE; ++x)
+				{
+					for (int y = 0; y < SCENE_SIZE; ++y)
+					{
+						byte flags = buffer.get();
+						tileIsWater[z][x][y] = (flags & TILE_IS_WATER) != 0;
+						skipTile[z][x][y] = (flags & SKIP_TILE) != 0;
+					}
+				}
+			}
+
+			for (int[][] plane : underwaterDepthLevels)
+				for (int[] column : plane)
+					for (int i = 0; i < column.length; i++)
+						column[i] = buffer.getInt();
+			terrainVertices = TerrainVertexStore.read(buffer);
+			if (buffer.hasRemaining())
+				throw new IOException("Unexpected trailing data");
+		}
+		catch (IOException | BufferUnderflowException ex)
+		{
+			log.warn("Discarding invalid terrain cache file {}", file, ex);
+			if (!file.delete())
+				log.debug("Unable to delete {}", file);
+			return false;
+		}
+
+		// Keep track of which files were used most recently
+		if (!file.setLastModified(System.currentTimeMillis()))
+			log.debug("Unable to update the last modified time of {}", file);
+
+		sceneContext.tileIsWater = tileIsWater;
+		sceneContext.skipTile = skipTile;
+		sceneContext.underwaterDepthLevels = underwaterDepthLevels;
+		sceneContext.terrainVertices = terrainVertices;
+		return true;
+	}
+
+	/**
+	 * Stores the terrain data and water-related data of the scene in the background. The data must no longer change.
+	 */
+	public synchronized void save(SceneContext sceneContext, long key)
+	{
+		if (writer == null)
+			writer = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "117HD terrain cache");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+		final boolean[][][] tileIsWater = sceneContext.tileIsWater;
+		final boolean[][][] skipTile = sceneContext.skipTile;
+		final int[][][] underwaterDepthLevels = sceneContext.underwaterDepthLevels;
+		final TerrainVertexStore terrainVertices = sceneContext.terrainVertices;
+		writer.execute(() -> {
+			try
+			{
+				write(key, tileIsWater, skipTile, underwaterDepthLevels, terrainVertices);
+				evictLeastRecentlyUsed();
+			}
+			catch (IOException ex)
+			{
+				log.warn("Unable to write to the terrain cache", ex);
+			}
+		});
+	}
+
+	private static void write(
+		long key,
+		boolean[][][] tileIsWater,
+		boolean[][][] skipTile,
+		int[][][] underwaterDepthLevels,
+		TerrainVertexStore terrainVertices
+	) throws IOException
+	{
+		File file = getFile(key);
+		if (file.isFile())
+			return;
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + TILE_FLAGS_SIZE + DEPTH_LEVELS_SIZE + terrainVertices.serializedSize());
+		buffer.putInt(MAGIC);
+		buffer.putInt(FORMAT_VERSION);
+		buffer.putLong(key);
+
+		for (int z = 0; z < MAX_Z; ++z)
+			for (int x = 0; x < SCENE_SIZE; ++x)
+				for (int y = 0; y < SCENE_SIZE; ++y)
+					buffer.put((byte) ((tileIsWater[z][x][y] ? TILE_IS_WATER : 0) | (skipTile[z][x][y] ? SKIP_TILE : 0)));
+
+		for (int[][] plane : underwaterDepthLevels)
+			for (int[] column : plane)
+				for (int depthLevel : column)
+					buffer.putInt(depthLevel);
+		terrainVertices.write(buffer);
+		buffer.flip();
+
+		if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs())
+			throw new IOException("Unable to create directory " + DIRECTORY);
+
+		// Write to a temporary file first, so a partially written file is never read
+		File tempFile = new File(DIRECTORY, file.getName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(
+			tempFile.toPath(),
+			StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING
+		))
+		{
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void evictLeastRecentlyUsed()
+	{
+		File[] files = DIRECTORY.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+		if (files == null)
+			return;
+
+		long totalSize = 0;
+		long[] lastUsed = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++)
+		{
+			totalSize += files[i].length();
+			// Files may be used while sorting, so sort by a snapshot of when they were last used
+			lastUsed[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		if (totalSize <= MAX_DIRECTORY_SIZE)
+			return;
+
+		Arrays.sort(order, Comparator.comparingLong(i -> lastUsed[i]));
+		for (int i : order)
+		{
+			if (totalSize <= MAX_DIRECTORY_SIZE)
+				break;
+			long size = files[i].length();
+			// Deleting a file which is still mapped fails on some platforms, in which case it's evicted later
+			if (files[i].delete())
+				totalSize -= size;
+		}
+	}
+}
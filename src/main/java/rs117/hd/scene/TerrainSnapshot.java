@@ -0,0 +1,125 @@
+package rs117.hd.scene;
+
+import net.runelite.api.Scene;
+import net.runelite.api.SceneTileModel;
+import net.runelite.api.SceneTilePaint;
+import net.runelite.api.Tile;
+
+import static net.runelite.api.Constants.MAX_Z;
+import static net.runelite.api.Constants.SCENE_SIZE;
+
+/**
+ * A copy of what a scene's terrain data is generated from, which is taken on the client thread, so the terrain data can
+ * be generated on another thread while the client keeps changing the scene. The client rewrites the tile heights and
+ * the overlay and underlay IDs in place whenever it loads a map, so they're copied, along with the colors of the tile
+ * paints and tile models. Each map load creates new tiles, tile paints and tile models rather than reusing them, so the
+ * tiles are only copied by reference, and their shapes and vertices are read from them directly. Tile positions are
+ * still translated to world positions through the scene, whose base and instance chunks only change when another map
+ * loads, which discards the terrain data being generated anyway.
+ */
+public class TerrainSnapshot
+{
+	public final int baseX;
+	public final int baseY;
+	public final boolean isInstance;
+	public final Tile[][][] tiles;
+	public final int[][][] tileHeights;
+	public final short[][][] overlayIds;
+	public final short[][][] underlayIds;
+
+	// the SW, SE, NW and NE colors of each tile paint, or the A, B and C colors of each face of each tile model,
+	// indexed by the tile's plane rather than its render level, since bridges share their render level with the tile
+	// below them
+	private final int[][][][] colors = new int[MAX_Z][SCENE_SIZE][SCENE_SIZE][];
+
+	public TerrainSnapshot(Scene scene)
+	{
+		baseX = scene.getBaseX();
+		baseY = scene.getBaseY();
+		isInstance = scene.isInstance();
+		tiles = new Tile[MAX_Z][SCENE_SIZE][];
+		tileHeights = new int[MAX_Z][SCENE_SIZE + 1][];
+		overlayIds = new short[MAX_Z][SCENE_SIZE][];
+		underlayIds = new short[MAX_Z][SCENE_SIZE][];
+
+		Tile[][][] sceneTiles = scene.getTiles();
+		int[][][] sceneTileHeights = scene.getTileHeights();
+		short[][][] sceneOverlayIds = scene.getOverlayIds();
+		short[][][] sceneUnderlayIds = scene.getUnderlayIds();
+		for (int z = 0; z < MAX_Z; ++z)
+		{
+			for (int x = 0; x <= SCENE_SIZE; ++x)
+			{
+				tileHeights[z][x] = sceneTileHeights[z][x].clone();
+			}
+
+			for (int x = 0; x < SCENE_SIZE; ++x)
+			{
+				tiles[z][x] = sceneTiles[z][x].clone();
+				overlayIds[z][x] = sceneOverlayIds[z][x].clone();
+				underlayIds[z][x] = sceneUnderlayIds[z][x].clone();
+
+				for (int y = 0; y < SCENE_SIZE; ++y)
+				{
+					Tile tile = tiles[z][x][y];
+					if (tile == null)
+					{
+						continue;
+					}
+
+					Tile bridge = tile.getBridge();
+					if (bridge != null)
+					{
+						copyColors(bridge);
+					}
+					copyColors(tile);
+				}
+			}
+		}
+	}
+
+	private void copyColors(Tile tile)
+	{
+		int[] tileColors = null;
+		SceneTilePaint sceneTilePaint = tile.getSceneTilePaint();
+		SceneTileModel sceneTileModel = tile.getSceneTileModel();
+		if (sceneTilePaint != null)
+		{
+			tileColors = new int[] {
+				sceneTilePaint.getSwColor(),
+				sceneTilePaint.getSeColor(),
+				sceneTilePaint.getNwColor(),
+				sceneTilePaint.getNeColor()
+			};
+		}
+		else if (sceneTileModel != null)
+		{
+			int[] colorsA = sceneTileModel.getTriangleColorA();
+			int[] colorsB = sceneTileModel.getTriangleColorB();
+			int[] colorsC = sceneTileModel.getTriangleColorC();
+			int faceCount = sceneTileModel.getFaceX().length;
+			tileColors = new int[faceCount * 3];
+			for (int face = 0; face < faceCount; face++)
+			{
+				tileColors[face * 3] = colorsA[face];
+				tileColors[face * 3 + 1] = colorsB[face];
+				tileColors[face * 3 + 2] = colorsC[face];
+			}
+		}
+		colors[tile.getPlane()][tile.getSceneLocation().getX()][tile.getSceneLocation().getY()] = tileColors;
+	}
+
+	/**
+	 * @return the SW, SE, NW and NE colors of the tile's paint, or the A, B and C colors of each face of its tile model
+	 * in order, or null if it has neither
+	 */
+	public int[] getColors(Tile tile)
+	{
+		return colors[tile.getPlane()][tile.getSceneLocation().getX()][tile.getSceneLocation().getY()];
+	}
+
+	public int getFaceColor(Tile tile, int face, int vertex)
+	{
+		return getColors(tile)[face * 3 + vertex];
+	}
+}
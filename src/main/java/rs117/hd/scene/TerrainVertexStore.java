@@ -0,0 +1,438 @@
+package rs117.hd.scene;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import rs117.hd.data.materials.Material;
+
+import static net.runelite.api.Constants.MAX_Z;
+import static net.runelite.api.Constants.SCENE_SIZE;
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+
+/**
+ * Procedurally generated terrain data for the vertices of a scene's tile paints and tile models, stored in parallel
+ * arrays indexed by vertex key.
+ * <p>
+ * Vertices are identified by their position, so vertices shared by neighbouring tiles, or by tiles on different planes,
+ * share their data. Vertices on the tile grid are stored in a dense grid with a layer for each distinct height at the
+ * same grid point, which is usually one per plane. The remaining vertices, in the middle of tile models or beyond the
+ * grid's layers, get keys after the grid's from a side table keyed by their packed position.
+ * <p>
+ * Vertices are only added while the scene's terrain data is generated, after which the store may be read from
+ * multiple threads.
+ */
+public class TerrainVertexStore
+{
+	/**
+	 * The key of vertices without any terrain data.
+	 */
+	public static final int NONE = -1;
+
+	private static final int GRID_SIZE = SCENE_SIZE + 1;
+	private static final int GRID_LAYER_SIZE = GRID_SIZE * GRID_SIZE;
+	private static final int GRID_VERTEX_COUNT = MAX_Z * GRID_LAYER_SIZE;
+
+	private static final byte HAS_COLOR = 1;
+	private static final byte HIGH_PRIORITY_COLOR = 1 << 1;
+	private static final byte HAS_NORMALS = 1 << 2;
+	private static final byte WATER = 1 << 3;
+	private static final byte LAND = 1 << 4;
+	private static final byte OVERLAY = 1 << 5;
+	private static final byte UNDERLAY = (byte) (1 << 6);
+	// the flags which are part of the terrain data, rather than the water-related data
+	private static final byte TERRAIN_FLAGS = HAS_COLOR | HIGH_PRIORITY_COLOR | HAS_NORMALS | OVERLAY | UNDERLAY;
+
+	private static final Material[] MATERIALS = Material.values();
+	// flags, color, material, normals and underwater depth
+	private static final int SERIALIZED_VERTEX_SIZE = 1 + 4 + 2 + 12 + 4;
+
+	// the number of layers in use at each grid point, and the height of each grid vertex
+	private final byte[] gridLayerCounts = new byte[GRID_LAYER_SIZE];
+	private final int[] gridHeights = new int[GRID_VERTEX_COUNT];
+
+	// open addressing table from packed positions to keys for vertices off the grid, where a slot of 0 is empty
+	private long[] sidePositions = new long[1 << 13];
+	private int[] sideSlots = new int[sidePositions.length];
+	private int sideVertexCount;
+
+	private byte[] flags;
+	private int[] colors;
+	private Material[] materials;
+	private float[] normals;
+	private int[] underwaterDepths;
+
+	public TerrainVertexStore()
+	{
+		allocate(GRID_VERTEX_COUNT + sidePositions.length / 2);
+	}
+
+	private void allocate(int capacity)
+	{
+		if (flags == null)
+		{
+			flags = new byte[capacity];
+			colors = new int[capacity];
+			materials = new Material[capacity];
+			normals = new float[capacity * 3];
+			underwaterDepths = new int[capacity];
+			return;
+		}
+
+		flags = Arrays.copyOf(flags, capacity);
+		colors = Arrays.copyOf(colors, capacity);
+		materials = Arrays.copyOf(materials, capacity);
+		normals = Arrays.copyOf(normals, capacity * 3);
+		underwaterDepths = Arrays.copyOf(underwaterDepths, capacity);
+	}
+
+	/**
+	 * Returns the key of the vertex at the specified local position and height, or {@link #NONE} if it hasn't been
+	 * added.
+	 */
+	public int getVertex(int x, int y, int height)
+	{
+		return findVertex(x, y, height, false);
+	}
+
+	/**
+	 * Returns the key of the vertex at the specified local position and height, adding it if it doesn't exist yet.
+	 */
+	public int addVertex(int x, int y, int height)
+	{
+		return findVertex(x, y, height, true);
+	}
+
+	private int findVertex(int x, int y, int height, boolean add)
+	{
+		if (x % LOCAL_TILE_SIZE == 0 && y % LOCAL_TILE_SIZE == 0)
+		{
+			int gridX = x / LOCAL_TILE_SIZE;
+			int gridY = y / LOCAL_TILE_SIZE;
+			if (gridX >= 0 && gridX < GRID_SIZE && gridY >= 0 && gridY < GRID_SIZE)
+			{
+				int gridPoint = gridX * GRID_SIZE + gridY;
+				int layerCount = gridLayerCounts[gridPoint];
+				for (int layer = 0; layer < layerCount; layer++)
+				{
+					int vertex = layer * GRID_LAYER_SIZE + gridPoint;
+					if (gridHeights[vertex] == height)
+						return vertex;
+				}
+
+				if (layerCount < MAX_Z)
+				{
+					if (!add)
+						return NONE;
+					int vertex = layerCount * GRID_LAYER_SIZE + gridPoint;
+					gridHeights[vertex] = height;
+					gridLayerCounts[gridPoint]++;
+					return vertex;
+				}
+				// more distinct heights than layers, which only happens on planes above bridges
+			}
+		}
+
+		// local coordinates within and around the scene fit in 16 bits
+		long position = (long) (x & 0xFFFF) << 48 | (long) (y & 0xFFFF) << 32 | height & 0xFFFFFFFFL;
+		int mask = sidePositions.length - 1;
+		int i = (int) (position * 0x9E3779B97F4A7C15L >>> 32) & mask;
+		while (sideSlots[i] != 0)
+		{
+			if (sidePositions[i] == position)
+				return GRID_VERTEX_COUNT + sideSlots[i] - 1;
+			i = (i + 1) & mask;
+		}
+
+		if (!add)
+			return NONE;
+
+		sidePositions[i] = position;
+		sideSlots[i] = ++sideVertexCount;
+		if (sideVertexCount * 2 > sidePositions.length)
+			growSideTable();
+		return GRID_VERTEX_COUNT + sideVertexCount - 1;
+	}
+
+	private void addSideVertex(long position)
+	{
+		int mask = sidePositions.length - 1;
+		int i = (int) (position * 0x9E3779B97F4A7C15L >>> 32) & mask;
+		while (sideSlots[i] != 0)
+			i = (i + 1) & mask;
+		sidePositions[i] = position;
+		sideSlots[i] = ++sideVertexCount;
+		if (sideVertexCount * 2 > sidePositions.length)
+			growSideTable();
+	}
+
+	private void growSideTable()
+	{
+		long[] oldPositions = sidePositions;
+		int[] oldSlots = sideSlots;
+		sidePositions = new long[oldPositions.length * 2];
+		sideSlots = new int[sidePositions.length];
+		int mask = sidePositions.length - 1;
+		for (int j = 0; j < oldSlots.length; j++)
+		{
+			if (oldSlots[j] == 0)
+				continue;
+			int i = (int) (oldPositions[j] * 0x9E3779B97F4A7C15L >>> 32) & mask;
+			while (sideSlots[i] != 0)
+				i = (i + 1) & mask;
+			sidePositions[i] = oldPositions[j];
+			sideSlots[i] = oldSlots[j];
+		}
+		allocate(GRID_VERTEX_COUNT + sidePositions.length / 2);
+	}
+
+	/**
+	 * @return the number of vertices which have been added
+	 */
+	public int size()
+	{
+		int count = sideVertexCount;
+		for (byte layerCount : gridLayerCounts)
+			count += layerCount;
+		return count;
+	}
+
+	/**
+	 * @return the approximate number of bytes used by the store, assuming compressed references
+	 */
+	public long sizeInBytes()
+	{
+		return gridLayerCounts.length + gridHeights.length * 4L
+			+ sidePositions.length * 12L
+			+ flags.length * (1 + 4 + 4 + 12 + 4L);
+	}
+
+	/**
+	 * @return the number of bytes written by {@link #write}
+	 */
+	public int serializedSize()
+	{
+		int gridVertexCount = size() - sideVertexCount;
+		return gridLayerCounts.length
+			+ gridVertexCount * (4 + SERIALIZED_VERTEX_SIZE)
+			+ 4 + sideVertexCount * (8 + SERIALIZED_VERTEX_SIZE);
+	}
+
+	/**
+	 * Writes the store's vertices and their data to the buffer, to be read back by {@link #read}.
+	 */
+	public void write(ByteBuffer buffer)
+	{
+		buffer.put(gridLayerCounts);
+		for (int gridPoint = 0; gridPoint < GRID_LAYER_SIZE; gridPoint++)
+		{
+			for (int layer = 0; layer < gridLayerCounts[gridPoint]; layer++)
+			{
+				int vertex = layer * GRID_LAYER_SIZE + gridPoint;
+				buffer.putInt(gridHeights[vertex]);
+				writeVertex(buffer, vertex);
+			}
+		}
+
+		// Write side vertices in the order they were added, so they get the same keys when read back
+		long[] positions = new long[sideVertexCount];
+		for (int i = 0; i < sideSlots.length; i++)
+			if (sideSlots[i] != 0)
+				positions[sideSlots[i] - 1] = sidePositions[i];
+		buffer.putInt(sideVertexCount);
+		for (int i = 0; i < sideVertexCount; i++)
+		{
+			buffer.putLong(positions[i]);
+			writeVertex(buffer, GRID_VERTEX_COUNT + i);
+		}
+	}
+
+	private void writeVertex(ByteBuffer buffer, int vertex)
+	{
+		Material material = materials[vertex];
+		buffer.put(flags[vertex]);
+		buffer.putInt(colors[vertex]);
+		buffer.putShort((short) (material == null ? 0 : material.ordinal() + 1));
+		buffer.putFloat(normals[vertex * 3]);
+		buffer.putFloat(normals[vertex * 3 + 1]);
+		buffer.putFloat(normals[vertex * 3 + 2]);
+		buffer.putInt(underwaterDepths[vertex]);
+	}
+
+	/**
+	 * Reads a store written by {@link #write}, with the same keys for all of its vertices.
+	 *
+	 * @throws IOException if the buffer doesn't contain a valid store
+	 */
+	public static TerrainVertexStore read(ByteBuffer buffer) throws IOException
+	{
+		TerrainVertexStore store = new TerrainVertexStore();
+		buffer.get(store.gridLayerCounts);
+		for (int gridPoint = 0; gridPoint < GRID_LAYER_SIZE; gridPoint++)
+		{
+			int layerCount = store.gridLayerCounts[gridPoint];
+			if (layerCount < 0 || layerCount > MAX_Z)
+				throw new IOException("Invalid layer count: " + layerCount);
+			for (int layer = 0; layer < layerCount; layer++)
+			{
+				int vertex = layer * GRID_LAYER_SIZE + gridPoint;
+				store.gridHeights[vertex] = buffer.getInt();
+				store.readVertex(buffer, vertex);
+			}
+		}
+
+		int sideVertexCount = buffer.getInt();
+		if (sideVertexCount < 0 || sideVertexCount > buffer.remaining() / (8 + SERIALIZED_VERTEX_SIZE))
+			throw new IOException("Invalid side vertex count: " + sideVertexCount);
+		for (int i = 0; i < sideVertexCount; i++)
+		{
+			store.addSideVertex(buffer.getLong());
+			store.readVertex(buffer, GRID_VERTEX_COUNT + i);
+		}
+		return store;
+	}
+
+	private void readVertex(ByteBuffer buffer, int vertex) throws IOException
+	{
+		flags[vertex] = buffer.get();
+		colors[vertex] = buffer.getInt();
+		int material = buffer.getShort();
+		if (material < 0 || material > MATERIALS.length)
+			throw new IOException("Invalid material index: " + material);
+		materials[vertex] = material == 0 ? null : MATERIALS[material - 1];
+		normals[vertex * 3] = buffer.getFloat();
+		normals[vertex * 3 + 1] = buffer.getFloat();
+		normals[vertex * 3 + 2] = buffer.getFloat();
+		underwaterDepths[vertex] = buffer.getInt();
+	}
+
+	private boolean hasFlag(int vertex, byte flag)
+	{
+		return vertex != NONE && (flags[vertex] & flag) != 0;
+	}
+
+	public boolean hasColor(int vertex)
+	{
+		return hasFlag(vertex, HAS_COLOR);
+	}
+
+	public int getColor(int vertex, int defaultColor)
+	{
+		return hasColor(vertex) ? colors[vertex] : defaultColor;
+	}
+
+	public void setColor(int vertex, int color)
+	{
+		colors[vertex] = color;
+		flags[vertex] |= HAS_COLOR;
+	}
+
+	public boolean isHighPriorityColor(int vertex)
+	{
+		return hasFlag(vertex, HIGH_PRIORITY_COLOR);
+	}
+
+	public void setHighPriorityColor(int vertex)
+	{
+		flags[vertex] |= HIGH_PRIORITY_COLOR;
+	}
+
+	public boolean hasMaterial(int vertex)
+	{
+		return vertex != NONE && materials[vertex] != null;
+	}
+
+	public Material getMaterial(int vertex, Material defaultMaterial)
+	{
+		return hasMaterial(vertex) ? materials[vertex] : defaultMaterial;
+	}
+
+	public void setMaterial(int vertex, Material material)
+	{
+		materials[vertex] = material;
+	}
+
+	/**
+	 * Returns a copy of the vertex' accumulated normals, or the default normals if it has none.
+	 */
+	public float[] getNormals(int vertex, float[] defaultNormals)
+	{
+		if (!hasFlag(vertex, HAS_NORMALS))
+			return defaultNormals;
+		int i = vertex * 3;
+		return new float[] { normals[i], normals[i + 1], normals[i + 2] };
+	}
+
+	/**
+	 * Accumulates the normals of a face which the vertex is part of.
+	 */
+	public void addNormals(int vertex, float[] faceNormals)
+	{
+		int i = vertex * 3;
+		normals[i] += faceNormals[0];
+		normals[i + 1] += faceNormals[1];
+		normals[i + 2] += faceNormals[2];
+		flags[vertex] |= HAS_NORMALS;
+	}
+
+	public boolean isWater(int vertex)
+	{
+		return hasFlag(vertex, WATER);
+	}
+
+	public void setWater(int vertex)
+	{
+		flags[vertex] |= WATER;
+	}
+
+	public boolean isLand(int vertex)
+	{
+		return hasFlag(vertex, LAND);
+	}
+
+	public void setLand(int vertex)
+	{
+		flags[vertex] |= LAND;
+	}
+
+	public boolean isOverlay(int vertex)
+	{
+		return hasFlag(vertex, OVERLAY);
+	}
+
+	public void setOverlay(int vertex)
+	{
+		flags[vertex] |= OVERLAY;
+	}
+
+	public boolean isUnderlay(int vertex)
+	{
+		return hasFlag(vertex, UNDERLAY);
+	}
+
+	public void setUnderlay(int vertex)
+	{
+		flags[vertex] |= UNDERLAY;
+	}
+
+	/**
+	 * Replaces the vertex' normals, color, material, and whether it's an overlay or underlay, with those of a vertex in
+	 * another store. The water-related data is left as is.
+	 */
+	public void copyTerrainData(int vertex, TerrainVertexStore source, int sourceVertex)
+	{
+		flags[vertex] = (byte) (flags[vertex] & ~TERRAIN_FLAGS | source.flags[sourceVertex] & TERRAIN_FLAGS);
+		colors[vertex] = source.colors[sourceVertex];
+		materials[vertex] = source.materials[sourceVertex];
+		System.arraycopy(source.normals, sourceVertex * 3, normals, vertex * 3, 3);
+	}
+
+	public int getUnderwaterDepth(int vertex)
+	{
+		return vertex == NONE ? 0 : underwaterDepths[vertex];
+	}
+
+	public void setUnderwaterDepth(int vertex, int depth)
+	{
+		underwaterDepths[vertex] = depth;
+	}
+}
@@ -2,12 +2,12 @@ package rs117.hd.scene.model_overrides;
 
 import com.google.gson.annotations.JsonAdapter;
 import lombok.NoArgsConstructor;
-import net.runelite.api.Model;
 import net.runelite.api.Perspective;
 import rs117.hd.data.NpcID;
 import rs117.hd.data.ObjectID;
 import rs117.hd.data.materials.Material;
 import rs117.hd.data.materials.UvType;
+import rs117.hd.model.ModelSnapshot;
 import rs117.hd.utils.AABB;
 
 import java.util.HashSet;
@@ -95,7 +95,7 @@ public class ModelOverride
         }
     }
 
-	public void fillUvsForFace(float[] out, Model model, int orientation, UvType uvType, int face) {
+	public void fillUvsForFace(float[] out, ModelSnapshot model, int orientation, UvType uvType, int face) {
 		switch (uvType) {
 			case WORLD_XY:
 			case WORLD_XZ:
@@ -113,12 +113,12 @@ public class ModelOverride
 			case MODEL_YZ:
 			case MODEL_YZ_MIRROR_A:
 			case MODEL_YZ_MIRROR_B: {
-				final int[] vertexX = model.getVerticesX();
-				final int[] vertexY = model.getVerticesY();
-				final int[] vertexZ = model.getVerticesZ();
-				final int triA = model.getFaceIndices1()[face];
-				final int triB = model.getFaceIndices2()[face];
-				final int triC = model.getFaceIndices3()[face];
+				final int[] vertexX = model.verticesX;
+				final int[] vertexY = model.verticesY;
+				final int[] vertexZ = model.verticesZ;
+				final int triA = model.faceIndices1[face];
+				final int triB = model.faceIndices2[face];
+				final int triC = model.faceIndices3[face];
 
 				computeModelUvw(out, 0, vertexX[triA], vertexY[triA], vertexZ[triA], orientation);
 				computeModelUvw(out, 4, vertexX[triB], vertexY[triB], vertexZ[triB], orientation);
@@ -126,15 +126,15 @@ public class ModelOverride
 				break;
 			}
 			case VANILLA: {
-				final int[] vertexX = model.getVerticesX();
-				final int[] vertexY = model.getVerticesY();
-				final int[] vertexZ = model.getVerticesZ();
-				final int texFace = model.getTextureFaces()[face] & 0xff;
+				final int[] vertexX = model.verticesX;
+				final int[] vertexY = model.verticesY;
+				final int[] vertexZ = model.verticesZ;
+				final int texFace = model.textureFaces[face] & 0xff;
 
 				if (texFace != 255) {
-					final int texA = model.getTexIndices1()[texFace];
-					final int texB = model.getTexIndices2()[texFace];
-					final int texC = model.getTexIndices3()[texFace];
+					final int texA = model.texIndices1[texFace];
+					final int texB = model.texIndices2[texFace];
+					final int texC = model.texIndices3[texFace];
 
 					out[0] = vertexX[texA];
 					out[1] = vertexY[texA];
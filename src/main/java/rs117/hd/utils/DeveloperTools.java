@@ -6,6 +6,7 @@ import net.runelite.client.input.KeyListener;
 import net.runelite.client.input.KeyManager;
 import net.runelite.client.ui.overlay.OverlayManager;
 import rs117.hd.data.environments.Area;
+import rs117.hd.overlays.ModelCacheOverlay;
 import rs117.hd.overlays.TileInfoOverlay;
 
 import javax.inject.Inject;
@@ -18,6 +19,7 @@ public class DeveloperTools implements KeyListener
 
 	// This could be part of the config if we had developer mode config sections
 	private static final Keybind KEY_TOGGLE_TILE_INFO = new Keybind(KeyEvent.VK_F3, InputEvent.CTRL_DOWN_MASK);
+	private static final Keybind KEY_TOGGLE_MODEL_CACHE_STATS = new Keybind(KeyEvent.VK_F4, InputEvent.CTRL_DOWN_MASK);
 
 	@Inject
 	private KeyManager keyManager;
@@ -28,7 +30,11 @@ public class DeveloperTools implements KeyListener
 	@Inject
 	private TileInfoOverlay tileInfoOverlay;
 
+	@Inject
+	private ModelCacheOverlay modelCacheOverlay;
+
 	private boolean tileInfoOverlayEnabled = false;
+	private boolean modelCacheOverlayEnabled = false;
 
 	public void activate() {
 		keyManager.registerKeyListener(this);
@@ -36,6 +42,10 @@ public class DeveloperTools implements KeyListener
 		{
 			overlayManager.add(tileInfoOverlay);
 		}
+		if (modelCacheOverlayEnabled)
+		{
+			overlayManager.add(modelCacheOverlay);
+		}
 
 		// Check for any out of bounds areas
 		for (Area area : Area.values())
@@ -59,6 +69,7 @@ public class DeveloperTools implements KeyListener
 	public void deactivate() {
 		keyManager.unregisterKeyListener(this);
 		overlayManager.remove(tileInfoOverlay);
+		overlayManager.remove(modelCacheOverlay);
 	}
 
 	@Override
@@ -77,6 +88,19 @@ public class DeveloperTools implements KeyListener
 				overlayManager.remove(tileInfoOverlay);
 			}
 		}
+		else if (KEY_TOGGLE_MODEL_CACHE_STATS.matches(event))
+		{
+			event.consume();
+			modelCacheOverlayEnabled = !modelCacheOverlayEnabled;
+			if (modelCacheOverlayEnabled)
+			{
+				overlayManager.add(modelCacheOverlay);
+			}
+			else
+			{
+				overlayManager.remove(modelCacheOverlay);
+			}
+		}
 	}
 
 	@Override
@@ -24,6 +24,10 @@
  */
 package rs117.hd.utils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Random;
 import javax.inject.Singleton;
@@ -32,6 +36,8 @@ import net.runelite.api.Client;
 import net.runelite.api.Scene;
 import net.runelite.api.coords.LocalPoint;
 import net.runelite.api.coords.WorldPoint;
+import rs117.hd.data.materials.Material;
+import rs117.hd.model.ModelHasher;
 
 import static net.runelite.api.Constants.REGION_SIZE;
 import static net.runelite.api.Constants.SCENE_SIZE;
@@ -125,7 +131,14 @@ public class HDUtils
 
 	public static float[] lerpVectors(float[] vecA, float[] vecB, float t)
 	{
-		float[] out = new float[Math.min(vecA.length, vecB.length)];
+		return lerpVectors(vecA, vecB, t, new float[Math.min(vecA.length, vecB.length)]);
+	}
+
+	/**
+	 * Interpolates between two vectors without allocating. The output may be the same array as either input.
+	 */
+	public static float[] lerpVectors(float[] vecA, float[] vecB, float t, float[] out)
+	{
 		for (int i = 0; i < out.length; i++)
 		{
 			out[i] = lerp(vecA[i], vecB[i], t);
@@ -151,15 +164,6 @@ public class HDUtils
 		return Math.min(max, Math.max(min, value));
 	}
 
-	public static int vertexHash(int[] vPos)
-	{
-		// simple custom hashing function for vertex position data
-		StringBuilder s = new StringBuilder();
-		for (int part : vPos)
-			s.append(part).append(",");
-		return s.toString().hashCode();
-	}
-
 	public static float[] calculateSurfaceNormals(int[] vertexX, int[] vertexY, int[] vertexZ)
 	{
 		// calculate normals
@@ -325,6 +329,46 @@ public class HDUtils
         };
     }
 
+	/**
+	 * Hashes the class files of the specified classes, to identify the version of the code which produced data that's
+	 * persisted between sessions.
+	 */
+	public static long hashClassFiles(long hash, Class<?>... classes) throws IOException
+	{
+		byte[] buffer = new byte[8192];
+		for (Class<?> c : classes)
+		{
+			try (InputStream is = c.getResourceAsStream("/" + c.getName().replace('.', '/') + ".class"))
+			{
+				if (is == null)
+					throw new IOException("Missing class file for " + c.getName());
+				int n;
+				while ((n = is.read(buffer)) != -1)
+					hash = ModelHasher.mix(hash ^ ModelHasher.fastByteHash(n == buffer.length ? buffer : Arrays.copyOf(buffer, n)));
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * There's no version number available at runtime, so identify the version of the code which produces data that's
+	 * persisted between sessions by the class files of the specified classes, along with the materials, which the data
+	 * may refer to by index. If the class files can't be read, only the materials are hashed.
+	 */
+	public static long getCodeHash(Class<?>... classes)
+	{
+		long hash = ModelHasher.fastByteHash(Arrays.toString(Material.values()).getBytes(StandardCharsets.UTF_8));
+		try
+		{
+			return hashClassFiles(hash, classes);
+		}
+		catch (IOException ex)
+		{
+			log.warn("Unable to hash the code of {}. Persisted data will not be invalidated by plugin updates", Arrays.toString(classes), ex);
+			return hash;
+		}
+	}
+
 	public static long ceilPow2(long x) {
 		return (long) Math.pow(2, Math.ceil(Math.log(x) / Math.log(2)));
 	}
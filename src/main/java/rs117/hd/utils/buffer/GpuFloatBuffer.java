@@ -60,11 +60,22 @@ public class GpuFloatBuffer
 		this.buffer.put(buffer);
 	}
 
+	/**
+	 * @return the native memory address of the specified absolute position in the buffer
+	 */
+	public long getAddress(int position) {
+		return MemoryUtil.memAddress(buffer, position);
+	}
+
 	public int position()
 	{
 		return buffer.position();
 	}
 
+	public void position(int position) {
+		buffer.position(position);
+	}
+
 	public void flip()
 	{
 		buffer.flip();
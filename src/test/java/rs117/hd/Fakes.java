@@ -0,0 +1,128 @@
+package rs117.hd;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import net.runelite.api.Model;
+
+/**
+ * Fakes of client interfaces like {@link net.runelite.api.Model}, for tests which need many of them, or which must not
+ * allocate while calling them, unlike Mockito mocks, which record every invocation.
+ */
+public class Fakes {
+	private static class Handler implements InvocationHandler {
+		final Class<?> type;
+		final Map<String, Object> properties;
+
+		Handler(Class<?> type, Map<String, Object> properties) {
+			this.type = type;
+			this.properties = properties;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			switch (name) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return type.getSimpleName() + properties;
+			}
+			if (name.startsWith("set") && args != null && args.length == 1) {
+				properties.put("get" + name.substring(3), args[0]);
+				return null;
+			}
+			Object value = properties.get(name);
+			Class<?> returnType = method.getReturnType();
+			if (value == null && returnType.isPrimitive() && returnType != void.class)
+				return Array.get(Array.newInstance(returnType, 1), 0);
+			return value;
+		}
+	}
+
+	/**
+	 * Creates a fake backed by a dynamic proxy, which returns the specified properties from their getters, stores
+	 * whatever is passed to their setters, and returns zero for any other primitive getters.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T fake(Class<T> type, Map<String, Object> properties) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new Handler(type, properties));
+	}
+
+	/**
+	 * @return the properties backing a fake, which change what its getters return when modified
+	 */
+	public static Map<String, Object> properties(Object fake) {
+		return ((Handler) Proxy.getInvocationHandler(fake)).properties;
+	}
+
+	/**
+	 * Creates a fake model with random geometry and colors. Like the shared models the client reuses for animations,
+	 * its vertex and color arrays may be larger than the model itself.
+	 *
+	 * @param textured whether some of the model's faces should be textured, with vanilla UVs
+	 */
+	public static Model model(Random random, int faceCount, int vertexCount, boolean textured) {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("getFaceCount", faceCount);
+		properties.put("getVerticesCount", vertexCount);
+		int vertexLength = vertexCount + random.nextInt(100);
+		properties.put("getVerticesX", randomInts(random, vertexLength, -512, 512));
+		properties.put("getVerticesY", randomInts(random, vertexLength, -512, 0));
+		properties.put("getVerticesZ", randomInts(random, vertexLength, -512, 512));
+		properties.put("getVertexNormalsX", randomInts(random, vertexLength, -256, 256));
+		properties.put("getVertexNormalsY", randomInts(random, vertexLength, -256, 256));
+		properties.put("getVertexNormalsZ", randomInts(random, vertexLength, -256, 256));
+		int faceLength = faceCount + random.nextInt(100);
+		properties.put("getFaceColors1", randomInts(random, faceLength, 0, 0xFFFF));
+		properties.put("getFaceColors2", randomInts(random, faceLength, 0, 0xFFFF));
+		// Flat shaded faces have a third color of -1
+		properties.put("getFaceColors3", randomInts(random, faceLength, -1, 0xFFFF));
+		properties.put("getFaceIndices1", randomInts(random, faceCount, 0, vertexCount));
+		properties.put("getFaceIndices2", randomInts(random, faceCount, 0, vertexCount));
+		properties.put("getFaceIndices3", randomInts(random, faceCount, 0, vertexCount));
+		properties.put("getFaceTransparencies", randomBytes(random, faceCount, 0, 256));
+		properties.put("getFaceRenderPriorities", randomBytes(random, faceCount, 0, 12));
+		if (textured) {
+			short[] faceTextures = new short[faceCount];
+			for (int i = 0; i < faceCount; i++)
+				faceTextures[i] = (short) (random.nextInt(6) - 1);
+			properties.put("getFaceTextures", faceTextures);
+			properties.put("getTextureFaces", randomBytes(random, faceCount, -1, 5));
+			properties.put("getTexIndices1", randomInts(random, 5, 0, vertexCount));
+			properties.put("getTexIndices2", randomInts(random, 5, 0, vertexCount));
+			properties.put("getTexIndices3", randomInts(random, 5, 0, vertexCount));
+		}
+		properties.put("getOverrideAmount", (byte) random.nextInt());
+		properties.put("getOverrideHue", (byte) random.nextInt());
+		properties.put("getOverrideSaturation", (byte) random.nextInt());
+		properties.put("getOverrideLuminance", (byte) random.nextInt());
+		return fake(Model.class, properties);
+	}
+
+	/**
+	 * @return random ints from {@code min} inclusive to {@code max} exclusive
+	 */
+	public static int[] randomInts(Random random, int length, int min, int max) {
+		int[] a = new int[length];
+		for (int i = 0; i < length; i++)
+			a[i] = min + random.nextInt(max - min);
+		return a;
+	}
+
+	/**
+	 * @return random bytes from {@code min} inclusive to {@code max} exclusive
+	 */
+	public static byte[] randomBytes(Random random, int length, int min, int max) {
+		byte[] a = new byte[length];
+		for (int i = 0; i < length; i++)
+			a[i] = (byte) (min + random.nextInt(max - min));
+		return a;
+	}
+}
@@ -0,0 +1,77 @@
+package rs117.hd.data.environments;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures finding the areas which contain random world points with the {@link AreaIndex}, compared to checking every
+ * AABB of every area, as well as checking whether {@link Area#OVERWORLD}, which is checked every frame, contains them.
+ * Run it with {@code ./gradlew jmh}, or through {@link #main}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AreaIndexBenchmark {
+	private static final int POINTS = 4096;
+
+	private final int[][] points = new int[POINTS][];
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(1337);
+		for (int i = 0; i < POINTS; i++)
+			points[i] = AreaIndexTest.randomWorldPoint(random);
+	}
+
+	private int[] nextPoint() {
+		return points[next++ & (POINTS - 1)];
+	}
+
+	@Benchmark
+	public Object getAreasIndexed() {
+		int[] p = nextPoint();
+		return AreaIndex.getAreas(p[0], p[1], p[2]);
+	}
+
+	@Benchmark
+	public Object getAreasLinearly() {
+		int[] p = nextPoint();
+		return AreaIndexTest.getAreasLinearly(p[0], p[1], p[2]);
+	}
+
+	@Benchmark
+	public boolean containsOverworldIndexed() {
+		int[] p = nextPoint();
+		return AreaIndex.contains(Area.OVERWORLD, p[0], p[1], p[2]);
+	}
+
+	@Benchmark
+	public boolean containsOverworldLinearly() {
+		int[] p = nextPoint();
+		return AreaIndexTest.containsLinearly(Area.OVERWORLD, p[0], p[1], p[2]);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(AreaIndexBenchmark.class.getSimpleName())
+			.build())
+			.run();
+	}
+}
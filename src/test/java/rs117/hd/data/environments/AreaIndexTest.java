@@ -0,0 +1,83 @@
+package rs117.hd.data.environments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+import rs117.hd.utils.AABB;
+
+/**
+ * Checks that the area index finds exactly the areas a linear scan over every AABB of every area finds, in the same
+ * order, for random world points both on and off the grid, and for points on the edges of AABBs.
+ */
+public class AreaIndexTest extends TestCase {
+	/**
+	 * Picks a random world point, half of them in the overworld, and the rest anywhere in the world, including
+	 * instances.
+	 */
+	static int[] randomWorldPoint(Random random) {
+		if (random.nextBoolean())
+			return new int[] { 1100 + random.nextInt(3000), 2500 + random.nextInt(1600), random.nextInt(4) };
+		return new int[] { random.nextInt(4500), random.nextInt(13000), random.nextInt(4) };
+	}
+
+	static boolean containsLinearly(Area area, int x, int y, int plane) {
+		for (AABB aabb : area.aabbs)
+			if (aabb.contains(x, y, plane))
+				return true;
+		return false;
+	}
+
+	static List<Area> getAreasLinearly(int x, int y, int plane) {
+		List<Area> areas = new ArrayList<>();
+		for (Area area : Area.values())
+			if (containsLinearly(area, x, y, plane))
+				areas.add(area);
+		return areas;
+	}
+
+	private static void assertSameAreas(int x, int y, int plane) {
+		String point = x + ", " + y + ", " + plane;
+		assertEquals(point, getAreasLinearly(x, y, plane), Arrays.asList(AreaIndex.getAreas(x, y, plane)));
+		for (Area area : Area.values()) {
+			boolean expected = containsLinearly(area, x, y, plane);
+			assertEquals(area + " at " + point, expected, AreaIndex.contains(area, x, y, plane));
+			assertEquals(area + " at " + point, expected, area.containsPoint(x, y, plane));
+		}
+	}
+
+	public void testMatchesLinearScanAtRandomPoints() {
+		Random random = new Random(1337);
+		int found = 0;
+		for (int i = 0; i < 20000; i++) {
+			int[] point = randomWorldPoint(random);
+			assertSameAreas(point[0], point[1], point[2]);
+			found += AreaIndex.getAreas(point[0], point[1], point[2]).length;
+		}
+		System.out.printf("%.2f areas per point%n", found / 20000.);
+	}
+
+	public void testMatchesLinearScanAtEdges() {
+		for (Area area : Area.values()) {
+			for (AABB aabb : area.aabbs) {
+				if (aabb.maxX == Integer.MAX_VALUE || aabb.maxY == Integer.MAX_VALUE)
+					continue;
+				for (int plane = 0; plane < 4; plane++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						for (int dy = -1; dy <= 1; dy++) {
+							assertSameAreas(aabb.minX + dx, aabb.minY + dy, plane);
+							assertSameAreas(aabb.maxX + dx, aabb.maxY + dy, plane);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public void testPointsOffTheGrid() {
+		for (int[] point : new int[][] { { -1, 3200 }, { 3200, -1 }, { 16384, 3200 }, { 3200, 16384 }, { 100000, 100000 } })
+			assertSameAreas(point[0], point[1], 0);
+		assertEquals(Arrays.asList(Area.ALL), Arrays.asList(AreaIndex.getAreas(100000, 100000, 0)));
+	}
+}
@@ -0,0 +1,220 @@
+package rs117.hd.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+import org.lwjgl.system.MemoryUtil;
+import rs117.hd.config.ModelCacheEvictionPolicy;
+
+public class ConcurrentModelCacheTest extends TestCase {
+	private static final int CACHE_SIZE_MIB = 256;
+	private static final int THREADS = 8;
+	private static final int OPERATIONS_PER_THREAD = 50000;
+	// Enough distinct models to keep the cache evicting throughout the test
+	private static final int DISTINCT_MODELS = 20000;
+	private static final int MAX_FACE_COUNT = 2000;
+	private static final int DATUM_BYTES_PER_FACE = ModelPusher.DATUM_PER_FACE * 4;
+	// Only check every nth int of each entry, to keep the test reasonably fast
+	private static final int CHECK_STRIDE = 61;
+
+	private static long hashOf(int model) {
+		return ModelHasher.mix(model + 1);
+	}
+
+	private static int faceCountOf(int model) {
+		return 100 + model * 7919 % MAX_FACE_COUNT;
+	}
+
+	private static int datum(long hash, int index) {
+		return (int) hash * 31 + index;
+	}
+
+	private static void stress(ModelCacheEvictionPolicy policy) throws InterruptedException {
+		ConcurrentModelCache modelCache = new ConcurrentModelCache(CACHE_SIZE_MIB, policy, false, null, 0,
+			() -> fail("model cache was terminated"));
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicLong lookups = new AtomicLong();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		try {
+			for (int t = 0; t < THREADS; t++) {
+				final int seed = t;
+				Thread thread = new Thread(() -> {
+					long maxBytes = (long) MAX_FACE_COUNT * DATUM_BYTES_PER_FACE + 100 * DATUM_BYTES_PER_FACE;
+					long scratch = MemoryUtil.nmemAlloc(maxBytes);
+					try {
+						Random random = new Random(seed);
+						start.await();
+						for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+							// Skew the distribution, so some models are hit frequently, like they would be in game
+							int model = random.nextInt(random.nextBoolean() ? 200 : DISTINCT_MODELS);
+							long hash = hashOf(model);
+							int faceCount = faceCountOf(model);
+							long numBytes = (long) faceCount * DATUM_BYTES_PER_FACE;
+							lookups.incrementAndGet();
+							if (modelCache.get(hash, faceCount, scratch, ModelCacheStats.VERTEX_DATA)) {
+								// Make sure the data wasn't torn or overwritten by a concurrent reservation
+								for (int j = 0; j < numBytes / 4 - 2; j += CHECK_STRIDE)
+									assertEquals(datum(hash, j), MemoryUtil.memGetInt(scratch + j * 4L));
+								assertEquals(~hash, MemoryUtil.memGetLong(scratch + numBytes - 8));
+							} else {
+								for (int j = 0; j < numBytes / 4 - 2; j += CHECK_STRIDE)
+									MemoryUtil.memPutInt(scratch + j * 4L, datum(hash, j));
+								MemoryUtil.memPutLong(scratch + numBytes - 8, ~hash);
+								assertTrue(modelCache.put(hash, scratch, faceCount, ModelCacheStats.VERTEX_DATA));
+							}
+						}
+					} catch (Throwable ex) {
+						failure.compareAndSet(null, ex);
+					} finally {
+						MemoryUtil.nmemFree(scratch);
+					}
+				});
+				thread.start();
+				threads.add(thread);
+			}
+
+			// Occasionally clear the cache while the other threads are using it
+			Thread clearer = new Thread(() -> {
+				try {
+					start.await();
+					while (threads.stream().anyMatch(Thread::isAlive)) {
+						Thread.sleep(50);
+						modelCache.clear();
+					}
+				} catch (Throwable ex) {
+					failure.compareAndSet(null, ex);
+				}
+			});
+			clearer.start();
+
+			long startTime = System.nanoTime();
+			start.countDown();
+			for (Thread thread : threads)
+				thread.join();
+			clearer.join();
+			long elapsed = System.nanoTime() - startTime;
+
+			if (failure.get() != null)
+				throw new AssertionError("Worker thread failed", failure.get());
+
+			ModelCacheStats stats = modelCache.getStats();
+			System.out.printf("%s: %,d operations on %d threads in %,.3f ms, with a hit rate of %.2f%%\n",
+				policy, lookups.get(), THREADS, elapsed / 1e6, stats.vertexHits * 100. / lookups.get());
+
+			// Every reserved entry should either still be cached, have been evicted, replaced or cleared
+			assertEquals(lookups.get(), stats.vertexHits + stats.vertexMisses);
+			assertEquals(stats.vertexMisses, stats.reservations);
+			assertEquals(stats.reservations,
+				stats.residentEntries + stats.evictedEntries + stats.replacedEntries + stats.clearedEntries);
+			assertEquals(0, stats.failedReservations);
+			assertEquals(0, stats.terminationHookTrips);
+		} finally {
+			modelCache.destroy();
+		}
+	}
+
+	public void testConcurrentFifo() throws InterruptedException {
+		stress(ModelCacheEvictionPolicy.FIFO);
+	}
+
+	public void testConcurrentSecondChance() throws InterruptedException {
+		stress(ModelCacheEvictionPolicy.SECOND_CHANCE);
+	}
+
+	public void testPoolsProtectSmallModels() {
+		int cacheSizeMiB = 64;
+		int frames = 2000;
+		// Small models drawn every frame, and large models which are only drawn once, such as animation frames
+		int hotSmallModels = 300;
+		int coldLargeModelsPerFrame = 20;
+		Random random = new Random(1337);
+		int[] smallFaceCounts = new int[hotSmallModels];
+		for (int i = 0; i < hotSmallModels; i++)
+			smallFaceCounts[i] = 50 + random.nextInt(450);
+
+		ConcurrentModelCache pooledCache = new ConcurrentModelCache(cacheSizeMiB, ModelCacheEvictionPolicy.FIFO, false,
+			null, 0, () -> fail("model cache was terminated"));
+		ModelCache unpooledCache = new ModelCache(cacheSizeMiB, ModelCacheEvictionPolicy.FIFO,
+			() -> fail("model cache was terminated"));
+		long scratch = MemoryUtil.nmemAlloc((long) 6144 * DATUM_BYTES_PER_FACE);
+		try {
+			long unpooledSmallHits = 0;
+			long smallLookups = 0;
+			int coldModel = hotSmallModels;
+			for (int frame = 0; frame < frames; frame++) {
+				for (int i = 0; i < hotSmallModels + coldLargeModelsPerFrame; i++) {
+					boolean small = i < hotSmallModels;
+					int model = small ? i : coldModel++;
+					int faceCount = small ? smallFaceCounts[i] : 4000 + random.nextInt(2144);
+					long hash = hashOf(model);
+
+					if (!pooledCache.get(hash, faceCount, scratch, ModelCacheStats.VERTEX_DATA))
+						assertTrue(pooledCache.put(hash, scratch, faceCount, ModelCacheStats.VERTEX_DATA));
+
+					long numBytes = (long) faceCount * DATUM_BYTES_PER_FACE;
+					boolean hit = unpooledCache.get(hash, numBytes) != 0;
+					if (!hit)
+						assertTrue(unpooledCache.reserve(hash, numBytes) != 0);
+					if (small) {
+						smallLookups++;
+						if (hit)
+							unpooledSmallHits++;
+					}
+				}
+			}
+
+			ModelCacheStats stats = pooledCache.getStats();
+			assertEquals(ModelCacheSizeClass.values().length, stats.poolNames.length);
+			int small = ModelCacheSizeClass.SMALL.ordinal();
+			assertEquals(smallLookups, stats.poolHits[small] + stats.poolMisses[small]);
+			double pooledSmallHitRate = (double) stats.poolHits[small] / smallLookups;
+			double unpooledSmallHitRate = (double) unpooledSmallHits / smallLookups;
+
+			System.out.printf("Small model hit rate without pools: \t%.2f%%\n", unpooledSmallHitRate * 100);
+			System.out.printf("Small model hit rate with pools:    \t%.2f%%\n", pooledSmallHitRate * 100);
+			stats.forEach((label, value) -> {
+				if (label.endsWith("model hits"))
+					System.out.printf("%s: %s\n", label, value);
+			});
+
+			// Once warmed up, large models should no longer be able to evict any of the small models
+			assertTrue(pooledSmallHitRate > unpooledSmallHitRate);
+			assertEquals(hotSmallModels, stats.poolMisses[small]);
+			assertEquals(0, stats.terminationHookTrips);
+		} finally {
+			MemoryUtil.nmemFree(scratch);
+			pooledCache.destroy();
+			unpooledCache.destroy();
+		}
+	}
+
+	public void testDestroyWhileInUse() throws InterruptedException {
+		ConcurrentModelCache modelCache = new ConcurrentModelCache(CACHE_SIZE_MIB, ModelCacheEvictionPolicy.SECOND_CHANCE, false,
+			null, 0, () -> fail("model cache was terminated"));
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread thread = new Thread(() -> {
+			long scratch = MemoryUtil.nmemAlloc((long) MAX_FACE_COUNT * DATUM_BYTES_PER_FACE);
+			try {
+				// Once destroyed, the cache should reject further use instead of touching freed memory
+				for (int i = 0; modelCache.put(hashOf(i), scratch, 100, ModelCacheStats.VERTEX_DATA) || i < 1000; i++)
+					modelCache.get(hashOf(i / 2), 100, scratch, ModelCacheStats.VERTEX_DATA);
+				assertFalse(modelCache.get(hashOf(0), 100, scratch, ModelCacheStats.VERTEX_DATA));
+			} catch (Throwable ex) {
+				failure.compareAndSet(null, ex);
+			} finally {
+				MemoryUtil.nmemFree(scratch);
+			}
+		});
+		thread.start();
+		Thread.sleep(20);
+		modelCache.destroy();
+		thread.join();
+		if (failure.get() != null)
+			throw new AssertionError("Worker thread failed", failure.get());
+	}
+}
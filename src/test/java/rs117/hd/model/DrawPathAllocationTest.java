@@ -0,0 +1,219 @@
+package rs117.hd.model;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.TestCase;
+import net.runelite.api.Client;
+import net.runelite.api.GameState;
+import net.runelite.api.Model;
+import net.runelite.api.Scene;
+import net.runelite.api.Tile;
+import net.runelite.api.coords.WorldPoint;
+import net.runelite.client.config.ConfigManager;
+import net.runelite.client.plugins.PluginManager;
+import net.runelite.client.plugins.entityhider.EntityHiderPlugin;
+import rs117.hd.Fakes;
+import rs117.hd.HdPlugin;
+import rs117.hd.HdPluginConfig;
+import rs117.hd.config.DefaultSkyColor;
+import rs117.hd.config.ModelCacheEvictionPolicy;
+import rs117.hd.config.ShadowMode;
+import rs117.hd.scene.EnvironmentManager;
+import rs117.hd.scene.LightManager;
+import rs117.hd.scene.ModelOverrideManager;
+import rs117.hd.scene.SceneContext;
+import rs117.hd.scene.lights.Alignment;
+import rs117.hd.scene.lights.LightType;
+import rs117.hd.scene.lights.SceneLight;
+import rs117.hd.scene.model_overrides.ModelOverride;
+import rs117.hd.scene.model_overrides.ObjectType;
+
+import static net.runelite.api.Constants.MAX_Z;
+import static net.runelite.api.Constants.SCENE_SIZE;
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+import static org.mockito.Mockito.mock;
+import static rs117.hd.Fakes.fake;
+import static rs117.hd.Fakes.randomInts;
+
+/**
+ * Replays the per-frame work of drawing temporary models through the model pusher, and of updating the environment
+ * and lights, and checks that it doesn't allocate once warmed up. The client and config are {@link Fakes}, since
+ * Mockito mocks allocate while recording every invocation, so only the plugin's fields may be read while measuring.
+ */
+public class DrawPathAllocationTest extends TestCase {
+	private static final int WARMUP_FRAMES = 3000;
+	private static final int FRAMES = 1000;
+	// Models drawn every frame without changing, such as scenery and idle NPCs
+	private static final int STATIC_MODELS = 60;
+	// Models whose vertex buffers are rewritten in place every frame, like the client does for animations
+	private static final int ANIMATED_MODELS = 15;
+	private static final int ANIMATION_LENGTH = 30;
+	private static final int LIGHTS = 20;
+	// A scene around Lumbridge, with the camera looking at the castle's courtyard
+	private static final int SCENE_BASE_X = 3152;
+	private static final int SCENE_BASE_Y = 3160;
+	private static final WorldPoint CAMERA_TARGET = new WorldPoint(3222, 3218, 0);
+
+	private final Random random = new Random(1337);
+
+	private static HdPluginConfig createConfig() {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("enableModelCaching", true);
+		properties.put("modelCacheSizeMiB", 64);
+		properties.put("modelCacheEvictionPolicy", ModelCacheEvictionPolicy.SECOND_CHANCE);
+		properties.put("adaptiveModelCacheSize", false);
+		properties.put("persistentModelCache", false);
+		properties.put("enableShadowTransparency", false);
+		properties.put("shadowMode", ShadowMode.OFF);
+		properties.put("atmosphericLighting", true);
+		properties.put("overrideSky", false);
+		properties.put("defaultSkyColor", DefaultSkyColor.DEFAULT);
+		properties.put("flashingEffects", true);
+		return fake(HdPluginConfig.class, properties);
+	}
+
+	private static Client createClient() {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("isClientThread", true);
+		properties.put("getGameState", GameState.LOGGED_IN);
+		return fake(Client.class, properties);
+	}
+
+	private static Scene createScene() {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("getBaseX", SCENE_BASE_X);
+		properties.put("getBaseY", SCENE_BASE_Y);
+		properties.put("isInstance", false);
+		properties.put("getTiles", new Tile[MAX_Z][SCENE_SIZE][SCENE_SIZE]);
+		properties.put("getTileHeights", new int[MAX_Z][SCENE_SIZE + 1][SCENE_SIZE + 1]);
+		return fake(Scene.class, properties);
+	}
+
+	private static HdPlugin createPlugin() throws ReflectiveOperationException {
+		HdPlugin plugin = mock(HdPlugin.class);
+		// Mocks skip field initializers, and the lights are sorted by their distance to the camera target
+		Field camTarget = HdPlugin.class.getField("camTarget");
+		camTarget.setAccessible(true);
+		camTarget.set(plugin, new int[] {
+			(CAMERA_TARGET.getX() - SCENE_BASE_X) * LOCAL_TILE_SIZE,
+			(CAMERA_TARGET.getY() - SCENE_BASE_Y) * LOCAL_TILE_SIZE,
+			0
+		});
+		return plugin;
+	}
+
+	private SceneLight createLight() {
+		LightType type = LightType.values()[random.nextInt(LightType.values().length)];
+		SceneLight light = new SceneLight(
+			SCENE_BASE_X + random.nextInt(SCENE_SIZE), SCENE_BASE_Y + random.nextInt(SCENE_SIZE), 0,
+			random.nextInt(200), Alignment.CENTER, 100 + random.nextInt(1000), 1 + random.nextInt(20),
+			new float[] { random.nextFloat(), random.nextFloat(), random.nextFloat(), 1 },
+			type, 500 + random.nextInt(3000), random.nextInt(50), random.nextInt(2) * 1000
+		);
+		light.x = (light.worldX - SCENE_BASE_X) * LOCAL_TILE_SIZE;
+		light.y = (light.worldY - SCENE_BASE_Y) * LOCAL_TILE_SIZE;
+		light.z = -light.height;
+		return light;
+	}
+
+	public void testSteadyStateFramesDoNotAllocate() throws ReflectiveOperationException {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assertTrue(threadBean.isThreadAllocatedMemorySupported());
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+		long threadId = Thread.currentThread().getId();
+
+		HdPlugin plugin = createPlugin();
+		Injector injector = Guice.createInjector(binder -> {
+			binder.bind(Client.class).toInstance(createClient());
+			binder.bind(HdPlugin.class).toInstance(plugin);
+			binder.bind(HdPluginConfig.class).toInstance(createConfig());
+			binder.bind(ModelOverrideManager.class).toInstance(mock(ModelOverrideManager.class));
+			binder.bind(EntityHiderPlugin.class).toInstance(mock(EntityHiderPlugin.class));
+			binder.bind(PluginManager.class).toInstance(mock(PluginManager.class));
+			binder.bind(ConfigManager.class).toInstance(mock(ConfigManager.class));
+		});
+		ModelHasher modelHasher = injector.getInstance(ModelHasher.class);
+		ModelPusher modelPusher = injector.getInstance(ModelPusher.class);
+		EnvironmentManager environmentManager = injector.getInstance(EnvironmentManager.class);
+		LightManager lightManager = injector.getInstance(LightManager.class);
+
+		Model[] models = new Model[STATIC_MODELS + ANIMATED_MODELS];
+		for (int i = 0; i < models.length; i++) {
+			int faceCount = 100 + random.nextInt(1500);
+			models[i] = Fakes.model(random, faceCount, faceCount / 2 + 3, random.nextBoolean());
+		}
+		int[][][] animations = new int[ANIMATED_MODELS][ANIMATION_LENGTH][];
+		for (int i = 0; i < ANIMATED_MODELS; i++)
+			for (int j = 0; j < ANIMATION_LENGTH; j++)
+				animations[i][j] = randomInts(random, models[STATIC_MODELS + i].getVerticesCount(), -512, 0);
+
+		SceneContext sceneContext = new SceneContext(createScene(), null);
+		modelPusher.startUp();
+		try {
+			environmentManager.startUp();
+			environmentManager.loadSceneEnvironments(sceneContext);
+			for (int i = 0; i < LIGHTS; i++)
+				sceneContext.lights.add(createLight());
+
+			for (int frame = 0; frame < WARMUP_FRAMES; frame++)
+				drawFrame(frame, models, animations, sceneContext, modelHasher, modelPusher, environmentManager, lightManager);
+
+			long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+			for (int frame = WARMUP_FRAMES; frame < WARMUP_FRAMES + FRAMES; frame++)
+				drawFrame(frame, models, animations, sceneContext, modelHasher, modelPusher, environmentManager, lightManager);
+			long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+			// Allow for the odd allocation by the allocation counter itself, but not a single object per frame
+			assertTrue("allocated " + allocated + " bytes in " + FRAMES + " frames", allocated < FRAMES);
+		} finally {
+			modelPusher.shutDown();
+			sceneContext.destroy();
+		}
+	}
+
+	/**
+	 * Mirrors what the plugin does each frame for temporary models, with model batching disabled, so every model is
+	 * pushed, and either found in the model cache or computed and cached.
+	 */
+	private static void drawFrame(
+		int frame,
+		Model[] models,
+		int[][][] animations,
+		SceneContext sceneContext,
+		ModelHasher modelHasher,
+		ModelPusher modelPusher,
+		EnvironmentManager environmentManager,
+		LightManager lightManager
+	) {
+		environmentManager.update(
+			sceneContext,
+			CAMERA_TARGET,
+			(CAMERA_TARGET.getX() - SCENE_BASE_X) * LOCAL_TILE_SIZE,
+			(CAMERA_TARGET.getY() - SCENE_BASE_Y) * LOCAL_TILE_SIZE,
+			CAMERA_TARGET.getPlane()
+		);
+		lightManager.update(sceneContext);
+
+		for (int i = 0; i < animations.length; i++) {
+			Model model = models[STATIC_MODELS + i];
+			int[] vertices = animations[i][frame % ANIMATION_LENGTH];
+			System.arraycopy(vertices, 0, model.getVerticesY(), 0, vertices.length);
+		}
+
+		for (int i = 0; i < models.length; i++) {
+			modelHasher.setModel(models[i]);
+			modelPusher.pushModel(sceneContext, null, i, models[i], ModelOverride.NONE, ObjectType.NONE, 0, true);
+		}
+		modelPusher.pushQueuedModels();
+
+		sceneContext.stagingBufferVertices.clear();
+		sceneContext.stagingBufferUvs.clear();
+		sceneContext.stagingBufferNormals.clear();
+		modelHasher.nextFrame();
+	}
+}
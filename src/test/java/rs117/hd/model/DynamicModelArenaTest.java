@@ -0,0 +1,198 @@
+package rs117.hd.model;
+
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Replays frames of temporary models against a fake geometry buffer, where each vertex holds the ID of the model it
+ * belongs to, and checks that every draw points at the right model's data.
+ */
+public class DynamicModelArenaTest extends TestCase {
+	private static final int SCENE_VERTICES = 1000;
+	private static final int SCENE_UVS = 500;
+	private static final int ARENA_SIZE = 150000;
+	private static final int MODELS = 400;
+	private static final int MODELS_PER_FRAME = 60;
+
+	/**
+	 * Geometry buffers laid out like the real ones: the scene, followed by the arena, followed by the frame's models.
+	 */
+	private static class FakeBuffers implements DynamicModelArena.Backend {
+		final int[] vertices = new int[SCENE_VERTICES + ARENA_SIZE + (1 << 20)];
+		final int[] uvs = new int[SCENE_UVS + ARENA_SIZE + (1 << 20)];
+		final int dynamicOffsetVertices = SCENE_VERTICES + ARENA_SIZE;
+		final int dynamicOffsetUvs = SCENE_UVS + ARENA_SIZE;
+		int frameVertices;
+		int frameUvs;
+		long copiedVertices;
+
+		@Override
+		public void copy(int srcVertexOffset, int srcUvOffset, int dstVertexOffset, int dstUvOffset, int vertexCount) {
+			assertTrue(srcVertexOffset >= dynamicOffsetVertices);
+			assertTrue(dstVertexOffset >= SCENE_VERTICES && dstVertexOffset + vertexCount <= dynamicOffsetVertices);
+			System.arraycopy(vertices, srcVertexOffset, vertices, dstVertexOffset, vertexCount);
+			if (srcUvOffset != -1) {
+				assertTrue(dstUvOffset >= SCENE_UVS && dstUvOffset + vertexCount <= dynamicOffsetUvs);
+				System.arraycopy(uvs, srcUvOffset, uvs, dstUvOffset, vertexCount);
+			}
+			copiedVertices += vertexCount;
+		}
+	}
+
+	private final int[] vertexCounts = new int[MODELS];
+	private final boolean[] hasUvs = new boolean[MODELS];
+
+	public DynamicModelArenaTest() {
+		Random random = new Random(1337);
+		for (int i = 0; i < MODELS; i++) {
+			vertexCounts[i] = 3 * (20 + random.nextInt(1000));
+			hasUvs[i] = random.nextBoolean();
+		}
+	}
+
+	/**
+	 * Draws a frame of models, and checks the draws once the frame's models have been copied into the arena.
+	 *
+	 * @return the number of vertices pushed during the frame
+	 */
+	private int drawFrame(DynamicModelArena arena, FakeBuffers buffers, int[] models) {
+		int[][] draws = new int[models.length][];
+		buffers.frameVertices = 0;
+		buffers.frameUvs = 0;
+		for (int i = 0; i < models.length; i++) {
+			int model = models[i];
+			// IDs are used as keys
+			int entry = arena.find(model);
+			if (entry != -1) {
+				assertEquals(vertexCounts[model], arena.getVertexCount(entry));
+				draws[i] = new int[] { model, arena.getVertexOffset(entry), arena.getUvOffset(entry) };
+				continue;
+			}
+
+			int vertexOffset = buffers.dynamicOffsetVertices + buffers.frameVertices;
+			int uvOffset = hasUvs[model] ? buffers.dynamicOffsetUvs + buffers.frameUvs : -1;
+			Arrays.fill(buffers.vertices, vertexOffset, vertexOffset + vertexCounts[model], model);
+			buffers.frameVertices += vertexCounts[model];
+			if (uvOffset != -1) {
+				Arrays.fill(buffers.uvs, uvOffset, uvOffset + vertexCounts[model], model);
+				buffers.frameUvs += vertexCounts[model];
+			}
+			arena.add(model, vertexOffset, uvOffset, vertexCounts[model]);
+			draws[i] = new int[] { model, vertexOffset, uvOffset };
+		}
+
+		arena.flush(buffers);
+
+		for (int[] draw : draws) {
+			int model = draw[0];
+			for (int j = 0; j < vertexCounts[model]; j++)
+				assertEquals(model, buffers.vertices[draw[1] + j]);
+			assertEquals(hasUvs[model], draw[2] != -1);
+			if (hasUvs[model])
+				for (int j = 0; j < vertexCounts[model]; j++)
+					assertEquals(model, buffers.uvs[draw[2] + j]);
+		}
+
+		arena.nextFrame();
+		return buffers.frameVertices;
+	}
+
+	public void testDrawsPointAtResidentData() {
+		Random random = new Random(1337);
+		DynamicModelArena arena = new DynamicModelArena(ARENA_SIZE);
+		FakeBuffers buffers = new FakeBuffers();
+		arena.reset(SCENE_VERTICES, SCENE_UVS);
+
+		long pushedVertices = 0;
+		long drawnVertices = 0;
+		for (int frame = 0; frame < 2000; frame++) {
+			// Most models are drawn every frame, while the rest come and go, which keeps the arena evicting
+			int[] models = new int[MODELS_PER_FRAME];
+			for (int i = 0; i < models.length; i++) {
+				models[i] = i < MODELS_PER_FRAME / 2 ? i : MODELS_PER_FRAME / 2 + random.nextInt(MODELS - MODELS_PER_FRAME / 2);
+				drawnVertices += vertexCounts[models[i]];
+			}
+			// The frame batching table handles duplicates within a frame
+			models = Arrays.stream(models).distinct().toArray();
+			pushedVertices += drawFrame(arena, buffers, models);
+		}
+
+		System.out.printf("Pushed %.1f%% of drawn vertices, with %d hits, %d uploads, %d evictions and %d rejections%n",
+			100. * pushedVertices / drawnVertices, arena.getHits(), arena.getUploads(), arena.getEvictions(),
+			arena.getRejections());
+		assertTrue(arena.getEvictions() > 0);
+		assertTrue(pushedVertices < drawnVertices / 2);
+		// Only pushed models are copied into the arena, and not the ones which didn't fit
+		assertTrue(buffers.copiedVertices <= pushedVertices);
+	}
+
+	public void testNeverEvictsModelsUsedThisFrame() {
+		DynamicModelArena arena = new DynamicModelArena(ARENA_SIZE);
+		FakeBuffers buffers = new FakeBuffers();
+		arena.reset(SCENE_VERTICES, SCENE_UVS);
+
+		// Draw more models in a single frame than fit in the arena, twice over
+		int[] models = new int[MODELS];
+		for (int i = 0; i < MODELS; i++)
+			models[i] = i;
+		drawFrame(arena, buffers, models);
+		assertTrue(arena.getRejections() > 0);
+		int resident = arena.size();
+
+		// Draw the models made resident during the first frame again first, so they must all stay resident while the
+		// rest are swept past
+		boolean[] wasResident = new boolean[MODELS];
+		int[] reordered = new int[MODELS];
+		int i = 0;
+		for (int model = 0; model < MODELS; model++) {
+			if (arena.find(model) != -1) {
+				wasResident[model] = true;
+				reordered[i++] = model;
+			}
+		}
+		assertEquals(resident, i);
+		for (int model = 0; model < MODELS; model++)
+			if (!wasResident[model])
+				reordered[i++] = model;
+		drawFrame(arena, buffers, reordered);
+
+		assertEquals(0, arena.getEvictions());
+		assertEquals(resident, arena.size());
+		assertEquals(resident * 2, arena.getHits());
+
+		arena.clear();
+		assertEquals(0, arena.size());
+		for (int model = 0; model < MODELS; model++)
+			assertEquals(-1, arena.find(model));
+	}
+
+	public void testSparesModelsDrawnLastFrame() {
+		// Models of 10 vertices each, keyed by their ID, in an arena with room for 10 of them
+		DynamicModelArena arena = new DynamicModelArena(100);
+		arena.reset(0, 0);
+		for (int model = 0; model < 10; model++)
+			assertTrue(arena.add(model, 0, -1, 10));
+		arena.nextFrame();
+
+		// Make room by sweeping a full lap, which clears the referenced bits set when the models were added, then
+		// evicts the first model, and draw a model further down the arena
+		assertTrue(arena.add(10, 0, -1, 10));
+		assertEquals(-1, arena.find(0));
+		int entry = arena.find(4);
+		assertTrue(entry != -1);
+		int offset = arena.getVertexOffset(entry);
+		arena.nextFrame();
+
+		// Push new models before the model drawn last frame is reached in the draw order, so the write offset sweeps
+		// past it before it's drawn again
+		long evictions = arena.getEvictions();
+		for (int model = 11; model < 15; model++)
+			assertTrue(arena.add(model, 0, -1, 10));
+		assertEquals(evictions + 4, arena.getEvictions());
+		assertEquals(-1, arena.find(5));
+		entry = arena.find(4);
+		assertTrue(entry != -1);
+		assertEquals(offset, arena.getVertexOffset(entry));
+	}
+}
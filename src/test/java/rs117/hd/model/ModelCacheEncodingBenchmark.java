@@ -0,0 +1,131 @@
+package rs117.hd.model;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static rs117.hd.model.ModelCacheEncoding.NORMAL_BYTES_PER_FACE;
+import static rs117.hd.model.ModelCacheEncoding.RAW_BYTES_PER_FACE;
+import static rs117.hd.model.ModelCacheEncoding.UV_BYTES_PER_FACE;
+
+/**
+ * Measures the cost of a cache hit for each encoding of a model's data, compared to the cost of a cache miss for its
+ * normals, which have to be computed and stored in the cache. Run it with {@code ./gradlew jmh}, or through
+ * {@link #main}. The encodings' round trips are checked by {@link ModelCacheEncodingTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelCacheEncodingBenchmark {
+	private static final int FACE_COUNT = 2000;
+	private static final int VERTEX_COUNT = 1000;
+
+	private final int[] indices1 = new int[FACE_COUNT], indices2 = new int[FACE_COUNT], indices3 = new int[FACE_COUNT];
+	private final int[] normalsX = new int[VERTEX_COUNT], normalsY = new int[VERTEX_COUNT], normalsZ = new int[VERTEX_COUNT];
+	private final float[] faceNormals = new float[12];
+
+	private long staging;
+	private long rawCache;
+	private long normalCache;
+	private long uvCache;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(1337);
+		for (int face = 0; face < FACE_COUNT; face++) {
+			indices1[face] = random.nextInt(VERTEX_COUNT);
+			indices2[face] = random.nextInt(VERTEX_COUNT);
+			indices3[face] = random.nextInt(VERTEX_COUNT);
+		}
+		for (int i = 0; i < VERTEX_COUNT; i++) {
+			normalsX[i] = random.nextInt(4001) - 2000;
+			normalsY[i] = random.nextInt(4001) - 2000;
+			normalsZ[i] = random.nextInt(4001) - 2000;
+		}
+
+		staging = MemoryUtil.nmemCalloc(FACE_COUNT, RAW_BYTES_PER_FACE);
+		rawCache = MemoryUtil.nmemCalloc(FACE_COUNT, RAW_BYTES_PER_FACE);
+		normalCache = MemoryUtil.nmemCalloc(FACE_COUNT, NORMAL_BYTES_PER_FACE);
+		uvCache = MemoryUtil.nmemCalloc(FACE_COUNT, UV_BYTES_PER_FACE);
+		normalMiss();
+		ModelCacheEncoding.encode(ModelCacheStats.UV_DATA, staging, uvCache, FACE_COUNT);
+	}
+
+	@TearDown
+	public void tearDown() {
+		MemoryUtil.nmemFree(staging);
+		MemoryUtil.nmemFree(rawCache);
+		MemoryUtil.nmemFree(normalCache);
+		MemoryUtil.nmemFree(uvCache);
+	}
+
+	/**
+	 * Mirrors ModelPusher.getNormalDataForFace, which is what a cache miss has to run for each face, followed by
+	 * storing the normals in the cache.
+	 */
+	@Benchmark
+	public long normalMiss() {
+		long address = staging;
+		for (int face = 0; face < FACE_COUNT; face++) {
+			int a = indices1[face], b = indices2[face], c = indices3[face];
+			faceNormals[0] = normalsX[a];
+			faceNormals[1] = normalsY[a];
+			faceNormals[2] = normalsZ[a];
+			faceNormals[4] = normalsX[b];
+			faceNormals[5] = normalsY[b];
+			faceNormals[6] = normalsZ[b];
+			faceNormals[8] = normalsX[c];
+			faceNormals[9] = normalsY[c];
+			faceNormals[10] = normalsZ[c];
+			for (int i = 0; i < 12; i++)
+				MemoryUtil.memPutFloat(address + i * 4, faceNormals[i]);
+			address += RAW_BYTES_PER_FACE;
+		}
+		ModelCacheEncoding.encode(ModelCacheStats.NORMAL_DATA, staging, normalCache, FACE_COUNT);
+		return normalCache;
+	}
+
+	private long hit(int dataKind, long cache) {
+		ModelCacheEncoding.decode(dataKind, cache, staging, FACE_COUNT);
+		return MemoryUtil.memGetInt(staging);
+	}
+
+	@Benchmark
+	public long uncompressedHit() {
+		return hit(ModelCacheStats.VERTEX_DATA, rawCache);
+	}
+
+	@Benchmark
+	public long octahedralNormalHit() {
+		return hit(ModelCacheStats.NORMAL_DATA, normalCache);
+	}
+
+	@Benchmark
+	public long halfFloatUvHit() {
+		return hit(ModelCacheStats.UV_DATA, uvCache);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(ModelCacheEncodingBenchmark.class.getSimpleName())
+			.build())
+			.run();
+	}
+}
@@ -0,0 +1,120 @@
+package rs117.hd.model;
+
+import java.util.Random;
+import junit.framework.TestCase;
+import org.lwjgl.system.MemoryUtil;
+
+import static rs117.hd.model.ModelCacheEncoding.NORMAL_BYTES_PER_FACE;
+import static rs117.hd.model.ModelCacheEncoding.RAW_BYTES_PER_FACE;
+import static rs117.hd.model.ModelCacheEncoding.UV_BYTES_PER_FACE;
+
+public class ModelCacheEncodingTest extends TestCase {
+	private static final int FACE_COUNT = 2000;
+
+	private final Random random = new Random(1337);
+
+	public void testHalfFloatRoundTrip() {
+		for (int half = 0; half < 1 << 16; half++) {
+			float f = ModelCacheEncoding.halfToFloat(half);
+			if (Float.isNaN(f))
+				continue;
+			assertEquals(half, ModelCacheEncoding.floatToHalf(f) & 0xFFFF);
+		}
+
+		assertEquals(0x3C00, ModelCacheEncoding.floatToHalf(1));
+		assertEquals(0x7C00, ModelCacheEncoding.floatToHalf(1e6f));
+		// Ties round to the nearest even half
+		assertEquals(0x3C00, ModelCacheEncoding.floatToHalf(1 + 0x1p-11f));
+		assertEquals(0x3C02, ModelCacheEncoding.floatToHalf(1 + 3 * 0x1p-11f));
+	}
+
+	public void testNormalRoundTrip() {
+		long raw = MemoryUtil.nmemAlloc((long) FACE_COUNT * RAW_BYTES_PER_FACE);
+		long encoded = MemoryUtil.nmemAlloc((long) FACE_COUNT * NORMAL_BYTES_PER_FACE);
+		long decoded = MemoryUtil.nmemAlloc((long) FACE_COUNT * RAW_BYTES_PER_FACE);
+		try {
+			for (int face = 0; face < FACE_COUNT; face++) {
+				// Every tenth face has flat normals, which are zeroed out
+				boolean flat = face % 10 == 0;
+				float terrainData = flat ? 0 : random.nextInt(1 << 24);
+				for (int i = 0; i < 3; i++) {
+					long vertex = raw + (long) face * RAW_BYTES_PER_FACE + i * 16;
+					for (int j = 0; j < 3; j++)
+						MemoryUtil.memPutFloat(vertex + j * 4, flat ? 0 : random.nextInt(4001) - 2000);
+					MemoryUtil.memPutFloat(vertex + 12, terrainData);
+				}
+			}
+
+			ModelCacheEncoding.encode(ModelCacheStats.NORMAL_DATA, raw, encoded, FACE_COUNT);
+			ModelCacheEncoding.decode(ModelCacheStats.NORMAL_DATA, encoded, decoded, FACE_COUNT);
+
+			for (int vertex = 0; vertex < FACE_COUNT * 3; vertex++) {
+				long a = raw + vertex * 16L;
+				long b = decoded + vertex * 16L;
+				assertEquals(MemoryUtil.memGetFloat(a + 12), MemoryUtil.memGetFloat(b + 12));
+
+				float ax = MemoryUtil.memGetFloat(a), ay = MemoryUtil.memGetFloat(a + 4), az = MemoryUtil.memGetFloat(a + 8);
+				float bx = MemoryUtil.memGetFloat(b), by = MemoryUtil.memGetFloat(b + 4), bz = MemoryUtil.memGetFloat(b + 8);
+				double lengthA = Math.sqrt(ax * ax + ay * ay + az * az);
+				double lengthB = Math.sqrt(bx * bx + by * by + bz * bz);
+				if (lengthA == 0) {
+					assertEquals(0., lengthB);
+					continue;
+				}
+
+				double cos = (ax * bx + ay * by + az * bz) / (lengthA * lengthB);
+				assertTrue("angular error too large: " + Math.acos(cos), cos > Math.cos(1e-3));
+			}
+		} finally {
+			MemoryUtil.nmemFree(raw);
+			MemoryUtil.nmemFree(encoded);
+			MemoryUtil.nmemFree(decoded);
+		}
+	}
+
+	public void testUvRoundTrip() {
+		long raw = MemoryUtil.nmemAlloc((long) FACE_COUNT * RAW_BYTES_PER_FACE);
+		long encoded = MemoryUtil.nmemAlloc((long) FACE_COUNT * UV_BYTES_PER_FACE);
+		long decoded = MemoryUtil.nmemAlloc((long) FACE_COUNT * RAW_BYTES_PER_FACE);
+		try {
+			for (int face = 0; face < FACE_COUNT; face++) {
+				// Alternate between integer vanilla UVs, and fractional UVs like those computed for model overrides
+				boolean fractional = face % 2 == 1;
+				float materialData = random.nextInt(1 << 24);
+				for (int i = 0; i < 3; i++) {
+					long vertex = raw + (long) face * RAW_BYTES_PER_FACE + i * 16;
+					for (int j = 0; j < 3; j++) {
+						float f = fractional ? random.nextFloat() * 200 - 100 : random.nextInt(65536) - 32768;
+						MemoryUtil.memPutFloat(vertex + j * 4, f);
+					}
+					MemoryUtil.memPutFloat(vertex + 12, materialData);
+				}
+			}
+
+			ModelCacheEncoding.encode(ModelCacheStats.UV_DATA, raw, encoded, FACE_COUNT);
+			ModelCacheEncoding.decode(ModelCacheStats.UV_DATA, encoded, decoded, FACE_COUNT);
+
+			for (int vertex = 0; vertex < FACE_COUNT * 3; vertex++) {
+				boolean fractional = vertex / 3 % 2 == 1;
+				long a = raw + vertex * 16L;
+				long b = decoded + vertex * 16L;
+				// The packed material data must be kept intact
+				assertEquals(MemoryUtil.memGetFloat(a + 12), MemoryUtil.memGetFloat(b + 12));
+				for (int j = 0; j < 3; j++) {
+					float expected = MemoryUtil.memGetFloat(a + j * 4);
+					float actual = MemoryUtil.memGetFloat(b + j * 4);
+					if (fractional) {
+						// Half floats have 11 bits of precision
+						assertEquals(expected, actual, Math.abs(expected) * 0x1p-11f);
+					} else {
+						assertEquals(expected, actual);
+					}
+				}
+			}
+		} finally {
+			MemoryUtil.nmemFree(raw);
+			MemoryUtil.nmemFree(encoded);
+			MemoryUtil.nmemFree(decoded);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package rs117.hd.model;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures inserts into and lookups in the model cache's index, compared to the boxed {@link HashMap} it replaced.
+ * Run it with {@code ./gradlew jmh}, or through {@link #main}. Correctness is checked by {@link ModelCacheIndexTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelCacheIndexBenchmark {
+	private static final int ENTRY_COUNT = 300000;
+
+	// Mirrors the per-entry wrapper objects previously stored in the model cache's HashMap
+	private static class Entry {
+		final long hash;
+		final long address;
+		final long byteCapacity;
+
+		Entry(long hash, long address, long byteCapacity) {
+			this.hash = hash;
+			this.address = address;
+			this.byteCapacity = byteCapacity;
+		}
+	}
+
+	private long[] keys;
+	// Half of the lookups miss, like they would for models which haven't been cached yet
+	private long[] lookupKeys;
+	private int lookup;
+
+	private HashMap<Long, Entry> filledMap;
+	private ModelCacheIndex filledIndex;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(1337);
+		keys = new long[ENTRY_COUNT];
+		for (int i = 0; i < ENTRY_COUNT; i++)
+			keys[i] = random.nextLong();
+
+		lookupKeys = new long[1 << 20];
+		for (int i = 0; i < lookupKeys.length; i++)
+			lookupKeys[i] = random.nextBoolean() ? keys[random.nextInt(ENTRY_COUNT)] : random.nextLong();
+
+		filledMap = new HashMap<>();
+		filledIndex = new ModelCacheIndex();
+		for (int i = 0; i < ENTRY_COUNT; i++) {
+			filledMap.put(keys[i], new Entry(keys[i], i, 4096));
+			filledIndex.put(keys[i], i);
+		}
+	}
+
+	private long nextLookupKey() {
+		return lookupKeys[lookup++ & lookupKeys.length - 1];
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public HashMap<Long, Entry> hashMapInserts() {
+		HashMap<Long, Entry> map = new HashMap<>();
+		for (int i = 0; i < keys.length; i++)
+			map.put(keys[i], new Entry(keys[i], i, 4096));
+		return map;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public ModelCacheIndex indexInserts() {
+		ModelCacheIndex index = new ModelCacheIndex();
+		for (int i = 0; i < keys.length; i++)
+			index.put(keys[i], i);
+		return index;
+	}
+
+	@Benchmark
+	public long hashMapLookup() {
+		Entry entry = filledMap.get(nextLookupKey());
+		return entry == null ? 0 : entry.address;
+	}
+
+	@Benchmark
+	public long indexLookup() {
+		long value = filledIndex.get(nextLookupKey());
+		return value == ModelCacheIndex.EMPTY ? 0 : value;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(ModelCacheIndexBenchmark.class.getSimpleName())
+			.build())
+			.run();
+	}
+}
@@ -0,0 +1,46 @@
+package rs117.hd.model;
+
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class ModelCacheIndexTest extends TestCase {
+	private final Random random = new Random(1337);
+
+	public void testMatchesHashMap() {
+		ModelCacheIndex index = new ModelCacheIndex();
+		HashMap<Long, Long> map = new HashMap<>();
+
+		for (int i = 0; i < 1000000; i++) {
+			// Use a small key range to exercise collisions, replacements and removals
+			long key = random.nextInt(4096) * 0x100000000L;
+			long value = random.nextInt(1 << 20);
+			switch (random.nextInt(4)) {
+				case 0:
+				case 1:
+					index.put(key, value);
+					map.put(key, value);
+					break;
+				case 2: {
+					Long expected = map.get(key);
+					long v = expected != null && random.nextBoolean() ? expected : value;
+					assertEquals(map.remove(key, v), index.remove(key, v));
+					break;
+				}
+				case 3: {
+					Long expected = map.get(key);
+					long v = expected != null && random.nextBoolean() ? expected : value;
+					assertEquals(map.replace(key, v, value), index.replace(key, v, value));
+					break;
+				}
+			}
+
+			Long expected = map.get(key);
+			assertEquals(expected == null ? ModelCacheIndex.EMPTY : expected, index.get(key));
+			assertEquals(map.size(), index.size());
+		}
+
+		for (Long key : map.keySet())
+			assertEquals((long) map.get(key), index.get(key));
+	}
+}
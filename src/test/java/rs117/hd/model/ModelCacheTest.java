@@ -0,0 +1,360 @@
+package rs117.hd.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.lwjgl.system.MemoryUtil;
+import rs117.hd.config.ModelCacheEvictionPolicy;
+
+public class ModelCacheTest extends TestCase {
+	private static final int CACHE_SIZE_MIB = 64;
+	private static final int FRAMES = 20000;
+	// Models drawn every frame, such as the local player, pets and idle NPCs nearby
+	private static final int HOT_MODELS = 40;
+	// Models drawn once, such as animation frames of NPCs walking by, which keep cycling through the cache
+	private static final int COLD_MODELS_PER_FRAME = 25;
+	private static final int DATUM_BYTES_PER_FACE = ModelPusher.DATUM_PER_FACE * 4;
+
+	/**
+	 * Generates a trace of draw-time cache hashes, where each hash is accompanied by its face count.
+	 */
+	private static int[][] generateTrace() {
+		Random random = new Random(1337);
+		int[] hotFaceCounts = new int[HOT_MODELS];
+		for (int i = 0; i < HOT_MODELS; i++)
+			hotFaceCounts[i] = 200 + random.nextInt(1800);
+
+		int length = FRAMES * (HOT_MODELS + COLD_MODELS_PER_FRAME);
+		int[] hashes = new int[length];
+		int[] faceCounts = new int[length];
+		int i = 0;
+		int coldHash = HOT_MODELS;
+		for (int frame = 0; frame < FRAMES; frame++) {
+			for (int j = 0; j < HOT_MODELS; j++) {
+				hashes[i] = j;
+				faceCounts[i++] = hotFaceCounts[j];
+			}
+			for (int j = 0; j < COLD_MODELS_PER_FRAME; j++) {
+				hashes[i] = coldHash++;
+				faceCounts[i++] = 100 + random.nextInt(3000);
+			}
+		}
+
+		return new int[][] { hashes, faceCounts };
+	}
+
+	private static double replay(int[][] trace, ModelCacheEvictionPolicy policy) {
+		ModelCache modelCache = new ModelCache(CACHE_SIZE_MIB, policy, () -> fail("model cache was terminated"));
+		try {
+			int[] hashes = trace[0];
+			int[] faceCounts = trace[1];
+			int hits = 0;
+			for (int i = 0; i < hashes.length; i++)
+				if (lookUp(modelCache, hashes[i], (long) faceCounts[i] * DATUM_BYTES_PER_FACE))
+					hits++;
+
+			// Every reserved entry should either still be cached, have been evicted, or have been replaced
+			ModelCacheStats stats = modelCache.getStats();
+			assertEquals(stats.reservations, stats.residentEntries + stats.evictedEntries + stats.replacedEntries);
+			assertEquals(hashes.length - hits, stats.reservations);
+			long residentBytes = stats.residentEndMarkerBytes;
+			for (int i = 0; i < stats.allocationCapacities.length; i++) {
+				assertTrue(stats.allocationResidentBytes[i] >= 0);
+				residentBytes += stats.allocationResidentBytes[i];
+			}
+			assertTrue(residentBytes <= (long) CACHE_SIZE_MIB << 20);
+			assertEquals(0, stats.terminationHookTrips);
+
+			return (double) hits / hashes.length;
+		} finally {
+			modelCache.destroy();
+		}
+	}
+
+	public void testRejectsMismatchingEntries() {
+		ModelCache modelCache = new ModelCache(CACHE_SIZE_MIB, ModelCacheEvictionPolicy.FIFO, () -> fail("model cache was terminated"));
+		try {
+			long hash = 0x123456789ABCDEFL;
+			long address = modelCache.reserve(hash, 1024);
+			assertTrue(address != 0);
+			assertEquals(address, modelCache.get(hash, 1024));
+			// A colliding hash with a different size must not be treated as a hit
+			assertEquals(0, modelCache.get(hash, 2048));
+			assertEquals(0, modelCache.get(hash ^ 1L << 32, 1024));
+		} finally {
+			modelCache.destroy();
+		}
+	}
+
+	public void testPersistsAcrossRestarts() throws IOException {
+		File directory = Files.createTempDirectory("model-cache").toFile();
+		int[][] trace = generateTrace();
+		int[] hashes = trace[0];
+		int[] faceCounts = trace[1];
+		// Enough lookups for the cache to have wrapped around a few times
+		int numLookups = hashes.length / 4;
+		try {
+			ModelCache modelCache = new ModelCache(CACHE_SIZE_MIB, ModelCacheEvictionPolicy.SECOND_CHANCE, false, directory, 1,
+				() -> fail("model cache was terminated"));
+			assertTrue(modelCache.isPersistent());
+			for (int i = 0; i < numLookups; i++) {
+				int hash = hashes[i];
+				long numBytes = (long) faceCounts[i] * DATUM_BYTES_PER_FACE;
+				if (modelCache.get(hash, numBytes) == 0) {
+					long address = modelCache.reserve(hash, numBytes);
+					MemoryUtil.memPutInt(address, hash);
+					MemoryUtil.memPutInt(address + numBytes - 4, ~hash);
+				}
+			}
+			long residentEntries = modelCache.getStats().residentEntries;
+			modelCache.destroy();
+
+			// Restarting with the same key should restore every resident entry, with its data intact
+			modelCache = new ModelCache(CACHE_SIZE_MIB, ModelCacheEvictionPolicy.SECOND_CHANCE, false, directory, 1,
+				() -> fail("model cache was terminated"));
+			assertEquals(residentEntries, modelCache.getStats().residentEntries);
+			// The index must not outlive the restore, in case the client crashes after overwriting the data
+			assertFalse(new File(directory, "model-cache.idx").exists());
+			for (int j = 0; j < HOT_MODELS; j++) {
+				long numBytes = (long) faceCounts[j] * DATUM_BYTES_PER_FACE;
+				long address = modelCache.get(j, numBytes);
+				assertTrue(address != 0);
+				assertEquals(j, MemoryUtil.memGetInt(address));
+				assertEquals(~j, MemoryUtil.memGetInt(address + numBytes - 4));
+			}
+
+			// The restored cache should keep working as before
+			for (int i = numLookups; i < numLookups * 2; i++) {
+				int hash = hashes[i];
+				long numBytes = (long) faceCounts[i] * DATUM_BYTES_PER_FACE;
+				long address = modelCache.get(hash, numBytes);
+				if (address != 0) {
+					assertEquals(hash, MemoryUtil.memGetInt(address));
+					assertEquals(~hash, MemoryUtil.memGetInt(address + numBytes - 4));
+				} else {
+					address = modelCache.reserve(hash, numBytes);
+					MemoryUtil.memPutInt(address, hash);
+					MemoryUtil.memPutInt(address + numBytes - 4, ~hash);
+				}
+			}
+			modelCache.destroy();
+
+			// Restarting with a different key should discard the persisted entries
+			modelCache = new ModelCache(CACHE_SIZE_MIB, ModelCacheEvictionPolicy.SECOND_CHANCE, false, directory, 2,
+				() -> fail("model cache was terminated"));
+			assertEquals(0, modelCache.getStats().residentEntries);
+			assertEquals(0, modelCache.get(0, (long) faceCounts[0] * DATUM_BYTES_PER_FACE));
+			modelCache.destroy();
+		} finally {
+			for (File file : directory.listFiles())
+				assertTrue(file.delete());
+			assertTrue(directory.delete());
+		}
+	}
+
+	private static void fillPose(long address, long numBytes, int pose) {
+		for (long i = 0; i < numBytes; i += 4)
+			MemoryUtil.memPutInt(address + i, pose * 31 + (int) i);
+	}
+
+	private static void assertPose(long address, long numBytes, int pose) {
+		assertTrue(address != 0);
+		for (long i = 0; i < numBytes; i += 4)
+			assertEquals(pose * 31 + (int) i, MemoryUtil.memGetInt(address + i));
+	}
+
+	public void testDeduplicatesIdenticalData() throws IOException {
+		// Like the normals of an animated model, where every frame is hashed differently, but shares one of a few poses
+		final int frames = 1000;
+		final int poses = 8;
+		final long numBytes = 100 * 16;
+		File directory = Files.createTempDirectory("model-cache").toFile();
+		long source = MemoryUtil.nmemAlloc(numBytes);
+		ModelCache modelCache = new ModelCache(CACHE_SIZE_MIB, ModelCacheEvictionPolicy.SECOND_CHANCE, false, directory, 1,
+			() -> fail("model cache was terminated"));
+		try {
+			for (int frame = 0; frame < frames; frame++) {
+				fillPose(source, numBytes, frame % poses);
+				assertTrue(modelCache.putShared(frame, ModelHasher.mix(frame % poses), source, numBytes));
+			}
+
+			ModelCacheStats stats = modelCache.getStats();
+			assertEquals(frames - poses, stats.deduplicatedReservations);
+			assertEquals(poses * numBytes, stats.reservedBytes);
+			assertEquals(poses * numBytes, stats.residentBlockBytes);
+			assertEquals((double) frames / poses, stats.getDedupRatio());
+			for (int frame = 0; frame < frames; frame++)
+				assertPose(modelCache.get(frame, numBytes), numBytes, frame % poses);
+			assertEquals(0, modelCache.get(0, numBytes * 2));
+
+			// Different data with a colliding content hash must not be deduplicated
+			fillPose(source, numBytes, poses);
+			assertTrue(modelCache.putShared(frames, ModelHasher.mix(0), source, numBytes));
+			assertEquals(frames - poses, stats.deduplicatedReservations);
+			assertPose(modelCache.get(frames, numBytes), numBytes, poses);
+			assertPose(modelCache.get(0, numBytes), numBytes, 0);
+
+			// Replacing an alias should release its block
+			fillPose(source, numBytes, 1);
+			assertTrue(modelCache.putShared(0, ModelHasher.mix(1), source, numBytes));
+			assertPose(modelCache.get(0, numBytes), numBytes, 1);
+			stats = modelCache.getStats();
+			assertEquals((frames + 1) * numBytes, stats.residentSharedBytes);
+			assertEquals((poses + 1) * numBytes, stats.residentBlockBytes);
+
+			// Shared blocks and their aliases should survive a restart
+			long residentEntries = stats.residentEntries;
+			modelCache.destroy();
+			modelCache = new ModelCache(CACHE_SIZE_MIB, ModelCacheEvictionPolicy.SECOND_CHANCE, false, directory, 1,
+				() -> fail("model cache was terminated"));
+			stats = modelCache.getStats();
+			assertEquals(residentEntries, stats.residentEntries);
+			assertEquals((frames + 1) * numBytes, stats.residentSharedBytes);
+			assertEquals((poses + 1) * numBytes, stats.residentBlockBytes);
+			for (int frame = 1; frame < frames; frame++)
+				assertPose(modelCache.get(frame, numBytes), numBytes, frame % poses);
+
+			// Cycle through enough unique data to wrap around the cache several times, while keeping a few frames hot
+			long uniqueBytes = 256 * 1024;
+			long uniqueSource = MemoryUtil.nmemAlloc(uniqueBytes);
+			try {
+				for (int i = 0; i < CACHE_SIZE_MIB * 16; i++) {
+					int hash = frames + 1 + i;
+					fillPose(uniqueSource, uniqueBytes, hash);
+					assertTrue(modelCache.putShared(hash, ModelHasher.mix(hash), uniqueSource, uniqueBytes));
+					for (int frame = 1; frame <= poses; frame++)
+						assertPose(modelCache.get(frame, numBytes), numBytes, frame % poses);
+				}
+			} finally {
+				MemoryUtil.nmemFree(uniqueSource);
+			}
+
+			// Every restored or reserved entry should either still be cached, have been evicted, or have been replaced
+			stats = modelCache.getStats();
+			assertEquals(residentEntries + stats.reservations,
+				stats.residentEntries + stats.evictedEntries + stats.replacedEntries);
+			assertTrue(stats.residentBlockBytes <= (long) CACHE_SIZE_MIB << 20);
+			assertTrue(stats.residentSharedBytes >= poses * numBytes);
+			assertEquals(0, stats.terminationHookTrips);
+		} finally {
+			modelCache.destroy();
+			MemoryUtil.nmemFree(source);
+			for (File file : directory.listFiles())
+				assertTrue(file.delete());
+			assertTrue(directory.delete());
+		}
+	}
+
+	public void testSparesBlocksWhileAliasesReferToThem() {
+		// Blocks are written before their aliases, so under FIFO they reach the cursor while their aliases are live
+		final long numBytes = 100 * 16;
+		final long uniqueBytes = 256 * 1024;
+		long source = MemoryUtil.nmemAlloc(numBytes);
+		ModelCache modelCache = new ModelCache(CACHE_SIZE_MIB, ModelCacheEvictionPolicy.FIFO, () -> fail("model cache was terminated"));
+		try {
+			fillPose(source, numBytes, 0);
+			assertTrue(modelCache.putShared(0, ModelHasher.mix(0), source, numBytes));
+
+			// Like an animation which keeps drawing the same pose under new hashes, while the cache wraps around
+			for (int i = 1; i <= CACHE_SIZE_MIB * 16; i++) {
+				assertTrue(modelCache.putShared(i, ModelHasher.mix(0), source, numBytes));
+				assertTrue(modelCache.reserve(1L << 32 | i, uniqueBytes) != 0);
+				assertPose(modelCache.get(i, numBytes), numBytes, 0);
+			}
+
+			ModelCacheStats stats = modelCache.getStats();
+			assertEquals(numBytes, stats.residentBlockBytes);
+			assertEquals(stats.reservations, stats.residentEntries + stats.evictedEntries + stats.replacedEntries);
+		} finally {
+			modelCache.destroy();
+			MemoryUtil.nmemFree(source);
+		}
+	}
+
+	private static long getCapacity(ModelCacheStats stats) {
+		long capacity = 0;
+		for (long allocationCapacity : stats.allocationCapacities)
+			capacity += allocationCapacity;
+		return capacity;
+	}
+
+	/**
+	 * Looks up the hash like the model pusher would, reserving and filling in an entry on a miss.
+	 *
+	 * @return whether the lookup was a hit
+	 */
+	private static boolean lookUp(ModelCache modelCache, int hash, long numBytes) {
+		long address = modelCache.get(hash, numBytes);
+		if (address != 0) {
+			// Make sure the entry hasn't been corrupted by being moved around
+			assertEquals(hash, MemoryUtil.memGetInt(address));
+			assertEquals(~hash, MemoryUtil.memGetInt(address + numBytes - 4));
+			return true;
+		}
+		address = modelCache.reserve(hash, numBytes);
+		assertTrue(address != 0);
+		MemoryUtil.memPutInt(address, hash);
+		MemoryUtil.memPutInt(address + numBytes - 4, ~hash);
+		return false;
+	}
+
+	public void testAdaptiveSizing() {
+		int[][] trace = generateTrace();
+		int[] hashes = trace[0];
+		int[] faceCounts = trace[1];
+		long chunkBytes = (long) CACHE_SIZE_MIB << 20 >> 3;
+
+		ModelCache modelCache = new ModelCache(CACHE_SIZE_MIB, ModelCacheEvictionPolicy.FIFO, true, null, 0,
+			() -> fail("model cache was terminated"));
+		try {
+			ModelCacheStats stats = modelCache.getStats();
+			assertEquals(chunkBytes, getCapacity(stats));
+
+			// With FIFO, hot models keep getting evicted shortly before they're drawn again, so the cache should grow
+			int i = 0;
+			int hits = 0;
+			for (; i < hashes.length / 2; i++)
+				if (lookUp(modelCache, hashes[i], (long) faceCounts[i] * DATUM_BYTES_PER_FACE))
+					hits++;
+			stats = modelCache.getStats();
+			long grownCapacity = getCapacity(stats);
+			System.out.printf("Grew model cache to %d MiB, with a hit rate of %.2f%%\n",
+				grownCapacity >> 20, hits * 100. / i);
+			assertTrue(stats.grownAllocations > 0);
+			assertTrue(stats.ghostHits > 0);
+			assertTrue(grownCapacity > chunkBytes);
+			assertTrue(grownCapacity <= (long) CACHE_SIZE_MIB << 20);
+
+			// Under memory pressure, the cache should shrink down to a single chunk without corrupting any entries
+			modelCache.setMemoryPressureMonitor(() -> true);
+			for (; i < hashes.length && modelCache.getStats().allocationCapacities.length > 1; i++)
+				lookUp(modelCache, hashes[i], (long) faceCounts[i] * DATUM_BYTES_PER_FACE);
+			for (int j = 0; j < 10000 && i < hashes.length; i++, j++)
+				lookUp(modelCache, hashes[i], (long) faceCounts[i] * DATUM_BYTES_PER_FACE);
+
+			stats = modelCache.getStats();
+			assertEquals(chunkBytes, getCapacity(stats));
+			assertTrue(stats.releasedAllocations > 0);
+			assertEquals(stats.reservations, stats.residentEntries + stats.evictedEntries + stats.replacedEntries);
+			assertEquals(0, stats.terminationHookTrips);
+		} finally {
+			modelCache.destroy();
+		}
+	}
+
+	public void testSecondChanceImprovesHitRate() {
+		int[][] trace = generateTrace();
+		double fifoHitRate = replay(trace, ModelCacheEvictionPolicy.FIFO);
+		double secondChanceHitRate = replay(trace, ModelCacheEvictionPolicy.SECOND_CHANCE);
+
+		System.out.printf("Replayed %,d cache lookups over %,d frames\n", trace[0].length, FRAMES);
+		System.out.printf("FIFO hit rate:          \t%.2f%%\n", fifoHitRate * 100);
+		System.out.printf("Second chance hit rate: \t%.2f%%\n", secondChanceHitRate * 100);
+
+		// Hot models make up 40 of every 65 lookups, and should all be hits with a recency-aware policy
+		assertTrue(secondChanceHitRate > fifoHitRate);
+		assertTrue(secondChanceHitRate > (double) HOT_MODELS / (HOT_MODELS + COLD_MODELS_PER_FRAME) * .99);
+	}
+}
@@ -0,0 +1,124 @@
+package rs117.hd.model;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput of the model hash engines on arrays shaped like those of real models.
+ * Run it with {@code ./gradlew jmh}, or through {@link #main}. Hash quality is checked by {@link ModelHasherTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelHasherBenchmark {
+    @Param({ "512", "2048", "6144" })
+    public int faceCount;
+
+    @Param({ "POLYNOMIAL", "MULTI_LANE" })
+    public ModelHashEngine engine;
+
+    private int vertexCount;
+    private int[] verticesX, verticesY, verticesZ;
+    private int[] faceIndices1, faceIndices2, faceIndices3;
+    private int[] faceColors1, faceColors2, faceColors3;
+    private byte[] faceTransparencies;
+    private short[] faceTextures;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1337);
+        // Models tend to have around half as many vertices as faces, and arrays with some room to spare
+        vertexCount = faceCount / 2;
+        verticesX = new int[vertexCount + 16];
+        verticesY = new int[vertexCount + 16];
+        verticesZ = new int[vertexCount + 16];
+        for (int i = 0; i < vertexCount; i++) {
+            verticesX[i] = random.nextInt(513) - 256;
+            verticesY[i] = -random.nextInt(512);
+            verticesZ[i] = random.nextInt(513) - 256;
+        }
+
+        faceIndices1 = new int[faceCount];
+        faceIndices2 = new int[faceCount];
+        faceIndices3 = new int[faceCount];
+        faceColors1 = new int[faceCount];
+        faceColors2 = new int[faceCount];
+        faceColors3 = new int[faceCount];
+        faceTransparencies = new byte[faceCount];
+        faceTextures = new short[faceCount];
+        for (int i = 0; i < faceCount; i++) {
+            faceIndices1[i] = random.nextInt(vertexCount);
+            faceIndices2[i] = random.nextInt(vertexCount);
+            faceIndices3[i] = random.nextInt(vertexCount);
+            // Colors are packed HSL, and are often shared between neighbouring faces
+            faceColors1[i] = i % 4 == 0 ? random.nextInt(1 << 16) : faceColors1[i - 1];
+            faceColors2[i] = faceColors1[i] + random.nextInt(8);
+            faceColors3[i] = faceColors1[i] + random.nextInt(8);
+            faceTransparencies[i] = (byte) (random.nextInt(10) == 0 ? random.nextInt(256) : 0);
+            faceTextures[i] = (short) (random.nextInt(5) == 0 ? random.nextInt(100) : -1);
+        }
+    }
+
+    @Benchmark
+    public long hashVertices() {
+        return engine.hash(verticesX, vertexCount);
+    }
+
+    @Benchmark
+    public long hashFaceIndices() {
+        return engine.hash(faceIndices1, faceIndices1.length);
+    }
+
+    @Benchmark
+    public long hashTransparencies() {
+        return engine.hash(faceTransparencies);
+    }
+
+    @Benchmark
+    public long hashTextures() {
+        return engine.hash(faceTextures);
+    }
+
+    /**
+     * Hashes the same arrays as {@link ModelHasher#setModel}, which runs for every animated model every frame.
+     */
+    @Benchmark
+    public void hashModel(Blackhole blackhole) {
+        blackhole.consume(engine.hash(faceColors1, faceColors1.length));
+        blackhole.consume(engine.hash(faceColors2, faceColors2.length));
+        blackhole.consume(engine.hash(faceColors3, faceColors3.length));
+        blackhole.consume(engine.hash(faceTransparencies));
+        blackhole.consume(engine.hash(faceTextures));
+        blackhole.consume(engine.hash(verticesX, vertexCount));
+        blackhole.consume(engine.hash(verticesY, vertexCount));
+        blackhole.consume(engine.hash(verticesZ, vertexCount));
+        blackhole.consume(engine.hash(faceIndices1, faceIndices1.length));
+        blackhole.consume(engine.hash(faceIndices2, faceIndices2.length));
+        blackhole.consume(engine.hash(faceIndices3, faceIndices3.length));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ModelHasherBenchmark.class.getSimpleName())
+            .build())
+            .run();
+    }
+}
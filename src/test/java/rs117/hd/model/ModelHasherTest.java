@@ -1,100 +1,244 @@
 package rs117.hd.model;
 
-import junit.framework.TestCase;
-
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.Random;
-
+import java.util.Set;
+import junit.framework.TestCase;
+import net.runelite.api.Model;
+import org.lwjgl.system.MemoryUtil;
+import rs117.hd.data.materials.UvType;
+import rs117.hd.scene.model_overrides.ModelOverride;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the quality of the model hash engines, and that memoized model hashes stay correct. Throughput is measured by
+ * {@link ModelHasherBenchmark}.
+ */
 public class ModelHasherTest extends TestCase {
-    private final ArrayList<int[]> intArrays;
-    private final Random random;
-    private final int testDataCount;
-    private final int testIterations;
-
-    private long accumulatedHash = 0;
-
-    public ModelHasherTest() {
-        this.intArrays = new ArrayList<>();
-        this.random = new Random(1337);
-        this.testDataCount = 1000;
-        this.testIterations = 10000000;
-    }
+    private static final int[] ARRAY_SIZES = { 512, 2048, 6144 };
+    private static final int VARIANTS = 100000;
 
-    private int[] generateRandomIntArray(int size) {
-        int[] a = new int[size];
+    private final Random random = new Random(1337);
 
+    private int[] generateVertexArray(int size) {
+        int[] a = new int[size];
         for (int i = 0; i < size; i++) {
-            a[i] = this.random.nextInt();
+            a[i] = random.nextInt(2049) - 1024;
         }
-
         return a;
     }
 
-    private long runStandardHasher() {
-        long start = System.nanoTime();
-        for (int i = 0; i < this.testIterations; i++) {
-            accumulatedHash *= 31;
-            accumulatedHash += Arrays.hashCode(intArrays.get(this.random.nextInt(this.testDataCount)));
-        }
-        return System.nanoTime() - start;
+    public void testMatchesXxh64() {
+        // Reference values for XXH64 with a seed of zero
+        assertEquals(0xEF46DB3751D8E999L, ModelHashEngine.MULTI_LANE.hash(new byte[0]));
+        assertEquals(0x44BC2CF5AD770999L, ModelHashEngine.MULTI_LANE.hash("abc".getBytes(StandardCharsets.US_ASCII)));
     }
 
-    private long runFastHasher() {
-        long start = System.nanoTime();
-        for (int i = 0; i < this.testIterations; i++) {
-            accumulatedHash *= 31;
-            accumulatedHash += ModelHasher.fastIntHash(intArrays.get(this.random.nextInt(this.testDataCount)), -1);
+    public void testArraysHashLikeMemory() {
+        // Arrays are hashed by their little-endian bytes, so they should hash the same once copied to memory
+        ModelHashEngine engine = ModelHashEngine.MULTI_LANE;
+        long address = MemoryUtil.nmemAlloc(1024);
+        try {
+            for (int length = 0; length <= 100; length++) {
+                int[] ints = new int[length];
+                short[] shorts = new short[length];
+                byte[] bytes = new byte[length];
+                float[] floats = new float[length];
+                for (int i = 0; i < length; i++) {
+                    ints[i] = random.nextInt();
+                    shorts[i] = (short) random.nextInt();
+                    bytes[i] = (byte) random.nextInt();
+                    floats[i] = random.nextFloat() * 2000 - 1000;
+                }
+
+                for (int i = 0; i < length; i++) {
+                    MemoryUtil.memPutInt(address + i * 4L, ints[i]);
+                }
+                assertEquals(engine.hashMemory(address, length * 4L), engine.hash(ints, length));
+
+                for (int i = 0; i < length; i++) {
+                    MemoryUtil.memPutShort(address + i * 2L, shorts[i]);
+                }
+                assertEquals(engine.hashMemory(address, length * 2L), engine.hash(shorts));
+
+                for (int i = 0; i < length; i++) {
+                    MemoryUtil.memPutByte(address + i, bytes[i]);
+                }
+                assertEquals(engine.hashMemory(address, length), engine.hash(bytes));
+
+                for (int i = 0; i < length; i++) {
+                    MemoryUtil.memPutFloat(address + i * 4L, floats[i]);
+                }
+                assertEquals(engine.hashMemory(address, length * 4L), engine.hash(floats));
+            }
+        } finally {
+            MemoryUtil.nmemFree(address);
         }
-        return System.nanoTime() - start;
     }
 
-    private double percentageDifference(long original, long changed) {
-        long diff = original - changed;
-        double delta = (double) diff / original;
-        return delta * 100;
+    /**
+     * @return the average number of output bits flipped by flipping a single input bit
+     */
+    private double measureAvalanche(ModelHashEngine engine, int[] a) {
+        long flippedBits = 0;
+        int samples = 0;
+        long base = engine.hash(a, a.length);
+        for (int i = 0; i < a.length; i += 7) {
+            for (int bit = 0; bit < 32; bit += 3) {
+                a[i] ^= 1 << bit;
+                flippedBits += Long.bitCount(base ^ engine.hash(a, a.length));
+                a[i] ^= 1 << bit;
+                samples++;
+            }
+        }
+        return (double) flippedBits / samples;
     }
 
-    public void testHashPerformance() {
-        System.out.printf("Java version: %s\n\n", System.getProperty("java.version"));
-        System.out.printf("Comparing hash performance of with %,d test items and %,d iterations\n\n", testDataCount, testIterations);
-
-        // small arrays (size=512)
-        for (int i = 0; i < testDataCount; i++) {
-            // generate random test data
-            intArrays.add(generateRandomIntArray(512));
+    /**
+     * Hashes distinct variants of an array which each differ from it by a single element, like the vertices of
+     * similar animation frames do.
+     *
+     * @return the number of variants whose hash collided with that of another variant in the lowest bits
+     */
+    private int countCollisions(ModelHashEngine engine, int[] base, int bits) {
+        int[] a = base.clone();
+        Set<Long> hashes = new HashSet<>();
+        int collisions = 0;
+        long mask = bits == 64 ? -1 : (1L << bits) - 1;
+        for (int i = 0; i < VARIANTS; i++) {
+            int index = i % a.length;
+            a[index] = base[index] + i / a.length + 1;
+            if (!hashes.add(engine.hash(a, a.length) & mask)) {
+                collisions++;
+            }
+            a[index] = base[index];
         }
+        return collisions;
+    }
 
-        long standardSmallBatchResult = runStandardHasher();
-        System.out.printf("Standard hasher small data set:  \t%,.3f seconds\n", (double) standardSmallBatchResult / 1e9);
-        long fastSmallBatchResult = runFastHasher();
-        System.out.printf("Fast hasher small data set:      \t%,.3f seconds\n", (double) fastSmallBatchResult / 1e9);
-        System.out.printf("Improvement =\t%.2f%%\n\n", percentageDifference(standardSmallBatchResult, fastSmallBatchResult));
+    public void testHashQuality() {
+        // The number of collisions expected when hashing the variants into 2^20 buckets uniformly at random
+        int bucketBits = 20;
+        double buckets = 1 << bucketBits;
+        double expectedCollisions = VARIANTS - buckets * (1 - Math.pow(1 - 1 / buckets, VARIANTS));
+
+        System.out.printf("Hashing %,d slightly different variants of realistic model arrays\n", VARIANTS);
+        System.out.printf("Expected collisions in the lowest %d bits: %,.0f\n\n", bucketBits, expectedCollisions);
+        for (int size : ARRAY_SIZES) {
+            int[] base = generateVertexArray(size);
+            for (ModelHashEngine engine : ModelHashEngine.values()) {
+                double avalanche = measureAvalanche(engine, base);
+                int collisions = countCollisions(engine, base, 64);
+                int bucketCollisions = countCollisions(engine, base, bucketBits);
+                System.out.printf("%-10s %,5d ints: \t%5.2f bits flipped per input bit, %,d collisions, %,d in the lowest %d bits\n",
+                    engine, size, avalanche, collisions, bucketCollisions, bucketBits);
+
+                if (engine == ModelHashEngine.MULTI_LANE) {
+                    // Each input bit should flip about half of the output bits
+                    assertEquals(32, avalanche, 1);
+                    assertEquals(0, collisions);
+                    assertEquals(expectedCollisions, bucketCollisions, expectedCollisions * .1);
+                }
+            }
+        }
+    }
 
-        // medium arrays (size=2048)
-        intArrays.clear();
-        for (int i = 0; i < testDataCount; i++) {
-            intArrays.add(generateRandomIntArray(2048));
+    private Model mockModel(int faceCount, int vertexCount, boolean textured) {
+        Model model = mock(Model.class);
+        when(model.getFaceCount()).thenReturn(faceCount);
+        when(model.getVerticesCount()).thenReturn(vertexCount);
+        when(model.getVerticesX()).thenReturn(generateVertexArray(vertexCount));
+        when(model.getVerticesY()).thenReturn(generateVertexArray(vertexCount));
+        when(model.getVerticesZ()).thenReturn(generateVertexArray(vertexCount));
+        when(model.getFaceColors1()).thenReturn(generateVertexArray(faceCount));
+        when(model.getFaceColors2()).thenReturn(generateVertexArray(faceCount));
+        when(model.getFaceColors3()).thenReturn(generateVertexArray(faceCount));
+        when(model.getFaceTransparencies()).thenReturn(new byte[faceCount]);
+        int[][] faceIndices = new int[3][faceCount];
+        for (int[] indices : faceIndices) {
+            for (int i = 0; i < faceCount; i++) {
+                indices[i] = random.nextInt(vertexCount);
+            }
+        }
+        when(model.getFaceIndices1()).thenReturn(faceIndices[0]);
+        when(model.getFaceIndices2()).thenReturn(faceIndices[1]);
+        when(model.getFaceIndices3()).thenReturn(faceIndices[2]);
+
+        if (textured) {
+            short[] faceTextures = new short[faceCount];
+            byte[] textureFaces = new byte[faceCount];
+            for (int i = 0; i < faceCount; i++) {
+                faceTextures[i] = (short) (i % 3 == 0 ? 1 : -1);
+                textureFaces[i] = (byte) (i % 3 == 0 ? 0 : -1);
+            }
+            when(model.getFaceTextures()).thenReturn(faceTextures);
+            when(model.getTextureFaces()).thenReturn(textureFaces);
+            when(model.getTexIndices1()).thenReturn(new int[] { 0 });
+            when(model.getTexIndices2()).thenReturn(new int[] { 1 });
+            when(model.getTexIndices3()).thenReturn(new int[] { 2 });
         }
+        return model;
+    }
 
-        long standardMediumBatchResult = runStandardHasher();
-        System.out.printf("Standard hasher medium data set: \t%,.3f seconds\n", (double) standardMediumBatchResult / 1e9);
-        long fastMediumBatchResult = runFastHasher();
-        System.out.printf("Fast hasher medium data set:     \t%,.3f seconds\n", (double) fastMediumBatchResult / 1e9);
-        System.out.printf("Improvement =\t%.2f%%\n\n", percentageDifference(standardMediumBatchResult, fastMediumBatchResult));
+    private static void assertSameHashes(ModelHasher memoizing, Model model) {
+        ModelHasher fresh = new ModelHasher();
+        memoizing.setModel(model);
+        fresh.setModel(model);
+        assertEquals(fresh.calculateBatchHash(), memoizing.calculateBatchHash());
+        assertEquals(fresh.calculateNormalCacheHash(), memoizing.calculateNormalCacheHash());
+    }
 
-        // large arrays (size=6144)
-        intArrays.clear();
-        for (int i = 0; i < testDataCount; i++) {
-            intArrays.add(generateRandomIntArray(6144));
+    public void testMemoizedHashesMatchRehashing() {
+        ModelHasher hasher = new ModelHasher();
+        ModelCacheStats stats = new ModelCacheStats();
+        for (boolean textured : new boolean[] { false, true }) {
+            Model model = mockModel(600, 300, textured);
+            hasher.setModel(model);
+            long firstHash = hasher.calculateBatchHash();
+            hasher.addStats(stats);
+            long memoizedModels = stats.memoizedModelHashes;
+
+            // Drawing the same model again should reuse the hashes of its face arrays
+            assertSameHashes(hasher, model);
+            assertEquals(firstHash, hasher.calculateBatchHash());
+            hasher.addStats(stats);
+            assertEquals(memoizedModels + 1, stats.memoizedModelHashes);
+
+            // The client animates models by writing to the same vertex buffers
+            model.getVerticesY()[model.getFaceIndices1()[0]] += 10;
+            if (textured) {
+                model.getVerticesX()[0] += 10;
+            }
+            assertSameHashes(hasher, model);
+            assertTrue(firstHash != hasher.calculateBatchHash());
+
+            // Face arrays which are replaced must be rehashed
+            long rehashedModels = stats.rehashedModels;
+            int[] faceColors = model.getFaceColors1().clone();
+            faceColors[0]++;
+            when(model.getFaceColors1()).thenReturn(faceColors);
+            assertSameHashes(hasher, model);
+            hasher.addStats(stats);
+            assertEquals(rehashedModels + 1, stats.rehashedModels);
         }
+    }
+
+    public void testUvHashDependsOnOverrideContents() {
+        ModelHasher hasher = new ModelHasher();
+        hasher.setModel(mockModel(600, 300, true));
 
-        long standardLargeBatchResult = runStandardHasher();
-        System.out.printf("Standard hasher large data set:  \t%,.3f seconds\n", (double) standardLargeBatchResult / 1e9);
-        long fastLargeBatchResult = runFastHasher();
-        System.out.printf("Fast hasher large data set:      \t%,.3f seconds\n", (double) fastLargeBatchResult / 1e9);
-        System.out.printf("Improvement =\t%.2f%%\n\n", percentageDifference(standardLargeBatchResult, fastLargeBatchResult));
+        // Overrides loaded in another session are different instances, but must still find the persisted UV data
+        ModelOverride override = new ModelOverride();
+        override.uvType = UvType.MODEL_XZ;
+        ModelOverride equalOverride = new ModelOverride();
+        equalOverride.uvType = UvType.MODEL_XZ;
+        long uvHash = hasher.calculateUvCacheHash(0, override);
+        assertEquals(uvHash, hasher.calculateUvCacheHash(0, equalOverride));
 
-        System.out.println("Hash: " + accumulatedHash);
+        equalOverride.uvScale = 2;
+        assertTrue(uvHash != hasher.calculateUvCacheHash(0, equalOverride));
     }
 }
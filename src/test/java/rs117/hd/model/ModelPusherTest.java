@@ -0,0 +1,161 @@
+package rs117.hd.model;
+
+import com.google.inject.Guice;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+import net.runelite.api.Client;
+import net.runelite.api.Model;
+import net.runelite.api.Scene;
+import rs117.hd.Fakes;
+import rs117.hd.HdPlugin;
+import rs117.hd.HdPluginConfig;
+import rs117.hd.data.materials.UvType;
+import rs117.hd.scene.ModelOverrideManager;
+import rs117.hd.scene.SceneContext;
+import rs117.hd.scene.model_overrides.ModelOverride;
+import rs117.hd.scene.model_overrides.ObjectType;
+
+import static org.mockito.Mockito.mock;
+import static rs117.hd.Fakes.fake;
+import static rs117.hd.Fakes.randomInts;
+
+/**
+ * Pushes the same sequence of temporary models both immediately and queued, and checks that both produce identical
+ * staging buffers and offsets. The model cache is left disabled, since it stores normals compressed, and queued models
+ * can't hit data cached for models queued earlier in the same frame.
+ */
+public class ModelPusherTest extends TestCase {
+	private static final int MODELS = 100;
+	private static final int DRAWS = 400;
+
+	private final Random random = new Random(1337);
+
+	private static ModelPusher createModelPusher() {
+		return Guice.createInjector(binder -> {
+			binder.bind(Client.class).toInstance(mock(Client.class));
+			binder.bind(HdPlugin.class).toInstance(mock(HdPlugin.class));
+			binder.bind(HdPluginConfig.class).toInstance(mock(HdPluginConfig.class));
+			binder.bind(ModelOverrideManager.class).toInstance(mock(ModelOverrideManager.class));
+		}).getInstance(ModelPusher.class);
+	}
+
+	/**
+	 * Draws the models in order, animating them in between by rewriting their vertices in place, like the client does.
+	 *
+	 * @return the staging buffer positions and results of each push
+	 */
+	private static List<Integer> drawModels(
+		ModelPusher modelPusher,
+		SceneContext sceneContext,
+		Model[] models,
+		int[][] restPoses,
+		int[] order,
+		int[][] poses,
+		ModelOverride[] overrides,
+		boolean queue
+	) {
+		for (int i = 0; i < models.length; i++)
+			System.arraycopy(restPoses[i], 0, models[i].getVerticesY(), 0, restPoses[i].length);
+
+		List<Integer> offsets = new ArrayList<>();
+		for (int i = 0; i < order.length; i++) {
+			Model model = models[order[i]];
+			if (poses[i] != null)
+				System.arraycopy(poses[i], 0, model.getVerticesY(), 0, poses[i].length);
+
+			offsets.add(sceneContext.stagingBufferVertices.position());
+			offsets.add(sceneContext.stagingBufferNormals.position());
+			offsets.add(sceneContext.stagingBufferUvs.position());
+			if (queue) {
+				modelPusher.queueModel(sceneContext, order[i], model, overrides[i], ObjectType.NONE, 0, true);
+			} else {
+				modelPusher.pushModel(sceneContext, null, order[i], model, overrides[i], ObjectType.NONE, 0, true);
+			}
+			offsets.add(sceneContext.modelPusherResults[0]);
+			offsets.add(sceneContext.modelPusherResults[1]);
+		}
+
+		if (queue) {
+			// The client reuses the arrays of temporary models as soon as they've been drawn
+			for (Model model : models) {
+				for (Object value : Fakes.properties(model).values()) {
+					if (value instanceof int[])
+						Arrays.fill((int[]) value, -1);
+					else if (value instanceof byte[])
+						Arrays.fill((byte[]) value, (byte) -1);
+				}
+			}
+			modelPusher.pushQueuedModels();
+		}
+		return offsets;
+	}
+
+	private static void assertSameContents(IntBuffer expected, IntBuffer actual, int length) {
+		for (int i = 0; i < length; i++)
+			if (expected.get(i) != actual.get(i))
+				fail("mismatch at " + i + ": " + expected.get(i) + " != " + actual.get(i));
+	}
+
+	private static void assertSameContents(FloatBuffer expected, FloatBuffer actual, int length) {
+		for (int i = 0; i < length; i++)
+			// Compare the bits, so NaNs compare equal
+			if (Float.floatToRawIntBits(expected.get(i)) != Float.floatToRawIntBits(actual.get(i)))
+				fail("mismatch at " + i + ": " + expected.get(i) + " != " + actual.get(i));
+	}
+
+	public void testQueuedPushesMatchImmediatePushes() {
+		Model[] models = new Model[MODELS];
+		int[][] restPoses = new int[MODELS][];
+		for (int i = 0; i < MODELS; i++) {
+			// Mostly small models, with enough large ones to be split across the model pusher's threads
+			int faceCount = 1 + random.nextInt(random.nextInt(10) == 0 ? 5000 : 300);
+			models[i] = Fakes.model(random, faceCount, 3 + random.nextInt(faceCount), random.nextBoolean());
+			restPoses[i] = models[i].getVerticesY().clone();
+		}
+
+		ModelOverride modelUvs = new ModelOverride();
+		modelUvs.uvType = UvType.MODEL_XZ;
+		modelUvs.flatNormals = true;
+
+		// Some models are drawn several times per frame in different poses, like NPCs sharing an animation
+		int[] order = new int[DRAWS];
+		int[][] poses = new int[DRAWS][];
+		ModelOverride[] overrides = new ModelOverride[DRAWS];
+		for (int i = 0; i < DRAWS; i++) {
+			order[i] = random.nextInt(MODELS);
+			if (random.nextInt(3) == 0)
+				poses[i] = randomInts(random, models[order[i]].getVerticesCount(), -512, 0);
+			overrides[i] = random.nextInt(4) == 0 ? modelUvs : ModelOverride.NONE;
+		}
+
+		Scene scene = fake(Scene.class, new HashMap<>());
+		SceneContext immediate = new SceneContext(scene, null);
+		SceneContext queued = new SceneContext(scene, null);
+		ModelPusher modelPusher = createModelPusher();
+		try {
+			List<Integer> immediateOffsets = drawModels(modelPusher, immediate, models, restPoses, order, poses, overrides, false);
+			List<Integer> queuedOffsets = drawModels(modelPusher, queued, models, restPoses, order, poses, overrides, true);
+			assertEquals(immediateOffsets, queuedOffsets);
+
+			assertEquals(immediate.stagingBufferVertices.position(), queued.stagingBufferVertices.position());
+			assertEquals(immediate.stagingBufferNormals.position(), queued.stagingBufferNormals.position());
+			assertEquals(immediate.stagingBufferUvs.position(), queued.stagingBufferUvs.position());
+			assertSameContents(immediate.stagingBufferVertices.getBuffer(), queued.stagingBufferVertices.getBuffer(),
+				immediate.stagingBufferVertices.position());
+			assertSameContents(immediate.stagingBufferNormals.getBuffer(), queued.stagingBufferNormals.getBuffer(),
+				immediate.stagingBufferNormals.position());
+			assertSameContents(immediate.stagingBufferUvs.getBuffer(), queued.stagingBufferUvs.getBuffer(),
+				immediate.stagingBufferUvs.position());
+		} finally {
+			modelPusher.shutDown();
+			immediate.destroy();
+			queued.destroy();
+		}
+	}
+}
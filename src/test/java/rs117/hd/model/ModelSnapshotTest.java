@@ -0,0 +1,122 @@
+package rs117.hd.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.TestCase;
+import net.runelite.api.Model;
+import rs117.hd.Fakes;
+
+import static rs117.hd.Fakes.fake;
+
+/**
+ * Checks that copied snapshots hold the same data as the model they were taken from, and keep holding it after the
+ * client reuses the model's arrays for the next temporary model, like it does for animations.
+ */
+public class ModelSnapshotTest extends TestCase {
+	private final Random random = new Random(1337);
+
+	private static Map<String, Object> deepCopy(Map<String, Object> properties) {
+		Map<String, Object> copy = new HashMap<>();
+		for (Map.Entry<String, Object> entry : properties.entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof int[])
+				value = ((int[]) value).clone();
+			else if (value instanceof byte[])
+				value = ((byte[]) value).clone();
+			else if (value instanceof short[])
+				value = ((short[]) value).clone();
+			copy.put(entry.getKey(), value);
+		}
+		return copy;
+	}
+
+	private static void assertSameData(ModelSnapshot expected, ModelSnapshot actual, int vertexCount) {
+		assertEquals(expected.faceCount, actual.faceCount);
+		int faceCount = expected.faceCount;
+		assertPrefixEquals(expected.verticesX, actual.verticesX, vertexCount);
+		assertPrefixEquals(expected.verticesY, actual.verticesY, vertexCount);
+		assertPrefixEquals(expected.verticesZ, actual.verticesZ, vertexCount);
+		assertPrefixEquals(expected.vertexNormalsX, actual.vertexNormalsX, vertexCount);
+		assertPrefixEquals(expected.vertexNormalsY, actual.vertexNormalsY, vertexCount);
+		assertPrefixEquals(expected.vertexNormalsZ, actual.vertexNormalsZ, vertexCount);
+		assertPrefixEquals(expected.faceIndices1, actual.faceIndices1, faceCount);
+		assertPrefixEquals(expected.faceIndices2, actual.faceIndices2, faceCount);
+		assertPrefixEquals(expected.faceIndices3, actual.faceIndices3, faceCount);
+		assertPrefixEquals(expected.faceColors1, actual.faceColors1, faceCount);
+		assertPrefixEquals(expected.faceColors2, actual.faceColors2, faceCount);
+		assertPrefixEquals(expected.faceColors3, actual.faceColors3, faceCount);
+		assertPrefixEquals(expected.texIndices1, actual.texIndices1, expected.texIndices1 == null ? 0 : expected.texIndices1.length);
+		assertPrefixEquals(expected.texIndices2, actual.texIndices2, expected.texIndices2 == null ? 0 : expected.texIndices2.length);
+		assertPrefixEquals(expected.texIndices3, actual.texIndices3, expected.texIndices3 == null ? 0 : expected.texIndices3.length);
+		assertTrue(Arrays.equals(
+			expected.faceTransparencies == null ? null : Arrays.copyOf(expected.faceTransparencies, faceCount),
+			actual.faceTransparencies == null ? null : Arrays.copyOf(actual.faceTransparencies, faceCount)));
+		assertTrue(Arrays.equals(
+			expected.faceRenderPriorities == null ? null : Arrays.copyOf(expected.faceRenderPriorities, faceCount),
+			actual.faceRenderPriorities == null ? null : Arrays.copyOf(actual.faceRenderPriorities, faceCount)));
+		assertTrue(Arrays.equals(
+			expected.textureFaces == null ? null : Arrays.copyOf(expected.textureFaces, faceCount),
+			actual.textureFaces == null ? null : Arrays.copyOf(actual.textureFaces, faceCount)));
+		assertTrue(Arrays.equals(
+			expected.faceTextures == null ? null : Arrays.copyOf(expected.faceTextures, faceCount),
+			actual.faceTextures == null ? null : Arrays.copyOf(actual.faceTextures, faceCount)));
+		assertEquals(expected.overrideAmount, actual.overrideAmount);
+		assertEquals(expected.overrideHue, actual.overrideHue);
+		assertEquals(expected.overrideSaturation, actual.overrideSaturation);
+		assertEquals(expected.overrideLuminance, actual.overrideLuminance);
+	}
+
+	private static void assertPrefixEquals(int[] expected, int[] actual, int length) {
+		if (expected == null) {
+			assertNull(actual);
+			return;
+		}
+		assertTrue(Arrays.equals(Arrays.copyOf(expected, length), Arrays.copyOf(actual, length)));
+	}
+
+	public void testCopiesSurviveReusedArrays() {
+		// The same snapshot is reused for models of varying sizes, with and without textures
+		ModelSnapshot copy = new ModelSnapshot();
+		for (int i = 0; i < 100; i++) {
+			int faceCount = 1 + random.nextInt(3000);
+			int vertexCount = 3 + random.nextInt(faceCount);
+			Model model = Fakes.model(random, faceCount, vertexCount, random.nextBoolean());
+			Map<String, Object> properties = Fakes.properties(model);
+
+			copy.copy(model);
+			ModelSnapshot expected = new ModelSnapshot();
+			expected.wrap(fake(Model.class, deepCopy(properties)));
+
+			// Overwrite the model's arrays, like the client does when it reuses a shared model for the next animation
+			for (Object value : properties.values()) {
+				if (value instanceof int[])
+					Arrays.fill((int[]) value, -1);
+				else if (value instanceof byte[])
+					Arrays.fill((byte[]) value, (byte) -1);
+				else if (value instanceof short[])
+					Arrays.fill((short[]) value, (short) -1);
+			}
+
+			assertSameData(expected, copy, vertexCount);
+			assertNotSame(properties.get("getVerticesX"), copy.verticesX);
+		}
+	}
+
+	public void testWrapDoesNotCopy() {
+		Model model = Fakes.model(random, 100, 50, true);
+		ModelSnapshot snapshot = new ModelSnapshot();
+		snapshot.wrap(model);
+		assertSame(model.getVerticesX(), snapshot.verticesX);
+		assertSame(model.getFaceTextures(), snapshot.faceTextures);
+
+		ModelSnapshot copy = new ModelSnapshot();
+		copy.copy(model);
+		assertSameData(snapshot, copy, 50);
+
+		snapshot.release();
+		assertNull(snapshot.verticesX);
+		assertNull(snapshot.faceTextures);
+	}
+}
@@ -0,0 +1,100 @@
+package rs117.hd.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures a frame's worth of temporary model batching, looking up every model and inserting the ones not seen yet
+ * this frame, compared to the boxed {@link HashMap} it replaced. Run it with {@code ./gradlew jmh}, or through
+ * {@link #main}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TempModelBatchTableBenchmark {
+	@Param({ "5000", "10000", "20000" })
+	public int modelsPerFrame;
+
+	private long[] batchHashes;
+	private int[] faceCounts;
+	private TempModelBatchTable table;
+	private Map<Long, int[]> map;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(1337);
+		// About a third of temporary models are drawn more than once per frame, like identical NPCs and projectiles
+		long[] uniqueHashes = new long[modelsPerFrame * 2 / 3];
+		for (int i = 0; i < uniqueHashes.length; i++)
+			uniqueHashes[i] = ModelHasher.mix(random.nextLong());
+		batchHashes = new long[modelsPerFrame];
+		faceCounts = new int[modelsPerFrame];
+		for (int i = 0; i < modelsPerFrame; i++) {
+			batchHashes[i] = uniqueHashes[random.nextInt(uniqueHashes.length)];
+			faceCounts[i] = 100 + (int) (batchHashes[i] & 0x3FF);
+		}
+
+		table = new TempModelBatchTable();
+		map = new HashMap<>();
+		// Let the table size itself for the number of models per frame
+		table();
+	}
+
+	@Benchmark
+	public int table() {
+		int offset = 0;
+		for (int i = 0; i < modelsPerFrame; i++) {
+			int slot = table.find(batchHashes[i]);
+			if (slot != -1 && table.getFaceCount(slot) == faceCounts[i]) {
+				offset += table.getTempOffset(slot);
+			} else {
+				table.put(batchHashes[i], offset, offset, faceCounts[i]);
+				offset += faceCounts[i];
+			}
+		}
+		table.nextFrame();
+		return offset;
+	}
+
+	@Benchmark
+	public int hashMap() {
+		int offset = 0;
+		for (int i = 0; i < modelsPerFrame; i++) {
+			int[] info = map.get(batchHashes[i]);
+			if (info != null && info[2] == faceCounts[i]) {
+				offset += info[0];
+			} else {
+				map.put(batchHashes[i], new int[] { offset, offset, faceCounts[i] });
+				offset += faceCounts[i];
+			}
+		}
+		map.clear();
+		return offset;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(TempModelBatchTableBenchmark.class.getSimpleName())
+			.build())
+			.run();
+	}
+}
@@ -0,0 +1,47 @@
+package rs117.hd.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class TempModelBatchTableTest extends TestCase {
+	public void testMatchesHashMap() {
+		Random random = new Random(1337);
+		TempModelBatchTable table = new TempModelBatchTable();
+		Map<Long, int[]> expected = new HashMap<>();
+		int peakCapacity = 0;
+		for (int frame = 0; frame < 200; frame++) {
+			// Vary the number of models per frame, so the table has to grow and shrink
+			int models = frame < 25 ? 100 + frame * 1000 : 20;
+			for (int i = 0; i < models; i++) {
+				// Some models are drawn more than once per frame. Hashes only differ in their upper bits, to test the spreading
+				long batchHash = random.nextInt(models * 2) * 0x100000000L;
+				int slot = table.find(batchHash);
+				int[] info = expected.get(batchHash);
+				if (info == null) {
+					assertEquals(-1, slot);
+				} else {
+					assertTrue(slot != -1);
+					assertEquals(info[0], table.getTempOffset(slot));
+					assertEquals(info[1], table.getTempUvOffset(slot));
+					assertEquals(info[2], table.getFaceCount(slot));
+				}
+
+				info = new int[] { random.nextInt(), random.nextInt(), random.nextInt(6144) };
+				if (random.nextBoolean() || slot == -1) {
+					table.put(batchHash, info[0], info[1], info[2]);
+					expected.put(batchHash, info);
+				}
+			}
+			assertEquals(expected.size(), table.size());
+			assertTrue(table.size() * 2 <= table.capacity());
+			peakCapacity = Math.max(peakCapacity, table.capacity());
+
+			table.nextFrame();
+			expected.clear();
+			assertEquals(0, table.size());
+		}
+		assertTrue(table.capacity() < peakCapacity);
+	}
+}
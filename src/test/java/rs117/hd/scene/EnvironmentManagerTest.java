@@ -0,0 +1,133 @@
+package rs117.hd.scene;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.TestCase;
+import net.runelite.api.Scene;
+import net.runelite.api.coords.LocalPoint;
+import net.runelite.api.coords.WorldPoint;
+import rs117.hd.data.environments.Environment;
+import rs117.hd.utils.AABB;
+
+import static net.runelite.api.Constants.MAX_Z;
+import static net.runelite.api.Constants.SCENE_SIZE;
+import static rs117.hd.Fakes.fake;
+
+/**
+ * Loads the environments of randomly placed scenes, both regular and instanced, and checks that the environments
+ * gathered from the region buckets are exactly the environments overlapping any of the scene's regions, in the same
+ * order, and that every tile gets the first of them which contains it.
+ */
+public class EnvironmentManagerTest extends TestCase {
+	private static final int CHUNKS = SCENE_SIZE / 8;
+	private static final EnvironmentManager.EnvironmentBuckets BUCKETS = EnvironmentManager.bucketEnvironments();
+
+	private final Random random = new Random(1337);
+
+	/**
+	 * The previous implementation, which checked every AABB of every environment against every region of the scene.
+	 */
+	private static List<Environment> getSceneEnvironmentsLinearly(SceneContext sceneContext) {
+		List<Environment> environments = new ArrayList<>();
+		outer:
+		for (Environment environment : Environment.values()) {
+			for (int regionId : sceneContext.regionIds) {
+				AABB region = new AABB(regionId);
+				for (AABB aabb : environment.getArea().getAabbs()) {
+					if (region.intersects(aabb)) {
+						environments.add(environment);
+						continue outer;
+					}
+				}
+			}
+		}
+		return environments;
+	}
+
+	private static Environment findEnvironmentLinearly(List<Environment> environments, WorldPoint position) {
+		for (Environment environment : environments)
+			for (AABB aabb : environment.getArea().getAabbs())
+				if (aabb.contains(position.getX(), position.getY(), position.getPlane()))
+					return environment;
+		return null;
+	}
+
+	private Scene createScene() {
+		Map<String, Object> properties = new HashMap<>();
+		// Scene bases are chunk-aligned, and mostly in the overworld
+		if (random.nextBoolean()) {
+			properties.put("getBaseX", 8 * (130 + random.nextInt(380)));
+			properties.put("getBaseY", 8 * (310 + random.nextInt(200)));
+		} else {
+			properties.put("getBaseX", 8 * random.nextInt(550));
+			properties.put("getBaseY", 8 * random.nextInt(1600));
+		}
+		return fake(Scene.class, properties);
+	}
+
+	private Scene createInstance() {
+		// Instances are pieced together from chunks of a few regions, rotated at random, with some chunks left empty
+		int[] regionIds = new int[1 + random.nextInt(4)];
+		for (int i = 0; i < regionIds.length; i++)
+			regionIds[i] = (16 + random.nextInt(60)) << 8 | 40 + random.nextInt(150);
+
+		int[][][] chunks = new int[MAX_Z][CHUNKS][CHUNKS];
+		for (int z = 0; z < MAX_Z; z++) {
+			for (int x = 0; x < CHUNKS; x++) {
+				for (int y = 0; y < CHUNKS; y++) {
+					if (random.nextInt(5) == 0) {
+						chunks[z][x][y] = -1;
+						continue;
+					}
+					int regionId = regionIds[random.nextInt(regionIds.length)];
+					int chunkX = (regionId >> 8) * 8 + random.nextInt(8);
+					int chunkY = (regionId & 0xFF) * 8 + random.nextInt(8);
+					chunks[z][x][y] = random.nextInt(MAX_Z) << 24 | chunkX << 14 | chunkY << 3 | random.nextInt(4) << 1;
+				}
+			}
+		}
+
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("isInstance", true);
+		properties.put("getInstanceTemplateChunks", chunks);
+		properties.put("getBaseX", 8 * random.nextInt(550));
+		properties.put("getBaseY", 8 * (800 + random.nextInt(800)));
+		return fake(Scene.class, properties);
+	}
+
+	private static void assertSameEnvironments(Scene scene) {
+		SceneContext sceneContext = new SceneContext(scene, null);
+		try {
+			EnvironmentManager.loadSceneEnvironments(sceneContext, BUCKETS);
+			assertEquals(sceneContext.regionIds.toString(), getSceneEnvironmentsLinearly(sceneContext), sceneContext.environments);
+
+			for (int z = 0; z < MAX_Z; z++) {
+				for (int x = 0; x < SCENE_SIZE; x++) {
+					for (int y = 0; y < SCENE_SIZE; y++) {
+						WorldPoint position = sceneContext.localToWorld(LocalPoint.fromScene(x, y), z);
+						assertSame(
+							position.toString(),
+							findEnvironmentLinearly(sceneContext.environments, position),
+							sceneContext.tileEnvironments[z][x][y]
+						);
+					}
+				}
+			}
+		} finally {
+			sceneContext.destroy();
+		}
+	}
+
+	public void testMatchesLinearScanInScenes() {
+		for (int i = 0; i < 40; i++)
+			assertSameEnvironments(createScene());
+	}
+
+	public void testMatchesLinearScanInInstances() {
+		for (int i = 0; i < 20; i++)
+			assertSameEnvironments(createInstance());
+	}
+}
@@ -0,0 +1,167 @@
+package rs117.hd.scene;
+
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+
+import static net.runelite.api.Constants.SCENE_SIZE;
+
+/**
+ * Checks that the breadth-first search which sinks underwater terrain produces exactly the same depth levels as the
+ * iterative deepening it replaced, on planes shaped like the lakes, coastlines and rivers found in the game, and on
+ * random noise.
+ */
+public class ProceduralGeneratorTest extends TestCase {
+	// The number of underwater depth levels, excluding land
+	private static final int DEPTH_LEVELS = 12;
+
+	/**
+	 * The previous implementation, which deepened water vertices surrounded by vertices of the same level, once per
+	 * level.
+	 */
+	static void sinkUnderwaterTerrainIteratively(int[][] depthLevels) {
+		for (int level = 0; level < DEPTH_LEVELS - 1; level++) {
+			for (int x = 0; x < depthLevels.length; x++) {
+				for (int y = 0; y < depthLevels[x].length; y++) {
+					if (depthLevels[x][y] == 0)
+						continue;
+					if (x == 0 || y == 0 || x == SCENE_SIZE || y == SCENE_SIZE) {
+						depthLevels[x][y] = 0;
+						continue;
+					}
+
+					int tileHeight = depthLevels[x][y];
+					if (depthLevels[x - 1][y] < tileHeight)
+						continue;
+					if (x < depthLevels.length - 1 && depthLevels[x + 1][y] < tileHeight)
+						continue;
+					if (depthLevels[x][y - 1] < tileHeight)
+						continue;
+					if (y < depthLevels.length - 1 && depthLevels[x][y + 1] < tileHeight)
+						continue;
+					depthLevels[x][y]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the initial depth levels of a plane the way the underwater terrain generation does, where every vertex
+	 * starts out as water, except along the east edge, and the corners of land tiles are set to land.
+	 */
+	static int[][] depthLevels(boolean[][] tileIsWater) {
+		int[][] depthLevels = new int[SCENE_SIZE + 1][SCENE_SIZE + 1];
+		for (int x = 0; x < SCENE_SIZE; x++)
+			Arrays.fill(depthLevels[x], 1);
+		for (int x = 0; x < SCENE_SIZE; x++) {
+			for (int y = 0; y < SCENE_SIZE; y++) {
+				if (!tileIsWater[x][y]) {
+					depthLevels[x][y] = 0;
+					depthLevels[x + 1][y] = 0;
+					depthLevels[x][y + 1] = 0;
+					depthLevels[x + 1][y + 1] = 0;
+				}
+			}
+		}
+		return depthLevels;
+	}
+
+	static boolean[][] lake(Random random) {
+		double centerX = 20 + random.nextInt(64), centerY = 20 + random.nextInt(64);
+		double radiusX = 8 + random.nextInt(30), radiusY = 8 + random.nextInt(30);
+		boolean[][] water = new boolean[SCENE_SIZE][SCENE_SIZE];
+		for (int x = 0; x < SCENE_SIZE; x++) {
+			for (int y = 0; y < SCENE_SIZE; y++) {
+				double dx = (x - centerX) / radiusX, dy = (y - centerY) / radiusY;
+				water[x][y] = dx * dx + dy * dy + random.nextDouble() * .15 < 1;
+			}
+		}
+		return water;
+	}
+
+	static boolean[][] coastline(Random random) {
+		// Open sea reaching the scene's edges, with a ragged shoreline and a few islands
+		int shore = 30 + random.nextInt(50);
+		boolean eastward = random.nextBoolean();
+		boolean[][] water = new boolean[SCENE_SIZE][SCENE_SIZE];
+		int offset = 0;
+		for (int i = 0; i < SCENE_SIZE; i++) {
+			offset += random.nextInt(3) - 1;
+			for (int j = 0; j < SCENE_SIZE; j++) {
+				if (eastward)
+					water[j][i] = j > shore + offset;
+				else
+					water[i][j] = j > shore + offset;
+			}
+		}
+		for (int island = 0; island < 4; island++) {
+			int x = random.nextInt(SCENE_SIZE), y = random.nextInt(SCENE_SIZE), r = 1 + random.nextInt(5);
+			for (int i = Math.max(0, x - r); i < Math.min(SCENE_SIZE, x + r); i++)
+				for (int j = Math.max(0, y - r); j < Math.min(SCENE_SIZE, y + r); j++)
+					water[i][j] = false;
+		}
+		return water;
+	}
+
+	static boolean[][] river(Random random) {
+		boolean[][] water = new boolean[SCENE_SIZE][SCENE_SIZE];
+		double center = 20 + random.nextInt(64);
+		int width = 2 + random.nextInt(12);
+		for (int y = 0; y < SCENE_SIZE; y++) {
+			center += random.nextGaussian();
+			for (int x = (int) center - width; x <= (int) center + width; x++)
+				if (x >= 0 && x < SCENE_SIZE)
+					water[x][y] = true;
+		}
+		return water;
+	}
+
+	static boolean[][] noise(Random random, double waterChance) {
+		boolean[][] water = new boolean[SCENE_SIZE][SCENE_SIZE];
+		for (boolean[] column : water)
+			for (int y = 0; y < SCENE_SIZE; y++)
+				column[y] = random.nextDouble() < waterChance;
+		return water;
+	}
+
+	private static void assertSameDepthLevels(String plane, int[][] depthLevels) {
+		int[][] expected = new int[depthLevels.length][];
+		int[][] actual = new int[depthLevels.length][];
+		for (int x = 0; x < depthLevels.length; x++) {
+			expected[x] = depthLevels[x].clone();
+			actual[x] = depthLevels[x].clone();
+		}
+		sinkUnderwaterTerrainIteratively(expected);
+		ProceduralGenerator.sinkUnderwaterTerrain(actual);
+		for (int x = 0; x < depthLevels.length; x++)
+			for (int y = 0; y < depthLevels[x].length; y++)
+				assertEquals(plane + " at " + x + ", " + y, expected[x][y], actual[x][y]);
+	}
+
+	public void testMatchesIterativeDeepeningOnWaterScenes() {
+		Random random = new Random(1337);
+		for (int i = 0; i < 50; i++) {
+			assertSameDepthLevels("lake " + i, depthLevels(lake(random)));
+			assertSameDepthLevels("coastline " + i, depthLevels(coastline(random)));
+			assertSameDepthLevels("river " + i, depthLevels(river(random)));
+		}
+		assertSameDepthLevels("open sea", depthLevels(noise(random, 1)));
+		assertSameDepthLevels("dry land", depthLevels(noise(random, 0)));
+	}
+
+	public void testMatchesIterativeDeepeningOnNoise() {
+		Random random = new Random(1337);
+		for (double waterChance : new double[] { .5, .9, .98, .995 }) {
+			for (int i = 0; i < 20; i++) {
+				assertSameDepthLevels("noise " + waterChance, depthLevels(noise(random, waterChance)));
+
+				// Also cover water along the east edge, which the scene's depth levels never start out with
+				int[][] depthLevels = new int[SCENE_SIZE + 1][SCENE_SIZE + 1];
+				for (int[] column : depthLevels)
+					for (int y = 0; y < column.length; y++)
+						column[y] = random.nextDouble() < waterChance ? 1 : 0;
+				assertSameDepthLevels("raw noise " + waterChance, depthLevels);
+			}
+		}
+	}
+}
@@ -0,0 +1,338 @@
+package rs117.hd.scene;
+
+import com.google.inject.Guice;
+import java.lang.reflect.Proxy;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.TestCase;
+import net.runelite.api.Client;
+import net.runelite.api.Constants;
+import net.runelite.api.GameObject;
+import net.runelite.api.Model;
+import net.runelite.api.Point;
+import net.runelite.api.Scene;
+import net.runelite.api.SceneTilePaint;
+import net.runelite.api.Tile;
+import net.runelite.api.coords.LocalPoint;
+import rs117.hd.Fakes;
+import rs117.hd.HdPlugin;
+import rs117.hd.HdPluginConfig;
+import rs117.hd.data.WaterType;
+import rs117.hd.data.materials.Material;
+import rs117.hd.scene.model_overrides.ModelOverride;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static rs117.hd.Fakes.fake;
+
+/**
+ * Uploads generated scenes both serially and in parallel, and checks that both produce identical staging buffers, and
+ * identical offsets on the scene's tiles and models, which are only set once the scene is swapped in.
+ */
+public class SceneUploaderTest extends TestCase {
+	private static final int MODELS = 300;
+
+	private final Random random = new Random(1337);
+	private final HdPlugin plugin;
+	private final SceneUploader sceneUploader;
+
+	public SceneUploaderTest() {
+		plugin = mock(HdPlugin.class);
+		plugin.configGroundBlending = true;
+		plugin.configGroundTextures = true;
+
+		ProceduralGenerator proceduralGenerator = mock(ProceduralGenerator.class);
+		when(proceduralGenerator.tileWaterType(any(), any(), any())).thenAnswer(invocation -> {
+			Tile tile = invocation.getArgument(1);
+			return tile.getPlane() == 0 && tile.getSceneLocation().getX() % 7 == 0 ? WaterType.WATER : WaterType.NONE;
+		});
+
+		ModelOverrideManager modelOverrideManager = mock(ModelOverrideManager.class);
+		when(modelOverrideManager.getOverride(anyLong())).thenReturn(ModelOverride.NONE);
+
+		sceneUploader = Guice.createInjector(binder -> {
+			binder.bind(Client.class).toInstance(mock(Client.class));
+			binder.bind(HdPlugin.class).toInstance(plugin);
+			binder.bind(HdPluginConfig.class).toInstance(mock(HdPluginConfig.class));
+			binder.bind(ProceduralGenerator.class).toInstance(proceduralGenerator);
+			binder.bind(ModelOverrideManager.class).toInstance(modelOverrideManager);
+		}).getInstance(SceneUploader.class);
+	}
+
+	private Model createModel() {
+		int faceCount = 1 + random.nextInt(random.nextInt(10) == 0 ? 3000 : 200);
+		return Fakes.model(random, faceCount, 3 + random.nextInt(faceCount), random.nextBoolean());
+	}
+
+	private GameObject createGameObject(Model model) {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("getHash", random.nextLong());
+		properties.put("getRenderable", model);
+		properties.put("getModelOrientation", random.nextInt(2048));
+		return fake(GameObject.class, properties);
+	}
+
+	private Tile createTile(int plane, int x, int y, Model[] models) {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("getPlane", plane);
+		properties.put("getRenderLevel", plane);
+		properties.put("getSceneLocation", new Point(x, y));
+		properties.put("getLocalLocation", LocalPoint.fromScene(x, y));
+
+		if (random.nextInt(10) != 0) {
+			Map<String, Object> paint = new HashMap<>();
+			// Tiles which aren't supposed to be visible have this color
+			paint.put("getNeColor", random.nextInt(5) == 0 ? 12345678 : random.nextInt(0xFFFF));
+			paint.put("getNwColor", random.nextInt(0xFFFF));
+			paint.put("getSeColor", random.nextInt(0xFFFF));
+			paint.put("getSwColor", random.nextInt(0xFFFF));
+			paint.put("getTexture", random.nextInt(3) == 0 ? random.nextInt(10) : -1);
+			properties.put("getSceneTilePaint", fake(SceneTilePaint.class, paint));
+		}
+
+		// Models are shared between tiles, both nearby and far apart, like the client does for identical objects
+		GameObject[] gameObjects = new GameObject[5];
+		int objectCount = random.nextInt(4) == 0 ? 1 + random.nextInt(gameObjects.length) : 0;
+		for (int i = 0; i < objectCount; i++)
+			gameObjects[i] = createGameObject(models[random.nextInt(models.length)]);
+		properties.put("getGameObjects", gameObjects);
+
+		return fake(Tile.class, properties);
+	}
+
+	private Scene createScene() {
+		Model[] models = new Model[MODELS];
+		for (int i = 0; i < MODELS; i++)
+			models[i] = createModel();
+
+		int[][][] tileHeights = new int[Constants.MAX_Z][Constants.SCENE_SIZE + 1][Constants.SCENE_SIZE + 1];
+		for (int[][] plane : tileHeights)
+			for (int[] column : plane)
+				for (int y = 0; y < column.length; y++)
+					column[y] = -random.nextInt(1000);
+
+		short[][][] overlayIds = new short[Constants.MAX_Z][Constants.SCENE_SIZE][Constants.SCENE_SIZE];
+		short[][][] underlayIds = new short[Constants.MAX_Z][Constants.SCENE_SIZE][Constants.SCENE_SIZE];
+		for (int z = 0; z < Constants.MAX_Z; z++) {
+			for (int x = 0; x < Constants.SCENE_SIZE; x++) {
+				for (int y = 0; y < Constants.SCENE_SIZE; y++) {
+					overlayIds[z][x][y] = (short) random.nextInt(200);
+					underlayIds[z][x][y] = (short) random.nextInt(200);
+				}
+			}
+		}
+
+		Tile[][][] tiles = new Tile[Constants.MAX_Z][Constants.SCENE_SIZE][Constants.SCENE_SIZE];
+		for (int z = 0; z < Constants.MAX_Z; z++) {
+			for (int x = 0; x < Constants.SCENE_SIZE; x++) {
+				for (int y = 0; y < Constants.SCENE_SIZE; y++) {
+					// Upper planes are mostly empty
+					if (z > 0 && random.nextInt(4) != 0)
+						continue;
+					tiles[z][x][y] = createTile(z, x, y, models);
+				}
+			}
+		}
+
+		// Bridges are uploaded before the tile they belong to
+		for (int i = 0; i < 50; i++) {
+			int x = random.nextInt(Constants.SCENE_SIZE);
+			int y = random.nextInt(Constants.SCENE_SIZE);
+			Tile bridge = createTile(1, x, y, models);
+			Tile tile = createTile(0, x, y, models);
+			tiles[0][x][y] = withBridge(tile, bridge);
+		}
+
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("getTiles", tiles);
+		properties.put("getTileHeights", tileHeights);
+		properties.put("getOverlayIds", overlayIds);
+		properties.put("getUnderlayIds", underlayIds);
+		properties.put("getBaseX", 3200);
+		properties.put("getBaseY", 3200);
+		return fake(Scene.class, properties);
+	}
+
+	private static Tile withBridge(Tile tile, Tile bridge) {
+		return (Tile) Proxy.newProxyInstance(
+			Tile.class.getClassLoader(),
+			new Class<?>[] { Tile.class },
+			(proxy, method, args) -> {
+				if (method.getName().equals("getBridge"))
+					return bridge;
+				return method.invoke(tile, args);
+			}
+		);
+	}
+
+	private SceneContext createSceneContext(Scene scene, SceneContext terrain) {
+		SceneContext sceneContext = new SceneContext(scene, null);
+		if (terrain != null) {
+			sceneContext.terrainSnapshot = terrain.terrainSnapshot;
+			sceneContext.terrainVertices = terrain.terrainVertices;
+			sceneContext.overlays = terrain.overlays;
+			sceneContext.underlays = terrain.underlays;
+			sceneContext.tileIsWater = terrain.tileIsWater;
+			sceneContext.skipTile = terrain.skipTile;
+			sceneContext.underwaterDepthLevels = terrain.underwaterDepthLevels;
+			return sceneContext;
+		}
+
+		// Fill in terrain data for some of the scene's vertices, the way the procedural generator would
+		sceneContext.terrainSnapshot = new TerrainSnapshot(scene);
+		ProceduralGenerator.resolveTileOverrides(sceneContext, plugin);
+		sceneContext.terrainVertices = new TerrainVertexStore();
+		TerrainVertexStore terrainVertices = sceneContext.terrainVertices;
+		sceneContext.tileIsWater = new boolean[Constants.MAX_Z][Constants.SCENE_SIZE][Constants.SCENE_SIZE];
+		sceneContext.skipTile = new boolean[Constants.MAX_Z][Constants.SCENE_SIZE][Constants.SCENE_SIZE];
+		sceneContext.underwaterDepthLevels = new int[Constants.MAX_Z][Constants.SCENE_SIZE + 1][Constants.SCENE_SIZE + 1];
+		Tile[][][] tiles = scene.getTiles();
+		for (int x = 0; x < Constants.SCENE_SIZE; x++) {
+			for (int y = 0; y < Constants.SCENE_SIZE; y++) {
+				Tile tile = tiles[0][x][y];
+				if (tile == null)
+					continue;
+				sceneContext.tileIsWater[0][x][y] = x % 7 == 0;
+				for (int vertexKey : ProceduralGenerator.addTileVertexKeys(sceneContext, tile)) {
+					if (random.nextBoolean())
+						terrainVertices.setColor(vertexKey, random.nextInt(0xFFFF));
+					if (random.nextInt(4) == 0)
+						terrainVertices.setMaterial(vertexKey, Material.values()[random.nextInt(Material.values().length)]);
+					if (random.nextBoolean())
+						terrainVertices.addNormals(vertexKey, new float[] { random.nextFloat(), -1, random.nextFloat() });
+					if (x % 7 == 0) {
+						terrainVertices.setWater(vertexKey);
+						terrainVertices.setUnderwaterDepth(vertexKey, random.nextInt(500));
+					} else {
+						terrainVertices.setLand(vertexKey);
+					}
+					if (random.nextBoolean())
+						terrainVertices.setOverlay(vertexKey);
+					if (random.nextBoolean())
+						terrainVertices.setUnderlay(vertexKey);
+				}
+			}
+		}
+		return sceneContext;
+	}
+
+	/**
+	 * Collects the offsets and lengths set on the scene's tiles and models, in upload order.
+	 */
+	private static List<Integer> collectOffsets(Scene scene) {
+		List<Integer> offsets = new ArrayList<>();
+		for (Tile[][] plane : scene.getTiles()) {
+			for (Tile[] column : plane) {
+				for (Tile tile : column) {
+					if (tile == null)
+						continue;
+					if (tile.getBridge() != null)
+						collectOffsets(tile.getBridge(), offsets);
+					collectOffsets(tile, offsets);
+				}
+			}
+		}
+		return offsets;
+	}
+
+	private static void collectOffsets(Tile tile, List<Integer> offsets) {
+		SceneTilePaint paint = tile.getSceneTilePaint();
+		if (paint != null) {
+			offsets.add(paint.getBufferOffset());
+			offsets.add(paint.getUvBufferOffset());
+			offsets.add(paint.getBufferLen());
+		}
+		for (GameObject gameObject : tile.getGameObjects()) {
+			if (gameObject == null)
+				continue;
+			Model model = (Model) gameObject.getRenderable();
+			offsets.add(model.getBufferOffset());
+			offsets.add(model.getUvBufferOffset());
+		}
+	}
+
+	private static void assertSameContents(IntBuffer expected, IntBuffer actual, int length) {
+		for (int i = 0; i < length; i++)
+			if (expected.get(i) != actual.get(i))
+				fail("mismatch at " + i + ": " + expected.get(i) + " != " + actual.get(i));
+	}
+
+	private static void assertSameContents(FloatBuffer expected, FloatBuffer actual, int length) {
+		for (int i = 0; i < length; i++)
+			// Compare the bits, so NaNs compare equal
+			if (Float.floatToRawIntBits(expected.get(i)) != Float.floatToRawIntBits(actual.get(i)))
+				fail("mismatch at " + i + ": " + expected.get(i) + " != " + actual.get(i));
+	}
+
+	public void testParallelUploadMatchesSerialUpload() {
+		for (int i = 0; i < 3; i++) {
+			Scene scene = createScene();
+			SceneContext serial = createSceneContext(scene, null);
+			SceneContext parallel = createSceneContext(scene, serial);
+			try {
+				long start = System.nanoTime();
+				sceneUploader.uploadSerially(serial);
+				long serialTime = System.nanoTime() - start;
+				serial.bufferOffsets.apply(serial.id);
+				List<Integer> serialOffsets = collectOffsets(scene);
+
+				start = System.nanoTime();
+				sceneUploader.uploadInParallel(parallel);
+				long parallelTime = System.nanoTime() - start;
+				parallel.bufferOffsets.apply(parallel.id);
+				List<Integer> parallelOffsets = collectOffsets(scene);
+
+				System.out.printf("Uploaded %d vertices serially in %.1f ms, and in parallel in %.1f ms%n",
+					serial.getVertexOffset(), serialTime / 1e6, parallelTime / 1e6);
+
+				assertEquals(serial.stagingBufferVertices.position(), parallel.stagingBufferVertices.position());
+				assertEquals(serial.stagingBufferUvs.position(), parallel.stagingBufferUvs.position());
+				assertEquals(serial.stagingBufferNormals.position(), parallel.stagingBufferNormals.position());
+				assertSameContents(serial.stagingBufferVertices.getBuffer(), parallel.stagingBufferVertices.getBuffer(),
+					serial.stagingBufferVertices.position());
+				assertSameContents(serial.stagingBufferUvs.getBuffer(), parallel.stagingBufferUvs.getBuffer(),
+					serial.stagingBufferUvs.position());
+				assertSameContents(serial.stagingBufferNormals.getBuffer(), parallel.stagingBufferNormals.getBuffer(),
+					serial.stagingBufferNormals.position());
+				assertEquals(serialOffsets, parallelOffsets);
+			} finally {
+				serial.destroy();
+				parallel.destroy();
+			}
+		}
+		sceneUploader.shutDown();
+	}
+
+	public void testUploadLeavesSceneUntouchedUntilSwappedIn() {
+		Scene scene = createScene();
+		SceneContext sceneContext = createSceneContext(scene, null);
+		try {
+			// The previous scene is still being drawn from the tiles and models while the next one is prepared
+			List<Integer> before = collectOffsets(scene);
+			sceneUploader.uploadInParallel(sceneContext);
+			assertEquals(before, collectOffsets(scene));
+			assertTrue(sceneContext.bufferOffsets.size() > 0);
+
+			sceneContext.bufferOffsets.apply(sceneContext.id);
+			assertEquals(0, sceneContext.bufferOffsets.size());
+			assertFalse(before.equals(collectOffsets(scene)));
+			for (Tile[][] plane : scene.getTiles())
+				for (Tile[] column : plane)
+					for (Tile tile : column)
+						if (tile != null)
+							for (GameObject gameObject : tile.getGameObjects())
+								if (gameObject != null)
+									assertEquals(sceneContext.id, ((Model) gameObject.getRenderable()).getSceneId());
+		} finally {
+			sceneContext.destroy();
+		}
+		sceneUploader.shutDown();
+	}
+}
@@ -0,0 +1,187 @@
+package rs117.hd.scene;
+
+import com.google.inject.Guice;
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.TestCase;
+import net.runelite.api.Point;
+import net.runelite.api.Scene;
+import net.runelite.api.SceneTilePaint;
+import net.runelite.api.Tile;
+import net.runelite.api.coords.LocalPoint;
+import rs117.hd.HdPlugin;
+
+import static net.runelite.api.Constants.MAX_Z;
+import static net.runelite.api.Constants.REGION_SIZE;
+import static net.runelite.api.Constants.SCENE_SIZE;
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+import static org.mockito.Mockito.mock;
+import static rs117.hd.Fakes.fake;
+
+/**
+ * Generates the terrain data of a scene shifted by a region from a previous scene, reusing the previous scene's terrain
+ * data where the tiles are unchanged, and checks that it's identical to the terrain data generated from scratch.
+ */
+public class TerrainDataReuseTest extends TestCase {
+	private static final int BASE_X = 3200;
+	private static final int BASE_Y = 3200;
+
+	private final ProceduralGenerator proceduralGenerator;
+
+	public TerrainDataReuseTest() {
+		HdPlugin plugin = mock(HdPlugin.class);
+		plugin.configGroundBlending = true;
+		plugin.configGroundTextures = true;
+
+		// The terrain cache is disabled, since the mock doesn't enable it
+		proceduralGenerator = Guice.createInjector(binder -> {
+			binder.bind(HdPlugin.class).toInstance(plugin);
+			binder.bind(TerrainCache.class).toInstance(mock(TerrainCache.class));
+		}).getInstance(ProceduralGenerator.class);
+	}
+
+	/**
+	 * Hashes a position in the world, so overlapping scenes see the same terrain at the same world positions.
+	 */
+	private static int noise(int plane, int worldX, int worldY, int salt) {
+		long hash = ((plane * 31L + worldX) * 31L + worldY) * 31L + salt;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return (int) hash & 0x7FFFFFFF;
+	}
+
+	private static Tile createTile(int plane, int x, int y, int worldX, int worldY) {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("getPlane", plane);
+		properties.put("getRenderLevel", plane);
+		properties.put("getSceneLocation", new Point(x, y));
+		properties.put("getLocalLocation", LocalPoint.fromScene(x, y));
+
+		if (noise(plane, worldX, worldY, 1) % 10 != 0) {
+			Map<String, Object> paint = new HashMap<>();
+			// Tiles which aren't supposed to be visible have this color
+			paint.put("getNeColor", noise(plane, worldX, worldY, 2) % 5 == 0 ? 12345678 : noise(plane, worldX, worldY, 3) % 0xFFFF);
+			paint.put("getNwColor", noise(plane, worldX, worldY, 4) % 0xFFFF);
+			paint.put("getSeColor", noise(plane, worldX, worldY, 5) % 0xFFFF);
+			paint.put("getSwColor", noise(plane, worldX, worldY, 6) % 0xFFFF);
+			paint.put("getTexture", noise(plane, worldX, worldY, 7) % 3 == 0 ? noise(plane, worldX, worldY, 8) % 10 : -1);
+			properties.put("getSceneTilePaint", fake(SceneTilePaint.class, paint));
+		}
+
+		return fake(Tile.class, properties);
+	}
+
+	/**
+	 * Creates a scene with new tiles, like the client does whenever it loads a map, whose terrain is determined by
+	 * each tile's world position.
+	 */
+	private static Scene createScene(int baseX, int baseY) {
+		int[][][] tileHeights = new int[MAX_Z][SCENE_SIZE + 1][SCENE_SIZE + 1];
+		for (int z = 0; z < MAX_Z; z++)
+			for (int x = 0; x <= SCENE_SIZE; x++)
+				for (int y = 0; y <= SCENE_SIZE; y++)
+					tileHeights[z][x][y] = -z * 240 - noise(z, baseX + x, baseY + y, 9) % 400;
+
+		short[][][] overlayIds = new short[MAX_Z][SCENE_SIZE][SCENE_SIZE];
+		short[][][] underlayIds = new short[MAX_Z][SCENE_SIZE][SCENE_SIZE];
+		Tile[][][] tiles = new Tile[MAX_Z][SCENE_SIZE][SCENE_SIZE];
+		for (int z = 0; z < MAX_Z; z++) {
+			for (int x = 0; x < SCENE_SIZE; x++) {
+				for (int y = 0; y < SCENE_SIZE; y++) {
+					int worldX = baseX + x;
+					int worldY = baseY + y;
+					overlayIds[z][x][y] = (short) (noise(z, worldX, worldY, 10) % 3 == 0 ? noise(z, worldX, worldY, 11) % 200 : 0);
+					underlayIds[z][x][y] = (short) (noise(z, worldX, worldY, 12) % 200);
+					// Upper planes are mostly empty
+					if (z > 0 && noise(z, worldX, worldY, 13) % 4 != 0)
+						continue;
+					tiles[z][x][y] = createTile(z, x, y, worldX, worldY);
+				}
+			}
+		}
+
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("getTiles", tiles);
+		properties.put("getTileHeights", tileHeights);
+		properties.put("getOverlayIds", overlayIds);
+		properties.put("getUnderlayIds", underlayIds);
+		properties.put("getBaseX", baseX);
+		properties.put("getBaseY", baseY);
+		return fake(Scene.class, properties);
+	}
+
+	private SceneContext generate(Scene scene, SceneContext previousSceneContext) {
+		SceneContext sceneContext = new SceneContext(scene, null);
+		sceneContext.terrainSnapshot = new TerrainSnapshot(scene);
+		proceduralGenerator.generateSceneData(sceneContext, previousSceneContext);
+		return sceneContext;
+	}
+
+	public void testShiftedSceneMatchesFullGeneration() {
+		assertShiftedSceneMatchesFullGeneration(REGION_SIZE, 0);
+		assertShiftedSceneMatchesFullGeneration(0, -REGION_SIZE);
+		assertShiftedSceneMatchesFullGeneration(REGION_SIZE, REGION_SIZE);
+	}
+
+	private void assertShiftedSceneMatchesFullGeneration(int offsetX, int offsetY) {
+		SceneContext previous = generate(createScene(BASE_X, BASE_Y), null);
+		Scene scene = createScene(BASE_X + offsetX, BASE_Y + offsetY);
+		SceneContext reused = generate(scene, previous);
+		SceneContext generated = generate(scene, null);
+		try {
+			String shift = "shifted by " + offsetX + ", " + offsetY;
+			for (int z = 0; z < MAX_Z; z++) {
+				for (int x = 0; x < SCENE_SIZE; x++) {
+					for (int y = 0; y < SCENE_SIZE; y++) {
+						assertEquals(shift + ": overlay at " + x + ", " + y, generated.overlays[z][x][y], reused.overlays[z][x][y]);
+						assertEquals(shift + ": underlay at " + x + ", " + y, generated.underlays[z][x][y], reused.underlays[z][x][y]);
+					}
+				}
+
+				int[][] heights = generated.terrainSnapshot.tileHeights[z];
+				for (int x = 0; x <= SCENE_SIZE; x++) {
+					for (int y = 0; y <= SCENE_SIZE; y++) {
+						String position = shift + ": vertex at " + z + ", " + x + ", " + y;
+						int localX = x * LOCAL_TILE_SIZE;
+						int localY = y * LOCAL_TILE_SIZE;
+						int expected = generated.terrainVertices.getVertex(localX, localY, heights[x][y]);
+						int actual = reused.terrainVertices.getVertex(localX, localY, heights[x][y]);
+						assertSameVertex(position, generated.terrainVertices, expected, reused.terrainVertices, actual);
+					}
+				}
+			}
+		} finally {
+			previous.destroy();
+			reused.destroy();
+			generated.destroy();
+		}
+	}
+
+	private static void assertSameVertex(
+		String position,
+		TerrainVertexStore expectedStore,
+		int expected,
+		TerrainVertexStore actualStore,
+		int actual
+	) {
+		assertEquals(position, expected == TerrainVertexStore.NONE, actual == TerrainVertexStore.NONE);
+		assertEquals(position + " color", expectedStore.getColor(expected, -1), actualStore.getColor(actual, -1));
+		assertEquals(position + " priority", expectedStore.isHighPriorityColor(expected), actualStore.isHighPriorityColor(actual));
+		assertEquals(position + " material", expectedStore.getMaterial(expected, null), actualStore.getMaterial(actual, null));
+		assertEquals(position + " water", expectedStore.isWater(expected), actualStore.isWater(actual));
+		assertEquals(position + " land", expectedStore.isLand(expected), actualStore.isLand(actual));
+		assertEquals(position + " overlay", expectedStore.isOverlay(expected), actualStore.isOverlay(actual));
+		assertEquals(position + " underlay", expectedStore.isUnderlay(expected), actualStore.isUnderlay(actual));
+		assertEquals(position + " depth", expectedStore.getUnderwaterDepth(expected), actualStore.getUnderwaterDepth(actual));
+
+		float[] expectedNormals = expectedStore.getNormals(expected, null);
+		float[] actualNormals = actualStore.getNormals(actual, null);
+		assertEquals(position + " normals", expectedNormals == null, actualNormals == null);
+		if (expectedNormals != null)
+			for (int i = 0; i < 3; i++)
+				assertEquals(position + " normals", expectedNormals[i], actualNormals[i], 1e-4f);
+	}
+}
@@ -0,0 +1,166 @@
+package rs117.hd.scene;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import junit.framework.TestCase;
+import rs117.hd.data.materials.Material;
+
+import static net.runelite.api.Constants.MAX_Z;
+import static net.runelite.api.Constants.SCENE_SIZE;
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+
+/**
+ * Checks that every distinct vertex position gets its own key, both on the tile grid and off it, and that the data
+ * stored for each vertex stays with it while the store grows.
+ */
+public class TerrainVertexStoreTest extends TestCase {
+	private final Random random = new Random(1337);
+
+	public void testDistinctPositionsGetDistinctKeys() {
+		TerrainVertexStore store = new TerrainVertexStore();
+		Map<String, Integer> keys = new HashMap<>();
+		Set<Integer> usedKeys = new HashSet<>();
+		for (int i = 0; i < 200000; i++) {
+			int x, y;
+			if (random.nextBoolean()) {
+				x = random.nextInt(SCENE_SIZE + 1) * LOCAL_TILE_SIZE;
+				y = random.nextInt(SCENE_SIZE + 1) * LOCAL_TILE_SIZE;
+			} else {
+				x = random.nextInt(SCENE_SIZE * LOCAL_TILE_SIZE);
+				y = random.nextInt(SCENE_SIZE * LOCAL_TILE_SIZE);
+			}
+			// Few distinct heights, so grid points run out of layers and spill into the side table
+			int height = -random.nextInt(MAX_Z + 3) * 240;
+			String position = x + "," + y + "," + height;
+
+			Integer expected = keys.get(position);
+			int key = store.getVertex(x, y, height);
+			if (expected == null) {
+				assertEquals(TerrainVertexStore.NONE, key);
+				key = store.addVertex(x, y, height);
+				assertTrue("key reused for " + position, usedKeys.add(key));
+				keys.put(position, key);
+				store.setColor(key, position.hashCode() & 0xFFFF);
+				store.setUnderwaterDepth(key, height);
+			} else {
+				assertEquals(position, (long) expected, key);
+				assertEquals(position, (long) expected, store.addVertex(x, y, height));
+			}
+		}
+
+		assertEquals(keys.size(), store.size());
+		for (Map.Entry<String, Integer> entry : keys.entrySet()) {
+			int key = entry.getValue();
+			assertEquals(entry.getKey().hashCode() & 0xFFFF, store.getColor(key, -1));
+			assertEquals(Integer.parseInt(entry.getKey().split(",")[2]), store.getUnderwaterDepth(key));
+		}
+		System.out.printf("%d vertices in %d KiB%n", store.size(), store.sizeInBytes() / 1024);
+	}
+
+	public void testMissingDataFallsBackToDefaults() {
+		TerrainVertexStore store = new TerrainVertexStore();
+		float[] up = { 0, -1, 0 };
+		int vertex = store.addVertex(LOCAL_TILE_SIZE, LOCAL_TILE_SIZE * 2, -100);
+
+		for (int key : new int[] { TerrainVertexStore.NONE, vertex }) {
+			assertFalse(store.hasColor(key));
+			assertEquals(123, store.getColor(key, 123));
+			assertSame(Material.NONE, store.getMaterial(key, Material.NONE));
+			assertSame(up, store.getNormals(key, up));
+			assertEquals(0, store.getUnderwaterDepth(key));
+			assertFalse(store.isWater(key));
+			assertFalse(store.isLand(key));
+			assertFalse(store.isOverlay(key));
+			assertFalse(store.isUnderlay(key));
+			assertFalse(store.isHighPriorityColor(key));
+		}
+
+		store.addNormals(vertex, new float[] { 1, -1, 0 });
+		store.addNormals(vertex, new float[] { 0, -1, 2 });
+		float[] normals = store.getNormals(vertex, up);
+		assertEquals(1, normals[0], 0);
+		assertEquals(-2, normals[1], 0);
+		assertEquals(2, normals[2], 0);
+
+		store.setWater(vertex);
+		store.setOverlay(vertex);
+		assertTrue(store.isWater(vertex));
+		assertTrue(store.isOverlay(vertex));
+		assertFalse(store.isLand(vertex));
+		assertFalse(store.isUnderlay(vertex));
+	}
+
+	public void testSerializedStoreKeepsKeysAndData() throws IOException {
+		TerrainVertexStore store = new TerrainVertexStore();
+		Map<String, Integer> keys = new HashMap<>();
+		for (int i = 0; i < 50000; i++) {
+			int x = random.nextBoolean() ? random.nextInt(SCENE_SIZE + 1) * LOCAL_TILE_SIZE : random.nextInt(SCENE_SIZE * LOCAL_TILE_SIZE);
+			int y = random.nextBoolean() ? random.nextInt(SCENE_SIZE + 1) * LOCAL_TILE_SIZE : random.nextInt(SCENE_SIZE * LOCAL_TILE_SIZE);
+			int height = -random.nextInt(MAX_Z + 3) * 240;
+			int key = store.addVertex(x, y, height);
+			keys.put(x + "," + y + "," + height, key);
+			store.setColor(key, key * 31);
+			store.setMaterial(key, Material.values()[key % Material.values().length]);
+			store.addNormals(key, new float[] { key, -1, 0.5f });
+			store.setUnderwaterDepth(key, key % 7);
+			if (key % 3 == 0)
+				store.setWater(key);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(store.serializedSize());
+		store.write(buffer);
+		assertFalse(buffer.hasRemaining());
+		buffer.flip();
+		TerrainVertexStore copy = TerrainVertexStore.read(buffer);
+		assertFalse(buffer.hasRemaining());
+
+		assertEquals(store.size(), copy.size());
+		for (Map.Entry<String, Integer> entry : keys.entrySet()) {
+			String[] position = entry.getKey().split(",");
+			int key = entry.getValue();
+			assertEquals(entry.getKey(), (long) key, copy.getVertex(
+				Integer.parseInt(position[0]), Integer.parseInt(position[1]), Integer.parseInt(position[2])));
+			assertEquals(key * 31, copy.getColor(key, -1));
+			assertSame(store.getMaterial(key, null), copy.getMaterial(key, null));
+			// Positions which were picked more than once have accumulated their normals more than once
+			assertEquals(store.getNormals(key, null)[0], copy.getNormals(key, null)[0], 0);
+			assertEquals(key % 7, copy.getUnderwaterDepth(key));
+			assertEquals(key % 3 == 0, copy.isWater(key));
+		}
+		System.out.printf("%d vertices serialized to %d KiB%n", store.size(), store.serializedSize() / 1024);
+	}
+
+	public void testCopyTerrainDataKeepsWaterData() {
+		TerrainVertexStore previous = new TerrainVertexStore();
+		int source = previous.addVertex(0, 0, -240);
+		previous.setColor(source, 0x1234);
+		previous.setHighPriorityColor(source);
+		previous.setMaterial(source, Material.NONE);
+		previous.addNormals(source, new float[] { 1, 2, 3 });
+		previous.setOverlay(source);
+		previous.setWater(source);
+		previous.setUnderwaterDepth(source, 512);
+
+		TerrainVertexStore store = new TerrainVertexStore();
+		int vertex = store.addVertex(LOCAL_TILE_SIZE, 0, -240);
+		store.setUnderlay(vertex);
+		store.setLand(vertex);
+		store.setUnderwaterDepth(vertex, 64);
+		store.copyTerrainData(vertex, previous, source);
+
+		assertEquals(0x1234, store.getColor(vertex, -1));
+		assertTrue(store.isHighPriorityColor(vertex));
+		assertSame(Material.NONE, store.getMaterial(vertex, null));
+		assertEquals(3, store.getNormals(vertex, null)[2], 0);
+		assertTrue(store.isOverlay(vertex));
+		assertFalse(store.isUnderlay(vertex));
+		assertFalse(store.isWater(vertex));
+		assertTrue(store.isLand(vertex));
+		assertEquals(64, store.getUnderwaterDepth(vertex));
+	}
+}
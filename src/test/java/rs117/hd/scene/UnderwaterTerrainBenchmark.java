@@ -0,0 +1,95 @@
+package rs117.hd.scene;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static net.runelite.api.Constants.MAX_Z;
+
+/**
+ * Measures sinking the underwater terrain of every plane of a scene, which is the part of the underwater terrain
+ * generation logged by {@link ProceduralGenerator#generateSceneData} that depends on how much water there is, compared
+ * to the iterative deepening it replaced. Run it with {@code ./gradlew jmh}, or through {@link #main}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UnderwaterTerrainBenchmark {
+	@Param({ "lake", "coastline", "river", "sea" })
+	public String scene;
+
+	private int[][][] initialDepthLevels;
+	private int[][][] depthLevels;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(1337);
+		initialDepthLevels = new int[MAX_Z][][];
+		for (int z = 0; z < MAX_Z; z++) {
+			boolean[][] water;
+			switch (scene) {
+				case "lake":
+					water = ProceduralGeneratorTest.lake(random);
+					break;
+				case "coastline":
+					water = ProceduralGeneratorTest.coastline(random);
+					break;
+				case "river":
+					water = ProceduralGeneratorTest.river(random);
+					break;
+				default:
+					water = ProceduralGeneratorTest.noise(random, 1);
+					break;
+			}
+			// Upper planes are mostly empty
+			initialDepthLevels[z] = ProceduralGeneratorTest.depthLevels(z == 0 ? water : ProceduralGeneratorTest.noise(random, 0));
+		}
+
+		depthLevels = new int[MAX_Z][initialDepthLevels[0].length][];
+	}
+
+	private void reset() {
+		for (int z = 0; z < MAX_Z; z++)
+			for (int x = 0; x < depthLevels[z].length; x++)
+				depthLevels[z][x] = initialDepthLevels[z][x].clone();
+	}
+
+	@Benchmark
+	public int[][][] breadthFirstSearch() {
+		reset();
+		for (int[][] plane : depthLevels)
+			ProceduralGenerator.sinkUnderwaterTerrain(plane);
+		return depthLevels;
+	}
+
+	@Benchmark
+	public int[][][] iterativeDeepening() {
+		reset();
+		for (int[][] plane : depthLevels)
+			ProceduralGeneratorTest.sinkUnderwaterTerrainIteratively(plane);
+		return depthLevels;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(UnderwaterTerrainBenchmark.class.getSimpleName())
+			.build())
+			.run();
+	}
+}